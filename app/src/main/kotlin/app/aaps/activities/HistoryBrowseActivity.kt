@@ -17,11 +17,11 @@ import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.AapsSchedulers
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAutosensCalculationFinished
+import app.aaps.core.interfaces.rx.events.EventCalculationCompleted
 import app.aaps.core.interfaces.rx.events.EventCustomCalculationFinished
 import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.rx.events.EventRefreshOverview
 import app.aaps.core.interfaces.rx.events.EventScale
-import app.aaps.core.interfaces.rx.events.EventUpdateOverviewGraph
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
@@ -183,9 +183,10 @@ class HistoryBrowseActivity : TranslatedDaggerAppCompatActivity() {
             .observeOn(aapsSchedulers.main)
             .subscribe({ updateCalcProgress(it.finalPercent) }, fabricPrivacy::logException)
         disposable += rxBus
-            .toObservable(EventUpdateOverviewGraph::class.java)
+            .toObservable(EventCalculationCompleted::class.java)
+            .filter { it.job != CalculationWorkflow.MAIN_CALCULATION }
             .observeOn(aapsSchedulers.main)
-            .subscribe({ updateGUI("EventRefreshOverview") }, fabricPrivacy::logException)
+            .subscribe({ updateGUI("EventCalculationCompleted") }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventRefreshOverview::class.java)
             .observeOn(aapsSchedulers.main)
@@ -13,6 +13,9 @@ android {
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
         //testInstrumentationRunnerArguments["androidx.benchmark.suppressErrors"] = "EMULATOR"
+        // Micro benchmarks run in this self-instrumenting debuggable apk.
+        // Use their results to compare implementations measured in the same run, not as absolute numbers
+        testInstrumentationRunnerArguments["androidx.benchmark.suppressErrors"] = "DEBUGGABLE"
     }
 
     buildTypes {
@@ -48,6 +51,26 @@ dependencies {
     implementation(libs.androidx.espresso.core)
     implementation(libs.androidx.uiautomator)
     implementation(libs.androidx.benchmark.macro.junit4)
+    implementation(libs.androidx.benchmark.junit4)
+    implementation(libs.org.mockito.android)
+    implementation(libs.org.mockito.kotlin)
+
+    // Modules measured by micro benchmarks
+    implementation(project(":core:data"))
+    implementation(project(":core:interfaces"))
+    implementation(project(":core:keys"))
+    implementation(project(":core:utils"))
+    implementation(project(":plugins:aps"))
+    implementation(project(":plugins:insulin"))
+    implementation(project(":plugins:main"))
+    implementation(project(":pump:combov2:comboctl"))
+    implementation(project(":pump:equil"))
+    implementation(project(":pump:common"))
+    implementation(project(":pump:insight"))
+    implementation(project(":pump:medtronic"))
+    implementation(project(":pump:medtrum"))
+    implementation(project(":pump:omnipod:dash"))
+    implementation(project(":pump:rileylink"))
 }
 
 androidComponents {
@@ -0,0 +1,69 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.core.data.model.BS
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.logging.LoggerUtils
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.plugins.aps.autotune.AutotuneFS
+import app.aaps.plugins.aps.autotune.AutotuneIob
+import app.aaps.plugins.aps.autotune.data.LocalInsulin
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.mock
+import kotlin.random.Random
+
+/**
+ * Autotune IOB of one day of 5 min BG times over 30 days of TBR converted to boluses,
+ * meal boluses and SMBs: parallel batch against one call per time
+ */
+@RunWith(AndroidJUnit4::class)
+class AutotuneIobBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val start = 1_700_000_000_000L
+    private val step = 5 * 60_000L
+    private val days = 30
+    private val localInsulin = LocalInsulin("Benchmark", 75, 6.0)
+
+    private val autotuneIob = AutotuneIob(
+        BenchmarkLogger(), mock<PersistenceLayer>(), mock<ProfileFunction>(), mock<Preferences>(), mock<DateUtil>(),
+        AutotuneFS(mock<ResourceHelper>(), mock<LoggerUtils>())
+    ).also { iob ->
+        val random = Random(46)
+        val list = ArrayList<BS>()
+        for (i in 0 until days * 288) {
+            val timestamp = start + i * step
+            list.add(BS(timestamp = timestamp, amount = random.nextDouble(-0.05, 0.1), type = BS.Type.NORMAL))
+            if (i % 96 == 40) list.add(BS(timestamp = timestamp + 1000, amount = random.nextDouble(2.0, 8.0), type = BS.Type.NORMAL))
+            if (i % 7 == 0) list.add(BS(timestamp = timestamp + 2000, amount = 0.2, type = BS.Type.SMB))
+        }
+        iob.boluses = ArrayList(list.sortedByDescending { it.timestamp })
+    }
+
+    // last day, as tuned by default
+    private val times = LongArray(288) { start + (days - 1) * 288 * step + it * step + 30_000 }
+
+    @Test
+    fun oneDayBatch() {
+        benchmarkRule.measureRepeated {
+            assertEquals(times.size, autotuneIob.getIOB(times, localInsulin).size)
+        }
+    }
+
+    @Test
+    fun oneDayPerTime() {
+        benchmarkRule.measureRepeated {
+            times.forEach { autotuneIob.getIOB(it, localInsulin) }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package app.aaps.benchmark
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+
+/**
+ * Logger dropping all messages, so logging doesn't distort measured code
+ * Lazy messages are not evaluated as with disabled tag in production
+ */
+class BenchmarkLogger : AAPSLogger {
+
+    override fun debug(message: String) {}
+    override fun debug(enable: Boolean, tag: LTag, message: String) {}
+    override fun debug(tag: LTag, message: String) {}
+    override fun debug(tag: LTag, accessor: () -> String) {}
+    override fun debug(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun warn(tag: LTag, message: String) {}
+    override fun warn(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun info(tag: LTag, message: String) {}
+    override fun info(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun error(tag: LTag, message: String) {}
+    override fun error(tag: LTag, message: String, throwable: Throwable) {}
+    override fun error(tag: LTag, format: String, vararg arguments: Any?) {}
+    override fun error(message: String) {}
+    override fun error(message: String, throwable: Throwable) {}
+    override fun error(format: String, vararg arguments: Any?) {}
+    override fun debug(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+    override fun info(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+    override fun warn(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+    override fun error(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {}
+}
@@ -0,0 +1,75 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import info.nightscout.comboctl.base.CIPHER_BLOCK_SIZE
+import info.nightscout.comboctl.base.CIPHER_KEY_SIZE
+import info.nightscout.comboctl.base.Cipher
+import info.nightscout.comboctl.base.ComboFrameParser
+import info.nightscout.comboctl.base.NUM_NONCE_BYTES
+import info.nightscout.comboctl.base.Nonce
+import info.nightscout.comboctl.base.TransportLayer
+import info.nightscout.comboctl.base.calculateCRC16MCRF4XX
+import info.nightscout.comboctl.base.toComboFrame
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Combo transport layer byte path: CRC, Twofish and framing of packets
+ * with payload size similar to RT display frames and history blocks
+ */
+@RunWith(AndroidJUnit4::class)
+class ComboFramingBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val cipher = Cipher(ByteArray(CIPHER_KEY_SIZE) { it.toByte() })
+    private val data = Random(7).nextBytes(1024)
+    private val dataList = data.asList()
+
+    private val packet = TransportLayer.Packet(
+        command = TransportLayer.Command.DATA,
+        sequenceBit = true,
+        reliabilityBit = true,
+        address = 0x10,
+        nonce = Nonce(List(NUM_NONCE_BYTES) { it.toByte() }),
+        payload = ArrayList(Random(42).nextBytes(110).asList())
+    ).apply { authenticate(cipher) }
+
+    @Test
+    fun crcByteArray() {
+        benchmarkRule.measureRepeated { calculateCRC16MCRF4XX(data) }
+    }
+
+    @Test
+    fun crcByteList() {
+        benchmarkRule.measureRepeated { calculateCRC16MCRF4XX(dataList) }
+    }
+
+    @Test
+    fun twofishInPlace() {
+        val block = data.copyOf(CIPHER_BLOCK_SIZE)
+        benchmarkRule.measureRepeated { cipher.encrypt(block, 0, block, 0) }
+    }
+
+    @Test
+    fun twofishAllocating() {
+        val block = data.copyOf(CIPHER_BLOCK_SIZE)
+        benchmarkRule.measureRepeated { cipher.encrypt(block) }
+    }
+
+    @Test
+    fun framingRoundTrip() {
+        val parser = ComboFrameParser()
+        benchmarkRule.measureRepeated {
+            parser.pushData(packet.toByteList().toComboFrame())
+            val parsed = TransportLayer.Packet(parser.parseFrame()!!)
+            assertTrue(parsed.verifyAuthentication(cipher))
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.pump.omnipod.dash.driver.comm.Id
+import app.aaps.pump.omnipod.dash.driver.comm.endecrypt.AesCCM
+import app.aaps.pump.omnipod.dash.driver.comm.endecrypt.EnDecrypt
+import app.aaps.pump.omnipod.dash.driver.comm.endecrypt.Nonce
+import app.aaps.pump.omnipod.dash.driver.comm.message.MessagePacket
+import app.aaps.pump.omnipod.dash.driver.comm.message.MessageType
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Omnipod Dash message encryption: AES-CCM of one session with payload sizes
+ * similar to commands and status responses
+ */
+@RunWith(AndroidJUnit4::class)
+class DashEnDecryptBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val random = Random(38)
+    private val ck = random.nextBytes(16)
+    private val prefix = random.nextBytes(8)
+    private val payloads = List(50) { random.nextBytes(random.nextInt(0, 100)) }
+    private val aapsLogger = BenchmarkLogger()
+
+    private fun message(payload: ByteArray, sequence: Int) = MessagePacket(
+        type = MessageType.ENCRYPTED,
+        source = Id(byteArrayOf(0x17, 0x0a, 0x3c, 0x48)),
+        destination = Id(byteArrayOf(0x17, 0x0a, 0x3c, 0x49)),
+        payload = payload,
+        sequenceNumber = sequence.toByte(),
+        eqos = 1
+    )
+
+    @Test
+    fun encryptMessages() {
+        val messages = payloads.mapIndexed { index, payload -> message(payload, index) }
+        benchmarkRule.measureRepeated {
+            val enDecrypt = runWithTimingDisabled { EnDecrypt(aapsLogger, Nonce(prefix, 0), ck) }
+            messages.forEach { enDecrypt.encrypt(it) }
+        }
+    }
+
+    @Test
+    fun decryptMessages() {
+        // responses encrypted by pod with nonces of receiving direction
+        val ccm = AesCCM(ck)
+        val podNonce = Nonce(prefix, 0)
+        val nonce = ByteArray(AesCCM.NONCE_SIZE)
+        val responses = payloads.mapIndexed { index, payload ->
+            val header = message(payload, index).asByteArray(true).copyOfRange(0, MessagePacket.HEADER_SIZE)
+            val encrypted = ByteArray(payload.size + AesCCM.MAC_SIZE)
+            podNonce.increment(false, nonce)
+            ccm.encrypt(nonce, header, payload, 0, payload.size, encrypted, 0)
+            message(encrypted, index)
+        }
+        benchmarkRule.measureRepeated {
+            val enDecrypt = runWithTimingDisabled { EnDecrypt(aapsLogger, Nonce(prefix, 0), ck) }
+            responses.forEach { enDecrypt.decrypt(it) }
+        }
+    }
+
+    @Test
+    fun inPlaceRoundTrip() {
+        val ccm = AesCCM(ck)
+        val nonce = random.nextBytes(AesCCM.NONCE_SIZE)
+        val header = random.nextBytes(MessagePacket.HEADER_SIZE)
+        val payload = random.nextBytes(64)
+        val buffer = payload.copyOf(payload.size + AesCCM.MAC_SIZE)
+        benchmarkRule.measureRepeated {
+            ccm.encrypt(nonce, header, buffer, 0, payload.size, buffer, 0)
+            ccm.decrypt(nonce, header, buffer, 0, buffer.size, buffer, 0)
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.plugins.aps.openAPSSMB.DetermineBasalSMB
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.mock
+import kotlin.math.exp
+import kotlin.math.sin
+
+/**
+ * SMB determine_basal throughput: one day of 5 min loop runs with changing BG, IOB and COB,
+ * with diagnostics (loop) and without them (replay, what-if)
+ */
+@RunWith(AndroidJUnit4::class)
+class DetermineBasalBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val start = 1_700_000_000_000L
+    private val step = 5 * 60_000L
+    private val determineBasalSMB = DetermineBasalSMB(mock<ProfileUtil>(), mock<FabricPrivacy>())
+
+    private class Run(val glucoseStatus: GlucoseStatusSMB, val iob: Array<IobTotal>, val mealData: MealData, val time: Long)
+
+    private val runs = List(288) { i ->
+        val time = start + i * step
+        val bg = 130.0 + 70.0 * sin(i / 20.0)
+        val delta = 70.0 * (sin(i / 20.0) - sin((i - 1) / 20.0))
+        val cob = if (i % 72 < 24) 40.0 - (i % 72) * 1.5 else 0.0
+        Run(
+            glucoseStatus = GlucoseStatusSMB(glucose = bg, delta = delta, shortAvgDelta = delta, longAvgDelta = delta / 2, date = time),
+            iob = iobArray(time, (i % 48) / 12.0 - 0.5),
+            mealData = MealData(carbs = cob, mealCOB = cob, slopeFromMaxDeviation = 0.5, slopeFromMinDeviation = 0.0, lastCarbTime = if (cob > 0) time - 30 * 60_000L else 0L),
+            time = time
+        )
+    }
+
+    private fun determineBasal(run: Run, diagnostics: Boolean) =
+        determineBasalSMB.determine_basal(
+            glucose_status = run.glucoseStatus,
+            currenttemp = CurrentTemp(duration = 0, rate = 0.0, minutesrunning = null),
+            iob_data_array = run.iob,
+            profile = profile,
+            autosens_data = AutosensResult(ratio = 1.0),
+            meal_data = run.mealData,
+            microBolusAllowed = true,
+            currentTime = run.time,
+            flatBGsDetected = false,
+            dynIsfMode = true,
+            diagnostics = diagnostics
+        )
+
+    @Test
+    fun oneDayWithDiagnostics() {
+        benchmarkRule.measureRepeated {
+            runs.forEach { determineBasal(it, diagnostics = true) }
+        }
+    }
+
+    @Test
+    fun oneDayWithoutDiagnostics() {
+        benchmarkRule.measureRepeated {
+            runs.forEach { determineBasal(it, diagnostics = false) }
+        }
+    }
+
+    private fun iobArray(time: Long, iob: Double): Array<IobTotal> =
+        Array(48) { i ->
+            val decay = exp(-i / 18.0)
+            IobTotal(
+                time = time + i * step,
+                iob = iob * decay,
+                basaliob = iob * decay / 3,
+                activity = iob * decay / 60,
+                lastBolusTime = time - 60 * 60_000L,
+                iobWithZeroTemp = IobTotal(time = time + i * step, iob = iob * decay - i * 0.05, activity = iob * decay / 60 - 0.001)
+            )
+        }
+
+    private val profile = OapsProfile(
+        dia = 0.0,
+        min_5m_carbimpact = 0.0,
+        max_iob = 6.0,
+        max_daily_basal = 1.2,
+        max_basal = 4.0,
+        min_bg = 100.0,
+        max_bg = 100.0,
+        target_bg = 100.0,
+        carb_ratio = 10.0,
+        sens = 50.0,
+        autosens_adjust_targets = false,
+        max_daily_safety_multiplier = 3.0,
+        current_basal_safety_multiplier = 4.0,
+        high_temptarget_raises_sensitivity = false,
+        low_temptarget_lowers_sensitivity = false,
+        sensitivity_raises_target = true,
+        resistance_lowers_target = false,
+        adv_target_adjustments = false,
+        exercise_mode = false,
+        half_basal_exercise_target = 160,
+        maxCOB = 120,
+        skip_neutral_temps = false,
+        remainingCarbsCap = 90,
+        enableUAM = true,
+        A52_risk_enable = false,
+        SMBInterval = 3,
+        enableSMB_with_COB = true,
+        enableSMB_with_temptarget = false,
+        allowSMB_with_high_temptarget = false,
+        enableSMB_always = true,
+        enableSMB_after_carbs = false,
+        maxSMBBasalMinutes = 30,
+        maxUAMSMBBasalMinutes = 30,
+        bolus_increment = 0.1,
+        carbsReqThreshold = 1,
+        current_basal = 1.0,
+        temptargetSet = false,
+        autosens_max = 1.2,
+        out_units = "mg/dl",
+        lgsThreshold = 65,
+        variable_sens = 45.0,
+        insulinDivisor = 75,
+        TDD = 40.0
+    )
+}
@@ -0,0 +1,64 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.pump.insight.satl.DataMessage
+import app.aaps.pump.insight.satl.SatlMessage
+import app.aaps.pump.insight.utils.ByteBuf
+import app.aaps.pump.insight.utils.Nonce
+import app.aaps.pump.insight.utils.crypto.TwofishCCM
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Insight SATL messages: encryption of outgoing frames and decoding of received stream
+ * with one cipher context per connection as in InsightConnectionService
+ */
+@RunWith(AndroidJUnit4::class)
+class InsightSatlBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val random = Random(35)
+    private val cipher = TwofishCCM(random.nextBytes(16))
+    private val payloads = List(50) { random.nextBytes(random.nextInt(0, 120)) }
+
+    private fun dataMessage(index: Int) = DataMessage().also {
+        it.data = ByteBuf.from(payloads[index])
+        it.commID = 0x12345678
+        it.nonce = Nonce().also { nonce -> nonce.increment(index + 1) }
+    }
+
+    // frames as they come from Bluetooth socket
+    private val stream = payloads.indices.fold(ByteArray(0)) { acc, index -> acc + dataMessage(index).serialize(cipher).bytes }
+
+    @Test
+    fun encryptFrames() {
+        val messages = payloads.indices.map { dataMessage(it) }
+        benchmarkRule.measureRepeated {
+            messages.forEach { it.serialize(cipher) }
+        }
+    }
+
+    @Test
+    fun decodeStream() {
+        val buffer = ByteBuf(1024)
+        val chunk = ByteArray(64)
+        benchmarkRule.measureRepeated {
+            val lastNonce = Nonce()
+            var offset = 0
+            while (offset < stream.size) {
+                val length = minOf(chunk.size, stream.size - offset)
+                stream.copyInto(chunk, 0, offset, offset + length)
+                buffer.putBytes(chunk, length)
+                offset += length
+                while (SatlMessage.hasCompletePacket(buffer))
+                    SatlMessage.deserialize(buffer, lastNonce, cipher)
+            }
+        }
+    }
+}
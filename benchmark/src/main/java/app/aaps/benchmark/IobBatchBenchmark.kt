@@ -0,0 +1,123 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.pump.Pump
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.plugins.insulin.InsulinLyumjevPlugin
+import app.aaps.plugins.main.iob.iobCobCalculator.IobCobCalculatorPlugin
+import io.reactivex.rxjava3.core.Single
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import kotlin.random.Random
+
+/**
+ * IOB of 48 hours of 5 min buckets as calculated by IOB/COB stages: one batch call against one call per bucket.
+ * Treatments are served from memory, so only calculation and slicing are measured, not database reads.
+ * New calculator for every repetition, calculated times are cached.
+ */
+@RunWith(AndroidJUnit4::class)
+class IobBatchBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val step = 5 * 60_000L
+    private val now = System.currentTimeMillis() / step * step
+    private val bucketTimes = LongArray(576) { now - (575 - it) * step }
+
+    private val boluses = ArrayList<BS>()
+    private val temporaryBasals = ArrayList<TB>()
+    private val extendedBoluses = ArrayList<EB>()
+
+    private val profile = mock<Profile> {
+        on { dia } doReturn 5.0
+        on { getBasal(any<Long>()) } doReturn 1.0
+    }
+    private val profiles = Array(bucketTimes.size) { profile }
+    private val profileFunction = mock<ProfileFunction>()
+    private val activePlugin = mock<ActivePlugin>()
+    private val preferences = mock<Preferences>()
+    private val dateUtil = mock<DateUtil>()
+    private val persistenceLayer = mock<PersistenceLayer>()
+
+    init {
+        // SMB every 15 min, 30 min TBR, meal boluses and two extended boluses, 6 hours before first bucket
+        val random = Random(49)
+        val start = bucketTimes[0] - 6 * 12 * step
+        var time = start
+        while (time < now) {
+            if ((time - start) % (3 * step) == 0L) boluses.add(BS(timestamp = time + 10_000, amount = random.nextDouble(0.0, 0.5), type = BS.Type.SMB))
+            if ((time - start) % (6 * step) == 0L)
+                temporaryBasals.add(TB(timestamp = time + 20_000, rate = random.nextDouble(0.0, 3.0), isAbsolute = true, duration = 6 * step, type = TB.Type.NORMAL))
+            time += step
+        }
+        for (hour in listOf(2, 8, 13, 20, 26, 32, 37, 44))
+            boluses.add(BS(timestamp = bucketTimes[0] + hour * 12 * step + 30_000, amount = random.nextDouble(2.0, 8.0), type = BS.Type.NORMAL))
+        for (hour in listOf(14, 38))
+            extendedBoluses.add(EB(timestamp = bucketTimes[0] + hour * 12 * step, duration = 24 * step, amount = 2.0))
+        boluses.sortBy { it.timestamp }
+
+        val insulin = InsulinLyumjevPlugin(mock(), profileFunction, mock(), BenchmarkLogger(), mock(), mock(), mock())
+        val pump = mock<Pump>()
+        whenever(activePlugin.activeInsulin).thenReturn(insulin)
+        whenever(activePlugin.activePump).thenReturn(pump)
+        whenever(profileFunction.getProfile()).thenReturn(profile)
+        whenever(profileFunction.getProfile(any())).thenReturn(profile)
+        whenever(preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).thenReturn(2.0)
+        whenever(dateUtil.now()).thenReturn(now)
+        whenever(persistenceLayer.getBolusesFromTime(any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            Single.just(boluses.filter { it.timestamp >= from })
+        }
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(any(), any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            val to = invocation.getArgument<Long>(1)
+            temporaryBasals.filter { it.timestamp in from..to }
+        }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            val to = invocation.getArgument<Long>(1)
+            extendedBoluses.filter { it.timestamp in from..to }
+        }
+    }
+
+    private fun calculator() =
+        IobCobCalculatorPlugin(
+            BenchmarkLogger(), mock(), mock(), preferences, mock(), profileFunction, activePlugin, mock(), dateUtil,
+            persistenceLayer, mock(), mock(), mock(), mock()
+        )
+
+    @Test
+    fun fortyEightHoursBatch() {
+        benchmarkRule.measureRepeated {
+            val calculator = runWithTimingDisabled { calculator() }
+            assertEquals(bucketTimes.size, calculator.calculateFromTreatmentsAndTemps(bucketTimes, profiles).size)
+        }
+    }
+
+    @Test
+    fun fortyEightHoursPerTime() {
+        benchmarkRule.measureRepeated {
+            val calculator = runWithTimingDisabled { calculator() }
+            bucketTimes.forEach { calculator.calculateFromTreatmentsAndTemps(it, profile) }
+        }
+    }
+}
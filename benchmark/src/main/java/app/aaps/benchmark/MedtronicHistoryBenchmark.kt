@@ -0,0 +1,102 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.pump.PumpSync
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.utils.pump.ByteUtil
+import app.aaps.pump.common.hw.rileylink.RileyLinkUtil
+import app.aaps.pump.common.sync.PumpSyncStorage
+import app.aaps.pump.medtronic.comm.history.RawHistoryPage
+import app.aaps.pump.medtronic.comm.history.pump.MedtronicPumpHistoryDecoder
+import app.aaps.pump.medtronic.comm.history.pump.PumpHistoryEntry
+import app.aaps.pump.medtronic.comm.history.pump.PumpHistoryResult
+import app.aaps.pump.medtronic.data.MedtronicHistoryData
+import app.aaps.pump.medtronic.defs.MedtronicDeviceType
+import app.aaps.pump.medtronic.driver.MedtronicPumpStatus
+import app.aaps.pump.medtronic.util.MedtronicUtil
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.mock
+
+/**
+ * Medtronic history pages recorded from pumps: page decoding and reconciliation
+ * of the same pages read again after RileyLink reconnect
+ */
+@RunWith(AndroidJUnit4::class)
+class MedtronicHistoryBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private class RecordedPage(val deviceType: MedtronicDeviceType, val data: ByteArray)
+
+    private val aapsLogger = BenchmarkLogger()
+    private val preferences = mock<Preferences>()
+    private val rxBus = mock<RxBus>()
+    private val uiInteraction = mock<UiInteraction>()
+    private lateinit var medtronicPumpStatus: MedtronicPumpStatus
+    private lateinit var medtronicUtil: MedtronicUtil
+    private lateinit var decoder: MedtronicPumpHistoryDecoder
+
+    private val pages: List<RecordedPage> by lazy {
+        javaClass.classLoader!!.getResource("medtronic_history_pages.txt").readText().lines()
+            .filter { it.isNotBlank() && !it.startsWith("#") }
+            .map { line ->
+                val (type, data) = line.split(";")
+                RecordedPage(MedtronicDeviceType.valueOf(type), ByteUtil.createByteArrayFromString(data))
+            }
+    }
+
+    @Before
+    fun setup() {
+        val rileyLinkUtil = RileyLinkUtil(aapsLogger, InstrumentationRegistry.getInstrumentation().targetContext)
+        medtronicPumpStatus = MedtronicPumpStatus(preferences, rxBus, rileyLinkUtil)
+        medtronicUtil = MedtronicUtil(aapsLogger, rxBus, rileyLinkUtil, medtronicPumpStatus, uiInteraction)
+        medtronicUtil.isModelSet = true
+        decoder = MedtronicPumpHistoryDecoder(aapsLogger, medtronicUtil)
+    }
+
+    private fun decode(page: RecordedPage): List<PumpHistoryEntry> {
+        medtronicUtil.medtronicPumpModel = page.deviceType
+        return decoder.processPageAndCreateRecords(RawHistoryPage(aapsLogger).also { it.appendData(page.data) })
+    }
+
+    @Test
+    fun decodePages() {
+        benchmarkRule.measureRepeated {
+            pages.forEach { decode(it) }
+        }
+    }
+
+    @Test
+    fun replayAfterReconnect() {
+        // largest recorded page
+        val page = pages.maxBy { decode(it).size }
+        val historyData = MedtronicHistoryData(
+            aapsLogger, preferences, mock<ResourceHelper>(), medtronicUtil, decoder, medtronicPumpStatus,
+            mock<PumpSync>(), mock<PumpSyncStorage>(), uiInteraction, mock<ProfileUtil>()
+        )
+        fun readPage() {
+            val result = PumpHistoryResult(aapsLogger, null, null)
+            result.addHistoryEntries(decode(page).toMutableList())
+            historyData.addNewHistory(result)
+            historyData.filterNewEntries()
+            historyData.finalizeNewHistoryRecords()
+        }
+        readPage()
+        val historySize = historyData.allHistory.size
+        benchmarkRule.measureRepeated { readPage() }
+        // reading the same page again doesn't add duplicates
+        assertEquals(historySize, historyData.allHistory.size)
+    }
+}
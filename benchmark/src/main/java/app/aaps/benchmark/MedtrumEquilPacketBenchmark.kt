@@ -0,0 +1,86 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.pump.equil.manager.AESUtil
+import app.aaps.pump.equil.manager.Crc
+import app.aaps.pump.medtrum.comm.ReadDataPacket
+import app.aaps.pump.medtrum.comm.WriteCommandPackets
+import app.aaps.pump.medtrum.util.CrcUtils
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Medtrum and Equil BLE packet handling: CRCs of pump sized packets,
+ * reassembly of a recorded Medtrum message, splitting of commands and Equil packet encryption
+ */
+@RunWith(AndroidJUnit4::class)
+class MedtrumEquilPacketBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val random = Random(39)
+
+    // 16 byte BLE packets as sent by Equil, 20 byte notifications of Medtrum
+    private val equilPackets = List(100) { random.nextBytes(16) }
+    private val medtrumPackets = List(100) { random.nextBytes(20) }
+
+    // recorded Medtrum message in 4 notifications
+    private val chunks = listOf(
+        byteArrayOf(51, 99, 10, 1, 0, 0, -86, 44, 1, -1, -85, 21, -108, -62, 1, 0, 22, 0, 1, 75),
+        byteArrayOf(51, 99, 10, 2, 0, 0, 0, -80, -116, 84, 18, 10, 0, 10, 0, 0, 0, 0, 0, -10),
+        byteArrayOf(51, 99, 10, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -61, -59, -120, 5),
+        byteArrayOf(51, 99, 10, 4, 19, -82, -80)
+    )
+
+    @Test
+    fun equilCrc() {
+        benchmarkRule.measureRepeated {
+            equilPackets.forEach {
+                Crc.crc8Maxim(it, 0, 5)
+                Crc.getCRC(it)
+            }
+        }
+    }
+
+    @Test
+    fun medtrumCrc() {
+        benchmarkRule.measureRepeated {
+            medtrumPackets.forEach { CrcUtils.calcCrc8(it, 0, it.size - 1) }
+        }
+    }
+
+    @Test
+    fun medtrumReassembly() {
+        benchmarkRule.measureRepeated {
+            val packet = ReadDataPacket(chunks[0])
+            for (i in 1 until chunks.size) packet.addData(chunks[i])
+            assertTrue(packet.allDataReceived())
+            packet.getData()
+        }
+    }
+
+    @Test
+    fun medtrumCommandPackets() {
+        // command longer than one packet
+        val command = random.nextBytes(60)
+        benchmarkRule.measureRepeated {
+            val packets = WriteCommandPackets(command, 1)
+            while (!packets.allPacketsConsumed()) packets.getNextPacket()
+        }
+    }
+
+    @Test
+    fun equilEncryptDecrypt() {
+        val key = random.nextBytes(32)
+        val data = random.nextBytes(32)
+        benchmarkRule.measureRepeated {
+            AESUtil.decrypt(AESUtil.aesEncrypt(key, data), key)
+        }
+    }
+}
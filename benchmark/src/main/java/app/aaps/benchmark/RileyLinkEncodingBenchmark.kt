@@ -0,0 +1,54 @@
+package app.aaps.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.pump.common.hw.rileylink.ble.data.encoding.Encoding4b6bGeoff
+import app.aaps.pump.common.utils.CRC
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * 4b6b codec and CRCs of RileyLink radio packets
+ * Packet sizes are in range of Medtronic and Omnipod Eros commands and responses
+ */
+@RunWith(AndroidJUnit4::class)
+class RileyLinkEncodingBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val encoder = Encoding4b6bGeoff(BenchmarkLogger())
+    private val random = Random(8)
+    private val packets = List(100) { random.nextBytes(random.nextInt(10, 80)) }
+    private val encodedPackets = packets.map { encoder.encode4b6b(it) }
+    private val page = random.nextBytes(1024)
+
+    @Test
+    fun encode4b6b() {
+        benchmarkRule.measureRepeated {
+            packets.forEach { encoder.encode4b6b(it) }
+        }
+    }
+
+    @Test
+    fun decode4b6b() {
+        benchmarkRule.measureRepeated {
+            encodedPackets.forEach { encoder.decode4b6b(it) }
+        }
+    }
+
+    @Test
+    fun crc8Packets() {
+        benchmarkRule.measureRepeated {
+            packets.forEach { CRC.crc8(it) }
+        }
+    }
+
+    @Test
+    fun crc16HistoryPage() {
+        benchmarkRule.measureRepeated { CRC.calculate16CCITT(page, 0, page.size - 2) }
+    }
+}
@@ -106,6 +106,11 @@ import com.jjoe64.graphview.series.BaseSeries
     private lateinit var mPath: Path
     private lateinit var mSecondPath: Path
 
+    /**
+     * path of highlighted data points
+     */
+    private lateinit var mPathDataPoints: Path
+
     /**
      * custom paint that can be used.
      * this will ignore the thickness and color styles.
@@ -142,6 +147,7 @@ import com.jjoe64.graphview.series.BaseSeries
         mPathBackground = Path()
         mPath = Path()
         mSecondPath = Path()
+        mPathDataPoints = Path()
     }
 
     /**
@@ -153,8 +159,6 @@ import com.jjoe64.graphview.series.BaseSeries
      * @param isSecondScale flag if it is the second scale
      */
     override fun draw(graphView: GraphView, canvas: Canvas, isSecondScale: Boolean) {
-        resetDataPoints()
-
         // get data
         val maxX = graphView.viewport.getMaxX(false)
         val minX = graphView.viewport.getMinX(false)
@@ -167,47 +171,60 @@ import com.jjoe64.graphview.series.BaseSeries
             maxY = graphView.viewport.getMaxY(false)
             minY = graphView.viewport.getMinY(false)
         }
-        val values = getValues(minX, maxX)
-
-        // draw background
-        var lastEndY1: Double
-        var lastEndY2: Double
-        var lastEndX: Double
 
         // draw data
         mPaint.strokeWidth = mStyles.thickness.toFloat()
         mPaint.color = color
         mPaintBackground.color = mStyles.backgroundColor
         val paint = mCustomPaint ?: mPaint
-        if (mStyles.drawBackground) {
-            mPathBackground.reset()
-        }
-        val diffY = maxY - minY
-        val diffX = maxX - minX
         val graphHeight = graphView.graphContentHeight.toFloat()
         val graphWidth = graphView.graphContentWidth.toFloat()
         val graphLeft = graphView.graphContentLeft.toFloat()
         val graphTop = graphView.graphContentTop.toFloat()
-        lastEndY1 = 0.0
-        lastEndY2 = 0.0
-        lastEndX = 0.0
-        var i = 0
-        while (values.hasNext()) {
-            val value = values.next() ?: break
-            val valY1 = value.y - minY
+        val start = getFirstVisibleIndex(minX)
+        val end = maxOf(start, getEndVisibleIndex(maxX))
+        // paths are rebuilt only when data or viewport changed
+        if (!prepareFrame(start, end, minX, maxX, minY, maxY, graphLeft, graphTop, graphWidth, graphHeight))
+            buildPaths(start, end, minX, maxX, minY, maxY, graphLeft, graphTop, graphWidth, graphHeight)
+        canvas.drawPath(mPath, paint)
+        canvas.drawPath(mSecondPath, paint)
+        if (mStyles.drawDataPoints) canvas.drawPath(mPathDataPoints, mPaint)
+        if (mStyles.drawBackground) canvas.drawPath(mPathBackground, mPaintBackground)
+    }
+
+    /**
+     * build both lines, data points and area of visible range
+     * Both values of the point are needed so the data is not decimated
+     */
+    private fun buildPaths(
+        start: Int, end: Int, minX: Double, maxX: Double, minY: Double, maxY: Double,
+        graphLeft: Float, graphTop: Float, graphWidth: Float, graphHeight: Float
+    ) {
+        resetDataPoints()
+        mPath.reset()
+        mSecondPath.reset()
+        mPathDataPoints.reset()
+        mPathBackground.reset()
+        val diffY = maxY - minY
+        val diffX = maxX - minX
+        var lastEndY1 = 0.0
+        var lastEndY2 = 0.0
+        var lastEndX = 0.0
+        for (index in start until end) {
+            val value = getDataPoint(index) ?: break
+            val valY1 = mY[index] - minY
             val ratY1 = valY1 / diffY
             var y1 = graphHeight * ratY1
             val valY2 = value.y2 - minY
             val ratY2 = valY2 / diffY
             var y2 = graphHeight * ratY2
-            val valX = value.x - minX
+            val valX = getX(index) - minX
             val ratX = valX / diffX
             var x = graphWidth * ratX
             val orgX = x
             val orgY1 = y1
             val orgY2 = y2
-            @Suppress("ControlFlowWithEmptyBody")
-            if (i > 0) {
+            if (index > start) {
                 // overdraw
                 if (x > graphWidth) { // end right
                     val b = (graphWidth - lastEndX) * (y1 - lastEndY1) / (x - lastEndX)
@@ -274,43 +291,23 @@ import com.jjoe64.graphview.series.BaseSeries
                 // draw data point
                 if (mStyles.drawDataPoints) {
                     //fix: last value was not drawn. Draw here now the end values
-                    canvas.drawCircle(endX, endY1, mStyles.dataPointsRadius, mPaint)
-                    canvas.drawCircle(endX, endY2, mStyles.dataPointsRadius, mPaint)
+                    mPathDataPoints.addCircle(endX, endY1, mStyles.dataPointsRadius, Path.Direction.CW)
+                    mPathDataPoints.addCircle(endX, endY2, mStyles.dataPointsRadius, Path.Direction.CW)
                 }
                 registerDataPoint(endX, endY1, value)
                 registerDataPoint(endX, endY2, value)
-                mPath.reset()
-                mSecondPath.reset()
                 mPath.moveTo(startX, startY1)
                 mSecondPath.moveTo(startX, startY2)
                 mPath.lineTo(endX, endY1)
                 mSecondPath.lineTo(endX, endY2)
-                canvas.drawPath(mPath, paint)
-                canvas.drawPath(mSecondPath, paint)
                 if (mStyles.drawBackground) {
-                    canvas.drawRect(startX, startY2, endX, endY1, mPaintBackground)
+                    mPathBackground.addRect(minOf(startX, endX), minOf(startY2, endY1), maxOf(startX, endX), maxOf(startY2, endY1), Path.Direction.CW)
                 }
-            } else if (mStyles.drawDataPoints) {
-                //fix: last value not drawn as datapoint. Draw first point here, and then on every step the end values (above)
-                //float first_X = (float) x + (graphLeft + 1);
-                //float first_Y = (float) (graphTop - y) + graphHeight;
-                // canvas.drawCircle(first_X, first_Y, dataPointsRadius, mPaint);
             }
             lastEndY1 = orgY1
             lastEndY2 = orgY2
             lastEndX = orgX
-            i++
-        }
-
-        /*
-        if (mStyles.drawBackground) {
-            // end / close path
-            mPathBackground.lineTo((float) lastUsedEndX, graphHeight + graphTop);
-            mPathBackground.lineTo(firstX, graphHeight + graphTop);
-            mPathBackground.close();
-            canvas.drawPath(mPathBackground, mPaintBackground);
         }
-*/
     }
 
     var thickness: Int
@@ -352,6 +349,7 @@ import com.jjoe64.graphview.series.BaseSeries
          */
         set(drawBackground) {
             mStyles.drawBackground = drawBackground
+            invalidateFrame()
         }
     var isDrawDataPoints: Boolean
         /**
@@ -371,6 +369,7 @@ import com.jjoe64.graphview.series.BaseSeries
          */
         set(drawDataPoints) {
             mStyles.drawDataPoints = drawDataPoints
+            invalidateFrame()
         }
     var dataPointsRadius: Float
         /**
@@ -384,6 +383,7 @@ import com.jjoe64.graphview.series.BaseSeries
          */
         set(dataPointsRadius) {
             mStyles.dataPointsRadius = dataPointsRadius
+            invalidateFrame()
         }
     var backgroundColor: Int
         /**
@@ -87,6 +87,11 @@ import com.jjoe64.graphview.series.DataPointInterface
      */
     private lateinit var mPath: Path
 
+    /**
+     * path of highlighted data points
+     */
+    private lateinit var mPathDataPoints: Path
+
     /**
      * custom paint that can be used.
      * this will ignore the thickness and color styles.
@@ -122,6 +127,7 @@ import com.jjoe64.graphview.series.DataPointInterface
         mPaintBackground = Paint()
         mPathBackground = Path()
         mPath = Path()
+        mPathDataPoints = Path()
     }
 
     /**
@@ -133,8 +139,6 @@ import com.jjoe64.graphview.series.DataPointInterface
      * @param isSecondScale flag if it is the second scale
      */
     override fun draw(graphView: GraphView, canvas: Canvas, isSecondScale: Boolean) {
-        resetDataPoints()
-
         // get data
         val maxX = graphView.viewport.getMaxX(false)
         val minX = graphView.viewport.getMinX(false)
@@ -147,42 +151,58 @@ import com.jjoe64.graphview.series.DataPointInterface
             maxY = graphView.viewport.getMaxY(false)
             minY = graphView.viewport.getMinY(false)
         }
-        val values = getValues(minX, maxX)
-
-        // draw background
-        var lastEndY: Double
-        var lastEndX: Double
 
         // draw data
         mPaint.strokeWidth = mStyles.thickness.toFloat()
         mPaint.color = color
         mPaintBackground.color = mStyles.backgroundColor
         val paint = mCustomPaint ?: mPaint
-        if (mStyles.drawBackground) {
-            mPathBackground.reset()
-        }
-        val diffY = maxY - minY
-        val diffX = maxX - minX
         val graphHeight = graphView.graphContentHeight.toFloat()
         val graphWidth = graphView.graphContentWidth.toFloat()
         val graphLeft = graphView.graphContentLeft.toFloat()
         val graphTop = graphView.graphContentTop.toFloat()
-        lastEndY = 0.0
-        lastEndX = 0.0
+        val start = getFirstVisibleIndex(minX)
+        val end = maxOf(start, getEndVisibleIndex(maxX))
+        // paths are rebuilt only when data or viewport changed
+        if (!prepareFrame(start, end, minX, maxX, minY, maxY, graphLeft, graphTop, graphWidth, graphHeight))
+            buildPaths(start, end, minX, maxX, minY, maxY, graphLeft, graphTop, graphWidth, graphHeight)
+        canvas.drawPath(mPath, paint)
+        if (mStyles.drawDataPoints) canvas.drawPath(mPathDataPoints, mPaint)
+        if (mStyles.drawBackground) canvas.drawPath(mPathBackground, mPaintBackground)
+    }
+
+    /**
+     * build line, data points and background paths of visible range
+     */
+    private fun buildPaths(
+        start: Int, end: Int, minX: Double, maxX: Double, minY: Double, maxY: Double,
+        graphLeft: Float, graphTop: Float, graphWidth: Float, graphHeight: Float
+    ) {
+        resetDataPoints()
+        mPath.reset()
+        mPathDataPoints.reset()
+        mPathBackground.reset()
+        val diffY = maxY - minY
+        val diffX = maxX - minX
+        // keep all points when they are highlighted
+        val count = decimate(start, end, minX, diffX, if (mStyles.drawDataPoints) Float.MAX_VALUE else graphWidth)
+        var lastEndY = 0.0
+        var lastEndX = 0.0
         var lastUsedEndX = 0.0
+        var lastPathX = Float.NaN
+        var lastPathY = Float.NaN
         var firstX = 0f
-        var i = 0
-        while (values.hasNext()) {
-            val value = values.next() ?: break
-            val valY = value.y - minY
+        for (i in 0 until count) {
+            val index = mDecimated[i]
+            val value = getDataPoint(index) ?: break
+            val valY = mY[index] - minY
             val ratY = valY / diffY
             var y = graphHeight * ratY
-            val valX = value.x - minX
+            val valX = getX(index) - minX
             val ratX = valX / diffX
             var x = graphWidth * ratX
             val orgX = x
             val orgY = y
-            @Suppress("ControlFlowWithEmptyBody")
             if (i > 0) {
                 // overdraw
                 if (x > graphWidth) { // end right
@@ -223,13 +243,14 @@ import com.jjoe64.graphview.series.DataPointInterface
                 // draw data point
                 if (mStyles.drawDataPoints) {
                     //fix: last value was not drawn. Draw here now the end values
-                    canvas.drawCircle(endX, endY, mStyles.dataPointsRadius, mPaint)
+                    mPathDataPoints.addCircle(endX, endY, mStyles.dataPointsRadius, Path.Direction.CW)
                 }
                 registerDataPoint(endX, endY, value)
-                mPath.reset()
-                mPath.moveTo(startX, startY)
+                // continue current contour if segment starts where previous one ended
+                if (startX != lastPathX || startY != lastPathY) mPath.moveTo(startX, startY)
                 mPath.lineTo(endX, endY)
-                canvas.drawPath(mPath, paint)
+                lastPathX = endX
+                lastPathY = endY
                 if (mStyles.drawBackground) {
                     if (i == 1) {
                         firstX = startX
@@ -238,22 +259,15 @@ import com.jjoe64.graphview.series.DataPointInterface
                     mPathBackground.lineTo(endX, endY)
                 }
                 lastUsedEndX = endX.toDouble()
-            } else if (mStyles.drawDataPoints) {
-                //fix: last value not drawn as datapoint. Draw first point here, and then on every step the end values (above)
-                // float first_X = (float) x + (graphLeft + 1);
-                // float first_Y = (float) (graphTop - y) + graphHeight;
-                // canvas.drawCircle(first_X, first_Y, dataPointsRadius, mPaint);
             }
             lastEndY = orgY
             lastEndX = orgX
-            i++
         }
         if (mStyles.drawBackground) {
             // end / close path
             mPathBackground.lineTo(lastUsedEndX.toFloat(), (graphTop - -minY / diffY * graphHeight).toFloat() + graphHeight)
             mPathBackground.lineTo(firstX, (graphTop - -minY / diffY * graphHeight).toFloat() + graphHeight)
             mPathBackground.close()
-            canvas.drawPath(mPathBackground, mPaintBackground)
         }
     }
 
@@ -296,6 +310,7 @@ import com.jjoe64.graphview.series.DataPointInterface
          */
         set(drawBackground) {
             mStyles.drawBackground = drawBackground
+            invalidateFrame()
         }
     var isDrawDataPoints: Boolean
         /**
@@ -315,6 +330,7 @@ import com.jjoe64.graphview.series.DataPointInterface
          */
         set(drawDataPoints) {
             mStyles.drawDataPoints = drawDataPoints
+            invalidateFrame()
         }
     var dataPointsRadius: Float
         /**
@@ -328,6 +344,7 @@ import com.jjoe64.graphview.series.DataPointInterface
          */
         set(dataPointsRadius) {
             mStyles.dataPointsRadius = dataPointsRadius
+            invalidateFrame()
         }
     var backgroundColor: Int
         /**
@@ -0,0 +1,83 @@
+package app.aaps.core.graph.data
+
+import android.graphics.Canvas
+import com.google.common.truth.Truth.assertThat
+import com.jjoe64.graphview.GraphView
+import com.jjoe64.graphview.series.BaseSeries
+import com.jjoe64.graphview.series.DataPointInterface
+import org.junit.jupiter.api.Test
+
+internal class BaseSeriesTest {
+
+    private class MutablePoint(private val x: Double, var value: Double) : DataPointInterface {
+
+        override fun getX(): Double = x
+        override fun getY(): Double = value
+    }
+
+    private class TestSeries(data: Array<MutablePoint>) : BaseSeries<MutablePoint>(data) {
+
+        override fun draw(graphView: GraphView, canvas: Canvas, isSecondScale: Boolean) {}
+
+        fun frame(start: Int, end: Int, minX: Double = 0.0, maxX: Double = 100.0) =
+            prepareFrame(start, end, minX, maxX, 0.0, 10.0, 0f, 0f, 100f, 50f)
+
+        fun decimated(start: Int, end: Int, width: Float): List<Int> {
+            frame(start, end)
+            val count = decimate(start, end, 0.0, 100.0, width)
+            return (0 until count).map { mDecimated[it] }
+        }
+    }
+
+    private fun series(count: Int, y: (Int) -> Double = { it.toDouble() }) =
+        TestSeries(Array(count) { MutablePoint(it.toDouble(), y(it)) })
+
+    @Test
+    fun `visible range contains one point before and after`() {
+        val sut = series(10)
+        assertThat(sut.getValues(3.5, 6.5).asSequence().map { it.x }.toList()).containsExactly(3.0, 4.0, 5.0, 6.0, 7.0).inOrder()
+        assertThat(sut.getValues(3.0, 6.0).asSequence().map { it.x }.toList()).containsExactly(2.0, 3.0, 4.0, 5.0, 6.0, 7.0).inOrder()
+        assertThat(sut.getValues(-5.0, 100.0).asSequence().count()).isEqualTo(10)
+        assertThat(sut.getValues(-5.0, -1.0).asSequence().map { it.x }.toList()).containsExactly(0.0)
+        assertThat(sut.getValues(20.0, 30.0).hasNext()).isFalse()
+        assertThat(series(0).getValues(0.0, 1.0).hasNext()).isFalse()
+    }
+
+    @Test
+    fun `frame is reused only when nothing changed`() {
+        val points = Array(10) { MutablePoint(it.toDouble(), 1.0) }
+        val sut = TestSeries(points)
+        assertThat(sut.frame(0, 10)).isFalse()
+        assertThat(sut.frame(0, 10)).isTrue()
+        // viewport moved
+        assertThat(sut.frame(0, 10, maxX = 90.0)).isFalse()
+        assertThat(sut.frame(0, 10, maxX = 90.0)).isTrue()
+        // y changed without data reset
+        points[5].value = 2.0
+        assertThat(sut.frame(0, 10, maxX = 90.0)).isFalse()
+        // data reset
+        sut.resetData(points)
+        assertThat(sut.frame(0, 10, maxX = 90.0)).isFalse()
+    }
+
+    @Test
+    fun `decimation keeps envelope of every pixel column`() {
+        // 100 points on 10 pixels, spike in the middle of each column
+        val sut = series(100) { if (it % 10 == 5) 10.0 else if (it % 10 == 7) -10.0 else 0.0 }
+        val kept = sut.decimated(0, 100, 10f)
+        assertThat(kept).hasSize(40)
+        assertThat(kept.subList(0, 4)).containsExactly(0, 5, 7, 9).inOrder()
+
+        // less points than pixels are kept as they are
+        assertThat(sut.decimated(0, 100, 1000f)).hasSize(100)
+    }
+
+    @Test
+    fun `appended data is searchable`() {
+        val sut = series(3)
+        repeat(20) { sut.appendData(MutablePoint(3.0 + it, 0.0), false, 10) }
+        assertThat(sut.size()).isEqualTo(10)
+        assertThat(sut.lowestValueX).isEqualTo(13.0)
+        assertThat(sut.getValues(20.0, 21.0).asSequence().map { it.x }.toList()).containsExactly(19.0, 20.0, 21.0, 22.0).inOrder()
+    }
+}
@@ -19,20 +19,15 @@
  */
 package com.jjoe64.graphview.series;
 
-import android.graphics.PointF;
-
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.jjoe64.graphview.GraphView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.NoSuchElementException;
 
 /**
  * Basis implementation for series.
@@ -43,7 +38,9 @@ import java.util.NoSuchElementException;
  * graph type.
  * <p>
  * This implementation uses a internal Array to store
- * the data. If you want to implement a custom data provider
+ * the data. X values are kept in primitive array so visible
+ * range is found by binary search without iterating the data.
+ * If you want to implement a custom data provider
  * you may want to implement {@link com.jjoe64.graphview.series.Series}.
  *
  * @author jjoe64
@@ -54,16 +51,41 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
      */
     final private List<E> mData = new ArrayList<E>();
 
+    /**
+     * x values of {@link #mData} for binary search of visible range
+     */
+    private double[] mX = new double[0];
+
+    /**
+     * y values of visible data points, refreshed in {@link #prepareFrame}
+     */
+    protected double[] mY = new double[0];
+
+    /**
+     * incremented on every data change
+     */
+    private long mDataVersion = 0;
+
     /**
      * stores the used coordinates to find the
      * corresponding data point on a tap
      * <p>
-     * Key => x/y pixel
-     * Value => Plotted Datapoint
-     * <p>
      * will be filled while drawing via {@link #registerDataPoint(float, float, DataPointInterface)}
      */
-    private final Map<PointF, E> mDataPoints = new HashMap<PointF, E>();
+    private float[] mTapX = new float[16];
+    private float[] mTapY = new float[16];
+    private final List<E> mTapPoints = new ArrayList<E>();
+
+    /**
+     * viewport, content area and visible range of the last built frame
+     */
+    private final double[] mFrameKey = new double[10];
+    private long mFrameVersion = -1;
+
+    /**
+     * indices of points left after decimation, see {@link #decimate}
+     */
+    protected int[] mDecimated = new int[0];
 
     /**
      * title for this series that can be displayed
@@ -104,6 +126,16 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
     public BaseSeries(E[] data) {
         mGraphViews = new ArrayList<GraphView>();
         Collections.addAll(mData, data);
+        rebuildX();
+    }
+
+    /**
+     * copy x values of data to primitive array
+     */
+    private void rebuildX() {
+        if (mX.length < mData.size()) mX = new double[mData.size()];
+        for (int i = 0; i < mData.size(); i++) mX[i] = mData.get(i).getX();
+        mDataVersion++;
     }
 
     /**
@@ -111,7 +143,7 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
      */
     public double getLowestValueX() {
         if (mData.isEmpty()) return 0d;
-        return mData.get(0).getX();
+        return mX[0];
     }
 
     /**
@@ -119,7 +151,7 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
      */
     public double getHighestValueX() {
         if (mData.isEmpty()) return 0d;
-        return mData.get(mData.size() - 1).getX();
+        return mX[mData.size() - 1];
     }
 
     /**
@@ -164,71 +196,158 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
      */
     @Override
     public Iterator<E> getValues(final double from, final double until) {
-        if (from <= getLowestValueX() && until >= getHighestValueX()) {
-            return mData.iterator();
-        } else {
-            return new Iterator<E>() {
-                final Iterator<E> org = mData.iterator();
-                E nextValue = null;
-                @Nullable E nextNextValue = null;
-                boolean plusOne = true;
-
-                {
-                    // go to first
-                    boolean found = false;
-                    E prevValue = null;
-                    if (org.hasNext()) {
-                        prevValue = org.next();
-                    }
-                    if (prevValue.getX() >= from) {
-                        nextValue = prevValue;
-                        found = true;
-                    } else {
-                        while (org.hasNext()) {
-                            nextValue = org.next();
-                            if (nextValue.getX() >= from) {
-                                found = true;
-                                nextNextValue = nextValue;
-                                nextValue = prevValue;
-                                break;
-                            }
-                            prevValue = nextValue;
-                        }
-                    }
-                    if (!found) {
-                        nextValue = null;
-                    }
-                }
+        int start = getFirstVisibleIndex(from);
+        int end = Math.max(start, getEndVisibleIndex(until));
+        return mData.subList(start, end).iterator();
+    }
 
-                @Override
-                public void remove() {
-                    throw new UnsupportedOperationException();
-                }
+    /**
+     * @return number of data points
+     */
+    public int size() {
+        return mData.size();
+    }
 
-                @NonNull @Override
-                public E next() {
-                    if (hasNext()) {
-                        E r = nextValue;
-                        if (r.getX() > until) {
-                            plusOne = false;
-                        }
-                        if (nextNextValue != null) {
-                            nextValue = nextNextValue;
-                            nextNextValue = null;
-                        } else if (org.hasNext()) nextValue = org.next();
-                        else nextValue = null;
-                        return r;
-                    } else {
-                        throw new NoSuchElementException();
-                    }
-                }
+    /**
+     * @param index index of data point
+     * @return data point
+     */
+    public E getDataPoint(int index) {
+        return mData.get(index);
+    }
 
-                @Override
-                public boolean hasNext() {
-                    return nextValue != null && (nextValue.getX() <= until || plusOne);
-                }
-            };
+    /**
+     * @param index index of data point
+     * @return x value of data point
+     */
+    public double getX(int index) {
+        return mX[index];
+    }
+
+    /**
+     * binary search for the first point to draw
+     *
+     * @param from minimal x-value
+     * @return index of the last point before from (for nice scrolling),
+     * or of the first point if there is none before. Data size if all points are before from
+     */
+    protected int getFirstVisibleIndex(double from) {
+        int size = mData.size();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mX[mid] < from) low = mid + 1;
+            else high = mid;
         }
+        if (low == size) return size;
+        return Math.max(0, low - 1);
+    }
+
+    /**
+     * binary search for the end of range to draw
+     *
+     * @param until maximal x-value
+     * @return index after the first point behind until (exclusive end of range)
+     */
+    protected int getEndVisibleIndex(double until) {
+        int size = mData.size();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mX[mid] <= until) low = mid + 1;
+            else high = mid;
+        }
+        return Math.min(size, low + 1);
+    }
+
+    /**
+     * Reads y values of points in range to {@link #mY} and checks whether
+     * geometry built in previous frame can be reused.
+     * Y values are compared too because data points may change y without
+     * resetting data (scaled values, points placed on other series).
+     *
+     * @param start first index of the range
+     * @param end   exclusive end of the range
+     * @return true if data, viewport and content area are the same as in last frame
+     */
+    protected boolean prepareFrame(int start, int end, double minX, double maxX, double minY, double maxY,
+                                   float graphLeft, float graphTop, float graphWidth, float graphHeight) {
+        if (mY.length < mData.size()) mY = new double[mX.length];
+        boolean valid = mFrameVersion == mDataVersion
+                && mFrameKey[0] == start && mFrameKey[1] == end
+                && mFrameKey[2] == minX && mFrameKey[3] == maxX
+                && mFrameKey[4] == minY && mFrameKey[5] == maxY
+                && mFrameKey[6] == graphLeft && mFrameKey[7] == graphTop
+                && mFrameKey[8] == graphWidth && mFrameKey[9] == graphHeight;
+        for (int i = start; i < end; i++) {
+            double y = mData.get(i).getY();
+            if (valid && Double.compare(y, mY[i]) != 0) valid = false;
+            mY[i] = y;
+        }
+        mFrameKey[0] = start;
+        mFrameKey[1] = end;
+        mFrameKey[2] = minX;
+        mFrameKey[3] = maxX;
+        mFrameKey[4] = minY;
+        mFrameKey[5] = maxY;
+        mFrameKey[6] = graphLeft;
+        mFrameKey[7] = graphTop;
+        mFrameKey[8] = graphWidth;
+        mFrameKey[9] = graphHeight;
+        mFrameVersion = mDataVersion;
+        return valid;
+    }
+
+    /**
+     * force rebuilding of geometry in next frame, call when style affecting geometry changes
+     */
+    protected void invalidateFrame() {
+        mFrameVersion = -1;
+    }
+
+    /**
+     * Reduce points of the range to first, lowest, highest and last point of every pixel column.
+     * Rendered line keeps its envelope while number of segments is limited by the width of the graph.
+     * If there is less points than pixels all points are kept.
+     * {@link #prepareFrame} must be called before.
+     *
+     * @return number of indices stored to {@link #mDecimated}
+     */
+    protected int decimate(int start, int end, double minX, double diffX, float graphWidth) {
+        if (mDecimated.length < end - start) mDecimated = new int[Math.max(end - start, mDecimated.length * 2)];
+        int count = 0;
+        if (end - start <= graphWidth) {
+            for (int i = start; i < end; i++) mDecimated[count++] = i;
+            return count;
+        }
+        long column = Long.MIN_VALUE;
+        int first = -1, lowest = -1, highest = -1, last = -1;
+        for (int i = start; i < end; i++) {
+            long c = (long) Math.floor((mX[i] - minX) / diffX * graphWidth);
+            if (c != column) {
+                count = addColumn(count, first, lowest, highest, last);
+                column = c;
+                first = lowest = highest = last = i;
+            } else {
+                if (mY[i] < mY[lowest]) lowest = i;
+                if (mY[i] > mY[highest]) highest = i;
+                last = i;
+            }
+        }
+        return addColumn(count, first, lowest, highest, last);
+    }
+
+    private int addColumn(int count, int first, int lowest, int highest, int last) {
+        if (first < 0) return count;
+        mDecimated[count++] = first;
+        int a = Math.min(lowest, highest);
+        int b = Math.max(lowest, highest);
+        if (a != first) mDecimated[count++] = a;
+        if (b != a && b != first) mDecimated[count++] = b;
+        if (last != b && last != first) mDecimated[count++] = last;
+        return count;
     }
 
     /**
@@ -303,16 +422,14 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
     @Nullable protected E findDataPoint(float x, float y) {
         float shortestDistance = Float.NaN;
         E shortest = null;
-        for (Map.Entry<PointF, E> entry : mDataPoints.entrySet()) {
-            float x1 = entry.getKey().x;
-            float y1 = entry.getKey().y;
-            float x2 = x;
-            float y2 = y;
+        for (int i = 0; i < mTapPoints.size(); i++) {
+            float dx = mTapX[i] - x;
+            float dy = mTapY[i] - y;
 
-            float distance = (float) Math.sqrt((x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2));
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
             if (shortest == null || distance < shortestDistance) {
                 shortestDistance = distance;
-                shortest = entry.getValue();
+                shortest = mTapPoints.get(i);
             }
         }
         if (shortest != null) {
@@ -331,14 +448,21 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
      * @param dp the data point to save
      */
     protected void registerDataPoint(float x, float y, E dp) {
-        mDataPoints.put(new PointF(x, y), dp);
+        int index = mTapPoints.size();
+        if (index == mTapX.length) {
+            mTapX = Arrays.copyOf(mTapX, index * 2);
+            mTapY = Arrays.copyOf(mTapY, index * 2);
+        }
+        mTapX[index] = x;
+        mTapY[index] = y;
+        mTapPoints.add(dp);
     }
 
     /**
      * clears the cached data point coordinates
      */
     protected void resetDataPoints() {
-        mDataPoints.clear();
+        mTapPoints.clear();
     }
 
     /**
@@ -352,6 +476,7 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
         mData.clear();
         Collections.addAll(mData, data);
         checkValueOrder(null);
+        rebuildX();
 
         // update graphview
         for (GraphView gv : mGraphViews) {
@@ -387,11 +512,16 @@ public abstract class BaseSeries<E extends DataPointInterface> implements Series
             if (curDataCount < maxDataPoints) {
                 // enough space
                 mData.add(dataPoint);
+                if (mX.length == curDataCount) mX = Arrays.copyOf(mX, Math.max(16, curDataCount * 2));
+                mX[curDataCount] = dataPoint.getX();
             } else {
                 // we have to trim one data
                 mData.remove(0);
                 mData.add(dataPoint);
+                System.arraycopy(mX, 1, mX, 0, curDataCount - 1);
+                mX[curDataCount - 1] = dataPoint.getX();
             }
+            mDataVersion++;
         }
 
         // recalc the labels when it was the first data
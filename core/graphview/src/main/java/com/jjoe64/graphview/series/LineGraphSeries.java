@@ -26,8 +26,6 @@ import android.graphics.Path;
 
 import com.jjoe64.graphview.GraphView;
 
-import java.util.Iterator;
-
 /**
  * Series to plot the data as line.
  * The line can be styled with many options.
@@ -104,6 +102,11 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
      */
     private Path mPath;
 
+    /**
+     * path of highlighted data points
+     */
+    private Path mPathDataPoints;
+
     /**
      * custom paint that can be used.
      * this will ignore the thickness and color styles.
@@ -140,6 +143,7 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
 
         mPathBackground = new Path();
         mPath = new Path();
+        mPathDataPoints = new Path();
     }
 
     /**
@@ -152,8 +156,6 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
      */
     @Override
     public void draw(GraphView graphView, Canvas canvas, boolean isSecondScale) {
-        resetDataPoints();
-
         // get data
         double maxX = graphView.getViewport().getMaxX(false);
         double minX = graphView.getViewport().getMinX(false);
@@ -168,12 +170,6 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
             minY = graphView.getViewport().getMinY(false);
         }
 
-        Iterator<E> values = getValues(minX, maxX);
-
-        // draw background
-        double lastEndY = 0;
-        double lastEndX = 0;
-
         // draw data
         mPaint.setStrokeWidth(mStyles.thickness);
         mPaint.setColor(getColor());
@@ -186,31 +182,58 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
             paint = mPaint;
         }
 
+        float graphHeight = graphView.getGraphContentHeight();
+        float graphWidth = graphView.getGraphContentWidth();
+        float graphLeft = graphView.getGraphContentLeft();
+        float graphTop = graphView.getGraphContentTop();
+
+        int start = getFirstVisibleIndex(minX);
+        int end = Math.max(start, getEndVisibleIndex(maxX));
+        // paths are rebuilt only when data or viewport changed
+        if (!prepareFrame(start, end, minX, maxX, minY, maxY, graphLeft, graphTop, graphWidth, graphHeight)) {
+            buildPaths(start, end, minX, maxX, minY, maxY, graphLeft, graphTop, graphWidth, graphHeight);
+        }
+
+        canvas.drawPath(mPath, paint);
+        if (mStyles.drawDataPoints) {
+            canvas.drawPath(mPathDataPoints, mPaint);
+        }
         if (mStyles.drawBackground) {
-            mPathBackground.reset();
+            canvas.drawPath(mPathBackground, mPaintBackground);
         }
+    }
+
+    /**
+     * build line, data points and background paths of visible range
+     */
+    private void buildPaths(int start, int end, double minX, double maxX, double minY, double maxY,
+                            float graphLeft, float graphTop, float graphWidth, float graphHeight) {
+        resetDataPoints();
+        mPath.reset();
+        mPathDataPoints.reset();
+        mPathBackground.reset();
 
         double diffY = maxY - minY;
         double diffX = maxX - minX;
 
-        float graphHeight = graphView.getGraphContentHeight();
-        float graphWidth = graphView.getGraphContentWidth();
-        float graphLeft = graphView.getGraphContentLeft();
-        float graphTop = graphView.getGraphContentTop();
+        // keep all points when they are highlighted
+        int count = decimate(start, end, minX, diffX, mStyles.drawDataPoints ? Float.MAX_VALUE : graphWidth);
 
-        lastEndY = 0;
-        lastEndX = 0;
+        double lastEndY = 0;
+        double lastEndX = 0;
         double lastUsedEndX = 0;
+        float lastPathX = Float.NaN;
+        float lastPathY = Float.NaN;
         float firstX = 0;
-        int i=0;
-        while (values.hasNext()) {
-            E value = values.next();
+        for (int i = 0; i < count; i++) {
+            int index = mDecimated[i];
+            E value = getDataPoint(index);
 
-            double valY = value.getY() - minY;
+            double valY = mY[index] - minY;
             double ratY = valY / diffY;
             double y = graphHeight * ratY;
 
-            double valX = value.getX() - minX;
+            double valX = getX(index) - minX;
             double ratX = valX / diffX;
             double x = graphWidth * ratX;
 
@@ -258,14 +281,17 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
                 // draw data point
                 if (mStyles.drawDataPoints) {
                     //fix: last value was not drawn. Draw here now the end values
-                    canvas.drawCircle(endX, endY, mStyles.dataPointsRadius, mPaint);
+                    mPathDataPoints.addCircle(endX, endY, mStyles.dataPointsRadius, Path.Direction.CW);
                 }
                 registerDataPoint(endX, endY, value);
 
-                mPath.reset();
-                mPath.moveTo(startX, startY);
+                // continue current contour if segment starts where previous one ended
+                if (startX != lastPathX || startY != lastPathY) {
+                    mPath.moveTo(startX, startY);
+                }
                 mPath.lineTo(endX, endY);
-                canvas.drawPath(mPath, paint);
+                lastPathX = endX;
+                lastPathY = endY;
                 if (mStyles.drawBackground) {
                     if (i==1) {
                         firstX = startX;
@@ -274,15 +300,9 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
                     mPathBackground.lineTo(endX, endY);
                 }
                 lastUsedEndX = endX;
-            } else if (mStyles.drawDataPoints) {
-                //fix: last value not drawn as datapoint. Draw first point here, and then on every step the end values (above)
-                float first_X = (float) x + (graphLeft + 1);
-                float first_Y = (float) (graphTop - y) + graphHeight;
-                //TODO canvas.drawCircle(first_X, first_Y, dataPointsRadius, mPaint);
             }
             lastEndY = orgY;
             lastEndX = orgX;
-            i++;
         }
 
         if (mStyles.drawBackground) {
@@ -290,9 +310,7 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
             mPathBackground.lineTo((float) lastUsedEndX, graphHeight + graphTop);
             mPathBackground.lineTo(firstX, graphHeight + graphTop);
             mPathBackground.close();
-            canvas.drawPath(mPathBackground, mPaintBackground);
         }
-
     }
 
     /**
@@ -339,6 +357,7 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
      */
     public void setDrawBackground(boolean drawBackground) {
         mStyles.drawBackground = drawBackground;
+        invalidateFrame();
     }
 
     /**
@@ -361,6 +380,7 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
      */
     public void setDrawDataPoints(boolean drawDataPoints) {
         mStyles.drawDataPoints = drawDataPoints;
+        invalidateFrame();
     }
 
     /**
@@ -377,6 +397,7 @@ public class LineGraphSeries<E extends DataPointInterface> extends BaseSeries<E>
      */
     public void setDataPointsRadius(float dataPointsRadius) {
         mStyles.dataPointsRadius = dataPointsRadius;
+        invalidateFrame();
     }
 
     /**
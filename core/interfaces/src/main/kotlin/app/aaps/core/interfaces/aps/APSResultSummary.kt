@@ -0,0 +1,20 @@
+package app.aaps.core.interfaces.aps
+
+/**
+ * Values of stored [APSResult] available without decoding of whole record
+ *
+ * @param date time of APS run
+ * @param glucose glucose used for calculation in mg/dl
+ * @param targetBG target in mg/dl
+ * @param variableSens ISF calculated by dynamic ISF in mg/dl
+ * @param rate requested TBR rate, null if no change requested
+ * @param smb requested SMB
+ */
+data class APSResultSummary(
+    val date: Long,
+    val glucose: Double?,
+    val targetBG: Double?,
+    val variableSens: Double?,
+    val rate: Double?,
+    val smb: Double?
+)
@@ -34,6 +34,13 @@ interface AutosensDataStore {
     fun getLastAutosensData(reason: String, aapsLogger: AAPSLogger, dateUtil: DateUtil): AutosensData?
     fun getAutosensDataAtTime(fromTime: Long): AutosensData?
     fun getBucketedDataTableCopy(): MutableList<InMemoryGlucoseValue>?
+
+    /**
+     * Provide snapshot of bucketed data. The same instance is returned until bucketed data is replaced
+     *
+     * @return BucketedDataSnapshot or null if there are no bucketed data
+     */
+    fun getBucketedDataSnapshot(): BucketedDataSnapshot?
     fun createBucketedData(aapsLogger: AAPSLogger, dateUtil: DateUtil)
     fun slowAbsorptionPercentage(timeInMinutes: Int): Double
     fun newHistoryData(time: Long, aapsLogger: AAPSLogger, dateUtil: DateUtil)
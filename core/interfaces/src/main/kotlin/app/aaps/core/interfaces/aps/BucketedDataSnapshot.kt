@@ -0,0 +1,23 @@
+package app.aaps.core.interfaces.aps
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Read-only copy of bucketed data (newest first) shared by all readers until
+ * [AutosensDataStore.bucketedData] is replaced.
+ *
+ * Values derived from the data (ie. glucose status) can be stored by [memoize]
+ * and are computed only once per snapshot.
+ */
+class BucketedDataSnapshot(val data: List<InMemoryGlucoseValue>) {
+
+    private val memo = ConcurrentHashMap<Any, Any>()
+
+    /**
+     * Return value stored under [key] or compute it from [data] and store it
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T : Any> memoize(key: Any, compute: (List<InMemoryGlucoseValue>) -> T): T =
+        memo.computeIfAbsent(key) { compute(data) } as T
+}
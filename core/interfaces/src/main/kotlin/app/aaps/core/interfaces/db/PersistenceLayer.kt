@@ -24,6 +24,7 @@ import app.aaps.core.data.ue.Action
 import app.aaps.core.data.ue.Sources
 import app.aaps.core.data.ue.ValueWithUnit
 import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.APSResultSummary
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
@@ -1032,6 +1033,18 @@ interface PersistenceLayer {
      */
     fun syncPumpStopExtendedBolusWithPumpId(timestamp: Long, endPumpId: Long, pumpType: PumpType, pumpSerial: String): Single<TransactionResult<EB>>
 
+    // Pump history
+    /**
+     * Sync batch of records coming from one pump to database in single transaction
+     * Records are processed in provided order with the same rules as single syncPump* calls
+     *
+     * @param records records to sync
+     * @param pumpType PumpType
+     * @param pumpSerial pump serial number
+     * @return inserted/updated records and per record flag
+     */
+    fun syncPumpHistory(records: List<PumpHistoryRecord>, pumpType: PumpType, pumpSerial: String): Single<PumpHistoryResult>
+
     // TT
     /**
      * Get running temporary target at time
@@ -1411,6 +1424,22 @@ interface PersistenceLayer {
             }
     }
 
+    sealed class PumpHistoryRecord {
+        data class Bolus(val bolus: BS, val type: BS.Type?) : PumpHistoryRecord()
+        data class TemporaryBasal(val temporaryBasal: TB, val type: TB.Type?) : PumpHistoryRecord()
+        data class StopTemporaryBasal(val timestamp: Long, val endPumpId: Long) : PumpHistoryRecord()
+        data class ExtendedBolus(val extendedBolus: EB) : PumpHistoryRecord()
+        data class StopExtendedBolus(val timestamp: Long, val endPumpId: Long) : PumpHistoryRecord()
+    }
+
+    class PumpHistoryResult(
+        val boluses: TransactionResult<BS>,
+        val temporaryBasals: TransactionResult<TB>,
+        val extendedBoluses: TransactionResult<EB>,
+        /** Per record: record inserted (Bolus, TemporaryBasal, ExtendedBolus) or running record ended (Stop*) */
+        val changed: List<Boolean>
+    )
+
     data class Calibration(
         val timestamp: Long,
         val value: Double,
@@ -1434,6 +1463,15 @@ interface PersistenceLayer {
      */
     fun getApsResults(start: Long, end: Long): List<APSResult>
 
+    /**
+     * Get list of APSResult values for interval without decoding of stored JSON
+     *
+     * @param start from
+     * @param end to
+     * @return List of APSResultSummary
+     */
+    fun getApsResultSummaries(start: Long, end: Long): List<APSResultSummary>
+
     /**
      * Insert or update ApsResult record
      *
@@ -18,6 +18,16 @@ interface IobCobCalculator {
 
     fun calculateFromTreatmentsAndTemps(toTime: Long, profile: Profile): IobTotal
 
+    /**
+     * Batch version of [calculateFromTreatmentsAndTemps]
+     * Treatments are read from database once for all times, results are equal to per-time calculation
+     *
+     * @param toTimes calculated times
+     * @param profiles profile valid at every time
+     * @return IobTotal for every time (in the same order)
+     */
+    fun calculateFromTreatmentsAndTemps(toTimes: LongArray, profiles: Array<Profile>): Array<IobTotal>
+
     fun calculateDetectionStart(from: Long, limitDataToOldestAvailable: Boolean): Long
 
     fun getBasalData(profile: Profile, fromTime: Long): BasalData
@@ -1,8 +1,82 @@
 package app.aaps.core.interfaces.profiling
 
 import app.aaps.core.interfaces.logging.LTag
+import java.io.File
 
 interface Profiler {
 
     fun log(lTag: LTag, function: String, start: Long)
-}
\ No newline at end of file
+
+    /**
+     * Span tracing is enabled (in preferences)
+     * When disabled [trace] only runs the block
+     */
+    val isTracing: Boolean
+
+    /**
+     * Open span on current thread. Spans opened before and not yet ended are its parents
+     * Prefer [trace], span must be ended on the same thread
+     *
+     * @param name span name, statistics are aggregated by name
+     * @return span to be ended, no-op span if tracing is disabled
+     */
+    fun begin(name: String): Span
+
+    /**
+     * Statistics of spans recorded since start of tracing
+     *
+     * @return statistics sorted by total time descending
+     */
+    fun statistics(): List<SpanStatistics>
+
+    /**
+     * Write recently finished spans to file in Trace Event Format (JSON)
+     * File can be opened in Perfetto UI (ui.perfetto.dev) or chrome://tracing
+     */
+    fun exportTrace(file: File)
+
+    /**
+     * Drop recorded spans and statistics
+     */
+    fun reset()
+
+    fun interface Span {
+
+        fun end()
+    }
+
+    /**
+     * Aggregated durations of span
+     * Percentiles are calculated from last [sample] durations
+     *
+     * @param selfNanos total time not spent in nested spans
+     */
+    data class SpanStatistics(
+        val name: String,
+        val count: Long,
+        val totalNanos: Long,
+        val selfNanos: Long,
+        val maxNanos: Long,
+        val p50Nanos: Long,
+        val p95Nanos: Long,
+        val sample: Int
+    ) {
+
+        override fun toString(): String =
+            "$name: count=$count total=${totalNanos / 1_000_000}ms self=${selfNanos / 1_000_000}ms p50=${p50Nanos / 1000}us p95=${p95Nanos / 1000}us max=${maxNanos / 1000}us"
+    }
+}
+
+/**
+ * Run [block] inside of span [name]
+ * Costs one volatile read when tracing is disabled
+ */
+inline fun <T> Profiler.trace(name: String, block: () -> T): T {
+    if (!isTracing) return block()
+    val span = begin(name)
+    try {
+        return block()
+    } finally {
+        span.end()
+    }
+}
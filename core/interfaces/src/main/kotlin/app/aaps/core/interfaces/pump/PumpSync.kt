@@ -535,6 +535,38 @@ interface PumpSync {
      **/
     fun syncStopExtendedBolusWithPumpId(timestamp: Long, endPumpId: Long, pumpType: PumpType, pumpSerial: String): Boolean
 
+    /*
+    *   PUMP HISTORY
+    */
+
+    sealed class PumpEvent {
+
+        abstract val timestamp: Long
+
+        data class Bolus(override val timestamp: Long, val amount: Double, val type: BS.Type?, val pumpId: Long) : PumpEvent()
+        data class TemporaryBasal(override val timestamp: Long, val rate: Double, val duration: Long, val isAbsolute: Boolean, val type: TemporaryBasalType?, val pumpId: Long) : PumpEvent()
+        data class StopTemporaryBasal(override val timestamp: Long, val endPumpId: Long) : PumpEvent()
+        data class ExtendedBolus(override val timestamp: Long, val amount: Double, val duration: Long, val isEmulatingTB: Boolean, val pumpId: Long) : PumpEvent()
+        data class StopExtendedBolus(override val timestamp: Long, val endPumpId: Long) : PumpEvent()
+    }
+
+    /**
+     * Synchronization of pump history read in one batch (ie. after reconnection)
+     *
+     * Equivalent of calling [syncBolusWithPumpId], [syncTemporaryBasalWithPumpId], [syncStopTemporaryBasalWithPumpId],
+     * [syncExtendedBolusWithPumpId] and [syncStopExtendedBolusWithPumpId] for every event in provided order,
+     * but stored records are looked up in bulk and all changes are done in single database transaction
+     * with single change notification
+     *
+     * see [app.aaps.database.transactions.SyncPumpHistoryTransaction]
+     *
+     * @param events        events from pump history in order of processing
+     * @param pumpType      pump type like PumpType.ACCU_CHEK_COMBO
+     * @param pumpSerial    pump serial number
+     * @return per event the same value as corresponding single call would return
+     **/
+    fun syncPumpEvents(events: List<PumpEvent>, pumpType: PumpType, pumpSerial: String): List<Boolean>
+
     /*
     *   TOTAL DAILY DOSE
     */
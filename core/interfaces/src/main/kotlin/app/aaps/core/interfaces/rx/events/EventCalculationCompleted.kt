@@ -0,0 +1,22 @@
+package app.aaps.core.interfaces.rx.events
+
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+
+/**
+ * Fired once at the end of a calculation workflow run.
+ * Replaces separate per-stage graph, IOB/COB and sensitivity updates so listeners refresh only once.
+ *
+ * @param job workflow job ([CalculationWorkflow.MAIN_CALCULATION], [CalculationWorkflow.HISTORY_CALCULATION], ...) or null
+ * @param changed parts of overview data updated during the run
+ * @param suppressedPasses number of intermediate UI refreshes merged into this event
+ */
+class EventCalculationCompleted(
+    val job: String?,
+    val changed: Set<CalculationWorkflow.ChangedPart>,
+    val suppressedPasses: Int
+) : Event() {
+
+    fun hasChanged(part: CalculationWorkflow.ChangedPart): Boolean = changed.contains(part)
+
+    override fun toString(): String = "EventCalculationCompleted[job=$job,changed=$changed,suppressedPasses=$suppressedPasses]"
+}
@@ -1,3 +0,0 @@
-package app.aaps.core.interfaces.rx.events
-
-class EventUpdateOverviewIobCob(val from: String) : Event()
\ No newline at end of file
@@ -14,6 +14,23 @@ interface CalculationWorkflow {
         const val UPDATE_PREDICTIONS = "update_predictions"
         const val JOB = "job"
         const val PASS = "pass"
+        const val CHANGED = "changed"
+    }
+
+    /**
+     * Parts of overview data a workflow run may update.
+     * Collected per run and published once in [app.aaps.core.interfaces.rx.events.EventCalculationCompleted]
+     */
+    enum class ChangedPart {
+        BG,
+        TREATMENTS,
+        BASAL,
+        TEMPORARY_TARGET,
+        RUNNING_MODE,
+        IOB_COB,
+        SENSITIVITY,
+        IOB_AUTOSENS_GRAPH,
+        PREDICTIONS
     }
 
     enum class ProgressData(val pass: Int, val percentOfTotal: Int) {
@@ -38,6 +55,14 @@ interface CalculationWorkflow {
 
     fun stopCalculation(job: String, from: String)
 
+    /**
+     * Mark data used for graphs changed from [from]
+     * Next run of [job] recalculates cached graph data from this time only
+     *
+     * @param from timestamp of oldest changed record, 0 for full recalculation
+     */
+    fun invalidateGraphData(job: String, from: Long)
+
     /**
      * Start calculation of data needed for displaying graphs
      *
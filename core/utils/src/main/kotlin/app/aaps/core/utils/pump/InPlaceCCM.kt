@@ -0,0 +1,119 @@
+package app.aaps.core.utils.pump
+
+import org.spongycastle.crypto.BlockCipher
+
+/**
+ * CCM (RFC 3610) over 16 byte block cipher, working directly on packet buffers.
+ *
+ * Key schedule is done once by the caller, who passes [engine] initialized for encryption.
+ * CTR is done in place and MAC is computed over header and payload without padded copies.
+ * Produces the same results as CCMBlockCipher with AEADParameters(key, tagSize * 8, nonce, header)
+ * for non-empty header.
+ *
+ * @param nonceSize 7 .. 13 bytes, the rest of the block is counter
+ * @param tagSize even number of bytes 4 .. 16
+ */
+open class InPlaceCCM(private val engine: BlockCipher, private val nonceSize: Int, val tagSize: Int) {
+
+    private val counterBlock = ByteArray(BLOCK_SIZE)
+    private val cipherBlock = ByteArray(BLOCK_SIZE)
+    private val macBlock = ByteArray(BLOCK_SIZE)
+    private val tag = ByteArray(tagSize)
+    private var macPosition = 0
+
+    // Adata | (tagSize - 2) / 2 << 3 | (15 - nonceSize - 1)
+    private val macFlags = (0x40 or ((tagSize - 2) / 2 shl 3) or (BLOCK_SIZE - nonceSize - 2)).toByte()
+    private val ctrFlags = (BLOCK_SIZE - nonceSize - 2).toByte()
+
+    init {
+        require(engine.blockSize == BLOCK_SIZE) { "Block size must be $BLOCK_SIZE" }
+        require(nonceSize in 7..13) { "Invalid nonce size $nonceSize" }
+        require(tagSize in 4..16 && tagSize % 2 == 0) { "Invalid tag size $tagSize" }
+    }
+
+    /**
+     * Encrypt or decrypt (the same in CTR mode) [length] bytes of [data] at [offset] in place
+     */
+    @Synchronized
+    fun processCTR(nonce: ByteArray, nonceOffset: Int, data: ByteArray, offset: Int, length: Int) {
+        var processed = 0
+        var counter = 1
+        while (processed < length) {
+            encryptBlock(ctrFlags, nonce, nonceOffset, counter++, cipherBlock)
+            val count = minOf(BLOCK_SIZE, length - processed)
+            for (i in 0 until count) data[offset + processed + i] = (data[offset + processed + i].toInt() xor cipherBlock[i].toInt()).toByte()
+            processed += count
+        }
+    }
+
+    /**
+     * Write CCM tag of plain [payload] and [header] to [output] at [outputOffset]
+     */
+    @Synchronized
+    fun produceTag(
+        nonce: ByteArray, nonceOffset: Int,
+        header: ByteArray, headerOffset: Int, headerLength: Int,
+        payload: ByteArray, payloadOffset: Int, payloadLength: Int,
+        output: ByteArray, outputOffset: Int
+    ) {
+        // CBC-MAC with IV = E(flags | nonce | payload length)
+        encryptBlock(macFlags, nonce, nonceOffset, payloadLength, macBlock)
+        macPosition = 0
+        macUpdate((headerLength shr 8).toByte())
+        macUpdate(headerLength.toByte())
+        for (i in 0 until headerLength) macUpdate(header[headerOffset + i])
+        macFlush()
+        for (i in 0 until payloadLength) macUpdate(payload[payloadOffset + i])
+        macFlush()
+        encryptBlock(ctrFlags, nonce, nonceOffset, 0, cipherBlock)
+        for (i in 0 until tagSize) output[outputOffset + i] = (macBlock[i].toInt() xor cipherBlock[i].toInt()).toByte()
+    }
+
+    /**
+     * Compare CCM tag of plain [payload] and [header] with [trailer] at [trailerOffset] in constant time
+     */
+    @Synchronized
+    fun verifyTag(
+        nonce: ByteArray, nonceOffset: Int,
+        header: ByteArray, headerOffset: Int, headerLength: Int,
+        payload: ByteArray, payloadOffset: Int, payloadLength: Int,
+        trailer: ByteArray, trailerOffset: Int
+    ): Boolean {
+        produceTag(nonce, nonceOffset, header, headerOffset, headerLength, payload, payloadOffset, payloadLength, tag, 0)
+        var diff = 0
+        for (i in 0 until tagSize) diff = diff or (tag[i].toInt() xor trailer[trailerOffset + i].toInt())
+        return diff == 0
+    }
+
+    // flags | nonce | big endian number in the rest of block, encrypted to output
+    private fun encryptBlock(flags: Byte, nonce: ByteArray, nonceOffset: Int, number: Int, output: ByteArray) {
+        counterBlock[0] = flags
+        System.arraycopy(nonce, nonceOffset, counterBlock, 1, nonceSize)
+        var value = number
+        for (i in BLOCK_SIZE - 1 downTo nonceSize + 1) {
+            counterBlock[i] = value.toByte()
+            value = value shr 8
+        }
+        engine.processBlock(counterBlock, 0, output, 0)
+    }
+
+    private fun macUpdate(b: Byte) {
+        macBlock[macPosition] = (macBlock[macPosition].toInt() xor b.toInt()).toByte()
+        if (++macPosition == BLOCK_SIZE) {
+            engine.processBlock(macBlock, 0, macBlock, 0)
+            macPosition = 0
+        }
+    }
+
+    // zero padding of last block, xor with zeros leaves the block as it is
+    private fun macFlush() {
+        if (macPosition == 0) return
+        engine.processBlock(macBlock, 0, macBlock, 0)
+        macPosition = 0
+    }
+
+    companion object {
+
+        const val BLOCK_SIZE = 16
+    }
+}
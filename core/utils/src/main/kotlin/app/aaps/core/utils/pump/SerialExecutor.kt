@@ -0,0 +1,112 @@
+package app.aaps.core.utils.pump
+
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.max
+
+/**
+ * Executor running all tasks of one pump driver on one thread in order.
+ *
+ * Replacement for ad-hoc `Thread { SystemClock.sleep(..) ... }` in BLE callbacks:
+ * delays and packet pacing are scheduled, so no thread is blocked while waiting.
+ * Thread is started on demand and stops after [KEEP_ALIVE_SECONDS] without tasks.
+ *
+ * @param name thread name
+ * @param onError called on executor thread with exception thrown by task
+ */
+class SerialExecutor(private val name: String, private val onError: (Throwable) -> Unit = {}) {
+
+    data class Metrics(
+        val executed: Long,
+        val queueDepth: Int,
+        val maxQueueDepth: Int,
+        val averageLatencyMillis: Double,
+        val maxLatencyMillis: Double
+    )
+
+    private val executor = ScheduledThreadPoolExecutor(1) { runnable -> Thread(runnable, name).also { it.isDaemon = true } }.also {
+        it.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+        it.allowCoreThreadTimeOut(true)
+        it.removeOnCancelPolicy = true
+    }
+
+    // time of last paced task, guarded by this
+    private var lastPacedNanos = 0L
+
+    private val executed = AtomicLong()
+    private val totalLatencyNanos = AtomicLong()
+    private val maxLatencyNanos = AtomicLong()
+    @Volatile private var maxQueueDepth = 0
+
+    /**
+     * Run [task] as soon as previous tasks are done
+     */
+    fun execute(task: Runnable): ScheduledFuture<*> = submit(0, task)
+
+    /**
+     * Run [task] after [delayMillis]. Returned future can be cancelled before it starts.
+     */
+    fun schedule(delayMillis: Long, task: Runnable): ScheduledFuture<*> = submit(TimeUnit.MILLISECONDS.toNanos(delayMillis), task)
+
+    /**
+     * Run [task] [intervalMillis] after it was queued or after previous paced task, whichever is later.
+     * Used for pacing of packets sent to pump.
+     */
+    @Synchronized
+    fun executePaced(intervalMillis: Long, task: Runnable): ScheduledFuture<*> {
+        val now = System.nanoTime()
+        lastPacedNanos = max(now, lastPacedNanos) + TimeUnit.MILLISECONDS.toNanos(intervalMillis)
+        return submit(lastPacedNanos - now, task)
+    }
+
+    /**
+     * Counters since creation, logged by drivers when connection is closed
+     */
+    fun metrics(): Metrics {
+        val count = executed.get()
+        return Metrics(
+            executed = count,
+            queueDepth = executor.queue.size,
+            maxQueueDepth = maxQueueDepth,
+            averageLatencyMillis = if (count == 0L) 0.0 else totalLatencyNanos.get() / count / 1_000_000.0,
+            maxLatencyMillis = maxLatencyNanos.get() / 1_000_000.0
+        )
+    }
+
+    /**
+     * Drop queued tasks. Executor can't be used after shutdown, check [isShutdown] before scheduling.
+     */
+    fun shutdown() {
+        executor.shutdownNow()
+    }
+
+    val isShutdown: Boolean get() = executor.isShutdown
+
+    private fun submit(delayNanos: Long, task: Runnable): ScheduledFuture<*> {
+        val plannedNanos = System.nanoTime() + delayNanos
+        val future = executor.schedule({ run(plannedNanos, task) }, delayNanos, TimeUnit.NANOSECONDS)
+        val depth = executor.queue.size
+        if (depth > maxQueueDepth) maxQueueDepth = depth
+        return future
+    }
+
+    private fun run(plannedNanos: Long, task: Runnable) {
+        // dispatch latency: how late task started compared to planned time
+        val latency = max(0, System.nanoTime() - plannedNanos)
+        executed.incrementAndGet()
+        totalLatencyNanos.addAndGet(latency)
+        maxLatencyNanos.accumulateAndGet(latency) { a, b -> max(a, b) }
+        try {
+            task.run()
+        } catch (e: Exception) {
+            onError(e)
+        }
+    }
+
+    companion object {
+
+        const val KEEP_ALIVE_SECONDS = 10L
+    }
+}
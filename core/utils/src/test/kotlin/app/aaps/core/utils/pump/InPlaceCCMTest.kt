@@ -0,0 +1,65 @@
+package app.aaps.core.utils.pump
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.spongycastle.crypto.BlockCipher
+import org.spongycastle.crypto.engines.AESEngine
+import org.spongycastle.crypto.engines.TwofishEngine
+import org.spongycastle.crypto.modes.CCMBlockCipher
+import org.spongycastle.crypto.params.AEADParameters
+import org.spongycastle.crypto.params.KeyParameter
+import kotlin.random.Random
+
+class InPlaceCCMTest {
+
+    private val random = Random(38)
+    private val key = random.nextBytes(16)
+
+    private fun ccm(engine: BlockCipher, nonceSize: Int, tagSize: Int) = InPlaceCCM(engine.also { it.init(true, KeyParameter(key)) }, nonceSize, tagSize)
+
+    private fun reference(engine: BlockCipher, nonce: ByteArray, header: ByteArray, payload: ByteArray, tagSize: Int): ByteArray {
+        val cipher = CCMBlockCipher(engine)
+        cipher.init(true, AEADParameters(KeyParameter(key), tagSize * 8, nonce, header))
+        val output = ByteArray(cipher.getOutputSize(payload.size))
+        cipher.processPacket(payload, 0, payload.size, output, 0)
+        return output
+    }
+
+    // ciphertext followed by tag, like CCMBlockCipher
+    private fun encrypt(ccm: InPlaceCCM, nonce: ByteArray, header: ByteArray, payload: ByteArray): ByteArray {
+        val buffer = payload.copyOf(payload.size + ccm.tagSize)
+        ccm.produceTag(nonce, 0, header, 0, header.size, buffer, 0, payload.size, buffer, payload.size)
+        ccm.processCTR(nonce, 0, buffer, 0, payload.size)
+        return buffer
+    }
+
+    @Test
+    fun `same output as CCMBlockCipher`() {
+        for ((nonceSize, tagSize) in listOf(13 to 8, 12 to 16, 7 to 4)) {
+            val aes = ccm(AESEngine(), nonceSize, tagSize)
+            val twofish = ccm(TwofishEngine(), nonceSize, tagSize)
+            for (size in listOf(0, 1, 15, 16, 17, 100)) {
+                val nonce = random.nextBytes(nonceSize)
+                val header = random.nextBytes(random.nextInt(1, 40))
+                val payload = random.nextBytes(size)
+                assertThat(encrypt(aes, nonce, header, payload).toList()).isEqualTo(reference(AESEngine(), nonce, header, payload, tagSize).toList())
+                assertThat(encrypt(twofish, nonce, header, payload).toList()).isEqualTo(reference(TwofishEngine(), nonce, header, payload, tagSize).toList())
+            }
+        }
+    }
+
+    @Test
+    fun `decrypted in place and verified`() {
+        val ccm = ccm(AESEngine(), 13, 8)
+        val nonce = random.nextBytes(13)
+        val header = random.nextBytes(16)
+        val payload = random.nextBytes(50)
+        // nonce and header taken from the middle of packet
+        val packet = random.nextBytes(4) + nonce + header + encrypt(ccm, nonce, header, payload)
+        ccm.processCTR(packet, 4, packet, 33, payload.size)
+        assertThat(packet.copyOfRange(33, 33 + payload.size).toList()).isEqualTo(payload.toList())
+        assertThat(ccm.verifyTag(packet, 4, packet, 17, 16, packet, 33, payload.size, packet, 33 + payload.size)).isTrue()
+        packet[40] = (packet[40].toInt() xor 1).toByte()
+        assertThat(ccm.verifyTag(packet, 4, packet, 17, 16, packet, 33, payload.size, packet, 33 + payload.size)).isFalse()
+    }
+}
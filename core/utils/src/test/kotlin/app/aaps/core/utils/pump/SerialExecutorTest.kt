@@ -0,0 +1,80 @@
+package app.aaps.core.utils.pump
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+class SerialExecutorTest {
+
+    private val errors = Collections.synchronizedList(mutableListOf<Throwable>())
+    private val sut = SerialExecutor("test") { errors.add(it) }
+
+    @AfterEach fun tearDown() {
+        sut.shutdown()
+    }
+
+    @Test
+    fun `tasks run in order on one thread`() {
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val threads = Collections.synchronizedSet(mutableSetOf<Thread>())
+        repeat(100) { index ->
+            sut.execute {
+                order.add(index)
+                threads.add(Thread.currentThread())
+            }
+        }
+        sut.execute { }.get(5, TimeUnit.SECONDS)
+        assertThat(order).isEqualTo((0 until 100).toList())
+        assertThat(threads.map { it.name }).containsExactly("test")
+        assertThat(sut.metrics().executed).isEqualTo(101)
+        assertThat(sut.metrics().maxQueueDepth).isAtLeast(1)
+    }
+
+    @Test
+    fun `paced tasks keep interval and order`() {
+        val times = Collections.synchronizedList(mutableListOf<Long>())
+        val done = CountDownLatch(5)
+        val start = System.nanoTime()
+        repeat(5) {
+            sut.executePaced(20) {
+                times.add(System.nanoTime())
+                done.countDown()
+            }
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        // n-th task is not started before n intervals
+        times.forEachIndexed { index, time -> assertThat(TimeUnit.NANOSECONDS.toMillis(time - start)).isAtLeast(20L * (index + 1)) }
+        assertThat(times).isInOrder()
+    }
+
+    @Test
+    fun `cancelled task is not run`() {
+        var run = false
+        val future = sut.schedule(200) { run = true }
+        assertThat(future.cancel(false)).isTrue()
+        sut.schedule(300) { }.get(5, TimeUnit.SECONDS)
+        assertThat(run).isFalse()
+    }
+
+    @Test
+    fun `exception is reported and executor continues`() {
+        sut.execute { throw IllegalStateException("test") }
+        var run = false
+        sut.execute { run = true }.get(5, TimeUnit.SECONDS)
+        assertThat(run).isTrue()
+        assertThat(errors.map { it.message }).containsExactly("test")
+    }
+
+    @Test
+    fun `shutdown executor rejects tasks`() {
+        assertThat(sut.isShutdown).isFalse()
+        sut.shutdown()
+        assertThat(sut.isShutdown).isTrue()
+        assertThrows<RejectedExecutionException> { sut.execute { } }
+    }
+}
@@ -0,0 +1,116 @@
+package app.aaps.database.dao
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import androidx.room.Room
+import androidx.room.testing.MigrationTestHelper
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import app.aaps.database.AppDatabase
+import app.aaps.database.di.DatabaseModule
+import app.aaps.database.entities.APSResult
+import app.aaps.database.entities.TABLE_APS_RESULTS
+import app.aaps.database.entities.data.APSResultSummary
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class APSResultDaoTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private fun createDatabase() =
+        Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+
+    @Test
+    fun getApsResultSummaries() {
+        createDatabase().also { db ->
+            val dao = db.apsResultDao
+            dao.insertNewEntry(createApsResult(timestamp = 1000).also { it.glucose = 120.0; it.variableSens = 45.0; it.rate = 0.5 })
+            dao.insertNewEntry(createApsResult(timestamp = 2000).also { it.glucose = 130.0; it.smb = 0.3 })
+            dao.insertNewEntry(createApsResult(timestamp = 3000))
+
+            Assert.assertEquals(
+                listOf(
+                    APSResultSummary(timestamp = 1000, glucose = 120.0, targetBG = null, variableSens = 45.0, rate = 0.5, smb = null),
+                    APSResultSummary(timestamp = 2000, glucose = 130.0, targetBG = null, variableSens = null, rate = null, smb = 0.3)
+                ),
+                dao.getApsResultSummaries(1000, 2000).blockingGet()
+            )
+            db.close()
+        }
+    }
+
+    @Test
+    fun migrate_backfillsSummaryColumns() {
+        val helper = MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            AppDatabase::class.java
+        )
+        helper.createDatabase(TEST_DB_NAME, 31).also { supportDb ->
+            supportDb.insert(TABLE_APS_RESULTS, SQLiteDatabase.CONFLICT_NONE, ContentValues().apply {
+                put("version", 0)
+                put("dateCreated", 0)
+                put("isValid", 1)
+                put("timestamp", 1000)
+                put("utcOffset", 0)
+                put("algorithm", APSResult.Algorithm.SMB.name)
+                put("glucoseStatusJson", """{"glucose":110.0,"noise":0.0,"delta":1.0}""")
+                put("resultJson", """{"runningDynamicIsf":true,"targetBG":100.0,"units":0.4,"duration":30,"rate":-0.2,"variable_sens":52.5}""")
+            })
+            supportDb.insert(TABLE_APS_RESULTS, SQLiteDatabase.CONFLICT_NONE, ContentValues().apply {
+                put("version", 0)
+                put("dateCreated", 0)
+                put("isValid", 1)
+                put("timestamp", 2000)
+                put("utcOffset", 0)
+                put("algorithm", APSResult.Algorithm.SMB.name)
+                put("resultJson", """{"runningDynamicIsf":false,"rate":1.0}""")
+            })
+            // duration without rate is not a TBR request, as in APSResult.toDb()
+            supportDb.insert(TABLE_APS_RESULTS, SQLiteDatabase.CONFLICT_NONE, ContentValues().apply {
+                put("version", 0)
+                put("dateCreated", 0)
+                put("isValid", 1)
+                put("timestamp", 3000)
+                put("utcOffset", 0)
+                put("algorithm", APSResult.Algorithm.SMB.name)
+                put("resultJson", """{"runningDynamicIsf":false,"duration":30}""")
+            })
+            supportDb.close()
+        }
+        Room.databaseBuilder(context, AppDatabase::class.java, TEST_DB_NAME)
+            .addMigrations(*DatabaseModule().migrations)
+            .build().also { db ->
+                Assert.assertEquals(
+                    listOf(
+                        APSResultSummary(timestamp = 1000, glucose = 110.0, targetBG = 100.0, variableSens = 52.5, rate = 0.0, smb = 0.4),
+                        APSResultSummary(timestamp = 2000, glucose = null, targetBG = null, variableSens = null, rate = null, smb = null),
+                        APSResultSummary(timestamp = 3000, glucose = null, targetBG = null, variableSens = null, rate = null, smb = null)
+                    ),
+                    db.apsResultDao.getApsResultSummaries(0, 4000).blockingGet()
+                )
+                db.close()
+            }
+    }
+
+    companion object {
+
+        private const val TEST_DB_NAME = "testDatabase"
+
+        fun createApsResult(timestamp: Long) =
+            APSResult(
+                timestamp = timestamp,
+                algorithm = APSResult.Algorithm.SMB,
+                glucoseStatusJson = null,
+                currentTempJson = null,
+                iobDataJson = null,
+                profileJson = null,
+                autosensDataJson = null,
+                mealDataJson = null,
+                resultJson = "{}"
+            )
+    }
+}
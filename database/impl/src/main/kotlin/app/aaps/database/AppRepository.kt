@@ -18,6 +18,7 @@ import app.aaps.database.entities.TemporaryTarget
 import app.aaps.database.entities.TherapyEvent
 import app.aaps.database.entities.TotalDailyDose
 import app.aaps.database.entities.UserEntry
+import app.aaps.database.entities.data.APSResultSummary
 import app.aaps.database.entities.data.NewEntries
 import app.aaps.database.entities.embedments.InterfaceIDs
 import app.aaps.database.entities.interfaces.DBEntry
@@ -820,6 +821,10 @@ class AppRepository @Inject internal constructor(
         database.apsResultDao.getApsResults(start, end)
             .subscribeOn(Schedulers.io())
 
+    fun getApsResultSummaries(start: Long, end: Long): Single<List<APSResultSummary>> =
+        database.apsResultDao.getApsResultSummaries(start, end)
+            .subscribeOn(Schedulers.io())
+
 }
 
 @Suppress("USELESS_CAST", "unused")
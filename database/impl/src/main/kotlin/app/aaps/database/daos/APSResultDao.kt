@@ -4,6 +4,7 @@ import androidx.room.Dao
 import androidx.room.Query
 import app.aaps.database.entities.APSResult
 import app.aaps.database.entities.TABLE_APS_RESULTS
+import app.aaps.database.entities.data.APSResultSummary
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
 
@@ -30,4 +31,7 @@ internal interface APSResultDao : TraceableDao<APSResult> {
 
     @Query("SELECT * FROM $TABLE_APS_RESULTS WHERE timestamp >= :start AND timestamp <= :end ORDER BY timestamp ASC")
     fun getApsResults(start: Long, end: Long): Single<List<APSResult>>
+
+    @Query("SELECT timestamp, glucose, targetBG, variableSens, rate, smb FROM $TABLE_APS_RESULTS WHERE timestamp >= :start AND timestamp <= :end ORDER BY timestamp ASC")
+    fun getApsResultSummaries(start: Long, end: Long): Single<List<APSResultSummary>>
 }
\ No newline at end of file
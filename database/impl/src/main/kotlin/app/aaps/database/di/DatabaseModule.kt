@@ -202,7 +202,29 @@ open class DatabaseModule {
         }
     }
 
+    internal val migration31to32 = object : Migration(31, 32) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `$TABLE_APS_RESULTS` ADD COLUMN `glucose` REAL")
+            db.execSQL("ALTER TABLE `$TABLE_APS_RESULTS` ADD COLUMN `targetBG` REAL")
+            db.execSQL("ALTER TABLE `$TABLE_APS_RESULTS` ADD COLUMN `variableSens` REAL")
+            db.execSQL("ALTER TABLE `$TABLE_APS_RESULTS` ADD COLUMN `rate` REAL")
+            db.execSQL("ALTER TABLE `$TABLE_APS_RESULTS` ADD COLUMN `smb` REAL")
+            // Backfill from JSON the same way as APSResult.toDb() does for new records
+            db.execSQL(
+                "UPDATE `$TABLE_APS_RESULTS` SET " +
+                    "`glucose` = json_extract(`glucoseStatusJson`, '$.glucose'), " +
+                    "`targetBG` = json_extract(`resultJson`, '$.targetBG'), " +
+                    "`variableSens` = json_extract(`resultJson`, '$.variable_sens'), " +
+                    "`rate` = CASE WHEN json_extract(`resultJson`, '$.rate') IS NOT NULL AND json_extract(`resultJson`, '$.duration') IS NOT NULL THEN max(0, json_extract(`resultJson`, '$.rate')) END, " +
+                    "`smb` = json_extract(`resultJson`, '$.units') " +
+                    "WHERE json_valid(`resultJson`) AND (`glucoseStatusJson` IS NULL OR json_valid(`glucoseStatusJson`))"
+            )
+            // Custom indexes must be dropped on migration to pass room schema checking after upgrade
+            dropCustomIndexes(db)
+        }
+    }
+
     /** List of all migrations for easy reply in tests. */
     @VisibleForTesting
-    internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31)
+    internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31, migration31to32)
 }
@@ -37,7 +37,13 @@ data class APSResult(
     var profileJson: String?,
     var autosensDataJson: String?,
     var mealDataJson: String?,
-    var resultJson: String
+    var resultJson: String,
+    // Values copied out of JSON columns on insert. Readers needing only these don't decode JSON
+    var glucose: Double? = null,
+    var targetBG: Double? = null,
+    var variableSens: Double? = null,
+    var rate: Double? = null, // null if no TBR change requested
+    var smb: Double? = null
 ) : TraceableDBEntry, DBEntryWithTime {
 
     enum class Algorithm {
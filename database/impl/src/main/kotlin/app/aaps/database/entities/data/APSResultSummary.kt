@@ -0,0 +1,13 @@
+package app.aaps.database.entities.data
+
+/**
+ * Projection of [app.aaps.database.entities.APSResult] without JSON columns
+ */
+data class APSResultSummary(
+    val timestamp: Long,
+    val glucose: Double?,
+    val targetBG: Double?,
+    val variableSens: Double?,
+    val rate: Double?,
+    val smb: Double?
+)
@@ -1,5 +1,6 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.DelegatedAppDatabase
 import app.aaps.database.entities.Bolus
 
 /**
@@ -14,22 +15,7 @@ class SyncPumpBolusTransaction(
         bolus.interfaceIDs.pumpId ?: bolus.interfaceIDs.pumpType ?: bolus.interfaceIDs.pumpSerial ?: throw IllegalStateException("Some pump ID is null")
         val result = TransactionResult()
         val current = database.bolusDao.findByPumpIds(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!)
-        if (current == null) {
-            database.bolusDao.insertNewEntry(bolus)
-            result.inserted.add(bolus)
-        } else {
-            if (
-                current.timestamp != bolus.timestamp ||
-                current.amount != bolus.amount ||
-                current.type != bolusType ?: current.type
-            ) {
-                current.timestamp = bolus.timestamp
-                current.amount = bolus.amount
-                current.type = bolusType ?: current.type
-                database.bolusDao.updateExistingEntry(current)
-                result.updated.add(current)
-            }
-        }
+        sync(database, bolus, bolusType, current, result)
         return result
     }
 
@@ -38,4 +24,29 @@ class SyncPumpBolusTransaction(
         val inserted = mutableListOf<Bolus>()
         val updated = mutableListOf<Bolus>()
     }
+
+    companion object {
+
+        /**
+         * Inserts [bolus] or updates [current] found by the same pump ids. Shared with [SyncPumpHistoryTransaction]
+         */
+        internal fun sync(database: DelegatedAppDatabase, bolus: Bolus, bolusType: Bolus.Type?, current: Bolus?, result: TransactionResult) {
+            if (current == null) {
+                database.bolusDao.insertNewEntry(bolus)
+                result.inserted.add(bolus)
+            } else {
+                if (
+                    current.timestamp != bolus.timestamp ||
+                    current.amount != bolus.amount ||
+                    current.type != bolusType ?: current.type
+                ) {
+                    current.timestamp = bolus.timestamp
+                    current.amount = bolus.amount
+                    current.type = bolusType ?: current.type
+                    database.bolusDao.updateExistingEntry(current)
+                    result.updated.add(current)
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.DelegatedAppDatabase
 import app.aaps.database.entities.ExtendedBolus
 import app.aaps.database.entities.interfaces.end
 
@@ -14,31 +15,7 @@ class SyncPumpExtendedBolusTransaction(private val extendedBolus: ExtendedBolus)
         ?: throw IllegalStateException("Some pump ID is null")
         val result = TransactionResult()
         val existing = database.extendedBolusDao.findByPumpIds(extendedBolus.interfaceIDs.pumpId!!, extendedBolus.interfaceIDs.pumpType!!, extendedBolus.interfaceIDs.pumpSerial!!)
-        if (existing != null) {
-            if (existing.interfaceIDs.endId == null &&
-                (existing.timestamp != extendedBolus.timestamp ||
-                    existing.amount != extendedBolus.amount ||
-                    existing.duration != extendedBolus.duration)
-            ) {
-                existing.timestamp = extendedBolus.timestamp
-                existing.amount = extendedBolus.amount
-                existing.duration = extendedBolus.duration
-                database.extendedBolusDao.updateExistingEntry(existing)
-                result.updated.add(existing)
-            }
-        } else {
-            val running = database.extendedBolusDao.getExtendedBolusActiveAtLegacy(extendedBolus.timestamp)
-            if (running != null) {
-                val pctRun = (extendedBolus.timestamp - running.timestamp) / running.duration.toDouble()
-                running.amount *= pctRun
-                running.end = extendedBolus.timestamp
-                running.interfaceIDs.endId = extendedBolus.interfaceIDs.pumpId
-                database.extendedBolusDao.updateExistingEntry(running)
-                result.updated.add(running)
-            }
-            database.extendedBolusDao.insertNewEntry(extendedBolus)
-            result.inserted.add(extendedBolus)
-        }
+        sync(database, extendedBolus, existing, result)
         return result
     }
 
@@ -47,4 +24,39 @@ class SyncPumpExtendedBolusTransaction(private val extendedBolus: ExtendedBolus)
         val inserted = mutableListOf<ExtendedBolus>()
         val updated = mutableListOf<ExtendedBolus>()
     }
+
+    companion object {
+
+        /**
+         * Updates [existing] found by the same pump ids or inserts [extendedBolus] and cuts the running one.
+         * Shared with [SyncPumpHistoryTransaction]
+         */
+        internal fun sync(database: DelegatedAppDatabase, extendedBolus: ExtendedBolus, existing: ExtendedBolus?, result: TransactionResult) {
+            if (existing != null) {
+                if (existing.interfaceIDs.endId == null &&
+                    (existing.timestamp != extendedBolus.timestamp ||
+                        existing.amount != extendedBolus.amount ||
+                        existing.duration != extendedBolus.duration)
+                ) {
+                    existing.timestamp = extendedBolus.timestamp
+                    existing.amount = extendedBolus.amount
+                    existing.duration = extendedBolus.duration
+                    database.extendedBolusDao.updateExistingEntry(existing)
+                    result.updated.add(existing)
+                }
+            } else {
+                val running = database.extendedBolusDao.getExtendedBolusActiveAtLegacy(extendedBolus.timestamp)
+                if (running != null) {
+                    val pctRun = (extendedBolus.timestamp - running.timestamp) / running.duration.toDouble()
+                    running.amount *= pctRun
+                    running.end = extendedBolus.timestamp
+                    running.interfaceIDs.endId = extendedBolus.interfaceIDs.pumpId
+                    database.extendedBolusDao.updateExistingEntry(running)
+                    result.updated.add(running)
+                }
+                database.extendedBolusDao.insertNewEntry(extendedBolus)
+                result.inserted.add(extendedBolus)
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package app.aaps.database.transactions
+
+import app.aaps.database.entities.Bolus
+import app.aaps.database.entities.ExtendedBolus
+import app.aaps.database.entities.TemporaryBasal
+import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.TraceableDBEntry
+
+/**
+ * Reconciles a batch of pump history events of one pump in single transaction
+ *
+ * Records already stored are fetched by pump ids with one IN query per [CHUNK_SIZE] ids instead of
+ * one query per event. Events are processed in provided order with the same rules as
+ * [SyncPumpBolusTransaction], [SyncPumpTemporaryBasalTransaction], [SyncPumpCancelTemporaryBasalIfAnyTransaction],
+ * [SyncPumpExtendedBolusTransaction] and [SyncPumpCancelExtendedBolusIfAnyTransaction]
+ */
+class SyncPumpHistoryTransaction(
+    private val pumpType: InterfaceIDs.PumpType,
+    private val pumpSerial: String,
+    private val events: List<Event>
+) : Transaction<SyncPumpHistoryTransaction.TransactionResult>() {
+
+    sealed class Event {
+        data class Bolus(val bolus: app.aaps.database.entities.Bolus, val type: app.aaps.database.entities.Bolus.Type?) : Event()
+        data class TemporaryBasal(val temporaryBasal: app.aaps.database.entities.TemporaryBasal, val type: app.aaps.database.entities.TemporaryBasal.Type?) : Event()
+        data class CancelTemporaryBasal(val timestamp: Long, val endPumpId: Long) : Event()
+        data class ExtendedBolus(val extendedBolus: app.aaps.database.entities.ExtendedBolus) : Event()
+        data class CancelExtendedBolus(val timestamp: Long, val endPumpId: Long) : Event()
+    }
+
+    override fun run(): TransactionResult {
+        val result = TransactionResult(events.size)
+        val boluses = HashMap<Long, Bolus>()
+        val temporaryBasals = HashMap<Long, TemporaryBasal>()
+        val extendedBoluses = HashMap<Long, ExtendedBolus>()
+        events.filterIsInstance<Event.Bolus>().map { pumpId(it.bolus.interfaceIDs) }.distinct().chunked(CHUNK_SIZE).forEach { ids ->
+            database.bolusDao.findAllByPumpIds(ids, pumpType, pumpSerial).forEach { boluses[it.interfaceIDs.pumpId!!] = it }
+        }
+        events.filterIsInstance<Event.TemporaryBasal>().map { pumpId(it.temporaryBasal.interfaceIDs) }.distinct().chunked(CHUNK_SIZE).forEach { ids ->
+            database.temporaryBasalDao.findAllByPumpIds(ids, pumpType, pumpSerial).forEach { temporaryBasals[it.interfaceIDs.pumpId!!] = it }
+        }
+        events.filterIsInstance<Event.ExtendedBolus>().map { pumpId(it.extendedBolus.interfaceIDs) }.distinct().chunked(CHUNK_SIZE).forEach { ids ->
+            database.extendedBolusDao.findAllByPumpIds(ids, pumpType, pumpSerial).forEach { extendedBoluses[it.interfaceIDs.pumpId!!] = it }
+        }
+
+        events.forEachIndexed { index, event ->
+            when (event) {
+                is Event.Bolus                -> {
+                    val pumpId = pumpId(event.bolus.interfaceIDs)
+                    val inserted = result.boluses.inserted.size
+                    SyncPumpBolusTransaction.sync(database, event.bolus, event.type, boluses[pumpId], result.boluses)
+                    if (result.boluses.inserted.size > inserted) {
+                        boluses[pumpId] = event.bolus
+                        result.changed[index] = true
+                    }
+                }
+
+                is Event.TemporaryBasal       -> {
+                    val pumpId = pumpId(event.temporaryBasal.interfaceIDs)
+                    val inserted = result.temporaryBasals.inserted.size
+                    val updated = result.temporaryBasals.updated.size
+                    SyncPumpTemporaryBasalTransaction.sync(database, event.temporaryBasal, event.type, temporaryBasals[pumpId], result.temporaryBasals)
+                    temporaryBasals.refresh(result.temporaryBasals.updated.drop(updated).map { it.second })
+                    if (result.temporaryBasals.inserted.size > inserted) {
+                        temporaryBasals[pumpId] = event.temporaryBasal
+                        result.changed[index] = true
+                    }
+                }
+
+                is Event.CancelTemporaryBasal -> {
+                    val cancel = SyncPumpCancelTemporaryBasalIfAnyTransaction(event.timestamp, event.endPumpId, pumpType, pumpSerial).also { it.database = database }.run()
+                    result.temporaryBasals.updated.addAll(cancel.updated)
+                    temporaryBasals.refresh(cancel.updated.map { it.second })
+                    result.changed[index] = cancel.updated.isNotEmpty()
+                }
+
+                is Event.ExtendedBolus        -> {
+                    val pumpId = pumpId(event.extendedBolus.interfaceIDs)
+                    val inserted = result.extendedBoluses.inserted.size
+                    val updated = result.extendedBoluses.updated.size
+                    SyncPumpExtendedBolusTransaction.sync(database, event.extendedBolus, extendedBoluses[pumpId], result.extendedBoluses)
+                    extendedBoluses.refresh(result.extendedBoluses.updated.drop(updated))
+                    if (result.extendedBoluses.inserted.size > inserted) {
+                        extendedBoluses[pumpId] = event.extendedBolus
+                        result.changed[index] = true
+                    }
+                }
+
+                is Event.CancelExtendedBolus  -> {
+                    val cancel = SyncPumpCancelExtendedBolusIfAnyTransaction(event.timestamp, event.endPumpId, pumpType, pumpSerial).also { it.database = database }.run()
+                    result.extendedBoluses.updated.addAll(cancel.updated)
+                    extendedBoluses.refresh(cancel.updated)
+                    result.changed[index] = cancel.updated.isNotEmpty()
+                }
+            }
+        }
+        return result
+    }
+
+    // running records cut or canceled are loaded separately, cached copies must not overwrite them later
+    private fun <T : TraceableDBEntry> MutableMap<Long, T>.refresh(updated: List<T>) =
+        updated.forEach { entry ->
+            val interfaceIDs = entry.interfaceIDs
+            if (interfaceIDs.pumpType == pumpType && interfaceIDs.pumpSerial == pumpSerial) interfaceIDs.pumpId?.let { put(it, entry) }
+        }
+
+    private fun pumpId(interfaceIDs: InterfaceIDs): Long {
+        if (interfaceIDs.pumpType != pumpType || interfaceIDs.pumpSerial != pumpSerial) throw IllegalStateException("Event from different pump")
+        return interfaceIDs.pumpId ?: throw IllegalStateException("Some pump ID is null")
+    }
+
+    /**
+     * @param size number of events
+     */
+    class TransactionResult(size: Int) {
+
+        val boluses = SyncPumpBolusTransaction.TransactionResult()
+        val temporaryBasals = SyncPumpTemporaryBasalTransaction.TransactionResult()
+        val extendedBoluses = SyncPumpExtendedBolusTransaction.TransactionResult()
+
+        /** Per event: record inserted (boluses, TBR, EB) or running record ended (cancel events) */
+        val changed = BooleanArray(size)
+    }
+
+    companion object {
+
+        // below SQLite limit of host parameters
+        const val CHUNK_SIZE = 500
+    }
+}
@@ -1,5 +1,6 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.DelegatedAppDatabase
 import app.aaps.database.entities.TemporaryBasal
 import app.aaps.database.entities.interfaces.end
 
@@ -17,33 +18,7 @@ class SyncPumpTemporaryBasalTransaction(
         ?: throw IllegalStateException("Some pump ID is null")
         val result = TransactionResult()
         val existing = database.temporaryBasalDao.findByPumpIds(temporaryBasal.interfaceIDs.pumpId!!, temporaryBasal.interfaceIDs.pumpType!!, temporaryBasal.interfaceIDs.pumpSerial!!)
-        if (existing != null) {
-            if (
-                existing.timestamp != temporaryBasal.timestamp ||
-                existing.rate != temporaryBasal.rate ||
-                existing.duration != temporaryBasal.duration && existing.interfaceIDs.endId == null ||
-                existing.type != (type ?: existing.type)
-            ) {
-                val old = existing.copy()
-                existing.timestamp = temporaryBasal.timestamp
-                existing.rate = temporaryBasal.rate
-                existing.duration = temporaryBasal.duration
-                existing.type = type ?: existing.type
-                database.temporaryBasalDao.updateExistingEntry(existing)
-                result.updated.add(Pair(old, existing))
-            }
-        } else {
-            val running = database.temporaryBasalDao.getTemporaryBasalActiveAtLegacy(temporaryBasal.timestamp)
-            if (running != null) {
-                val old = running.copy()
-                running.end = temporaryBasal.timestamp
-                running.interfaceIDs.endId = temporaryBasal.interfaceIDs.pumpId
-                database.temporaryBasalDao.updateExistingEntry(running)
-                result.updated.add(Pair(old, running))
-            }
-            database.temporaryBasalDao.insertNewEntry(temporaryBasal)
-            result.inserted.add(temporaryBasal)
-        }
+        sync(database, temporaryBasal, type, existing, result)
         return result
     }
 
@@ -52,4 +27,41 @@ class SyncPumpTemporaryBasalTransaction(
         val inserted = mutableListOf<TemporaryBasal>()
         val updated = mutableListOf<Pair<TemporaryBasal, TemporaryBasal>>()
     }
+
+    companion object {
+
+        /**
+         * Updates [existing] found by the same pump ids or inserts [temporaryBasal] and cuts the running one.
+         * Shared with [SyncPumpHistoryTransaction]
+         */
+        internal fun sync(database: DelegatedAppDatabase, temporaryBasal: TemporaryBasal, type: TemporaryBasal.Type?, existing: TemporaryBasal?, result: TransactionResult) {
+            if (existing != null) {
+                if (
+                    existing.timestamp != temporaryBasal.timestamp ||
+                    existing.rate != temporaryBasal.rate ||
+                    existing.duration != temporaryBasal.duration && existing.interfaceIDs.endId == null ||
+                    existing.type != (type ?: existing.type)
+                ) {
+                    val old = existing.copy()
+                    existing.timestamp = temporaryBasal.timestamp
+                    existing.rate = temporaryBasal.rate
+                    existing.duration = temporaryBasal.duration
+                    existing.type = type ?: existing.type
+                    database.temporaryBasalDao.updateExistingEntry(existing)
+                    result.updated.add(Pair(old, existing))
+                }
+            } else {
+                val running = database.temporaryBasalDao.getTemporaryBasalActiveAtLegacy(temporaryBasal.timestamp)
+                if (running != null) {
+                    val old = running.copy()
+                    running.end = temporaryBasal.timestamp
+                    running.interfaceIDs.endId = temporaryBasal.interfaceIDs.pumpId
+                    database.temporaryBasalDao.updateExistingEntry(running)
+                    result.updated.add(Pair(old, running))
+                }
+                database.temporaryBasalDao.insertNewEntry(temporaryBasal)
+                result.inserted.add(temporaryBasal)
+            }
+        }
+    }
 }
\ No newline at end of file
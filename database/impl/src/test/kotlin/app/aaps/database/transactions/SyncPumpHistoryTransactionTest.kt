@@ -0,0 +1,199 @@
+package app.aaps.database.transactions
+
+import app.aaps.database.DelegatedAppDatabase
+import app.aaps.database.daos.BolusDao
+import app.aaps.database.daos.ExtendedBolusDao
+import app.aaps.database.daos.TemporaryBasalDao
+import app.aaps.database.entities.Bolus
+import app.aaps.database.entities.ExtendedBolus
+import app.aaps.database.entities.TemporaryBasal
+import app.aaps.database.entities.embedments.InterfaceIDs
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.rxjava3.core.Maybe
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+
+class SyncPumpHistoryTransactionTest {
+
+    private lateinit var database: DelegatedAppDatabase
+    private lateinit var bolusDao: BolusDao
+    private lateinit var temporaryBasalDao: TemporaryBasalDao
+    private lateinit var extendedBolusDao: ExtendedBolusDao
+
+    private val pumpType = InterfaceIDs.PumpType.DANA_I
+    private val pumpSerial = "ABC123"
+
+    @BeforeEach
+    fun setup() {
+        bolusDao = mock()
+        temporaryBasalDao = mock()
+        extendedBolusDao = mock()
+        database = mock()
+        whenever(database.bolusDao).thenReturn(bolusDao)
+        whenever(database.temporaryBasalDao).thenReturn(temporaryBasalDao)
+        whenever(database.extendedBolusDao).thenReturn(extendedBolusDao)
+        whenever(bolusDao.findAllByPumpIds(any(), any(), any())).thenReturn(emptyList())
+        whenever(temporaryBasalDao.findAllByPumpIds(any(), any(), any())).thenReturn(emptyList())
+        whenever(extendedBolusDao.findAllByPumpIds(any(), any(), any())).thenReturn(emptyList())
+        whenever(temporaryBasalDao.getTemporaryBasalActiveAt(any())).thenReturn(Maybe.empty())
+        whenever(extendedBolusDao.getExtendedBolusActiveAt(any())).thenReturn(Maybe.empty())
+    }
+
+    private fun run(vararg events: SyncPumpHistoryTransaction.Event): SyncPumpHistoryTransaction.TransactionResult =
+        SyncPumpHistoryTransaction(pumpType, pumpSerial, events.toList()).also { it.database = database }.run()
+
+    @Test
+    fun `inserts new and updates existing records found in one lookup`() {
+        val existing = createBolus(pumpId = 1L, amount = 5.0, timestamp = 1000L)
+        whenever(bolusDao.findAllByPumpIds(eq(listOf(1L, 2L)), eq(pumpType), eq(pumpSerial))).thenReturn(listOf(existing))
+        val updated = createBolus(pumpId = 1L, amount = 7.0, timestamp = 1000L)
+        val inserted = createBolus(pumpId = 2L, amount = 3.0, timestamp = 2000L)
+
+        val result = run(
+            SyncPumpHistoryTransaction.Event.Bolus(updated, null),
+            SyncPumpHistoryTransaction.Event.Bolus(inserted, Bolus.Type.SMB)
+        )
+
+        assertThat(result.boluses.updated).containsExactly(existing)
+        assertThat(result.boluses.inserted).containsExactly(inserted)
+        assertThat(result.changed.toList()).containsExactly(false, true).inOrder()
+        assertThat(existing.amount).isEqualTo(7.0)
+        verify(bolusDao, times(1)).findAllByPumpIds(any(), any(), any())
+        verify(bolusDao, never()).findByPumpIds(any(), any(), any())
+        verify(bolusDao).insertNewEntry(inserted)
+        verify(bolusDao).updateExistingEntry(existing)
+    }
+
+    @Test
+    fun `same pump id twice in batch is inserted once`() {
+        val first = createBolus(pumpId = 10L, amount = 2.0, timestamp = 1000L)
+        val second = createBolus(pumpId = 10L, amount = 2.5, timestamp = 1000L)
+
+        val result = run(
+            SyncPumpHistoryTransaction.Event.Bolus(first, null),
+            SyncPumpHistoryTransaction.Event.Bolus(second, null)
+        )
+
+        assertThat(result.boluses.inserted).containsExactly(first)
+        assertThat(result.boluses.updated).containsExactly(first)
+        assertThat(first.amount).isEqualTo(2.5)
+        assertThat(result.changed.toList()).containsExactly(true, false).inOrder()
+        verify(bolusDao, times(1)).insertNewEntry(any())
+    }
+
+    @Test
+    fun `temporary basal and cancel are processed in order`() {
+        val running = createTemporaryBasal(pumpId = 1L, timestamp = 1000L)
+        whenever(temporaryBasalDao.getTemporaryBasalActiveAtLegacy(2000L)).thenReturn(running)
+        val tb = createTemporaryBasal(pumpId = 2L, timestamp = 2000L)
+        whenever(temporaryBasalDao.getTemporaryBasalActiveAt(3000L)).thenReturn(Maybe.just(tb))
+
+        val result = run(
+            SyncPumpHistoryTransaction.Event.TemporaryBasal(tb, null),
+            SyncPumpHistoryTransaction.Event.CancelTemporaryBasal(3000L, 3L)
+        )
+
+        assertThat(result.temporaryBasals.inserted).containsExactly(tb)
+        assertThat(result.temporaryBasals.updated.map { it.second }).containsExactly(running, tb).inOrder()
+        assertThat(result.changed.toList()).containsExactly(true, true).inOrder()
+        assertThat(tb.interfaceIDs.endId).isEqualTo(3L)
+    }
+
+    @Test
+    fun `temporary basal synced again after cancel keeps the cancel`() {
+        val tb = createTemporaryBasal(pumpId = 2L, timestamp = 2000L)
+        // cancel loads the running record from database, not the instance cached by batch
+        val stored = createTemporaryBasal(pumpId = 2L, timestamp = 2000L)
+        whenever(temporaryBasalDao.getTemporaryBasalActiveAt(3000L)).thenReturn(Maybe.just(stored))
+        val corrected = createTemporaryBasal(pumpId = 2L, timestamp = 2000L).also { it.rate = 2.0 }
+
+        val result = run(
+            SyncPumpHistoryTransaction.Event.TemporaryBasal(tb, null),
+            SyncPumpHistoryTransaction.Event.CancelTemporaryBasal(3000L, 3L),
+            SyncPumpHistoryTransaction.Event.TemporaryBasal(corrected, null)
+        )
+
+        assertThat(result.temporaryBasals.inserted).containsExactly(tb)
+        assertThat(result.temporaryBasals.updated.map { it.second }).containsExactly(stored, stored).inOrder()
+        assertThat(stored.rate).isEqualTo(2.0)
+        assertThat(stored.duration).isEqualTo(1000L)
+        assertThat(stored.interfaceIDs.endId).isEqualTo(3L)
+        verify(temporaryBasalDao, never()).updateExistingEntry(tb)
+    }
+
+    @Test
+    fun `cancel of extended bolus without running one is reported as not changed`() {
+        val eb = createExtendedBolus(pumpId = 5L, timestamp = 1000L)
+        val result = run(
+            SyncPumpHistoryTransaction.Event.ExtendedBolus(eb),
+            SyncPumpHistoryTransaction.Event.CancelExtendedBolus(5000L, 6L)
+        )
+
+        assertThat(result.extendedBoluses.inserted).containsExactly(eb)
+        assertThat(result.extendedBoluses.updated).isEmpty()
+        assertThat(result.changed.toList()).containsExactly(true, false).inOrder()
+        verify(extendedBolusDao).findAllByPumpIds(eq(listOf(5L)), eq(pumpType), eq(pumpSerial))
+    }
+
+    @Test
+    fun `lookups are chunked`() {
+        val events = (1L..(SyncPumpHistoryTransaction.CHUNK_SIZE + 1L)).map { SyncPumpHistoryTransaction.Event.Bolus(createBolus(pumpId = it, amount = 1.0, timestamp = it), null) }
+        SyncPumpHistoryTransaction(pumpType, pumpSerial, events).also { it.database = database }.run()
+        verify(bolusDao, times(2)).findAllByPumpIds(any(), any(), any())
+        verify(bolusDao, times(SyncPumpHistoryTransaction.CHUNK_SIZE + 1)).insertNewEntry(any())
+    }
+
+    @Test
+    fun `history after reconnection is synced with one lookup per chunk`() {
+        // half of history already stored
+        val stored = HashMap<Long, Bolus>()
+        for (id in 0L until 500L) stored[id] = createBolus(pumpId = id, amount = 1.0, timestamp = id * 60_000)
+        whenever(bolusDao.findAllByPumpIds(any(), any(), any())).thenAnswer { invocation -> invocation.getArgument<List<Long>>(0).mapNotNull { stored[it] } }
+        whenever(temporaryBasalDao.getTemporaryBasalActiveAtLegacy(any())).thenReturn(null)
+        val events = (0L until 1000L).map { id ->
+            if (id % 4 == 3L) SyncPumpHistoryTransaction.Event.TemporaryBasal(createTemporaryBasal(pumpId = id, timestamp = id * 60_000), null)
+            else SyncPumpHistoryTransaction.Event.Bolus(createBolus(pumpId = id, amount = 1.0, timestamp = id * 60_000), null)
+        }
+
+        val result = run(*events.toTypedArray())
+
+        // 375 stored boluses unchanged, 375 boluses and 250 TBRs inserted
+        assertThat(result.changed.count { it }).isEqualTo(625)
+        // 750 bolus ids in 2 chunks
+        verify(bolusDao, times(2)).findAllByPumpIds(any(), any(), any())
+        verify(temporaryBasalDao, times(1)).findAllByPumpIds(any(), any(), any())
+        verify(bolusDao, never()).findByPumpIds(any(), any(), any())
+        verify(temporaryBasalDao, never()).findByPumpIds(any(), any(), any())
+    }
+
+    private fun createBolus(pumpId: Long, amount: Double, timestamp: Long): Bolus = Bolus(
+        timestamp = timestamp,
+        amount = amount,
+        type = Bolus.Type.NORMAL,
+        interfaceIDs_backing = InterfaceIDs(pumpId = pumpId, pumpType = pumpType, pumpSerial = pumpSerial)
+    )
+
+    private fun createTemporaryBasal(pumpId: Long, timestamp: Long): TemporaryBasal = TemporaryBasal(
+        timestamp = timestamp,
+        rate = 1.0,
+        duration = 30 * 60_000L,
+        type = TemporaryBasal.Type.NORMAL,
+        isAbsolute = true,
+        interfaceIDs_backing = InterfaceIDs(pumpId = pumpId, pumpType = pumpType, pumpSerial = pumpSerial)
+    )
+
+    private fun createExtendedBolus(pumpId: Long, timestamp: Long): ExtendedBolus = ExtendedBolus(
+        timestamp = timestamp,
+        amount = 2.0,
+        duration = 60 * 60_000L,
+        isEmulatingTempBasal = false,
+        interfaceIDs_backing = InterfaceIDs(pumpId = pumpId, pumpType = pumpType, pumpSerial = pumpSerial)
+    )
+}
@@ -25,10 +25,13 @@ import app.aaps.core.data.ue.Action
 import app.aaps.core.data.ue.Sources
 import app.aaps.core.data.ue.ValueWithUnit
 import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.APSResultSummary
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.database.AppRepository
 import app.aaps.database.ValueWrapper
@@ -86,6 +89,7 @@ import app.aaps.database.transactions.SyncPumpBolusTransaction
 import app.aaps.database.transactions.SyncPumpCancelExtendedBolusIfAnyTransaction
 import app.aaps.database.transactions.SyncPumpCancelTemporaryBasalIfAnyTransaction
 import app.aaps.database.transactions.SyncPumpExtendedBolusTransaction
+import app.aaps.database.transactions.SyncPumpHistoryTransaction
 import app.aaps.database.transactions.SyncPumpTemporaryBasalTransaction
 import app.aaps.database.transactions.SyncPumpTotalDailyDoseTransaction
 import app.aaps.database.transactions.SyncTemporaryBasalWithTempIdTransaction
@@ -121,7 +125,8 @@ class PersistenceLayerImpl @Inject constructor(
     private val repository: AppRepository,
     private val dateUtil: DateUtil,
     private val config: Config,
-    private val apsResultProvider: Provider<APSResult>
+    private val apsResultProvider: Provider<APSResult>,
+    private val profiler: Profiler
 ) : PersistenceLayer {
 
     @Suppress("unused")
@@ -161,9 +166,11 @@ class PersistenceLayerImpl @Inject constructor(
             .map { list -> list.asSequence().map { it.fromDb() }.toList() }
 
     override fun getBolusesFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<BS> =
-        repository.getBolusesDataFromTimeToTime(startTime, endTime, ascending)
-            .map { list -> list.asSequence().map { it.fromDb() }.toList() }
-            .blockingGet()
+        profiler.trace("db:getBolusesFromTimeToTime") {
+            repository.getBolusesDataFromTimeToTime(startTime, endTime, ascending)
+                .map { list -> list.asSequence().map { it.fromDb() }.toList() }
+                .blockingGet()
+        }
 
     override fun getBolusesFromTimeIncludingInvalid(startTime: Long, ascending: Boolean): Single<List<BS>> =
         repository.getBolusesIncludingInvalidFromTime(startTime, ascending)
@@ -345,9 +352,11 @@ class PersistenceLayerImpl @Inject constructor(
             .map { list -> list.asSequence().map { it.fromDb() }.toList() }
 
     override fun getCarbsFromTimeToTimeExpanded(startTime: Long, endTime: Long, ascending: Boolean): List<CA> =
-        repository.getCarbsDataFromTimeToTimeExpanded(startTime, endTime, ascending)
-            .map { list -> list.asSequence().map { it.fromDb() }.toList() }
-            .blockingGet()
+        profiler.trace("db:getCarbsFromTimeToTimeExpanded") {
+            repository.getCarbsDataFromTimeToTimeExpanded(startTime, endTime, ascending)
+                .map { list -> list.asSequence().map { it.fromDb() }.toList() }
+                .blockingGet()
+        }
 
     override fun getNextSyncElementCarbs(id: Long): Maybe<Pair<CA, CA>> =
         repository.getNextSyncElementCarbs(id)
@@ -586,9 +595,11 @@ class PersistenceLayerImpl @Inject constructor(
             .map { pair -> Pair(pair.first.fromDb(), pair.second.fromDb()) }
 
     override fun getBgReadingsDataFromTimeToTime(start: Long, end: Long, ascending: Boolean): List<GV> =
-        repository.compatGetBgReadingsDataFromTime(start, end, ascending)
-            .map { list -> list.asSequence().map { it.fromDb() }.toList() }
-            .blockingGet()
+        profiler.trace("db:getBgReadingsDataFromTimeToTime") {
+            repository.compatGetBgReadingsDataFromTime(start, end, ascending)
+                .map { list -> list.asSequence().map { it.fromDb() }.toList() }
+                .blockingGet()
+        }
 
     override fun getBgReadingsDataFromTime(timestamp: Long, ascending: Boolean): Single<List<GV>> =
         repository.compatGetBgReadingsDataFromTime(timestamp, ascending)
@@ -721,9 +732,54 @@ class PersistenceLayerImpl @Inject constructor(
                 transactionResult
             }
 
+    // Pump history
+    override fun syncPumpHistory(records: List<PersistenceLayer.PumpHistoryRecord>, pumpType: PumpType, pumpSerial: String): Single<PersistenceLayer.PumpHistoryResult> =
+        repository.runTransactionForResult(SyncPumpHistoryTransaction(pumpType.toDb(), pumpSerial, records.map { it.toDb() }))
+            .doOnError { aapsLogger.error(LTag.DATABASE, "Error while syncing pump history", it) }
+            .map { result ->
+                val boluses = PersistenceLayer.TransactionResult<BS>()
+                result.boluses.inserted.forEach {
+                    aapsLogger.debug(LTag.DATABASE, "Inserted Bolus $it")
+                    boluses.inserted.add(it.fromDb())
+                }
+                result.boluses.updated.forEach {
+                    aapsLogger.debug(LTag.DATABASE, "Updated Bolus $it")
+                    boluses.updated.add(it.fromDb())
+                }
+                val temporaryBasals = PersistenceLayer.TransactionResult<TB>()
+                result.temporaryBasals.inserted.forEach {
+                    aapsLogger.debug(LTag.DATABASE, "Inserted TemporaryBasal $it")
+                    temporaryBasals.inserted.add(it.fromDb())
+                }
+                result.temporaryBasals.updated.forEach {
+                    aapsLogger.debug(LTag.DATABASE, "Updated TemporaryBasal ${it.first} New: ${it.second}")
+                    temporaryBasals.updated.add(it.second.fromDb())
+                }
+                val extendedBoluses = PersistenceLayer.TransactionResult<EB>()
+                result.extendedBoluses.inserted.forEach {
+                    aapsLogger.debug(LTag.DATABASE, "Inserted ExtendedBolus $it")
+                    extendedBoluses.inserted.add(it.fromDb())
+                }
+                result.extendedBoluses.updated.forEach {
+                    aapsLogger.debug(LTag.DATABASE, "Updated ExtendedBolus $it")
+                    extendedBoluses.updated.add(it.fromDb())
+                }
+                PersistenceLayer.PumpHistoryResult(boluses, temporaryBasals, extendedBoluses, result.changed.toList())
+            }
+
+    private fun PersistenceLayer.PumpHistoryRecord.toDb(): SyncPumpHistoryTransaction.Event = when (this) {
+        is PersistenceLayer.PumpHistoryRecord.Bolus              -> SyncPumpHistoryTransaction.Event.Bolus(bolus.toDb(), type?.toDb())
+        is PersistenceLayer.PumpHistoryRecord.TemporaryBasal     -> SyncPumpHistoryTransaction.Event.TemporaryBasal(temporaryBasal.toDb(), type?.toDb())
+        is PersistenceLayer.PumpHistoryRecord.StopTemporaryBasal -> SyncPumpHistoryTransaction.Event.CancelTemporaryBasal(timestamp, endPumpId)
+        is PersistenceLayer.PumpHistoryRecord.ExtendedBolus      -> SyncPumpHistoryTransaction.Event.ExtendedBolus(extendedBolus.toDb())
+        is PersistenceLayer.PumpHistoryRecord.StopExtendedBolus  -> SyncPumpHistoryTransaction.Event.CancelExtendedBolus(timestamp, endPumpId)
+    }
+
     // EPS
     override fun getEffectiveProfileSwitchActiveAt(timestamp: Long): EPS? =
-        repository.getEffectiveProfileSwitchActiveAt(timestamp).blockingGet()?.fromDb()
+        profiler.trace("db:getEffectiveProfileSwitchActiveAt") {
+            repository.getEffectiveProfileSwitchActiveAt(timestamp).blockingGet()?.fromDb()
+        }
 
     override fun getEffectiveProfileSwitchByNSId(nsId: String): EPS? = repository.findEffectiveProfileSwitchByNSId(nsId)?.fromDb()
 
@@ -736,9 +792,11 @@ class PersistenceLayerImpl @Inject constructor(
             .map { list -> list.asSequence().map { it.fromDb() }.toList() }
 
     override fun getEffectiveProfileSwitchesFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<EPS> =
-        repository.getEffectiveProfileSwitchesFromTimeToTime(startTime, endTime, ascending)
-            .map { list -> list.asSequence().map { it.fromDb() }.toList() }
-            .blockingGet()
+        profiler.trace("db:getEffectiveProfileSwitchesFromTimeToTime") {
+            repository.getEffectiveProfileSwitchesFromTimeToTime(startTime, endTime, ascending)
+                .map { list -> list.asSequence().map { it.fromDb() }.toList() }
+                .blockingGet()
+        }
 
     override fun getNextSyncElementEffectiveProfileSwitch(id: Long): Maybe<Pair<EPS, EPS>> =
         repository.getNextSyncElementEffectiveProfileSwitch(id)
@@ -972,8 +1030,10 @@ class PersistenceLayerImpl @Inject constructor(
             }
 
     override fun getRunningModeActiveAt(timestamp: Long): RM =
-        repository.getRunningModeActiveAt(timestamp)?.fromDb()
-            ?: RM(timestamp = 0, mode = RM.DEFAULT_MODE, duration = 0)
+        profiler.trace("db:getRunningModeActiveAt") {
+            repository.getRunningModeActiveAt(timestamp)?.fromDb()
+                ?: RM(timestamp = 0, mode = RM.DEFAULT_MODE, duration = 0)
+        }
 
     override fun getRunningModeByNSId(nsId: String): RM? = repository.findRunningModeByNSId(nsId)?.fromDb()
 
@@ -1091,7 +1151,9 @@ class PersistenceLayerImpl @Inject constructor(
 
     // TB
     override fun getTemporaryBasalActiveAt(timestamp: Long): TB? =
-        repository.getTemporaryBasalActiveAt(timestamp).blockingGet()?.fromDb()
+        profiler.trace("db:getTemporaryBasalActiveAt") {
+            repository.getTemporaryBasalActiveAt(timestamp).blockingGet()?.fromDb()
+        }
 
     override fun getOldestTemporaryBasalRecord(): TB? =
         repository.getOldestTemporaryBasalRecord().blockingGet()?.fromDb()
@@ -1103,9 +1165,11 @@ class PersistenceLayerImpl @Inject constructor(
         repository.getTemporaryBasalsActiveBetweenTimeAndTime(startTime, endTime).blockingGet().asSequence().map { it.fromDb() }.toList()
 
     override fun getTemporaryBasalsStartingFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<TB> =
-        repository.getTemporaryBasalsStartingFromTimeToTime(startTime, endTime, ascending)
-            .map { list -> list.asSequence().map { it.fromDb() }.toList() }
-            .blockingGet()
+        profiler.trace("db:getTemporaryBasalsStartingFromTimeToTime") {
+            repository.getTemporaryBasalsStartingFromTimeToTime(startTime, endTime, ascending)
+                .map { list -> list.asSequence().map { it.fromDb() }.toList() }
+                .blockingGet()
+        }
 
     override fun getTemporaryBasalsStartingFromTime(startTime: Long, ascending: Boolean): Single<List<TB>> =
         repository.getTemporaryBasalsStartingFromTime(startTime, ascending)
@@ -1293,7 +1357,9 @@ class PersistenceLayerImpl @Inject constructor(
 
     // EB
     override fun getExtendedBolusActiveAt(timestamp: Long): EB? =
-        repository.getExtendedBolusActiveAt(timestamp).blockingGet()?.fromDb()
+        profiler.trace("db:getExtendedBolusActiveAt") {
+            repository.getExtendedBolusActiveAt(timestamp).blockingGet()?.fromDb()
+        }
 
     override fun getOldestExtendedBolusRecord(): EB? =
         repository.getOldestExtendedBolusRecord().blockingGet()?.fromDb()
@@ -1302,9 +1368,11 @@ class PersistenceLayerImpl @Inject constructor(
     override fun getExtendedBolusByNSId(nsId: String): EB? = repository.findExtendedBolusByNSId(nsId)?.fromDb()
 
     override fun getExtendedBolusesStartingFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<EB> =
-        repository.getExtendedBolusesStartingFromTimeToTime(startTime, endTime, ascending)
-            .map { list -> list.asSequence().map { it.fromDb() }.toList() }
-            .blockingGet()
+        profiler.trace("db:getExtendedBolusesStartingFromTimeToTime") {
+            repository.getExtendedBolusesStartingFromTimeToTime(startTime, endTime, ascending)
+                .map { list -> list.asSequence().map { it.fromDb() }.toList() }
+                .blockingGet()
+        }
 
     override fun getExtendedBolusesStartingFromTime(startTime: Long, ascending: Boolean): Single<List<EB>> =
         repository.getExtendedBolusesStartingFromTime(startTime, ascending)
@@ -1407,7 +1475,9 @@ class PersistenceLayerImpl @Inject constructor(
 
     // TT
     override fun getTemporaryTargetActiveAt(timestamp: Long): TT? =
-        repository.getTemporaryTargetActiveAt(timestamp).blockingGet()?.fromDb()
+        profiler.trace("db:getTemporaryTargetActiveAt") {
+            repository.getTemporaryTargetActiveAt(timestamp).blockingGet()?.fromDb()
+        }
 
     override fun getLastTemporaryTargetId(): Long? = repository.getLastTempTargetId()
     override fun getTemporaryTargetByNSId(nsId: String): TT? = repository.findTemporaryTargetByNSId(nsId)?.fromDb()
@@ -1940,7 +2010,12 @@ class PersistenceLayerImpl @Inject constructor(
         repository.getApsResultCloseTo(timestamp).blockingGet()?.fromDb(apsResultProvider)
 
     override fun getApsResults(start: Long, end: Long): List<APSResult> =
-        repository.getApsResults(start, end).map { list -> list.asSequence().map { it.fromDb(apsResultProvider) }.toList() }.blockingGet()
+        profiler.trace("db:getApsResults") {
+            repository.getApsResults(start, end).map { list -> list.asSequence().map { it.fromDb(apsResultProvider) }.toList() }.blockingGet()
+        }
+
+    override fun getApsResultSummaries(start: Long, end: Long): List<APSResultSummary> =
+        repository.getApsResultSummaries(start, end).map { list -> list.map { it.fromDb() } }.blockingGet()
 
     override fun insertOrUpdateApsResult(apsResult: APSResult): Single<PersistenceLayer.TransactionResult<APSResult>> =
         repository.runTransactionForResult(InsertOrUpdateApsResultTransaction(apsResult.toDb()))
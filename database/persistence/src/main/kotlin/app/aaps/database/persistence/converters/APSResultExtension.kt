@@ -1,6 +1,7 @@
 package app.aaps.database.persistence.converters
 
 import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.APSResultSummary
 import app.aaps.core.interfaces.aps.AutosensResult
 import app.aaps.core.interfaces.aps.CurrentTemp
 import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
@@ -66,7 +67,7 @@ fun APSResult.toDb(): app.aaps.database.entities.APSResult =
                 mealDataJson = this.mealData?.let { Json.encodeToString(MealData.serializer(), it) },
                 autosensDataJson = this.autosensResult?.let { Json.encodeToString(AutosensResult.serializer(), it) },
                 resultJson = Json.encodeToString(RT.serializer(), this.rawData() as RT)
-            )
+            ).withSummary(this)
 
         APSResult.Algorithm.AUTO_ISF ->
             app.aaps.database.entities.APSResult(
@@ -79,11 +80,31 @@ fun APSResult.toDb(): app.aaps.database.entities.APSResult =
                 mealDataJson = this.mealData?.let { Json.encodeToString(MealData.serializer(), it) },
                 autosensDataJson = this.autosensResult?.let { Json.encodeToString(AutosensResult.serializer(), it) },
                 resultJson = Json.encodeToString(RT.serializer(), this.rawData() as RT)
-            )
+            ).withSummary(this)
 
         else                         -> error("Unsupported")
     }
 
+// keep in sync with backfill in DatabaseModule.migration31to32
+private fun app.aaps.database.entities.APSResult.withSummary(apsResult: APSResult): app.aaps.database.entities.APSResult = also {
+    val rt = apsResult.rawData() as RT
+    it.glucose = apsResult.glucoseStatus?.glucose
+    it.targetBG = rt.targetBG
+    it.variableSens = rt.variable_sens
+    it.rate = if (rt.rate != null && rt.duration != null) apsResult.rate else null
+    it.smb = rt.units
+}
+
+fun app.aaps.database.entities.data.APSResultSummary.fromDb(): APSResultSummary =
+    APSResultSummary(
+        date = timestamp,
+        glucose = glucose,
+        targetBG = targetBG,
+        variableSens = variableSens,
+        rate = rate,
+        smb = smb
+    )
+
 fun app.aaps.database.entities.APSResult.Algorithm.fromDb(): APSResult.Algorithm =
     when (this) {
         app.aaps.database.entities.APSResult.Algorithm.AMA      -> APSResult.Algorithm.AMA
@@ -3,14 +3,186 @@ package app.aaps.implementation.profiling
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.profiling.Profiler
-import dagger.Reusable
+import app.aaps.core.interfaces.rx.AapsSchedulers
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventPreferenceChange
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.core.keys.BooleanKey
+import app.aaps.core.keys.interfaces.Preferences
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.plusAssign
+import java.io.File
+import java.io.Writer
 import javax.inject.Inject
+import javax.inject.Singleton
 
-@Reusable
-class ProfilerImpl @Inject constructor(val aapsLogger: AAPSLogger) : Profiler {
+/**
+ * Span tracing
+ *
+ * Finished spans are kept in ring buffer of last [RING_SIZE] spans (for trace export)
+ * and aggregated by name (count, total, self time, max, percentiles of last [SAMPLE_SIZE] durations).
+ * Nesting is tracked per thread, parent's self time excludes time of nested spans.
+ *
+ * Allocation counts are not collected: ART doesn't provide per-thread allocation counter
+ * usable in release builds (android.os.Debug counters are deprecated and deoptimize code).
+ */
+@Singleton
+class ProfilerImpl @Inject constructor(
+    val aapsLogger: AAPSLogger,
+    preferences: Preferences,
+    rxBus: RxBus,
+    aapsSchedulers: AapsSchedulers,
+    fabricPrivacy: FabricPrivacy
+) : Profiler {
+
+    @Volatile override var isTracing: Boolean = preferences.get(BooleanKey.MaintenanceProfilerTracing)
+        internal set
+
+    private val disposable = CompositeDisposable()
+
+    init {
+        disposable += rxBus
+            .toObservable(EventPreferenceChange::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe({
+                           if (it.isChanged(BooleanKey.MaintenanceProfilerTracing.key)) {
+                               isTracing = preferences.get(BooleanKey.MaintenanceProfilerTracing)
+                               aapsLogger.debug(LTag.CORE, "Profiler tracing: $isTracing")
+                           }
+                       }, fabricPrivacy::logException)
+    }
 
     override fun log(lTag: LTag, function: String, start: Long) {
         val milliseconds = System.currentTimeMillis() - start
         aapsLogger.debug(lTag, ">>> $function <<< executed in $milliseconds milliseconds")
     }
-}
\ No newline at end of file
+
+    private inner class OpenSpan(val name: String, val parent: OpenSpan?) : Profiler.Span {
+
+        val start = System.nanoTime()
+        var nestedNanos = 0L
+
+        override fun end() {
+            val duration = System.nanoTime() - start
+            current.set(parent)
+            parent?.let { it.nestedNanos += duration }
+            record(name, start, duration, duration - nestedNanos, Thread.currentThread())
+        }
+    }
+
+    private class Histogram {
+
+        var count = 0L
+        var totalNanos = 0L
+        var selfNanos = 0L
+        var maxNanos = 0L
+        val sample = LongArray(SAMPLE_SIZE)
+    }
+
+    private val current = ThreadLocal<OpenSpan?>()
+
+    // ring buffer of finished spans
+    private val lock = Any()
+    private val names = arrayOfNulls<String>(RING_SIZE)
+    private val starts = LongArray(RING_SIZE)
+    private val durations = LongArray(RING_SIZE)
+    private val threadIds = LongArray(RING_SIZE)
+    private var recorded = 0L
+    private val threadNames = HashMap<Long, String>()
+    private val histograms = HashMap<String, Histogram>()
+
+    override fun begin(name: String): Profiler.Span {
+        if (!isTracing) return NO_SPAN
+        return OpenSpan(name, current.get()).also { current.set(it) }
+    }
+
+    private fun record(name: String, start: Long, duration: Long, self: Long, thread: Thread) {
+        synchronized(lock) {
+            val index = (recorded % RING_SIZE).toInt()
+            names[index] = name
+            starts[index] = start
+            durations[index] = duration
+            threadIds[index] = thread.id
+            recorded++
+            if (!threadNames.containsKey(thread.id)) threadNames[thread.id] = thread.name
+            val histogram = histograms.getOrPut(name) { Histogram() }
+            histogram.sample[(histogram.count % SAMPLE_SIZE).toInt()] = duration
+            histogram.count++
+            histogram.totalNanos += duration
+            histogram.selfNanos += self
+            if (duration > histogram.maxNanos) histogram.maxNanos = duration
+        }
+    }
+
+    override fun statistics(): List<Profiler.SpanStatistics> =
+        synchronized(lock) {
+            histograms.map { (name, histogram) ->
+                val size = minOf(histogram.count, SAMPLE_SIZE.toLong()).toInt()
+                val sorted = histogram.sample.copyOf(size).apply { sort() }
+                Profiler.SpanStatistics(
+                    name = name,
+                    count = histogram.count,
+                    totalNanos = histogram.totalNanos,
+                    selfNanos = histogram.selfNanos,
+                    maxNanos = histogram.maxNanos,
+                    p50Nanos = sorted[(size - 1) * 50 / 100],
+                    p95Nanos = sorted[(size - 1) * 95 / 100],
+                    sample = size
+                )
+            }
+        }.sortedByDescending { it.totalNanos }
+
+    override fun exportTrace(file: File) {
+        file.bufferedWriter().use { writer ->
+            synchronized(lock) { writeTrace(writer) }
+        }
+        aapsLogger.debug(LTag.CORE, "Trace exported to ${file.absolutePath}")
+    }
+
+    // Trace Event Format: complete events (ph X) with microsecond timestamps, thread names as metadata
+    private fun writeTrace(writer: Writer) {
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[")
+        var first = true
+        for ((id, name) in threadNames) {
+            if (!first) writer.write(",")
+            first = false
+            writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":$id,\"args\":{\"name\":${quote(name)}}}")
+        }
+        val size = minOf(recorded, RING_SIZE.toLong()).toInt()
+        for (n in 0 until size) {
+            val index = ((recorded - size + n) % RING_SIZE).toInt()
+            if (!first) writer.write(",")
+            first = false
+            writer.write("\n{\"name\":${quote(names[index] ?: "")},\"ph\":\"X\",\"pid\":1,\"tid\":${threadIds[index]},\"ts\":${starts[index] / 1000.0},\"dur\":${durations[index] / 1000.0}}")
+        }
+        writer.write("\n]}\n")
+    }
+
+    override fun reset() {
+        synchronized(lock) {
+            names.fill(null)
+            recorded = 0
+            threadNames.clear()
+            histograms.clear()
+        }
+    }
+
+    private fun quote(value: String): String {
+        val builder = StringBuilder(value.length + 2).append('"')
+        for (c in value) {
+            when {
+                c == '"' || c == '\\' -> builder.append('\\').append(c)
+                c < ' '               -> builder.append(String.format("\\u%04x", c.code))
+                else                  -> builder.append(c)
+            }
+        }
+        return builder.append('"').toString()
+    }
+
+    companion object {
+
+        const val RING_SIZE = 8192
+        const val SAMPLE_SIZE = 512
+        private val NO_SPAN = Profiler.Span { }
+    }
+}
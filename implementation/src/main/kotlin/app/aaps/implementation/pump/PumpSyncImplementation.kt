@@ -431,6 +431,51 @@ class PumpSyncImplementation @Inject constructor(
             .blockingGet()
     }
 
+    override fun syncPumpEvents(events: List<PumpSync.PumpEvent>, pumpType: PumpType, pumpSerial: String): List<Boolean> {
+        // events rejected by confirmActivePump are not sent to database and reported as false
+        val accepted = events.map { confirmActivePump(it.timestamp, pumpType, pumpSerial) }
+        val records = events.filterIndexed { index, _ -> accepted[index] }.map { event ->
+            when (event) {
+                is PumpSync.PumpEvent.Bolus              -> PersistenceLayer.PumpHistoryRecord.Bolus(
+                    BS(
+                        timestamp = event.timestamp,
+                        amount = event.amount,
+                        type = event.type ?: BS.Type.NORMAL,
+                        ids = IDs(pumpId = event.pumpId, pumpType = pumpType, pumpSerial = pumpSerial)
+                    ), event.type
+                )
+
+                is PumpSync.PumpEvent.TemporaryBasal     -> PersistenceLayer.PumpHistoryRecord.TemporaryBasal(
+                    TB(
+                        timestamp = event.timestamp,
+                        rate = event.rate,
+                        duration = event.duration,
+                        type = event.type?.toDbType() ?: TB.Type.NORMAL,
+                        isAbsolute = event.isAbsolute,
+                        ids = IDs(pumpId = event.pumpId, pumpType = pumpType, pumpSerial = pumpSerial)
+                    ), event.type?.toDbType()
+                )
+
+                is PumpSync.PumpEvent.StopTemporaryBasal -> PersistenceLayer.PumpHistoryRecord.StopTemporaryBasal(event.timestamp, event.endPumpId)
+
+                is PumpSync.PumpEvent.ExtendedBolus      -> PersistenceLayer.PumpHistoryRecord.ExtendedBolus(
+                    EB(
+                        timestamp = event.timestamp,
+                        amount = event.amount,
+                        duration = event.duration,
+                        isEmulatingTempBasal = event.isEmulatingTB,
+                        ids = IDs(pumpId = event.pumpId, pumpType = pumpType, pumpSerial = pumpSerial)
+                    )
+                )
+
+                is PumpSync.PumpEvent.StopExtendedBolus  -> PersistenceLayer.PumpHistoryRecord.StopExtendedBolus(event.timestamp, event.endPumpId)
+            }
+        }
+        if (records.isEmpty()) return accepted
+        val changed = persistenceLayer.syncPumpHistory(records, pumpType, pumpSerial).blockingGet().changed.iterator()
+        return accepted.map { it && changed.next() }
+    }
+
     override fun createOrUpdateTotalDailyDose(timestamp: Long, bolusAmount: Double, basalAmount: Double, totalAmount: Double, pumpId: Long?, pumpType: PumpType, pumpSerial: String): Boolean {
         // there are probably old data in pump -> do not show notification, just ignore
         if (!confirmActivePump(timestamp, pumpType, pumpSerial, showNotification = false)) return false
@@ -4,7 +4,6 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.view.ViewGroup
 import android.widget.TableLayout
-import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.stats.DexcomTIR
 import app.aaps.core.interfaces.stats.DexcomTirCalculator
@@ -17,7 +16,7 @@ import javax.inject.Inject
 class DexcomTirCalculatorImpl @Inject constructor(
     private val profileUtil: ProfileUtil,
     private val dateUtil: DateUtil,
-    private val persistenceLayer: PersistenceLayer
+    private val glucoseDayStats: GlucoseDayStats
 ) : DexcomTirCalculator {
 
     val days = 14L
@@ -26,9 +25,8 @@ class DexcomTirCalculatorImpl @Inject constructor(
         val startTime = MidnightTime.calcDaysBack(days)
         val endTime = MidnightTime.calc(dateUtil.now())
 
-        val bgReadings = persistenceLayer.getBgReadingsDataFromTimeToTime(startTime, endTime, true)
         val result = DexcomTirImpl()
-        for (bg in bgReadings) result.add(bg.timestamp, bg.value)
+        for (day in glucoseDayStats.days(startTime, endTime)) result.add(day)
         return result
     }
 
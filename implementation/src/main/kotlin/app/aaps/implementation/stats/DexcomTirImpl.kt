@@ -12,6 +12,7 @@ import app.aaps.core.interfaces.stats.DexcomTIR
 import app.aaps.implementation.R
 import dagger.Reusable
 import java.util.Calendar
+import kotlin.math.max
 import kotlin.math.pow
 import kotlin.math.roundToInt
 import kotlin.math.sqrt
@@ -19,16 +20,23 @@ import kotlin.math.sqrt
 @Reusable
 class DexcomTirImpl : DexcomTIR {
 
-    private var veryLow = 0
-    private var low = 0
-    private var inRange = 0
-    private var high = 0
-    private var veryHigh = 0
-    private var error = 0
-    private var count = 0
+    var veryLow = 0
+        private set
+    var low = 0
+        private set
+    var inRange = 0
+        private set
+    var high = 0
+        private set
+    var veryHigh = 0
+        private set
+    var error = 0
+        private set
+    var count = 0
+        private set
 
     private var sum = 0.0
-    val values = mutableListOf<Double>()
+    private var sumOfSquares = 0.0
 
     private val veryLowTirMgdl = Constants.STATS_RANGE_VERY_LOW_MMOL * Constants.MMOLL_TO_MGDL
     private val lowTirMgdl = Constants.STATS_RANGE_LOW_MMOL * Constants.MMOLL_TO_MGDL
@@ -37,13 +45,15 @@ class DexcomTirImpl : DexcomTIR {
     private val veryHighTirMgdl = Constants.STATS_RANGE_VERY_HIGH_MMOL * Constants.MMOLL_TO_MGDL
 
     private fun error() = run { error++ }
-    private fun veryLow(valueMgdl: Double) = run { values.add(valueMgdl); sum += valueMgdl; veryLow++; count++ }
-    private fun low(valueMgdl: Double) = run { values.add(valueMgdl); sum += valueMgdl; low++; count++ }
-    private fun inRange(valueMgdl: Double) = run { values.add(valueMgdl); sum += valueMgdl; inRange++; count++ }
-    private fun high(valueMgdl: Double) = run { values.add(valueMgdl); sum += valueMgdl; high++; count++ }
-    private fun veryHigh(valueMgdl: Double) = run { values.add(valueMgdl); sum += valueMgdl; veryHigh++; count++ }
+    private fun veryLow(valueMgdl: Double) = run { add(valueMgdl); veryLow++ }
+    private fun low(valueMgdl: Double) = run { add(valueMgdl); low++ }
+    private fun inRange(valueMgdl: Double) = run { add(valueMgdl); inRange++ }
+    private fun high(valueMgdl: Double) = run { add(valueMgdl); high++ }
+    private fun veryHigh(valueMgdl: Double) = run { add(valueMgdl); veryHigh++ }
 
-    private fun highTirMgdl(hour: Int) = if (hour in 6..22) highTirMgdl else highNightTirMgdl
+    private fun add(valueMgdl: Double) = run { sum += valueMgdl; sumOfSquares += valueMgdl * valueMgdl; count++ }
+
+    private fun highTirMgdl(hour: Int) = if (GlucoseDayStats.Day.isDaytime(hour)) highTirMgdl else highNightTirMgdl
 
     fun add(time: Long, valueMgdl: Double) {
         val c = Calendar.getInstance()
@@ -59,6 +69,25 @@ class DexcomTirImpl : DexcomTIR {
         }
     }
 
+    /**
+     * Add aggregated day. Same result as adding all readings of the day
+     */
+    fun add(day: GlucoseDayStats.Day) {
+        val dayVeryLow = day.below(veryLowTirMgdl)
+        val dayLow = day.below(lowTirMgdl) - dayVeryLow
+        val dayVeryHigh = day.above(veryHighTirMgdl)
+        val dayHigh = day.above(highTirMgdl, highNightTirMgdl) - dayVeryHigh
+        veryLow += dayVeryLow
+        low += dayLow
+        veryHigh += dayVeryHigh
+        high += dayHigh
+        inRange += day.count - dayVeryLow - dayLow - dayVeryHigh - dayHigh
+        error += day.error
+        count += day.count
+        sum += day.sum
+        sumOfSquares += day.sumOfSquares
+    }
+
     private fun veryLowPct() = if (count > 0) veryLow.toDouble() / count * 100.0 else 0.0
     private fun lowPct() = if (count > 0) low.toDouble() / count * 100.0 else 0.0
     private fun inRangePct() = if (count > 0) 100 - veryLowPct() - lowPct() - highPct() - veryHighPct() else 0.0
@@ -68,9 +97,7 @@ class DexcomTirImpl : DexcomTIR {
 
     override fun calculateSD(): Double {
         if (count == 0) return 0.0
-        var standardDeviation = 0.0
-        for (num in values) standardDeviation += (num - mean()).pow(2.0)
-        return sqrt(standardDeviation / count)
+        return sqrt(max(0.0, sumOfSquares / count - mean().pow(2.0)))
     }
 
     override fun toHbA1cView(context: Context): TextView =
@@ -0,0 +1,157 @@
+package app.aaps.implementation.stats
+
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.rx.AapsSchedulers
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventNewHistoryData
+import app.aaps.core.interfaces.utils.MidnightTime
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.plusAssign
+import java.util.Calendar
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Per-day BG aggregates shared by TIR calculators
+ *
+ * Every day is read from database once and kept until its BG is changed (inserted, updated or invalidated
+ * reading reported by [EventNewHistoryData]). Statistics of any span and thresholds are calculated
+ * from aggregates without going through readings again.
+ */
+@Singleton
+class GlucoseDayStats @Inject constructor(
+    private val persistenceLayer: PersistenceLayer,
+    rxBus: RxBus,
+    aapsSchedulers: AapsSchedulers,
+    fabricPrivacy: FabricPrivacy
+) {
+
+    /**
+     * Aggregates of one day
+     * Valid values (>= 39 mg/dl) are kept sorted, count of values in any range is then found by binary search
+     *
+     * @param midnight start of day
+     */
+    class Day(val midnight: Long, readings: List<GV>) {
+
+        /** values below 39 mg/dl */
+        val error: Int
+
+        /** values measured between 6:00 and 22:59 */
+        private val daytime: DoubleArray
+
+        /** values measured between 23:00 and 5:59 */
+        private val night: DoubleArray
+        val sum: Double
+        val sumOfSquares: Double
+
+        val count: Int get() = daytime.size + night.size
+
+        init {
+            val calendar = Calendar.getInstance()
+            val daytimeValues = ArrayList<Double>()
+            val nightValues = ArrayList<Double>()
+            var error = 0
+            var sum = 0.0
+            var sumOfSquares = 0.0
+            for (bg in readings) {
+                if (bg.value < 39) {
+                    error++
+                    continue
+                }
+                calendar.timeInMillis = bg.timestamp
+                if (isDaytime(calendar[Calendar.HOUR_OF_DAY])) daytimeValues.add(bg.value) else nightValues.add(bg.value)
+                sum += bg.value
+                sumOfSquares += bg.value * bg.value
+            }
+            this.error = error
+            this.sum = sum
+            this.sumOfSquares = sumOfSquares
+            daytime = daytimeValues.toDoubleArray().apply { sort() }
+            night = nightValues.toDoubleArray().apply { sort() }
+        }
+
+        /** number of valid values < [threshold] */
+        fun below(threshold: Double): Int = below(daytime, threshold) + below(night, threshold)
+
+        /** number of valid values > [threshold] */
+        fun above(threshold: Double): Int = above(daytime, threshold) + above(night, threshold)
+
+        /** number of valid values > [daytimeThreshold] during day or > [nightThreshold] during night */
+        fun above(daytimeThreshold: Double, nightThreshold: Double): Int = above(daytime, daytimeThreshold) + above(night, nightThreshold)
+
+        // index of first value >= threshold
+        private fun below(values: DoubleArray, threshold: Double): Int {
+            var low = 0
+            var high = values.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (values[mid] < threshold) low = mid + 1 else high = mid
+            }
+            return low
+        }
+
+        private fun above(values: DoubleArray, threshold: Double): Int {
+            var low = 0
+            var high = values.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (values[mid] <= threshold) low = mid + 1 else high = mid
+            }
+            return values.size - low
+        }
+
+        companion object {
+
+            fun isDaytime(hour: Int) = hour in 6..22
+        }
+    }
+
+    private val days = HashMap<Long, Day>()
+    private val disposable = CompositeDisposable()
+
+    init {
+        disposable += rxBus
+            .toObservable(EventNewHistoryData::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe({ if (it.reloadBgData) invalidate(it.oldDataTimestamp) }, fabricPrivacy::logException)
+    }
+
+    /**
+     * Drop aggregates of days containing [timestamp] and newer
+     * (event provides only oldest changed reading)
+     */
+    @Synchronized
+    fun invalidate(timestamp: Long) {
+        val midnight = MidnightTime.calc(timestamp)
+        days.keys.removeIf { it >= midnight }
+    }
+
+    /**
+     * Aggregates of days starting in [from, to). Missing days are read from database in one query
+     * Reads database, don't call on main thread
+     *
+     * @param from midnight of first day
+     * @param to midnight after last day
+     * @return days sorted by time, including days without readings
+     */
+    @Synchronized
+    fun days(from: Long, to: Long): List<Day> {
+        val midnights = ArrayList<Long>()
+        var midnight = MidnightTime.calc(from)
+        while (midnight < to) {
+            midnights.add(midnight)
+            midnight = MidnightTime.calc(midnight + T.hours(25).msecs())
+        }
+        val missing = midnights.filter { it !in days }
+        if (missing.isNotEmpty()) {
+            val loadTo = MidnightTime.calc(missing.last() + T.hours(25).msecs())
+            val readings = persistenceLayer.getBgReadingsDataFromTimeToTime(missing.first(), loadTo - 1, true).groupBy { MidnightTime.calc(it.timestamp) }
+            for (day in missing) days[day] = Day(day, readings[day] ?: emptyList())
+        }
+        return midnights.map { days.getValue(it) }
+    }
+}
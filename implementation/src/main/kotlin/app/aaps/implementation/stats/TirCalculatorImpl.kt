@@ -9,7 +9,6 @@ import android.widget.TableLayout
 import android.widget.TextView
 import androidx.collection.LongSparseArray
 import app.aaps.core.data.configuration.Constants
-import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.stats.TIR
@@ -24,7 +23,7 @@ class TirCalculatorImpl @Inject constructor(
     private val rh: ResourceHelper,
     private val profileUtil: ProfileUtil,
     private val dateUtil: DateUtil,
-    private val persistenceLayer: PersistenceLayer
+    private val glucoseDayStats: GlucoseDayStats
 ) : TirCalculator {
 
     override fun calculate(days: Long, lowMgdl: Double, highMgdl: Double): LongSparseArray<TIR> {
@@ -33,19 +32,16 @@ class TirCalculatorImpl @Inject constructor(
         val startTime = MidnightTime.calcDaysBack(days)
         val endTime = MidnightTime.calc(dateUtil.now())
 
-        val bgReadings = persistenceLayer.getBgReadingsDataFromTimeToTime(startTime, endTime, true)
         val result = LongSparseArray<TIR>()
-        for (bg in bgReadings) {
-            val midnight = MidnightTime.calc(bg.timestamp)
-            var tir = result[midnight]
-            if (tir == null) {
-                tir = TirImpl(midnight, lowMgdl, highMgdl)
-                result.append(midnight, tir)
-            }
-            if (bg.value < 39) tir.error()
-            if (bg.value >= 39 && bg.value < lowMgdl) tir.below()
-            if (bg.value in lowMgdl..highMgdl) tir.inRange()
-            if (bg.value > highMgdl) tir.above()
+        for (day in glucoseDayStats.days(startTime, endTime)) {
+            if (day.count + day.error == 0) continue
+            result.append(day.midnight, TirImpl(day.midnight, lowMgdl, highMgdl).also { tir ->
+                tir.below = day.below(lowMgdl)
+                tir.above = day.above(highMgdl)
+                tir.inRange = day.count - tir.below - tir.above
+                tir.error = day.error
+                tir.count = day.count
+            })
         }
         return result
     }
@@ -5,6 +5,7 @@ import app.aaps.core.data.model.SourceSensor
 import app.aaps.core.data.model.TrendArrow
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.BucketedDataSnapshot
 import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
 import app.aaps.plugins.aps.openAPS.DeltaCalculator
 import app.aaps.plugins.aps.openAPSAutoISF.GlucoseStatusCalculatorAutoIsf
@@ -41,7 +42,7 @@ class GlucoseStatusTestAutoIsf : TestBaseWithProfile() {
     }
 
     @Test fun calculateValidGlucoseStatusAutoIsf() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(generateValidBgData())
+        whenever(autosensDataStore.getBucketedDataSnapshot()).thenReturn(BucketedDataSnapshot(generateValidBgData()))
         val glucoseStatus = GlucoseStatusCalculatorAutoIsf(aapsLogger, iobCobCalculator, dateUtil, decimalFormatter, deltaCalculator).getGlucoseStatusData(false)!!
         assertThat(glucoseStatus.glucose).isWithin(0.001).of(214.0)
         assertThat(glucoseStatus.delta).isWithin(0.001).of(-2.0)
@@ -62,7 +63,7 @@ class GlucoseStatusTestAutoIsf : TestBaseWithProfile() {
     }
 
     @Test fun oneRecordShouldProduceZeroDeltas() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(generateOneCurrentRecordBgData())
+        whenever(autosensDataStore.getBucketedDataSnapshot()).thenReturn(BucketedDataSnapshot(generateOneCurrentRecordBgData()))
         val glucoseStatus = GlucoseStatusCalculatorAutoIsf(aapsLogger, iobCobCalculator, dateUtil, decimalFormatter, deltaCalculator).getGlucoseStatusData(false)!!
         assertThat(glucoseStatus.glucose).isWithin(0.001).of(214.0)
         assertThat(glucoseStatus.delta).isWithin(0.001).of(0.0)
@@ -79,19 +80,19 @@ class GlucoseStatusTestAutoIsf : TestBaseWithProfile() {
     }
 
     @Test fun insufficientDataShouldReturnNull() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(generateInsufficientBgData())
+        whenever(autosensDataStore.getBucketedDataSnapshot()).thenReturn(BucketedDataSnapshot(generateInsufficientBgData()))
         val glucoseStatus = GlucoseStatusCalculatorAutoIsf(aapsLogger, iobCobCalculator, dateUtil, decimalFormatter, deltaCalculator).getGlucoseStatusData(false)
         assertThat(glucoseStatus).isNull()
     }
 
     @Test fun oldDataShouldReturnNull() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(generateOldBgData())
+        whenever(autosensDataStore.getBucketedDataSnapshot()).thenReturn(BucketedDataSnapshot(generateOldBgData()))
         val glucoseStatus = GlucoseStatusCalculatorAutoIsf(aapsLogger, iobCobCalculator, dateUtil, decimalFormatter, deltaCalculator).getGlucoseStatusData(false)
         assertThat(glucoseStatus).isNull()
     }
 
     @Test fun returnOldDataIfAllowed() {
-        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(generateOldBgData())
+        whenever(autosensDataStore.getBucketedDataSnapshot()).thenReturn(BucketedDataSnapshot(generateOldBgData()))
         val glucoseStatus = GlucoseStatusCalculatorAutoIsf(aapsLogger, iobCobCalculator, dateUtil, decimalFormatter, deltaCalculator).getGlucoseStatusData(true)
         assertThat(glucoseStatus).isNotNull()
     }
@@ -0,0 +1,112 @@
+package app.aaps.implementation.profiling
+
+import app.aaps.core.interfaces.profiling.trace
+import app.aaps.core.interfaces.rx.events.EventPreferenceChange
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.core.keys.BooleanKey
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.json.JSONObject
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.Mock
+import org.mockito.kotlin.whenever
+import java.io.File
+
+class ProfilerImplTest : TestBase() {
+
+    @Mock lateinit var preferences: Preferences
+    @Mock lateinit var fabricPrivacy: FabricPrivacy
+
+    private lateinit var sut: ProfilerImpl
+
+    @BeforeEach
+    fun setup() {
+        whenever(preferences.get(BooleanKey.MaintenanceProfilerTracing)).thenReturn(true)
+        sut = ProfilerImpl(aapsLogger, preferences, rxBus, aapsSchedulers, fabricPrivacy)
+    }
+
+    private fun busy(nanos: Long) {
+        val end = System.nanoTime() + nanos
+        while (System.nanoTime() < end) Thread.onSpinWait()
+    }
+
+    @Test
+    fun `nested spans are aggregated by name`() {
+        repeat(20) { i ->
+            sut.trace("parent") {
+                busy(200_000)
+                sut.trace("child") { busy(100_000L * (i + 1)) }
+            }
+        }
+        val statistics = sut.statistics().associateBy { it.name }
+        val parent = statistics.getValue("parent")
+        val child = statistics.getValue("child")
+        assertThat(parent.count).isEqualTo(20)
+        assertThat(child.count).isEqualTo(20)
+        // child time is excluded from parent's self time
+        assertThat(parent.totalNanos).isAtLeast(child.totalNanos + 20 * 200_000)
+        assertThat(parent.selfNanos).isAtMost(parent.totalNanos - child.totalNanos)
+        assertThat(child.selfNanos).isEqualTo(child.totalNanos)
+        assertThat(child.p50Nanos).isAtLeast(1_000_000)
+        assertThat(child.p95Nanos).isAtLeast(1_900_000)
+        assertThat(child.maxNanos).isAtLeast(child.p95Nanos)
+        assertThat(sut.statistics().first().name).isEqualTo("parent")
+    }
+
+    @Test
+    fun `disabled tracing records nothing`() {
+        sut.isTracing = false
+        assertThat(sut.trace("span") { 42 }).isEqualTo(42)
+        sut.begin("span").end()
+        assertThat(sut.statistics()).isEmpty()
+    }
+
+    @Test
+    fun `tracing follows preference`() {
+        whenever(preferences.get(BooleanKey.MaintenanceProfilerTracing)).thenReturn(false)
+        rxBus.send(EventPreferenceChange(BooleanKey.MaintenanceProfilerTracing.key))
+        assertThat(sut.isTracing).isFalse()
+    }
+
+    @Test
+    fun `span is ended on exception`() {
+        sut.trace("outer") {
+            runCatching { sut.trace("failing") { error("failure") } }
+            sut.trace("next") { busy(500_000) }
+        }
+        val statistics = sut.statistics().associateBy { it.name }
+        assertThat(statistics.getValue("failing").count).isEqualTo(1)
+        // "next" is nested in "outer", not in ended "failing"
+        val outer = statistics.getValue("outer")
+        assertThat(outer.totalNanos - outer.selfNanos).isAtLeast(statistics.getValue("next").totalNanos)
+    }
+
+    @Test
+    fun `ring buffer keeps last spans in trace`(@TempDir dir: File) {
+        repeat(ProfilerImpl.RING_SIZE + 10) { sut.trace(if (it < 10) "old" else "new \"quoted\"") { } }
+        val file = File(dir, "trace.json")
+        sut.exportTrace(file)
+        val events = JSONObject(file.readText()).getJSONArray("traceEvents")
+        var spans = 0
+        for (i in 0 until events.length()) {
+            val event = events.getJSONObject(i)
+            when (event.getString("ph")) {
+                "M" -> assertThat(event.getJSONObject("args").getString("name")).isEqualTo(Thread.currentThread().name)
+                "X" -> {
+                    assertThat(event.getString("name")).isEqualTo("new \"quoted\"")
+                    assertThat(event.getDouble("dur")).isAtLeast(0.0)
+                    spans++
+                }
+            }
+        }
+        assertThat(spans).isEqualTo(ProfilerImpl.RING_SIZE)
+        // statistics are not limited by ring buffer
+        assertThat(sut.statistics().sumOf { it.count }).isEqualTo(ProfilerImpl.RING_SIZE + 10L)
+
+        sut.reset()
+        assertThat(sut.statistics()).isEmpty()
+    }
+}
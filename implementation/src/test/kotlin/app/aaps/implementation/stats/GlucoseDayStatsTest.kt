@@ -0,0 +1,121 @@
+package app.aaps.implementation.stats
+
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.rx.events.EventNewHistoryData
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.interfaces.utils.MidnightTime
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import kotlin.random.Random
+
+class GlucoseDayStatsTest : TestBase() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var fabricPrivacy: FabricPrivacy
+    @Mock lateinit var rh: ResourceHelper
+    @Mock lateinit var profileUtil: ProfileUtil
+    @Mock lateinit var dateUtil: DateUtil
+
+    private lateinit var glucoseDayStats: GlucoseDayStats
+    private val now = System.currentTimeMillis()
+    private val readings = ArrayList<GV>()
+
+    @BeforeEach
+    fun setup() {
+        val random = Random(1)
+        var time = MidnightTime.calcDaysBack(31)
+        var value = 120.0
+        while (time < now) {
+            value = (value + random.nextDouble(-12.0, 12.0)).coerceIn(40.0, 400.0)
+            readings.add(gv(time, if (random.nextInt(200) == 0) 38.0 else value))
+            time += T.mins(5).msecs() + random.nextLong(-20_000, 20_000)
+        }
+        whenever(persistenceLayer.getBgReadingsDataFromTimeToTime(any(), any(), eq(true))).thenAnswer { invocation ->
+            val start = invocation.getArgument<Long>(0)
+            val end = invocation.getArgument<Long>(1)
+            readings.filter { it.timestamp in start..end }.sortedBy { it.timestamp }
+        }
+        whenever(dateUtil.now()).thenReturn(now)
+        glucoseDayStats = GlucoseDayStats(persistenceLayer, rxBus, aapsSchedulers, fabricPrivacy)
+    }
+
+    @Test
+    fun `tir from aggregates equals full recompute`() {
+        val tirCalculator = TirCalculatorImpl(rh, profileUtil, dateUtil, glucoseDayStats)
+        for (thresholds in listOf(70.0 to 180.0, 63.0 to 140.0, 70.3 to 70.3, 39.0 to 400.0)) {
+            val result = tirCalculator.calculate(30, thresholds.first, thresholds.second)
+            val expected = recompute(thresholds.first, thresholds.second)
+            assertThat(result.size()).isEqualTo(expected.size)
+            for (i in 0 until result.size()) {
+                val tir = result.valueAt(i)
+                val reference = expected.getValue(result.keyAt(i))
+                assertThat(listOf(tir.below, tir.inRange, tir.above, tir.error, tir.count))
+                    .isEqualTo(listOf(reference.below, reference.inRange, reference.above, reference.error, reference.count))
+            }
+        }
+        // all days read from database only once
+        verify(persistenceLayer, times(1)).getBgReadingsDataFromTimeToTime(any(), any(), any())
+    }
+
+    @Test
+    fun `dexcom tir from aggregates equals full recompute`() {
+        val dexcomTirCalculator = DexcomTirCalculatorImpl(profileUtil, dateUtil, glucoseDayStats)
+        val tir = dexcomTirCalculator.calculate() as DexcomTirImpl
+        val reference = DexcomTirImpl()
+        readings.filter { it.timestamp >= MidnightTime.calcDaysBack(14) && it.timestamp < MidnightTime.calc(now) }.forEach { reference.add(it.timestamp, it.value) }
+        assertThat(listOf(tir.veryLow, tir.low, tir.inRange, tir.high, tir.veryHigh, tir.error, tir.count))
+            .isEqualTo(listOf(reference.veryLow, reference.low, reference.inRange, reference.high, reference.veryHigh, reference.error, reference.count))
+        assertThat(tir.calculateSD()).isWithin(1e-6).of(reference.calculateSD())
+    }
+
+    @Test
+    fun `only changed days are reloaded`() {
+        val tirCalculator = TirCalculatorImpl(rh, profileUtil, dateUtil, glucoseDayStats)
+        tirCalculator.calculate(30, 70.0, 180.0)
+        // backfilled reading 3 days ago
+        val changed = MidnightTime.calcDaysBack(3) + T.hours(12).msecs() + 1
+        readings.add(gv(changed, 250.0))
+        rxBus.send(EventNewHistoryData(changed, false))
+        tirCalculator.calculate(30, 70.0, 180.0)
+        verify(persistenceLayer, times(1)).getBgReadingsDataFromTimeToTime(any(), any(), any())
+
+        rxBus.send(EventNewHistoryData(changed, true))
+        val result = tirCalculator.calculate(30, 70.0, 180.0)
+        verify(persistenceLayer).getBgReadingsDataFromTimeToTime(eq(MidnightTime.calc(changed)), any(), eq(true))
+        val expected = recompute(70.0, 180.0)
+        for (i in 0 until result.size())
+            assertThat(result.valueAt(i).above).isEqualTo(expected.getValue(result.keyAt(i)).above)
+    }
+
+    // former implementation: all readings bucketed by day
+    private fun recompute(lowMgdl: Double, highMgdl: Double): Map<Long, TirImpl> {
+        val result = LinkedHashMap<Long, TirImpl>()
+        readings.filter { it.timestamp >= MidnightTime.calcDaysBack(30) && it.timestamp < MidnightTime.calc(now) }.sortedBy { it.timestamp }.forEach { bg ->
+            val midnight = MidnightTime.calc(bg.timestamp)
+            val tir = result.getOrPut(midnight) { TirImpl(midnight, lowMgdl, highMgdl) }
+            if (bg.value < 39) tir.error()
+            if (bg.value >= 39 && bg.value < lowMgdl) tir.below()
+            if (bg.value in lowMgdl..highMgdl) tir.inRange()
+            if (bg.value > highMgdl) tir.above()
+        }
+        return result
+    }
+
+    private fun gv(timestamp: Long, value: Double) =
+        GV(timestamp = timestamp, raw = null, value = value, trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN)
+}
@@ -14,6 +14,8 @@ import android.view.ViewGroup
 import androidx.core.view.MenuCompat
 import androidx.core.view.MenuProvider
 import androidx.lifecycle.Lifecycle
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.resources.ResourceHelper
@@ -25,6 +27,7 @@ import app.aaps.core.utils.HtmlHelper
 import app.aaps.plugins.aps.databinding.OpenapsFragmentBinding
 import app.aaps.plugins.aps.events.EventOpenAPSUpdateGui
 import app.aaps.plugins.aps.events.EventResetOpenAPSGui
+import app.aaps.plugins.aps.replay.ApsReplay
 import dagger.android.support.DaggerFragment
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.plusAssign
@@ -43,10 +46,15 @@ class OpenAPSFragment : DaggerFragment(), MenuProvider {
     @Inject lateinit var fabricPrivacy: FabricPrivacy
     @Inject lateinit var activePlugin: ActivePlugin
     @Inject lateinit var dateUtil: DateUtil
+    @Inject lateinit var config: Config
+    @Inject lateinit var apsReplay: ApsReplay
 
     @Suppress("PrivatePropertyName")
     private val ID_MENU_RUN = 503
 
+    @Suppress("PrivatePropertyName")
+    private val ID_MENU_REPLAY = 504
+
     private var _binding: OpenapsFragmentBinding? = null
     private var handler = Handler(HandlerThread(this::class.simpleName + "Handler").also { it.start() }.looper)
 
@@ -76,18 +84,30 @@ class OpenAPSFragment : DaggerFragment(), MenuProvider {
 
     override fun onCreateMenu(menu: Menu, inflater: MenuInflater) {
         menu.add(Menu.FIRST, ID_MENU_RUN, 0, rh.gs(R.string.openapsma_run)).setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER)
+        if (config.isEngineeringMode() && config.isDev())
+            menu.add(Menu.FIRST, ID_MENU_REPLAY, 0, rh.gs(R.string.openaps_replay_last_day)).setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER)
         MenuCompat.setGroupDividerEnabled(menu, true)
     }
 
     override fun onMenuItemSelected(item: MenuItem): Boolean =
         when (item.itemId) {
-            ID_MENU_RUN -> {
+            ID_MENU_RUN    -> {
                 binding.lastrun.text = rh.gs(R.string.executing)
                 handler.post { activePlugin.activeAPS.invoke("OpenAPS menu", false) }
                 true
             }
 
-            else        -> false
+            ID_MENU_REPLAY -> {
+                binding.lastrun.text = rh.gs(R.string.executing)
+                handler.post {
+                    val now = dateUtil.now()
+                    val reports = apsReplay.replay(now - T.days(1).msecs(), now, ApsReplay.DEFAULT_PARAMETERS)
+                    rxBus.send(EventResetOpenAPSGui(reports.joinToString("\n")))
+                }
+                true
+            }
+
+            else           -> false
         }
 
     @Synchronized
@@ -30,6 +30,8 @@ import app.aaps.plugins.aps.autotune.data.ATProfile
 import app.aaps.plugins.aps.autotune.data.LocalInsulin
 import org.json.JSONArray
 import org.json.JSONObject
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.ceil
@@ -47,11 +49,26 @@ open class AutotuneIob @Inject constructor(
     private var nsTreatments = ArrayList<NsTreatment>()
     private var dia: Double = Constants.defaultDIA
     var boluses: ArrayList<BS> = ArrayList()
+        set(value) {
+            field = value
+            bolusIndex = null
+        }
     var meals = ArrayList<CA>()
     lateinit var glucose: List<GV> // newest at index 0
     private lateinit var tempBasals: ArrayList<TB>
     var startBG: Long = 0
     private var endBG: Long = 0
+    @Volatile private var bolusIndex: BolusIndex? = null
+
+    /**
+     * Boluses sorted newest first with their timestamps for binary search of IOB window.
+     * Not changed after creation, so one instance is shared by all IOB workers
+     */
+    private class BolusIndex(val boluses: List<BS>) {
+
+        val timestamps = LongArray(boluses.size) { boluses[it].timestamp }
+    }
+
     private fun range(): Long = (60 * 60 * 1000L * dia + T.hours(2).msecs()).toLong()
 
     fun initializeData(from: Long, to: Long, tunedProfile: ATProfile) {
@@ -61,6 +78,7 @@ open class AutotuneIob @Inject constructor(
         nsTreatments.clear()
         meals.clear()
         boluses.clear()
+        bolusIndex = null
         tempBasals = ArrayList()
         if (profileFunction.getProfile(from - range()) == null)
             return
@@ -87,9 +105,16 @@ open class AutotuneIob @Inject constructor(
 
     @Synchronized
     private fun sortBoluses() {
-        boluses = ArrayList(boluses.toList().sortedWith { o1: BS, o2: BS -> if (o2.timestamp > o1.timestamp) 1 else -1 })
+        boluses = ArrayList(boluses.toList().sortedWith(newestFirst))
+        bolusIndex = BolusIndex(boluses.toList())
     }
 
+    // built when data is loaded, or on first use after boluses were replaced from outside (tests)
+    private fun bolusIndex(): BolusIndex =
+        bolusIndex ?: boluses.toList().let { list ->
+            BolusIndex(if (list.zipWithNext().any { (newer, older) -> newer.timestamp < older.timestamp }) list.sortedWith(newestFirst) else list)
+        }.also { bolusIndex = it }
+
     private fun initializeBgReadings(from: Long, to: Long) {
         glucose = persistenceLayer.getBgReadingsDataFromTimeToTime(from, to, false)
     }
@@ -246,7 +271,26 @@ open class AutotuneIob @Inject constructor(
     }
 
     open fun getIOB(time: Long, localInsulin: LocalInsulin): IobTotal =
-        getCalculationToTimeTreatments(time, localInsulin).round()
+        getCalculationToTimeTreatments(bolusIndex(), time, localInsulin).round()
+
+    /**
+     * IOB for list of times calculated in parallel
+     * Use only if detailed log is off, order of log lines is not preserved
+     */
+    open fun getIOB(times: LongArray, localInsulin: LocalInsulin): Array<IobTotal> {
+        val index = bolusIndex()
+        val chunk = ((times.size + THREADS - 1) / THREADS).coerceAtLeast(1)
+        val tasks = (times.indices step chunk).map { start ->
+            Callable { (start until minOf(start + chunk, times.size)).map { getCalculationToTimeTreatments(index, times[it], localInsulin).round() } }
+        }
+        // threads live only for one batch, Autotune runs a few times a day at most
+        val executor = Executors.newFixedThreadPool(tasks.size.coerceAtLeast(1)) { runnable -> Thread(runnable, "AutotuneIob").also { it.isDaemon = true } }
+        try {
+            return executor.invokeAll(tasks).flatMap { it.get() }.toTypedArray()
+        } finally {
+            executor.shutdown()
+        }
+    }
 
     // Add specific calculation for Autotune (reference localInsulin for Peak/dia)
     private fun BS.iobCalc(time: Long, localInsulin: LocalInsulin): Iob {
@@ -254,13 +298,14 @@ open class AutotuneIob @Inject constructor(
         return localInsulin.iobCalcForTreatment(this, time)
     }
 
-    private fun getCalculationToTimeTreatments(time: Long, localInsulin: LocalInsulin): IobTotal {
+    private fun getCalculationToTimeTreatments(index: BolusIndex, time: Long, localInsulin: LocalInsulin): IobTotal {
         val total = IobTotal(time)
         val detailedLog = preferences.get(BooleanKey.AutotuneAdditionalLog)
-        for (pos in boluses.indices) {
-            val t = boluses[pos]
+        // boluses are sorted newest first: skip boluses after time, stop at first bolus older than insulin duration
+        for (pos in firstNotAfter(index.timestamps, time) until index.timestamps.size) {
+            val t = index.boluses[pos]
+            if (t.timestamp < time - localInsulin.duration) break
             if (!t.isValid) continue
-            if (t.timestamp > time || t.timestamp < time - localInsulin.duration) continue
             val tIOB = t.iobCalc(time, localInsulin)
             if (detailedLog)
                 log(
@@ -274,6 +319,17 @@ open class AutotuneIob @Inject constructor(
         return total
     }
 
+    // index of first (newest) bolus with timestamp <= time in descending array
+    private fun firstNotAfter(index: LongArray, time: Long): Int {
+        var low = 0
+        var high = index.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (index[mid] > time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
     private fun convertToBoluses(eb: EB): MutableList<BS> {
         val result: MutableList<BS> = ArrayList()
         val aboutFiveMinIntervals = eb.duration / T.mins(5).msecs() + 1
@@ -491,4 +547,10 @@ open class AutotuneIob @Inject constructor(
     private fun log(message: String) {
         autotuneFS.atLog("[iob] $message")
     }
+
+    companion object {
+
+        private val THREADS = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
+        private val newestFirst = Comparator { o1: BS, o2: BS -> if (o2.timestamp > o1.timestamp) 1 else -1 }
+    }
 }
\ No newline at end of file
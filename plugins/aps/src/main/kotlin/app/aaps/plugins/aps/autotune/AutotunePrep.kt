@@ -17,6 +17,9 @@ import app.aaps.plugins.aps.autotune.data.DiaDeviation
 import app.aaps.plugins.aps.autotune.data.LocalInsulin
 import app.aaps.plugins.aps.autotune.data.PeakDeviation
 import app.aaps.plugins.aps.autotune.data.PreppedGlucose
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.security.MessageDigest
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.abs
@@ -32,7 +35,43 @@ class AutotunePrep @Inject constructor(
     private val autotuneIob: AutotuneIob
 ) {
 
+    // Prepared days of previous runs. Result depends only on day data, tuned profile of previous day and settings
+    private val preparedDays = object : LinkedHashMap<String, PreppedGlucose>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, PreppedGlucose>?): Boolean = size > CACHE_SIZE
+    }
+
     fun categorize(tunedProfile: ATProfile): PreppedGlucose? {
+        // must be calculated before categorization, it modifies glucose and meals
+        val key = dataHash(tunedProfile)
+        synchronized(preparedDays) { preparedDays[key] }?.let {
+            log("Unchanged data and profile, prepared glucose reused")
+            return it
+        }
+        return prepare(tunedProfile)?.also { synchronized(preparedDays) { preparedDays[key] = it } }
+    }
+
+    private fun dataHash(tunedProfile: ATProfile): String {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { out ->
+            out.writeLong(autotuneIob.startBG)
+            autotuneIob.glucose.forEach { out.writeLong(it.timestamp); out.writeDouble(it.value) }
+            out.writeInt(autotuneIob.meals.size)
+            autotuneIob.meals.forEach { out.writeLong(it.timestamp); out.writeDouble(it.amount) }
+            out.writeInt(autotuneIob.boluses.size)
+            autotuneIob.boluses.forEach { out.writeLong(it.timestamp); out.writeDouble(it.amount); out.writeBoolean(it.isValid); out.writeInt(it.type.ordinal) }
+            tunedProfile.basal.forEach { out.writeDouble(it) }
+            out.writeDouble(tunedProfile.isf)
+            out.writeDouble(tunedProfile.ic)
+            out.writeInt(tunedProfile.localInsulin.peak)
+            out.writeDouble(tunedProfile.localInsulin.dia)
+            out.writeBoolean(preferences.get(BooleanKey.AutotuneTuneInsulinCurve))
+            out.writeBoolean(preferences.get(BooleanKey.AutotuneCategorizeUamAsBasal))
+            out.writeDouble(preferences.get(DoubleKey.ApsSmbMin5MinCarbsImpact))
+        }
+        return MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()).joinToString("") { "%02x".format(it) }
+    }
+
+    private fun prepare(tunedProfile: ATProfile): PreppedGlucose? {
         val preppedGlucose = categorizeBGDatums(tunedProfile, tunedProfile.localInsulin)
         val tuneInsulin = preferences.get(BooleanKey.AutotuneTuneInsulinCurve)
         if (tuneInsulin) {
@@ -228,6 +267,11 @@ class AutotunePrep @Inject constructor(
         var crInitialBG = 0.0
         var crInitialCarbTime = 0L
 
+        // IOB doesn't depend on categorization, calculate it for all data points at once (in parallel)
+        // With detailed log it's calculated inside the loop to keep order of log lines
+        val iobs = if (preferences.get(BooleanKey.AutotuneAdditionalLog)) null
+        else autotuneIob.getIOB(LongArray(bucketedData.size) { bucketedData[it].date }, localInsulin)
+
         //categorize.js#123 (Note: don't need fullHistory because data are managed in AutotuneIob Class)
         //Here is main loop between #125 and #366
         // main for loop
@@ -294,7 +338,7 @@ class AutotunePrep @Inject constructor(
             //var iob = getIOB(IOBInputs)[0];
             // in autotune iob is calculated with 6 hours of history data, tunedProfile and average pumpProfile basal rate...
             //log("currentBasal: " + currentBasal + " BGTime: " + BGTime + " / " + dateUtil!!.timeStringWithSeconds(BGTime) + "******************************************************************************************")
-            val iob = autotuneIob.getIOB(bgTime, localInsulin)    // add localInsulin to be independent to InsulinPlugin
+            val iob = iobs?.get(i) ?: autotuneIob.getIOB(bgTime, localInsulin)    // add localInsulin to be independent to InsulinPlugin
 
             // activity times ISF times 5 minutes is BGI
             val bgi = Round.roundTo(-iob.activity * sens * 5, 0.01)
@@ -561,4 +605,9 @@ class AutotunePrep @Inject constructor(
     private fun log(message: String) {
         autotuneFS.atLog("[Prep] $message")
     }
+
+    companion object {
+
+        private const val CACHE_SIZE = 60
+    }
 }
\ No newline at end of file
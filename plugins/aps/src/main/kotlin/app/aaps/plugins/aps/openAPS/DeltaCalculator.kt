@@ -28,7 +28,7 @@ class DeltaCalculator @Inject constructor(
      * @param data A list of historical glucose data, sorted from newest to oldest.
      * @return A [DeltaResult] containing the calculated deltas.
      */
-    fun calculateDeltas(data:  MutableList<InMemoryGlucoseValue>): DeltaResult {
+    fun calculateDeltas(data: List<InMemoryGlucoseValue>): DeltaResult {
         if (data.size < 2) {
             return DeltaResult(0.0, 0.0, 0.0)
         }
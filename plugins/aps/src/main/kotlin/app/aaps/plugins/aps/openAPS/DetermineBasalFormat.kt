@@ -0,0 +1,17 @@
+package app.aaps.plugins.aps.openAPS
+
+import java.text.DecimalFormat
+
+/**
+ * Number formatting used in determine_basal reason and logs
+ *
+ * DecimalFormat is not thread safe. Each thread gets its own instance instead of new one per call.
+ */
+object DetermineBasalFormat {
+
+    private val fixed2 = ThreadLocal.withInitial { DecimalFormat("0.00#") }
+    private val withoutZeros = ThreadLocal.withInitial { DecimalFormat("0.##") }
+
+    fun toFixed2(value: Double): String = fixed2.get()!!.format(value)
+    fun withoutZeros(value: Double): String = withoutZeros.get()!!.format(value)
+}
@@ -0,0 +1,81 @@
+package app.aaps.plugins.aps.openAPS
+
+import app.aaps.core.data.time.T
+import java.util.TreeMap
+
+/**
+ * Cache of calculated variable sensitivities
+ *
+ * Keys are timestamps (rounded by caller). Entries older than [maxAge] behind the newest key are evicted,
+ * and the oldest ones when [maxSize] is exceeded, instead of clearing the whole cache.
+ * Average over time window is calculated from prefix sums rebuilt only after cache change.
+ */
+class DynIsfCache(
+    private val maxAge: Long = T.hours(48).msecs(),
+    private val maxSize: Int = 1000
+) {
+
+    private val values = TreeMap<Long, Double>()
+    private var keys = LongArray(0)
+    private var prefixSums = DoubleArray(1)
+    private var dirty = false
+
+    val size: Int
+        @Synchronized get() = values.size
+
+    @Synchronized
+    operator fun get(key: Long): Double? = values[key]
+
+    @Synchronized
+    fun put(key: Long, value: Double) {
+        values[key] = value
+        val oldest = values.lastKey() - maxAge
+        while (values.firstKey() < oldest || values.size > maxSize) values.pollFirstEntry()
+        dirty = true
+    }
+
+    /**
+     * @return number of values with key in [from, to]
+     */
+    @Synchronized
+    fun count(from: Long, to: Long): Int {
+        rebuild()
+        return (lowerBound(to + 1) - lowerBound(from)).coerceAtLeast(0)
+    }
+
+    /**
+     * @return average of values with key in [from, to] or null if there is none
+     */
+    @Synchronized
+    fun average(from: Long, to: Long): Double? {
+        rebuild()
+        val low = lowerBound(from)
+        val high = lowerBound(to + 1)
+        if (high <= low) return null
+        return (prefixSums[high] - prefixSums[low]) / (high - low)
+    }
+
+    private fun rebuild() {
+        if (!dirty) return
+        keys = LongArray(values.size)
+        prefixSums = DoubleArray(values.size + 1)
+        var i = 0
+        values.forEach { (key, value) ->
+            keys[i] = key
+            prefixSums[i + 1] = prefixSums[i] + value
+            i++
+        }
+        dirty = false
+    }
+
+    // index of first key >= key
+    private fun lowerBound(key: Long): Int {
+        var low = 0
+        var high = keys.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (keys[mid] < key) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
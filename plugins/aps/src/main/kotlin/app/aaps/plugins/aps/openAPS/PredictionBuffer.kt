@@ -0,0 +1,47 @@
+package app.aaps.plugins.aps.openAPS
+
+/**
+ * Predicted BG series of determine_basal (one value per 5 min) backed by primitive array
+ *
+ * @param first current BG, first value of series
+ * @param capacity maximal length of series (4h)
+ */
+class PredictionBuffer(first: Double, capacity: Int = 48) {
+
+    private val values = DoubleArray(capacity)
+
+    var size = 0
+        private set
+
+    val indices: IntRange get() = 0 until size
+
+    init {
+        add(first)
+    }
+
+    operator fun get(index: Int): Double {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index $index, size $size")
+        return values[index]
+    }
+
+    fun last(): Double = get(size - 1)
+
+    fun add(value: Double) {
+        values[size++] = value
+    }
+
+    fun removeLast() {
+        if (size == 0) throw NoSuchElementException("Prediction is empty")
+        size--
+    }
+
+    /**
+     * Limit values to 39..401 and round them to whole mg/dl. NaN becomes 0 as with previous rounding of lists
+     */
+    fun clampAndRound() {
+        for (i in 0 until size)
+            values[i] = Math.round(minOf(401.0, maxOf(39.0, values[i]))).toDouble()
+    }
+
+    fun toIntList(): List<Int> = List(size) { values[it].toInt() }
+}
@@ -30,6 +30,8 @@ import app.aaps.core.interfaces.plugin.PluginBase
 import app.aaps.core.interfaces.plugin.PluginDescription
 import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAPSCalculationFinished
@@ -78,6 +80,7 @@ class OpenAPSAMAPlugin @Inject constructor(
     private val glucoseStatusProvider: GlucoseStatusProvider,
     private val preferences: Preferences,
     private val determineBasalAMA: DetermineBasalAMA,
+    private val profiler: Profiler,
     private val glucoseStatusCalculatorSMB: GlucoseStatusCalculatorSMB,
     private val apsResultProvider: Provider<APSResult>
 ) : PluginBase(
@@ -240,15 +243,17 @@ class OpenAPSAMAPlugin @Inject constructor(
         aapsLogger.debug(LTag.APS, "Autosens data:      $autosensResult")
         aapsLogger.debug(LTag.APS, "Meal data:          $mealData")
 
-        determineBasalAMA.determine_basal(
-            glucose_status = glucoseStatus,
-            currenttemp = currentTemp,
-            iob_data_array = iobArray,
-            profile = oapsProfile,
-            autosens_data = autosensResult,
-            meal_data = mealData,
-            currentTime = now
-        ).also {
+        profiler.trace("aps:determine_basal AMA") {
+            determineBasalAMA.determine_basal(
+                glucose_status = glucoseStatus,
+                currenttemp = currentTemp,
+                iob_data_array = iobArray,
+                profile = oapsProfile,
+                autosens_data = autosensResult,
+                meal_data = mealData,
+                currentTime = now
+            )
+        }.also {
             val determineBasalResult = apsResultProvider.get().with(it)
             // Preserve input data
             determineBasalResult.inputConstraints = inputConstraints
@@ -10,7 +10,8 @@ import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
 import app.aaps.core.interfaces.aps.Predictions
 import app.aaps.core.interfaces.aps.RT
 import app.aaps.core.interfaces.profile.ProfileUtil
-import java.text.DecimalFormat
+import app.aaps.plugins.aps.openAPS.DetermineBasalFormat
+import app.aaps.plugins.aps.openAPS.PredictionBuffer
 import java.time.Instant
 import java.time.ZoneId
 import javax.inject.Inject
@@ -28,7 +29,18 @@ class DetermineBasalAutoISF @Inject constructor(
     private val consoleError = mutableListOf<String>()
     private val consoleLog = mutableListOf<String>()
 
-    private fun Double.toFixed2(): String = DecimalFormat("0.00#").format(round(this, 2))
+    // when disabled (replay, batch runs) messages for consoleError and consoleLog are not even built
+    private var diagnostics = true
+
+    private inline fun addError(message: () -> String) {
+        if (diagnostics) consoleError.add(message())
+    }
+
+    private inline fun addLog(message: () -> String) {
+        if (diagnostics) consoleLog.add(message())
+    }
+
+    private fun Double.toFixed2(): String = DetermineBasalFormat.toFixed2(round(this, 2))
 
     fun round_basal(value: Double): Double = value
 
@@ -40,7 +52,7 @@ class DetermineBasalAutoISF @Inject constructor(
         return Math.round(value * scale) / scale
     }
 
-    fun Double.withoutZeros(): String = DecimalFormat("0.##").format(this)
+    fun Double.withoutZeros(): String = DetermineBasalFormat.withoutZeros(this)
     fun round(value: Double): Int = value.roundToInt()
 
     // we expect BG to rise or fall at the rate of BGI,
@@ -62,46 +74,46 @@ class DetermineBasalAutoISF @Inject constructor(
     fun enable_smb(profile: OapsProfileAutoIsf, microBolusAllowed: Boolean, meal_data: MealData, target_bg: Double): Boolean {
         // disable SMB when a high temptarget is set
         if (!microBolusAllowed) {
-            consoleError.add("SMB disabled (!microBolusAllowed)")
+            addError { "SMB disabled (!microBolusAllowed)" }
             return false
         } else if (!profile.allowSMB_with_high_temptarget && profile.temptargetSet && target_bg > 100) {
-            consoleError.add("SMB disabled due to high temptarget of $target_bg")
+            addError { "SMB disabled due to high temptarget of $target_bg" }
             return false
         }
 
         // enable SMB/UAM if always-on (unless previously disabled for high temptarget)
         if (profile.enableSMB_always) {
-            consoleError.add("SMB enabled due to enableSMB_always")
+            addError { "SMB enabled due to enableSMB_always" }
             return true
         }
 
         // enable SMB/UAM (if enabled in preferences) while we have COB
         if (profile.enableSMB_with_COB && meal_data.mealCOB != 0.0) {
-            consoleError.add("SMB enabled for COB of ${meal_data.mealCOB}")
+            addError { "SMB enabled for COB of ${meal_data.mealCOB}" }
             return true
         }
 
         // enable SMB/UAM (if enabled in preferences) for a full 6 hours after any carb entry
         // (6 hours is defined in carbWindow in lib/meal/total.js)
         if (profile.enableSMB_after_carbs && meal_data.carbs != 0.0) {
-            consoleError.add("SMB enabled for 6h after carb entry")
+            addError { "SMB enabled for 6h after carb entry" }
             return true
         }
 
         // enable SMB/UAM (if enabled in preferences) if a low temptarget is set
         if (profile.enableSMB_with_temptarget && (profile.temptargetSet && target_bg < 100)) {
-            consoleError.add("SMB enabled for temptarget of ${convert_bg(target_bg)}")
+            addError { "SMB enabled for temptarget of ${convert_bg(target_bg)}" }
             return true
         }
 
-        consoleError.add("SMB disabled (no enableSMB preferences active or no condition satisfied)")
+        addError { "SMB disabled (no enableSMB preferences active or no condition satisfied)" }
         return false
     }
 
     fun reason(rT: RT, msg: String) {
         if (rT.reason.toString().isNotEmpty()) rT.reason.append(". ")
         rT.reason.append(msg)
-        consoleError.add(msg)
+        addError { msg }
     }
 
     private fun getMaxSafeBasal(profile: OapsProfileAutoIsf): Double =
@@ -148,8 +160,10 @@ class DetermineBasalAutoISF @Inject constructor(
     fun determine_basal(
         glucose_status: GlucoseStatus, currenttemp: CurrentTemp, iob_data_array: Array<IobTotal>, profile: OapsProfileAutoIsf, autosens_data: AutosensResult, meal_data: MealData,
         microBolusAllowed: Boolean, currentTime: Long, flatBGsDetected: Boolean, autoIsfMode: Boolean, loop_wanted_smb: String, profile_percentage: Int, smb_ratio: Double,
-        smb_max_range_extension: Double, iob_threshold_percent: Int, auto_isf_consoleError: MutableList<String>, auto_isf_consoleLog: MutableList<String>
+        smb_max_range_extension: Double, iob_threshold_percent: Int, auto_isf_consoleError: MutableList<String>, auto_isf_consoleLog: MutableList<String>,
+        diagnostics: Boolean = true
     ): RT {
+        this.diagnostics = diagnostics
         consoleError.clear()
         consoleLog.clear()
         var rT = RT(
@@ -239,11 +253,11 @@ class DetermineBasalAutoISF @Inject constructor(
                 sensitivityRatio = round(sensitivityRatio, 2)
                 exercise_ratio = sensitivityRatio
                 // origin_sens = "from TT modifier"
-                consoleError.add("Sensitivity ratio set to $sensitivityRatio based on temp target of $target_bg; ")
+                addError { "Sensitivity ratio set to $sensitivityRatio based on temp target of $target_bg; " }
             }
         } else {
             sensitivityRatio = autosens_data.ratio
-            consoleError.add("Autosens ratio: $sensitivityRatio; ")
+            addError { "Autosens ratio: $sensitivityRatio; " }
         }
         var iobTH_reduction_ratio = 1.0
         if (iob_threshold_percent != 100) {
@@ -252,9 +266,9 @@ class DetermineBasalAutoISF @Inject constructor(
         basal = profile.current_basal * sensitivityRatio
         basal = round_basal(basal)
         if (basal != profile_current_basal)
-            consoleError.add("Adjusting basal from $profile_current_basal to $basal;")
+            addError { "Adjusting basal from $profile_current_basal to $basal;" }
         else
-            consoleError.add("Basal unchanged: $basal;")
+            addError { "Basal unchanged: $basal;" }
 
         // adjust min, max, and target BG for sensitivity, such that 50% increase in ISF raises target from 100 to 120
         if (profile.temptargetSet) {
@@ -268,9 +282,9 @@ class DetermineBasalAutoISF @Inject constructor(
                 // don't allow target_bg below 80
                 new_target_bg = max(80.0, new_target_bg)
                 if (target_bg == new_target_bg)
-                    consoleError.add("target_bg unchanged: $new_target_bg; ")
+                    addError { "target_bg unchanged: $new_target_bg; " }
                 else
-                    consoleError.add("target_bg from $target_bg to $new_target_bg; ")
+                    addError { "target_bg from $target_bg to $new_target_bg; " }
 
                 target_bg = new_target_bg
             }
@@ -292,9 +306,9 @@ class DetermineBasalAutoISF @Inject constructor(
         val profile_sens = round(profile.sens, 1)
         val adjusted_sens = round(profile.sens / sensitivityRatio, 1)
         if (adjusted_sens != profile_sens) {
-            consoleError.add("ISF from $profile_sens to $adjusted_sens")
+            addError { "ISF from $profile_sens to $adjusted_sens" }
         } else {
-            consoleError.add("ISF unchanged: $adjusted_sens")
+            addError { "ISF unchanged: $adjusted_sens" }
         }
         val sens =
             if (autoIsfMode) {
@@ -303,14 +317,16 @@ class DetermineBasalAutoISF @Inject constructor(
                 adjusted_sens
                 //console.log(" (autosens ratio "+sensitivityRatio+")");
             }
-        consoleError.add("CR: ${profile.carb_ratio}")
+        addError { "CR: ${profile.carb_ratio}" }
 
         if (autoIsfMode) {
-            consoleError.add("----------------------------------")
-            consoleError.add("start AutoISF ${profile.autoISF_version}")
-            consoleError.add("----------------------------------")
-            consoleError.addAll(auto_isf_consoleLog)
-            consoleError.addAll(auto_isf_consoleError)
+            addError { "----------------------------------" }
+            addError { "start AutoISF ${profile.autoISF_version}" }
+            addError { "----------------------------------" }
+            if (diagnostics) {
+                consoleError.addAll(auto_isf_consoleLog)
+                consoleError.addAll(auto_isf_consoleError)
+            }
         }
         // mod autoISF3.0-dev: if that would put us over iobTH, then reduce accordingly; allow 30% overrun
         val iobTHtolerance = 130.0
@@ -363,24 +379,24 @@ class DetermineBasalAutoISF @Inject constructor(
             // if eventualBG, naive_eventualBG, and target_bg aren't all above adjustedMinBG, don’t use it
             //console.error("naive_eventualBG:",naive_eventualBG+", eventualBG:",eventualBG);
             if (eventualBG > adjustedMinBG && naive_eventualBG > adjustedMinBG && min_bg > adjustedMinBG) {
-                consoleError.add("Adjusting targets for high BG: min_bg from $min_bg to $adjustedMinBG; ")
+                addError { "Adjusting targets for high BG: min_bg from $min_bg to $adjustedMinBG; " }
                 min_bg = adjustedMinBG
             } else {
-                consoleError.add("min_bg unchanged: $min_bg; ")
+                addError { "min_bg unchanged: $min_bg; " }
             }
             // if eventualBG, naive_eventualBG, and target_bg aren't all above adjustedTargetBG, don’t use it
             if (eventualBG > adjustedTargetBG && naive_eventualBG > adjustedTargetBG && target_bg > adjustedTargetBG) {
-                consoleError.add("target_bg from $target_bg to $adjustedTargetBG; ")
+                addError { "target_bg from $target_bg to $adjustedTargetBG; " }
                 target_bg = adjustedTargetBG
             } else {
-                consoleError.add("target_bg unchanged: $target_bg; ")
+                addError { "target_bg unchanged: $target_bg; " }
             }
             // if eventualBG, naive_eventualBG, and max_bg aren't all above adjustedMaxBG, don’t use it
             if (eventualBG > adjustedMaxBG && naive_eventualBG > adjustedMaxBG && max_bg > adjustedMaxBG) {
-                consoleError.add("max_bg from $max_bg to $adjustedMaxBG")
+                addError { "max_bg from $max_bg to $adjustedMaxBG" }
                 max_bg = adjustedMaxBG
             } else {
-                consoleError.add("max_bg unchanged: $max_bg")
+                addError { "max_bg unchanged: $max_bg" }
             }
         }
 
@@ -391,7 +407,7 @@ class DetermineBasalAutoISF @Inject constructor(
         // if (profile.lgsThreshold != null) {
         //     val lgsThreshold = profile.lgsThreshold ?: error("lgsThreshold missing")
         //     if (lgsThreshold > threshold) {
-        //         consoleError.add("Threshold set from ${convert_bg(threshold)} to ${convert_bg(lgsThreshold.toDouble())}; ")
+        //         addError { "Threshold set from ${convert_bg(threshold)} to ${convert_bg(lgsThreshold.toDouble())}; " }
         //         threshold = lgsThreshold.toDouble()
         //     }
         // }
@@ -416,16 +432,11 @@ class DetermineBasalAutoISF @Inject constructor(
 
         // generate predicted future BGs based on IOB, COB, and current absorption rate
 
-        var COBpredBGs = mutableListOf<Double>()
-        var aCOBpredBGs = mutableListOf<Double>()
-        var IOBpredBGs = mutableListOf<Double>()
-        var UAMpredBGs = mutableListOf<Double>()
-        var ZTpredBGs = mutableListOf<Double>()
-        COBpredBGs.add(bg)
-        aCOBpredBGs.add(bg)
-        IOBpredBGs.add(bg)
-        ZTpredBGs.add(bg)
-        UAMpredBGs.add(bg)
+        val COBpredBGs = PredictionBuffer(bg)
+        val aCOBpredBGs = PredictionBuffer(bg)
+        val IOBpredBGs = PredictionBuffer(bg)
+        val UAMpredBGs = PredictionBuffer(bg)
+        val ZTpredBGs = PredictionBuffer(bg)
 
         //var enableSMB = if (autoIsfMode) microBolusAllowed else enable_smb(profile, microBolusAllowed, meal_data, target_bg) // pulled ahead for autoISF
 
@@ -455,13 +466,13 @@ class DetermineBasalAutoISF @Inject constructor(
         // autotuned CR is still in effect even when basals and ISF are being adjusted by TT or autosens
         // this avoids overdosing insulin for large meals when low temp targets are active
         val csf = sens / profile.carb_ratio
-        consoleError.add("profile.sens: ${profile.sens}, sens: $sens, CSF: $csf")
+        addError { "profile.sens: ${profile.sens}, sens: $sens, CSF: $csf" }
 
         val maxCarbAbsorptionRate = 30 // g/h; maximum rate to assume carbs will absorb if no CI observed
         // limit Carb Impact to maxCarbAbsorptionRate * csf in mg/dL per 5m
         val maxCI = round(maxCarbAbsorptionRate * csf * 5 / 60, 1)
         if (ci > maxCI) {
-            consoleError.add("Limiting carb impact from $ci to $maxCI mg/dL/5m ( $maxCarbAbsorptionRate g/h )")
+            addError { "Limiting carb impact from $ci to $maxCI mg/dL/5m ( $maxCarbAbsorptionRate g/h )" }
             ci = maxCI
         }
         var remainingCATimeMin = 3.0 // h; duration of expected not-yet-observed carb absorption
@@ -482,7 +493,7 @@ class DetermineBasalAutoISF @Inject constructor(
             remainingCATime = remainingCATimeMin + 1.5 * lastCarbAge / 60
             remainingCATime = round(remainingCATime, 1)
             //console.error(fractionCOBAbsorbed, remainingCATimeAdjustment, remainingCATime)
-            consoleError.add("Last carbs " + lastCarbAge + "minutes ago; remainingCATime:" + remainingCATime + "hours;" + round(fractionCOBAbsorbed * 100) + "% carbs absorbed")
+            addError { "Last carbs " + lastCarbAge + "minutes ago; remainingCATime:" + remainingCATime + "hours;" + round(fractionCOBAbsorbed * 100) + "% carbs absorbed" }
         }
 
         // calculate the number of carbs absorbed over remainingCATime hours at current CI
@@ -521,7 +532,7 @@ class DetermineBasalAutoISF @Inject constructor(
         }
         val acid = max(0.0, meal_data.mealCOB * csf / aci)
         // duration (hours) = duration (5m) * 5 / 60 * 2 (to account for linear decay)
-        consoleError.add(element = "Carb Impact: ${ci} mg/dL per 5m; CI Duration: ${round(cid * 5 / 60 * 2, 1)} hours; remaining CI (~2h peak): ${round(remainingCIpeak, 1)} mg/dL per 5m")
+        addError { "Carb Impact: ${ci} mg/dL per 5m; CI Duration: ${round(cid * 5 / 60 * 2, 1)} hours; remaining CI (~2h peak): ${round(remainingCIpeak, 1)} mg/dL per 5m" }
         //console.error("Accel. Carb Impact:",aci,"mg/dL per 5m; ACI Duration:",round(acid*5/60*2,1),"hours");
         var minIOBPredBG = 999.0
         var minCOBPredBG = 999.0
@@ -560,9 +571,9 @@ class DetermineBasalAutoISF @Inject constructor(
             // for IOBpredBGs, predicted deviation impact drops linearly from current deviation down to zero
             // over 60 minutes (data points every 5m)
             val predDev: Double = ci * (1 - min(1.0, IOBpredBGs.size / (60.0 / 5.0)))
-            IOBpredBG = IOBpredBGs[IOBpredBGs.size - 1] + IOBpredBGI + predDev
+            IOBpredBG = IOBpredBGs.last() + IOBpredBGI + predDev
             // calculate predBGs with long zero temp without deviations
-            val ZTpredBG = ZTpredBGs[ZTpredBGs.size - 1] + predZTBGI
+            val ZTpredBG = ZTpredBGs.last() + predZTBGI
             // for COBpredBGs, predicted carb impact drops linearly from current carb impact down to zero
             // eventually accounting for all carbs (if they can be absorbed over DIA)
             val predCI: Double = max(0.0, max(0.0, ci) * (1 - COBpredBGs.size / max(cid * 2, 1.0)))
@@ -573,11 +584,13 @@ class DetermineBasalAutoISF @Inject constructor(
             val intervals = Math.min(COBpredBGs.size.toDouble(), ((remainingCATime * 12) - COBpredBGs.size))
             val remainingCI = Math.max(0.0, intervals / (remainingCATime / 2 * 12) * remainingCIpeak)
             remainingCItotal += predCI + remainingCI
-            remainingCIs.add(round(remainingCI))
-            predCIs.add(round(predCI))
+            if (diagnostics) {
+                remainingCIs.add(round(remainingCI))
+                predCIs.add(round(predCI))
+            }
             //console.log(round(predCI,1)+"+"+round(remainingCI,1)+" ");
-            COBpredBG = COBpredBGs[COBpredBGs.size - 1] + predBGI + min(0.0, predDev) + predCI + remainingCI
-            aCOBpredBG = aCOBpredBGs[aCOBpredBGs.size - 1] + predBGI + min(0.0, predDev) + predACI
+            COBpredBG = COBpredBGs.last() + predBGI + min(0.0, predDev) + predCI + remainingCI
+            aCOBpredBG = aCOBpredBGs.last() + predBGI + min(0.0, predDev) + predACI
             // for UAMpredBGs, predicted carb impact drops at slopeFromDeviations
             // calculate predicted CI from UAM based on slopeFromDeviations
             val predUCIslope = max(0.0, uci + (UAMpredBGs.size * slopeFromDeviations))
@@ -591,7 +604,7 @@ class DetermineBasalAutoISF @Inject constructor(
                 //console.error(UAMpredBGs.length,slopeFromDeviations, predUCI);
                 UAMduration = round((UAMpredBGs.size + 1) * 5 / 60.0, 1)
             }
-            UAMpredBG = UAMpredBGs[UAMpredBGs.size - 1] + predUAMBGI + min(0.0, predDev) + predUCI
+            UAMpredBG = UAMpredBGs.last() + predUAMBGI + min(0.0, predDev) + predUCI
             //console.error(predBGI, predCI, predUCI);
             // truncate all BG predictions at 4 hours
             if (IOBpredBGs.size < 48) IOBpredBGs.add(IOBpredBG)
@@ -624,59 +637,59 @@ class DetermineBasalAutoISF @Inject constructor(
         // set eventualBG to include effect of carbs
         //console.error("PredBGs:",JSON.stringify(predBGs));
         if (meal_data.mealCOB > 0) {
-            consoleError.add("predCIs (mg/dL/5m):" + predCIs.joinToString(separator = " "))
-            consoleError.add("remainingCIs:      " + remainingCIs.joinToString(separator = " "))
+            addError { "predCIs (mg/dL/5m):" + predCIs.joinToString(separator = " ") }
+            addError { "remainingCIs:      " + remainingCIs.joinToString(separator = " ") }
         }
         rT.predBGs = Predictions()
-        IOBpredBGs = IOBpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+        IOBpredBGs.clampAndRound()
         for (i in IOBpredBGs.size - 1 downTo 13) {
             if (IOBpredBGs[i - 1] != IOBpredBGs[i]) break
-            else IOBpredBGs.removeAt(IOBpredBGs.lastIndex)
+            else IOBpredBGs.removeLast()
         }
-        rT.predBGs?.IOB = IOBpredBGs.map { it.toInt() }
-        lastIOBpredBG = round(IOBpredBGs[IOBpredBGs.size - 1]).toDouble()
-        ZTpredBGs = ZTpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+        rT.predBGs?.IOB = IOBpredBGs.toIntList()
+        lastIOBpredBG = round(IOBpredBGs.last()).toDouble()
+        ZTpredBGs.clampAndRound()
         for (i in ZTpredBGs.size - 1 downTo 7) {
             // stop displaying ZTpredBGs once they're rising and above target
             if (ZTpredBGs[i - 1] >= ZTpredBGs[i] || ZTpredBGs[i] <= target_bg) break
-            else ZTpredBGs.removeAt(ZTpredBGs.lastIndex)
+            else ZTpredBGs.removeLast()
         }
-        rT.predBGs?.ZT = ZTpredBGs.map { it.toInt() }
+        rT.predBGs?.ZT = ZTpredBGs.toIntList()
         if (meal_data.mealCOB > 0) {
-            aCOBpredBGs = aCOBpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+            aCOBpredBGs.clampAndRound()
             for (i in aCOBpredBGs.size - 1 downTo 13) {
                 if (aCOBpredBGs[i - 1] != aCOBpredBGs[i]) break
-                else aCOBpredBGs.removeAt(aCOBpredBGs.lastIndex)
+                else aCOBpredBGs.removeLast()
             }
         }
         if (meal_data.mealCOB > 0 && (ci > 0 || remainingCIpeak > 0)) {
-            COBpredBGs = COBpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+            COBpredBGs.clampAndRound()
             for (i in COBpredBGs.size - 1 downTo 13) {
                 if (COBpredBGs[i - 1] != COBpredBGs[i]) break
-                else COBpredBGs.removeAt(COBpredBGs.lastIndex)
+                else COBpredBGs.removeLast()
             }
-            rT.predBGs?.COB = COBpredBGs.map { it.toInt() }
-            lastCOBpredBG = COBpredBGs[COBpredBGs.size - 1]
-            eventualBG = max(eventualBG, round(COBpredBGs[COBpredBGs.size - 1], 0))
+            rT.predBGs?.COB = COBpredBGs.toIntList()
+            lastCOBpredBG = COBpredBGs.last()
+            eventualBG = max(eventualBG, round(COBpredBGs.last(), 0))
         }
         if (ci > 0 || remainingCIpeak > 0) {
             if (enableUAM) {
-                UAMpredBGs = UAMpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+                UAMpredBGs.clampAndRound()
                 for (i in UAMpredBGs.size - 1 downTo 13) {
                     if (UAMpredBGs[i - 1] != UAMpredBGs[i]) break
-                    else UAMpredBGs.removeAt(UAMpredBGs.lastIndex)
+                    else UAMpredBGs.removeLast()
                 }
-                rT.predBGs?.UAM = UAMpredBGs.map { it.toInt() }
-                lastUAMpredBG = UAMpredBGs[UAMpredBGs.size - 1]
-                eventualBG = max(eventualBG, round(UAMpredBGs[UAMpredBGs.size - 1], 0))
+                rT.predBGs?.UAM = UAMpredBGs.toIntList()
+                lastUAMpredBG = UAMpredBGs.last()
+                eventualBG = max(eventualBG, round(UAMpredBGs.last(), 0))
             }
 
             // set eventualBG based on COB or UAM predBGs
             rT.eventualBG = eventualBG
         }
 
-        consoleError.add("UAM Impact: $uci mg/dL per 5m; UAM Duration: $UAMduration hours")
-        consoleError.add("EventualBG is $eventualBG ;")
+        addError { "UAM Impact: $uci mg/dL per 5m; UAM Duration: $UAMduration hours" }
+        addError { "EventualBG is $eventualBG ;" }
 
         minIOBPredBG = max(39.0, minIOBPredBG)
         minCOBPredBG = max(39.0, minCOBPredBG)
@@ -761,14 +774,14 @@ class DetermineBasalAutoISF @Inject constructor(
         // make sure minPredBG isn't higher than avgPredBG
         minPredBG = min(minPredBG, avgPredBG)
 
-        consoleError.add("minPredBG: $minPredBG minIOBPredBG: $minIOBPredBG minZTGuardBG: $minZTGuardBG")
+        addError { "minPredBG: $minPredBG minIOBPredBG: $minIOBPredBG minZTGuardBG: $minZTGuardBG" }
         if (minCOBPredBG < 999) {
-            consoleError.add(" minCOBPredBG: $minCOBPredBG")
+            addError { " minCOBPredBG: $minCOBPredBG" }
         }
         if (minUAMPredBG < 999) {
-            consoleError.add(" minUAMPredBG: $minUAMPredBG")
+            addError { " minUAMPredBG: $minUAMPredBG" }
         }
-        consoleError.add(" avgPredBG: $avgPredBG COB: ${meal_data.mealCOB} / ${meal_data.carbs}")
+        addError { " avgPredBG: $avgPredBG COB: ${meal_data.mealCOB} / ${meal_data.carbs}" }
         // But if the COB line falls off a cliff, don't trust UAM too much:
         // use maxCOBPredBG if it's been set and lower than minPredBG
         if (maxCOBPredBG > bg) {
@@ -832,7 +845,7 @@ class DetermineBasalAutoISF @Inject constructor(
         }
 
         if (enableSMB && minGuardBG < threshold) {
-            consoleError.add("minGuardBG ${convert_bg(minGuardBG)} projected below ${convert_bg(threshold)} - disabling SMB")
+            addError { "minGuardBG ${convert_bg(minGuardBG)} projected below ${convert_bg(threshold)} - disabling SMB" }
             //rT.reason += "minGuardBG "+minGuardBG+"<"+threshold+": SMB disabled; ";
             enableSMB = false
         }
@@ -841,14 +854,14 @@ class DetermineBasalAutoISF @Inject constructor(
             maxDeltaPercentage = 0.3
         }
         if (maxDelta > maxDeltaPercentage * bg) {
-            consoleError.add("maxDelta ${convert_bg(maxDelta)} > ${100 * maxDeltaPercentage}% of BG ${convert_bg(bg)} - disabling SMB")
+            addError { "maxDelta ${convert_bg(maxDelta)} > ${100 * maxDeltaPercentage}% of BG ${convert_bg(bg)} - disabling SMB" }
             rT.reason.append("maxDelta " + convert_bg(maxDelta) + " > " + 100 * maxDeltaPercentage + "% of BG " + convert_bg(bg) + ": SMB disabled; ")
             enableSMB = false
         }
 
-        consoleError.add("BG projected to remain above ${convert_bg(min_bg)} for $minutesAboveMinBG minutes")
+        addError { "BG projected to remain above ${convert_bg(min_bg)} for $minutesAboveMinBG minutes" }
         if (minutesAboveThreshold < 240 || minutesAboveMinBG < 60) {
-            consoleError.add("BG projected to remain above ${convert_bg(threshold)} for $minutesAboveThreshold minutes")
+            addError { "BG projected to remain above ${convert_bg(threshold)} for $minutesAboveThreshold minutes" }
         }
         // include at least minutesAboveThreshold worth of zero temps in calculating carbsReq
         // always include at least 30m worth of zero temp (carbs to 80, low temp up to target)
@@ -859,7 +872,7 @@ class DetermineBasalAutoISF @Inject constructor(
         val COBforCarbsReq = max(0.0, meal_data.mealCOB - 0.25 * meal_data.carbs)
         val carbsReq = round(((bgUndershoot - zeroTempEffectDouble) / csf - COBforCarbsReq))
         val zeroTempEffect = round(zeroTempEffectDouble)
-        consoleError.add("naive_eventualBG: $naive_eventualBG bgUndershoot: $bgUndershoot zeroTempDuration $zeroTempDuration zeroTempEffect: $zeroTempEffect carbsReq: $carbsReq")
+        addError { "naive_eventualBG: $naive_eventualBG bgUndershoot: $bgUndershoot zeroTempDuration $zeroTempDuration zeroTempEffect: $zeroTempEffect carbsReq: $carbsReq" }
         if (carbsReq >= profile.carbsReqThreshold && minutesAboveThreshold <= 45) {
             rT.carbsReq = carbsReq
             rT.carbsReqWithin = minutesAboveThreshold
@@ -1044,11 +1057,11 @@ class DetermineBasalAutoISF @Inject constructor(
                 val mealInsulinReq = round(meal_data.mealCOB / profile.carb_ratio, 3)
                 val smb_max_range = smb_max_range_extension
                 if (iob_data.iob > mealInsulinReq && iob_data.iob > 0) {
-                    consoleError.add("IOB ${iob_data.iob} > COB ${meal_data.mealCOB}; mealInsulinReq = $mealInsulinReq")
-                    consoleError.add("profile.maxUAMSMBBasalMinutes: ${profile.maxUAMSMBBasalMinutes} profile.current_basal: ${profile.current_basal}")
+                    addError { "IOB ${iob_data.iob} > COB ${meal_data.mealCOB}; mealInsulinReq = $mealInsulinReq" }
+                    addError { "profile.maxUAMSMBBasalMinutes: ${profile.maxUAMSMBBasalMinutes} profile.current_basal: ${profile.current_basal}" }
                     maxBolus = round(smb_max_range * profile.current_basal * profile.maxUAMSMBBasalMinutes / 60, 1)
                 } else {
-                    consoleError.add("profile.maxSMBBasalMinutes: ${profile.maxSMBBasalMinutes} profile.current_basal: ${profile.current_basal}")
+                    addError { "profile.maxSMBBasalMinutes: ${profile.maxSMBBasalMinutes} profile.current_basal: ${profile.current_basal}" }
                     maxBolus = round(smb_max_range * profile.current_basal * profile.maxSMBBasalMinutes / 60, 1)
                 }
                 // bolus 1/2 the insulinReq, up to maxBolus, rounding down to nearest bolus increment
@@ -1059,7 +1072,7 @@ class DetermineBasalAutoISF @Inject constructor(
                     microBolus = Math.min(insulinReq * smb_ratio, maxBolus)
                     if (microBolus > iobTHvirtual - iob_data.iob && (loop_wanted_smb == "fullLoop" || loop_wanted_smb == "enforced")) {
                         microBolus = iobTHvirtual - iob_data.iob
-                        consoleError.add("Full loop capped SMB at ${round(microBolus, 2)} to not exceed $iobTHtolerance% of effective iobTH ${round(iobTHvirtual / iobTHtolerance * 100, 2)}U")
+                        addError { "Full loop capped SMB at ${round(microBolus, 2)} to not exceed $iobTHtolerance% of effective iobTH ${round(iobTHvirtual / iobTHtolerance * 100, 2)}U" }
                     }
                     microBolus = Math.floor(microBolus * roundSMBTo) / roundSMBTo
                 }
@@ -1101,7 +1114,7 @@ class DetermineBasalAutoISF @Inject constructor(
                 // allow SMBIntervals between 1 and 10 minutes
                 val SMBInterval = min(10, max(1, profile.SMBInterval)) * 60.0   // in seconds
                 //console.error(naive_eventualBG, insulinReq, worstCaseInsulinReq, durationReq);
-                consoleError.add("naive_eventualBG $naive_eventualBG,${durationReq}m ${smbLowTempReq}U/h temp needed; last bolus ${round(lastBolusAge / 60.0, 1)}m ago; maxBolus: $maxBolus")
+                addError { "naive_eventualBG $naive_eventualBG,${durationReq}m ${smbLowTempReq}U/h temp needed; last bolus ${round(lastBolusAge / 60.0, 1)}m ago; maxBolus: $maxBolus" }
                 if (lastBolusAge > SMBInterval - 6.0) {   // 6s tolerance
                     if (microBolus > 0) {
                         rT.units = microBolus
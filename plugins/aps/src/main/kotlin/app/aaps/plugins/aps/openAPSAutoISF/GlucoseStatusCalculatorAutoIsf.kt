@@ -1,5 +1,6 @@
 package app.aaps.plugins.aps.openAPSAutoISF
 
+import app.aaps.core.data.iob.InMemoryGlucoseValue
 import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
 import app.aaps.core.interfaces.iob.IobCobCalculator
 import app.aaps.core.interfaces.logging.AAPSLogger
@@ -25,7 +26,8 @@ class GlucoseStatusCalculatorAutoIsf @Inject constructor(
 ) {
 
     fun getGlucoseStatusData(allowOldData: Boolean): GlucoseStatusAutoIsf? {
-        val data = iobCobCalculator.ads.getBucketedDataTableCopy() ?: return null
+        val snapshot = iobCobCalculator.ads.getBucketedDataSnapshot() ?: return null
+        val data = snapshot.data
 
         val sizeRecords = data.size
         if (sizeRecords == 0) {
@@ -36,6 +38,12 @@ class GlucoseStatusCalculatorAutoIsf @Inject constructor(
             aapsLogger.debug(LTag.GLUCOSE, "oldData")
             return null
         }
+        // parabola fit is computed once per bucketed data, shared by all callers
+        return snapshot.memoize(GlucoseStatusAutoIsf::class) { calculate(it) }
+    }
+
+    private fun calculate(data: List<InMemoryGlucoseValue>): GlucoseStatusAutoIsf {
+        val sizeRecords = data.size
         val now = data[0]
         val nowDate = now.timestamp
         if (sizeRecords == 1) {
@@ -2,8 +2,6 @@ package app.aaps.plugins.aps.openAPSAutoISF
 
 import android.content.Context
 import android.content.Intent
-import androidx.collection.LongSparseArray
-import androidx.collection.forEach
 import androidx.core.net.toUri
 import androidx.preference.PreferenceCategory
 import androidx.preference.PreferenceFragmentCompat
@@ -41,6 +39,7 @@ import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAPSCalculationFinished
@@ -71,6 +70,7 @@ import app.aaps.plugins.aps.OpenAPSFragment
 import app.aaps.plugins.aps.R
 import app.aaps.plugins.aps.events.EventOpenAPSUpdateGui
 import app.aaps.plugins.aps.events.EventResetOpenAPSGui
+import app.aaps.plugins.aps.openAPS.DynIsfCache
 import org.json.JSONObject
 import java.util.Locale
 import javax.inject.Inject
@@ -150,9 +150,9 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
     override fun onStart() {
         super.onStart()
         var count = 0
-        val apsResults = persistenceLayer.getApsResults(dateUtil.now() - T.days(1).msecs(), dateUtil.now())
+        val apsResults = persistenceLayer.getApsResultSummaries(dateUtil.now() - T.days(1).msecs(), dateUtil.now())
         apsResults.forEach {
-            val glucose = it.glucoseStatus?.glucose ?: return@forEach
+            val glucose = it.glucose ?: return@forEach
             val variableSens = it.variableSens ?: return@forEach
             val timestamp = it.date
             val key = timestamp - timestamp % T.mins(minutesClass).msecs() + glucose.toLong()
@@ -180,16 +180,9 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
     }
 
     override fun getAverageIsfMgdl(timestamp: Long, caller: String): Double? {
-        var count = 0
-        var sum = 0.0
         val start = timestamp - T.hours(24).msecs()
-        autoIsfCache.forEach { key, value ->
-            if (key in start..timestamp) {
-                count++
-                sum += value
-            }
-        }
-        val sensitivity = if (count == 0) null else sum / count
+        val count = autoIsfCache.count(start, timestamp)
+        val sensitivity = autoIsfCache.average(start, timestamp)
         aapsLogger.debug(LTag.APS, "getAverageIsfMgdl() $sensitivity from $count values ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $caller")
         return sensitivity
     }
@@ -224,7 +217,7 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
         preferenceFragment.findPreference<SwitchPreference>(BooleanKey.ApsUseSmbAfterCarbs.key)?.isVisible = !smbAlwaysEnabled || !advancedFiltering
     }
 
-    private val autoIsfCache = LongSparseArray<Double>()
+    private val autoIsfCache = DynIsfCache()
 
     @Synchronized
     private fun calculateVariableIsf(timestamp: Long): Pair<String, Double?> {
@@ -239,7 +232,6 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
             // can default to 0, e.g. for the first 2-3 loops in a virgin setup
             aapsLogger.debug("calculateVariableIsf CALC ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $sensitivity")
             autoIsfCache.put(key, sensitivity)
-            if (autoIsfCache.size() > 1000) autoIsfCache.clear()
         }
         // this return is mandatory, otherwise it messed up the AutoISF algo.
         return Pair("OFF", null)
@@ -432,25 +424,27 @@ open class OpenAPSAutoISFPlugin @Inject constructor(
         aapsLogger.debug(LTag.APS, "AutoIsfMode:        $autoIsfMode")
         //aapsLogger.debug(LTag.APS, "AutoISF extras:     ${Json.encodeToString(OapsProfile.serializer(), oapsProfile)}")
 
-        determineBasalAutoISF.determine_basal(
-            glucose_status = glucoseStatus,
-            currenttemp = currentTemp,
-            iob_data_array = iobArray,
-            profile = oapsProfile,
-            autosens_data = autosensResult,
-            meal_data = mealData,
-            microBolusAllowed = microBolusAllowed,
-            currentTime = now,
-            flatBGsDetected = flatBGsDetected,
-            autoIsfMode = autoIsfMode,
-            loop_wanted_smb = loopWantedSmb,
-            profile_percentage = profile_percentage,
-            smb_ratio = smbRatio,
-            smb_max_range_extension = smbMaxRangeExtension,
-            iob_threshold_percent = iobThresholdPercent,
-            auto_isf_consoleError = consoleError,
-            auto_isf_consoleLog = consoleLog
-        ).also {
+        profiler.trace("aps:determine_basal AutoISF") {
+            determineBasalAutoISF.determine_basal(
+                glucose_status = glucoseStatus,
+                currenttemp = currentTemp,
+                iob_data_array = iobArray,
+                profile = oapsProfile,
+                autosens_data = autosensResult,
+                meal_data = mealData,
+                microBolusAllowed = microBolusAllowed,
+                currentTime = now,
+                flatBGsDetected = flatBGsDetected,
+                autoIsfMode = autoIsfMode,
+                loop_wanted_smb = loopWantedSmb,
+                profile_percentage = profile_percentage,
+                smb_ratio = smbRatio,
+                smb_max_range_extension = smbMaxRangeExtension,
+                iob_threshold_percent = iobThresholdPercent,
+                auto_isf_consoleError = consoleError,
+                auto_isf_consoleLog = consoleLog
+            )
+        }.also {
             val determineBasalResult = apsResultProvider.get().with(it)
             // Preserve input data
             determineBasalResult.inputConstraints = inputConstraints
@@ -1,5 +1,6 @@
 package app.aaps.plugins.aps.openAPSSMB
 
+import app.aaps.core.data.iob.InMemoryGlucoseValue
 import app.aaps.core.interfaces.aps.GlucoseStatus
 import app.aaps.core.interfaces.aps.GlucoseStatusSMB
 import app.aaps.core.interfaces.iob.GlucoseStatusProvider
@@ -28,7 +29,8 @@ class GlucoseStatusCalculatorSMB @Inject constructor(
         get() = getGlucoseStatusData(false)
 
     override fun getGlucoseStatusData(allowOldData: Boolean): GlucoseStatusSMB? {
-        val data = iobCobCalculator.ads.getBucketedDataTableCopy() ?: return null
+        val snapshot = iobCobCalculator.ads.getBucketedDataSnapshot() ?: return null
+        val data = snapshot.data
 
         val sizeRecords = data.size
         if (sizeRecords == 0) {
@@ -39,6 +41,12 @@ class GlucoseStatusCalculatorSMB @Inject constructor(
             aapsLogger.debug(LTag.GLUCOSE, "oldData")
             return null
         }
+        // computed once per bucketed data, shared by all callers
+        return snapshot.memoize(GlucoseStatusSMB::class) { calculate(it) }
+    }
+
+    private fun calculate(data: List<InMemoryGlucoseValue>): GlucoseStatusSMB {
+        val sizeRecords = data.size
         val now = data[0]
         val nowDate = now.timestamp
         if (sizeRecords == 1) {
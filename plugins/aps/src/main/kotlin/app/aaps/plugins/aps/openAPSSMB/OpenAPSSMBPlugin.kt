@@ -2,8 +2,6 @@ package app.aaps.plugins.aps.openAPSSMB
 
 import android.content.Context
 import android.content.Intent
-import androidx.collection.LongSparseArray
-import androidx.collection.forEach
 import androidx.core.net.toUri
 import androidx.preference.PreferenceCategory
 import androidx.preference.PreferenceFragmentCompat
@@ -40,9 +38,11 @@ import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.trace
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAPSCalculationFinished
+import app.aaps.core.interfaces.rx.events.EventNewHistoryData
 import app.aaps.core.interfaces.stats.TddCalculator
 import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.interfaces.utils.DateUtil
@@ -73,8 +73,12 @@ import app.aaps.plugins.aps.OpenAPSFragment
 import app.aaps.plugins.aps.R
 import app.aaps.plugins.aps.events.EventOpenAPSUpdateGui
 import app.aaps.plugins.aps.events.EventResetOpenAPSGui
+import app.aaps.plugins.aps.openAPS.DynIsfCache
 import app.aaps.plugins.aps.openAPS.TddStatus
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.plusAssign
 import org.json.JSONObject
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 import javax.inject.Provider
 import javax.inject.Singleton
@@ -120,12 +124,18 @@ open class OpenAPSSMBPlugin @Inject constructor(
     aapsLogger, rh
 ), APS, PluginConstraints {
 
+    private val disposable = CompositeDisposable()
+
     override fun onStart() {
         super.onStart()
+        // boluses, carbs, TBR, EB, profile switches and glucose values
+        disposable += rxBus
+            .toObservable(EventNewHistoryData::class.java)
+            .subscribe { historyVersion.incrementAndGet() }
         var count = 0
-        val apsResults = persistenceLayer.getApsResults(dateUtil.now() - T.days(1).msecs(), dateUtil.now())
+        val apsResults = persistenceLayer.getApsResultSummaries(dateUtil.now() - T.days(1).msecs(), dateUtil.now())
         apsResults.forEach {
-            val glucose = it.glucoseStatus?.glucose ?: return@forEach
+            val glucose = it.glucose ?: return@forEach
             val variableSens = it.variableSens ?: return@forEach
             val timestamp = it.date
             val key = timestamp - timestamp % T.mins(30).msecs() + glucose.toLong()
@@ -135,6 +145,11 @@ open class OpenAPSSMBPlugin @Inject constructor(
         aapsLogger.debug(LTag.APS, "Loaded $count variable sensitivity values from database")
     }
 
+    override fun onStop() {
+        disposable.clear()
+        super.onStop()
+    }
+
     // last values
     override var lastAPSRun: Long = 0
     override val algorithm = APSResult.Algorithm.SMB
@@ -157,16 +172,9 @@ open class OpenAPSSMBPlugin @Inject constructor(
     }
 
     override fun getAverageIsfMgdl(timestamp: Long, caller: String): Double? {
-        var count = 0
-        var sum = 0.0
         val start = timestamp - T.hours(24).msecs()
-        dynIsfCache.forEach { key, value ->
-            if (key in start..timestamp) {
-                count++
-                sum += value
-            }
-        }
-        val sensitivity = if (count == 0) null else sum / count
+        val count = dynIsfCache.count(start, timestamp)
+        val sensitivity = dynIsfCache.average(start, timestamp)
         aapsLogger.debug(LTag.APS, "getAverageIsfMgdl() $sensitivity from $count values ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $caller")
         return sensitivity
     }
@@ -211,7 +219,7 @@ open class OpenAPSSMBPlugin @Inject constructor(
         preferenceFragment.findPreference<AdaptiveIntPreference>(IntKey.ApsUamMaxMinutesOfBasalToLimitSmb.key)?.isVisible = smbEnabled && uamEnabled
     }
 
-    private val dynIsfCache = LongSparseArray<Double>()
+    private val dynIsfCache = DynIsfCache()
 
     @Synchronized
     private fun calculateVariableIsf(timestamp: Long, multiplier: Double): Pair<String, Double?> {
@@ -237,9 +245,9 @@ open class OpenAPSSMBPlugin @Inject constructor(
         if (!dynIsfResult.tddPartsCalculated()) return Pair("TDD miss", null)
         // no cached result found, let's calculate the value
         //aapsLogger.debug("calculateVariableIsf $caller CAL ${dateUtil.dateAndTimeAndSecondsString(timestamp)} $sensitivity")
-        dynIsfCache.put(key, dynIsfResult.variableSensitivity)
-        if (dynIsfCache.size() > 1000) dynIsfCache.clear()
-        return Pair("CALC", dynIsfResult.variableSensitivity)
+        val sensitivity = dynIsfResult.variableSensitivity
+        if (sensitivity != null) dynIsfCache.put(key, sensitivity)
+        return Pair("CALC", sensitivity)
     }
 
     internal class DynIsfResult {
@@ -263,24 +271,70 @@ open class OpenAPSSMBPlugin @Inject constructor(
             "DynIsfResult: tdd1D=$tdd1D tdd7D=$tdd7D tddLast24H=$tddLast24H tddLast4H=$tddLast4H tddLast8to4H=$tddLast8to4H tdd=$tdd variableSensitivity=$variableSensitivity insulinDivisor=$insulinDivisor tdd7DDataCarbs=$tdd7DDataCarbs tdd7DAllDaysHaveCarbs=$tdd7DAllDaysHaveCarbs"
     }
 
+    /**
+     * TDD inputs of dynamic ISF. Calculated once per history change (new glucose value, bolus, carbs,
+     * TBR, EB or profile switch) and shared by loop, overview and graph until the next one
+     */
+    private class DynIsfTdd(
+        val historyVersion: Long,
+        val created: Long
+    ) {
+
+        var tdd1D: Double? = null
+        var tdd7D: Double? = null
+        var tddLast24H: Double? = null
+        var tddLast4H: Double? = null
+        var tddLast8to4H: Double? = null
+        var tddLast24HCarbs = 0.0
+        var tdd7DDataCarbs = 0.0
+        var tdd7DAllDaysHaveCarbs = false
+    }
+
+    // incremented by every EventNewHistoryData
+    private val historyVersion = AtomicLong()
+    private var dynIsfTdd: DynIsfTdd? = null
+
+    @Synchronized
+    private fun dynIsfTdd(): DynIsfTdd {
+        // read before calculation, change during calculation invalidates the result
+        val version = historyVersion.get()
+        val now = dateUtil.now()
+        dynIsfTdd?.let {
+            // windows relative to now still move when no new data arrives (CGM disconnected)
+            if (it.historyVersion == version && now - it.created < T.mins(5).msecs()) return it
+        }
+        val tdd = DynIsfTdd(version, now)
+        tdd.tdd1D = tddCalculator.averageTDD(tddCalculator.calculate(1, allowMissingDays = false))?.data?.totalAmount
+        tddCalculator.averageTDD(tddCalculator.calculate(7, allowMissingDays = false))?.let {
+            tdd.tdd7D = it.data.totalAmount
+            tdd.tdd7DDataCarbs = it.data.carbs
+            tdd.tdd7DAllDaysHaveCarbs = it.allDaysHaveCarbs
+        }
+        tddCalculator.calculateDaily(-24, 0)?.also {
+            tdd.tddLast24H = it.totalAmount
+            tdd.tddLast24HCarbs = it.carbs
+        }
+        tdd.tddLast4H = tddCalculator.calculateDaily(-4, 0)?.totalAmount
+        tdd.tddLast8to4H = tddCalculator.calculateDaily(-8, -4)?.totalAmount
+        dynIsfTdd = tdd
+        return tdd
+    }
+
     private fun calculateRawDynIsf(multiplier: Double): DynIsfResult {
         val dynIsfResult = DynIsfResult()
         // DynamicISF specific
         // without these values DynISF doesn't work properly
         // Current implementation is fallback to SMB if TDD history is not available. Thus calculated here
         val glucoseStatus = glucoseStatusProvider.glucoseStatusData as GlucoseStatusSMB?
-        dynIsfResult.tdd1D = tddCalculator.averageTDD(tddCalculator.calculate(1, allowMissingDays = false))?.data?.totalAmount
-        tddCalculator.averageTDD(tddCalculator.calculate(7, allowMissingDays = false))?.let {
-            dynIsfResult.tdd7D = it.data.totalAmount
-            dynIsfResult.tdd7DDataCarbs = it.data.carbs
-            dynIsfResult.tdd7DAllDaysHaveCarbs = it.allDaysHaveCarbs
-        }
-        tddCalculator.calculateDaily(-24, 0)?.also {
-            dynIsfResult.tddLast24H = it.totalAmount
-            dynIsfResult.tddLast24HCarbs = it.carbs
-        }
-        dynIsfResult.tddLast4H = tddCalculator.calculateDaily(-4, 0)?.totalAmount
-        dynIsfResult.tddLast8to4H = tddCalculator.calculateDaily(-8, -4)?.totalAmount
+        val tdd = dynIsfTdd()
+        dynIsfResult.tdd1D = tdd.tdd1D
+        dynIsfResult.tdd7D = tdd.tdd7D
+        dynIsfResult.tdd7DDataCarbs = tdd.tdd7DDataCarbs
+        dynIsfResult.tdd7DAllDaysHaveCarbs = tdd.tdd7DAllDaysHaveCarbs
+        dynIsfResult.tddLast24H = tdd.tddLast24H
+        dynIsfResult.tddLast24HCarbs = tdd.tddLast24HCarbs
+        dynIsfResult.tddLast4H = tdd.tddLast4H
+        dynIsfResult.tddLast8to4H = tdd.tddLast8to4H
 
         val insulin = activePlugin.activeInsulin
         dynIsfResult.insulinDivisor = when {
@@ -479,18 +533,20 @@ open class OpenAPSSMBPlugin @Inject constructor(
         aapsLogger.debug(LTag.APS, "flatBGsDetected:    $flatBGsDetected")
         aapsLogger.debug(LTag.APS, "DynIsfMode:         $dynIsfMode")
 
-        determineBasalSMB.determine_basal(
-            glucose_status = glucoseStatus,
-            currenttemp = currentTemp,
-            iob_data_array = iobArray,
-            profile = oapsProfile,
-            autosens_data = autosensResult,
-            meal_data = mealData,
-            microBolusAllowed = microBolusAllowed,
-            currentTime = now,
-            flatBGsDetected = flatBGsDetected,
-            dynIsfMode = dynIsfMode && dynIsfResult.tddPartsCalculated()
-        ).also {
+        profiler.trace("aps:determine_basal SMB") {
+            determineBasalSMB.determine_basal(
+                glucose_status = glucoseStatus,
+                currenttemp = currentTemp,
+                iob_data_array = iobArray,
+                profile = oapsProfile,
+                autosens_data = autosensResult,
+                meal_data = mealData,
+                microBolusAllowed = microBolusAllowed,
+                currentTime = now,
+                flatBGsDetected = flatBGsDetected,
+                dynIsfMode = dynIsfMode && dynIsfResult.tddPartsCalculated()
+            )
+        }.also {
             val determineBasalResult = apsResultProvider.get().with(it)
             // Preserve input data
             determineBasalResult.inputConstraints = inputConstraints
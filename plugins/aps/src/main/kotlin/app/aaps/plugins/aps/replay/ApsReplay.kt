@@ -0,0 +1,288 @@
+package app.aaps.plugins.aps.replay
+
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatus
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.RT
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.plugins.aps.openAPSAMA.DetermineBasalAMA
+import app.aaps.plugins.aps.openAPSSMB.DetermineBasalSMB
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import javax.inject.Inject
+import kotlin.math.abs
+import kotlin.math.min
+
+/**
+ * Offline replay of loop algorithms over stored history
+ *
+ * Inputs of every loop run (glucose status, IOB array, autosens, meal data, profile) are stored with APSResult.
+ * Replay reuses them instead of recalculating IOB and autosens for every step, thus doesn't need
+ * the CalculationWorkflow chain. History is processed in chunks of [CHUNK] and every chunk is evaluated
+ * for all parameter sets in parallel. Each parameter set gets its own DetermineBasal instance.
+ *
+ * AutoISF is not supported: its additional inputs are not stored.
+ */
+class ApsReplay @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val persistenceLayer: PersistenceLayer,
+    private val profileUtil: ProfileUtil,
+    private val fabricPrivacy: FabricPrivacy
+) {
+
+    /**
+     * Inputs of one stored loop run
+     */
+    class Step(
+        val timestamp: Long,
+        val algorithm: APSResult.Algorithm,
+        val glucoseStatus: GlucoseStatus,
+        val currentTemp: CurrentTemp,
+        val iobData: Array<IobTotal>,
+        val profile: OapsProfile,
+        val mealData: MealData,
+        val autosensResult: AutosensResult,
+        val dynIsfMode: Boolean,
+        /** SMB amount requested by loop */
+        val recordedSmb: Double
+    )
+
+    /**
+     * Parameter set evaluated by replay
+     *
+     * Only settings read by determine_basal itself can be changed. IOB, COB and autosens are taken from history
+     * as they were calculated with stored profile, so ISF, IC, basal, DIA and autosens limits stay as stored.
+     * Changing them would require recalculation of those inputs.
+     *
+     * @param name name used in report
+     * @param microBolusAllowed not stored in history. SMB are allowed by default
+     * @param targetShift added to min_bg, max_bg and target_bg (mg/dl)
+     * @param maxIob replaces max_iob if set
+     * @param maxBasal replaces max_basal if set
+     * @param maxSMBBasalMinutes replaces maxSMBBasalMinutes if set
+     * @param maxUAMSMBBasalMinutes replaces maxUAMSMBBasalMinutes if set
+     * @param enableUAM replaces enableUAM if set
+     */
+    class Parameters(
+        val name: String,
+        val microBolusAllowed: Boolean = true,
+        val targetShift: Double = 0.0,
+        val maxIob: Double? = null,
+        val maxBasal: Double? = null,
+        val maxSMBBasalMinutes: Int? = null,
+        val maxUAMSMBBasalMinutes: Int? = null,
+        val enableUAM: Boolean? = null
+    ) {
+
+        /**
+         * Stored profile is shared by workers, always returns a copy
+         */
+        fun adjust(profile: OapsProfile): OapsProfile =
+            profile.copy(
+                min_bg = profile.min_bg + targetShift,
+                max_bg = profile.max_bg + targetShift,
+                target_bg = profile.target_bg + targetShift,
+                max_iob = maxIob ?: profile.max_iob,
+                max_basal = maxBasal ?: profile.max_basal,
+                maxSMBBasalMinutes = maxSMBBasalMinutes ?: profile.maxSMBBasalMinutes,
+                maxUAMSMBBasalMinutes = maxUAMSMBBasalMinutes ?: profile.maxUAMSMBBasalMinutes,
+                enableUAM = enableUAM ?: profile.enableUAM
+            )
+    }
+
+    class StepResult(
+        val timestamp: Long,
+        /** duration of determine_basal call */
+        val nanos: Long,
+        val rate: Double?,
+        val duration: Int?,
+        val smb: Double,
+        /** SMB requested by loop at the time */
+        val recordedSmb: Double,
+        val eventualBG: Double?,
+        val predicted30: Double?,
+        val predicted60: Double?,
+        val actual30: Double?,
+        val actual60: Double?
+    )
+
+    class Report(val parameters: Parameters, val results: List<StepResult>) {
+
+        val steps: Int get() = results.size
+        val totalNanos: Long get() = results.sumOf { it.nanos }
+        val maxNanos: Long get() = results.maxOfOrNull { it.nanos } ?: 0
+        val totalSmb: Double get() = results.sumOf { it.smb }
+        val recordedTotalSmb: Double get() = results.sumOf { it.recordedSmb }
+        val meanAbsError30: Double? get() = meanAbsError(results.mapNotNull { r -> r.predicted30?.let { p -> r.actual30?.let { a -> p - a } } })
+        val meanAbsError60: Double? get() = meanAbsError(results.mapNotNull { r -> r.predicted60?.let { p -> r.actual60?.let { a -> p - a } } })
+
+        private fun meanAbsError(errors: List<Double>): Double? = if (errors.isEmpty()) null else errors.sumOf { abs(it) } / errors.size
+
+        override fun toString(): String =
+            "${parameters.name}: steps=$steps total=${totalNanos / 1000} us max=${maxNanos / 1000} us SMB=$totalSmb (recorded $recordedTotalSmb) MAE30=$meanAbsError30 MAE60=$meanAbsError60"
+    }
+
+    /**
+     * Replay stored loop runs in interval
+     * Reads database, don't call on main thread
+     *
+     * @param from start of interval
+     * @param to end of interval
+     * @param parameters evaluated parameter sets
+     * @param threads number of parallel workers
+     * @return report for every parameter set (in the same order)
+     */
+    fun replay(from: Long, to: Long, parameters: List<Parameters>, threads: Int = Runtime.getRuntime().availableProcessors()): List<Report> {
+        val results = parameters.map { mutableListOf<StepResult>() }
+        val executor = Executors.newFixedThreadPool(min(threads, parameters.size).coerceAtLeast(1))
+        try {
+            var chunkStart = from
+            while (chunkStart <= to) {
+                val chunkEnd = min(to, chunkStart + CHUNK - 1)
+                val steps = persistenceLayer.getApsResults(chunkStart, chunkEnd).mapNotNull { it.toStep() }
+                // actual BG is needed up to 1h after last step
+                val glucose = persistenceLayer.getBgReadingsDataFromTimeToTime(chunkStart, chunkEnd + T.mins(65).msecs(), true)
+                replay(steps, glucose, parameters, executor).forEachIndexed { index, chunkResults -> results[index].addAll(chunkResults) }
+                chunkStart = chunkEnd + 1
+            }
+        } finally {
+            executor.shutdown()
+        }
+        return parameters.mapIndexed { index, p -> Report(p, results[index]) }.onEach { aapsLogger.debug(LTag.APS, "Replay $it") }
+    }
+
+    /**
+     * Replay provided steps
+     *
+     * @param glucose BG values sorted by timestamp used as actual outcome
+     */
+    fun replay(steps: List<Step>, glucose: List<GV>, parameters: List<Parameters>, threads: Int = Runtime.getRuntime().availableProcessors()): List<Report> {
+        val executor = Executors.newFixedThreadPool(min(threads, parameters.size).coerceAtLeast(1))
+        try {
+            return replay(steps, glucose, parameters, executor).mapIndexed { index, results -> Report(parameters[index], results) }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun replay(steps: List<Step>, glucose: List<GV>, parameters: List<Parameters>, executor: ExecutorService): List<List<StepResult>> {
+        val actual = ActualGlucose(glucose)
+        val tasks = parameters.map { p -> Callable { replay(steps, actual, p) } }
+        return executor.invokeAll(tasks).map { it.get() }
+    }
+
+    private fun replay(steps: List<Step>, actual: ActualGlucose, parameters: Parameters): List<StepResult> {
+        // DetermineBasal classes keep state during run, thus one instance per worker
+        val determineBasalSMB = DetermineBasalSMB(profileUtil, fabricPrivacy)
+        val determineBasalAMA = DetermineBasalAMA(profileUtil)
+        return steps.map { step ->
+            val profile = parameters.adjust(step.profile)
+            val start = System.nanoTime()
+            val rt = when (step.algorithm) {
+                APSResult.Algorithm.AMA ->
+                    determineBasalAMA.determine_basal(step.glucoseStatus, step.currentTemp, step.iobData, profile, step.autosensResult, step.mealData, step.timestamp)
+
+                else                    ->
+                    determineBasalSMB.determine_basal(
+                        glucose_status = step.glucoseStatus,
+                        currenttemp = step.currentTemp,
+                        iob_data_array = step.iobData,
+                        profile = profile,
+                        autosens_data = step.autosensResult,
+                        meal_data = step.mealData,
+                        microBolusAllowed = parameters.microBolusAllowed,
+                        currentTime = step.timestamp,
+                        flatBGsDetected = false,
+                        dynIsfMode = step.dynIsfMode,
+                        diagnostics = false
+                    )
+            }
+            val nanos = System.nanoTime() - start
+            StepResult(
+                timestamp = step.timestamp,
+                nanos = nanos,
+                rate = rt.rate,
+                duration = rt.duration,
+                smb = rt.units ?: 0.0,
+                recordedSmb = step.recordedSmb,
+                eventualBG = rt.eventualBG,
+                predicted30 = rt.prediction(30),
+                predicted60 = rt.prediction(60),
+                actual30 = actual.at(step.timestamp + T.mins(30).msecs()),
+                actual60 = actual.at(step.timestamp + T.mins(60).msecs())
+            )
+        }
+    }
+
+    // COB prediction if available, then UAM and IOB. Trimmed flat tail is represented by last value
+    private fun RT.prediction(minutes: Int): Double? {
+        val prediction = predBGs?.let { it.COB ?: it.UAM ?: it.IOB } ?: return null
+        if (prediction.isEmpty()) return null
+        return prediction[min(minutes / 5, prediction.size - 1)].toDouble()
+    }
+
+    private fun APSResult.toStep(): Step? {
+        if (algorithm != APSResult.Algorithm.SMB && algorithm != APSResult.Algorithm.AMA) return null
+        return Step(
+            timestamp = date,
+            algorithm = algorithm,
+            glucoseStatus = glucoseStatus ?: return null,
+            currentTemp = currentTemp ?: return null,
+            iobData = iobData ?: return null,
+            profile = oapsProfile ?: return null,
+            mealData = mealData ?: return null,
+            autosensResult = autosensResult ?: return null,
+            dynIsfMode = (rawData() as? RT)?.runningDynamicIsf == true,
+            recordedSmb = smb
+        )
+    }
+
+    /**
+     * BG lookup by time. Value closer than [TOLERANCE] is accepted
+     */
+    private class ActualGlucose(glucose: List<GV>) {
+
+        private val timestamps = LongArray(glucose.size) { glucose[it].timestamp }
+        private val values = DoubleArray(glucose.size) { glucose[it].value }
+
+        fun at(timestamp: Long): Double? {
+            val found = timestamps.binarySearch(timestamp)
+            if (found >= 0) return values[found]
+            val after = -found - 1
+            val before = after - 1
+            val index = when {
+                before < 0                                                       -> after
+                after >= timestamps.size                                         -> before
+                timestamp - timestamps[before] <= timestamps[after] - timestamp -> before
+                else                                                             -> after
+            }
+            if (index !in timestamps.indices || abs(timestamps[index] - timestamp) > TOLERANCE) return null
+            return values[index]
+        }
+    }
+
+    companion object {
+
+        private val CHUNK = T.days(1).msecs()
+
+        /** Parameter sets evaluated from OpenAPS fragment */
+        val DEFAULT_PARAMETERS = listOf(
+            Parameters("stored"),
+            Parameters("target -10", targetShift = -10.0),
+            Parameters("target +10", targetShift = 10.0),
+            Parameters("no SMB", microBolusAllowed = false)
+        )
+        private val TOLERANCE = T.mins(3).msecs()
+    }
+}
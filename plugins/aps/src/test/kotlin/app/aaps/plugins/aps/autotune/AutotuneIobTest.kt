@@ -0,0 +1,84 @@
+package app.aaps.plugins.aps.autotune
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.objects.extensions.round
+import app.aaps.plugins.aps.autotune.data.LocalInsulin
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import kotlin.random.Random
+
+class AutotuneIobTest : TestBaseWithProfile() {
+
+    @Mock lateinit var autotuneFS: AutotuneFS
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var autotuneIob: AutotuneIob
+    private val localInsulin = LocalInsulin("Test", 75, 6.0)
+    private val start = 1_700_000_000_000L
+    private val days = 30
+
+    // 30 days of TBR converted to 5 min boluses, meal boluses and SMBs, newest first as in initializeData
+    private val boluses: ArrayList<BS> = Random(1).let { random ->
+        val list = ArrayList<BS>()
+        for (i in 0 until days * 288) {
+            val timestamp = start + i * T.mins(5).msecs()
+            list.add(BS(timestamp = timestamp, amount = random.nextDouble(-0.05, 0.1), type = BS.Type.NORMAL))
+            if (i % 96 == 40) list.add(BS(timestamp = timestamp + 1000, amount = random.nextDouble(2.0, 8.0), type = BS.Type.NORMAL))
+            if (i % 7 == 0) list.add(BS(timestamp = timestamp + 2000, amount = 0.2, type = BS.Type.SMB, isValid = i % 5 != 0))
+        }
+        ArrayList(list.sortedByDescending { it.timestamp })
+    }
+    private val times = LongArray(days * 288) { start + it * T.mins(5).msecs() + 30_000 }
+
+    @BeforeEach
+    fun prepare() {
+        autotuneIob = AutotuneIob(aapsLogger, persistenceLayer, profileFunction, preferences, dateUtil, autotuneFS)
+        autotuneIob.boluses = boluses
+    }
+
+    // former implementation: scan of all boluses
+    private fun linearIob(time: Long): IobTotal {
+        val total = IobTotal(time)
+        for (t in boluses) {
+            if (!t.isValid) continue
+            if (t.timestamp > time || t.timestamp < time - localInsulin.duration) continue
+            val tIOB = localInsulin.iobCalcForTreatment(t, time)
+            total.iob += tIOB.iobContrib
+            total.activity += tIOB.activityContrib
+        }
+        return total.round()
+    }
+
+    @Test
+    fun indexedIobMatchesLinearScan() {
+        for (time in times.filterIndexed { index, _ -> index % 7 == 0 } + listOf(start - 1, start, times.last() + T.hours(10).msecs())) {
+            val expected = linearIob(time)
+            val iob = autotuneIob.getIOB(time, localInsulin)
+            assertThat(iob.iob).isEqualTo(expected.iob)
+            assertThat(iob.activity).isEqualTo(expected.activity)
+        }
+    }
+
+    @Test
+    fun unsortedBolusesAreIndexed() {
+        autotuneIob.boluses = ArrayList(boluses.shuffled(Random(2)))
+        val time = times[days * 144]
+        assertThat(autotuneIob.getIOB(time, localInsulin).iob).isEqualTo(linearIob(time).iob)
+    }
+
+    @Test
+    fun parallelIobMatchesSequential() {
+        val parallel = autotuneIob.getIOB(times, localInsulin)
+        assertThat(parallel.size).isEqualTo(times.size)
+        for (i in times.indices step 11) {
+            assertThat(parallel[i].time).isEqualTo(times[i])
+            assertThat(parallel[i].iob).isEqualTo(autotuneIob.getIOB(times[i], localInsulin).iob)
+        }
+    }
+}
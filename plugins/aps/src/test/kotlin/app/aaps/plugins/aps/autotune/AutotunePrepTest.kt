@@ -151,6 +151,33 @@ class AutotunePrepTest : TestBaseWithProfile() {
             assertThat(oapsPreppedGlucose.basalGlucoseData[i].equals(aapsPreppedGlucose.basalGlucoseData[i])).isTrue()
     }
 
+    @Test
+    fun preparedDayIsReusedForSameDataAndProfile() {
+        val iobOapsCalculation = buildIobOaps(JSONArray(File("src/test/res/autotune/test1/oaps-iobCalc.2022-05-21.json").readText()))
+        autotuneIob = TestAutotuneIob(aapsLogger, persistenceLayer, profileFunction, preferences, dateUtil, autotuneFS, iobOapsCalculation)
+        autotunePrep = AutotunePrep(preferences, dateUtil, autotuneFS, autotuneIob)
+        val inputProfile = atProfileFromOapsJson(JSONObject(File("src/test/res/autotune/test1/profile.pump.json").readText()), dateUtil)!!
+        val oapsPreppedGlucose = PreppedGlucose(JSONObject(File("src/test/res/autotune/test1/autotune.2022-05-21.json").readText()), dateUtil)
+        val loadDay = {
+            // categorization modifies glucose and meals, load them again as initializeData does
+            autotuneIob.glucose = buildGlucose(JSONArray(File("src/test/res/autotune/test1/aaps-entries.2022-05-21.json").readText()))
+            autotuneIob.meals = buildMeals(JSONArray(File("src/test/res/autotune/test1/aaps-treatments.2022-05-21.json").readText()))
+            autotuneIob.boluses = buildBoluses(oapsPreppedGlucose)
+        }
+        whenever(preferences.get(DoubleKey.ApsSmbMin5MinCarbsImpact)).thenReturn(min5mCarbImpact)
+        whenever(preferences.get(BooleanKey.AutotuneCategorizeUamAsBasal)).thenReturn(false)
+
+        loadDay()
+        val first = autotunePrep.categorize(inputProfile)
+        assertThat(first).isNotNull()
+        loadDay()
+        assertThat(autotunePrep.categorize(inputProfile)).isSameInstanceAs(first)
+        // tuned profile of previous day is part of input
+        loadDay()
+        inputProfile.isf += 1.0
+        assertThat(autotunePrep.categorize(inputProfile)).isNotSameInstanceAs(first)
+    }
+
     /*************************************************************************************************************************************************************************************
      * OpenAPS profile for Autotune only have one ISF value and one IC value
      */
@@ -310,5 +337,8 @@ class AutotunePrepTest : TestBaseWithProfile() {
             }
             return bolusIob
         }
+
+        override fun getIOB(times: LongArray, localInsulin: LocalInsulin): Array<IobTotal> =
+            Array(times.size) { getIOB(times[it], localInsulin) }
     }
 }
@@ -0,0 +1,60 @@
+package app.aaps.plugins.aps.openAPS
+
+import app.aaps.core.data.time.T
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class DynIsfCacheTest {
+
+    @Test
+    fun `average matches full scan`() {
+        val cache = DynIsfCache()
+        val values = HashMap<Long, Double>()
+        val random = Random(42)
+        val now = T.days(100).msecs()
+        repeat(500) {
+            val key = now - random.nextLong(T.hours(48).msecs())
+            val value = random.nextDouble(20.0, 200.0)
+            cache.put(key, value)
+            values[key] = value
+        }
+        var to = now - T.hours(24).msecs()
+        while (to <= now) {
+            val from = to - T.hours(24).msecs()
+            val inWindow = values.filterKeys { it in from..to }.values
+            assertThat(cache.count(from, to)).isEqualTo(inWindow.size)
+            if (inWindow.isEmpty()) assertThat(cache.average(from, to)).isNull()
+            else assertThat(cache.average(from, to)).isWithin(1e-9).of(inWindow.average())
+            to += T.mins(17).msecs()
+        }
+    }
+
+    @Test
+    fun `window bounds are inclusive`() {
+        val cache = DynIsfCache()
+        cache.put(1000, 10.0)
+        cache.put(2000, 20.0)
+        cache.put(3000, 30.0)
+        assertThat(cache.average(1000, 2000)).isEqualTo(15.0)
+        assertThat(cache.count(1001, 2999)).isEqualTo(1)
+        assertThat(cache.average(3001, 4000)).isNull()
+        cache.put(2000, 50.0)
+        assertThat(cache.average(1000, 3000)).isEqualTo(30.0)
+    }
+
+    @Test
+    fun `old entries are evicted instead of clearing cache`() {
+        val cache = DynIsfCache(maxAge = 10_000, maxSize = 5)
+        cache.put(1000, 1.0)
+        cache.put(5000, 2.0)
+        cache.put(12_000, 3.0)
+        // 1000 is more than maxAge behind newest key
+        assertThat(cache[1000]).isNull()
+        assertThat(cache[5000]).isEqualTo(2.0)
+        for (key in 13_000L..16_000L step 1000) cache.put(key, 4.0)
+        assertThat(cache.size).isEqualTo(5)
+        assertThat(cache[5000]).isNull()
+        assertThat(cache[12_000]).isEqualTo(3.0)
+    }
+}
@@ -3,6 +3,7 @@ package app.aaps.plugins.aps.openAPSAMA
 import app.aaps.core.interfaces.constraints.ConstraintsChecker
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.iob.GlucoseStatusProvider
+import app.aaps.core.interfaces.profiling.Profiler
 import app.aaps.plugins.aps.openAPSSMB.GlucoseStatusCalculatorSMB
 import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
@@ -16,12 +17,13 @@ class OpenAPSAMAPluginTest : TestBaseWithProfile() {
     @Mock lateinit var persistenceLayer: PersistenceLayer
     @Mock lateinit var glucoseStatusProvider: GlucoseStatusProvider
     @Mock lateinit var determineBasalAMA: DetermineBasalAMA
+    @Mock lateinit var profiler: Profiler
     private lateinit var openAPSAMAPlugin: OpenAPSAMAPlugin
 
     @BeforeEach fun prepare() {
         openAPSAMAPlugin = OpenAPSAMAPlugin(
             aapsLogger, rxBus, constraintChecker, rh, config, profileFunction, activePlugin,
-            iobCobCalculator, processedTbrEbData, hardLimits, dateUtil, persistenceLayer, glucoseStatusProvider, preferences, determineBasalAMA,
+            iobCobCalculator, processedTbrEbData, hardLimits, dateUtil, persistenceLayer, glucoseStatusProvider, preferences, determineBasalAMA, profiler,
             GlucoseStatusCalculatorSMB(aapsLogger, iobCobCalculator, dateUtil, decimalFormatter, deltaCalculator), apsResultProvider
         )
     }
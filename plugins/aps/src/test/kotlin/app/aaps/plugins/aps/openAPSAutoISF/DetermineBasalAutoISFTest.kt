@@ -0,0 +1,191 @@
+package app.aaps.plugins.aps.openAPSAutoISF
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
+import app.aaps.core.interfaces.aps.RT
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.boolean
+import kotlinx.serialization.json.double
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import kotlin.math.exp
+
+class DetermineBasalAutoISFTest : TestBaseWithProfile() {
+
+    private lateinit var determineBasalAutoISF: DetermineBasalAutoISF
+
+    private class Input(val bg: Double, val delta: Double, val iob: Double, val cob: Double, val autoIsf: Boolean)
+
+    private val inputs = buildList {
+        for (bg in listOf(65.0, 110.0, 180.0, 260.0))
+            for (delta in listOf(-9.0, 0.5, 7.0))
+                for (iob in listOf(-0.5, 0.0, 2.5))
+                    for (cob in listOf(0.0, 45.0))
+                        for (autoIsf in listOf(false, true))
+                            add(Input(bg, delta, iob, cob, autoIsf))
+    }
+
+    @BeforeEach
+    fun prepare() {
+        determineBasalAutoISF = DetermineBasalAutoISF(profileUtil)
+    }
+
+    private fun glucoseStatus(input: Input) =
+        GlucoseStatusAutoIsf(
+            glucose = input.bg, delta = input.delta, shortAvgDelta = input.delta, longAvgDelta = input.delta / 2, date = now,
+            duraISFminutes = 20.0, duraISFaverage = input.bg, parabolaMinutes = 25.0, deltaPl = input.delta, deltaPn = input.delta * 1.1,
+            bgAcceleration = input.delta / 5, corrSqu = 0.95
+        )
+
+    private fun mealData(input: Input) =
+        MealData(carbs = input.cob, mealCOB = input.cob, slopeFromMaxDeviation = 0.5, slopeFromMinDeviation = 0.0, lastCarbTime = if (input.cob > 0) now - 30 * 60_000L else 0L)
+
+    private fun run(input: Input, diagnostics: Boolean, iob: Array<IobTotal> = iobArray(input.iob)): RT =
+        determineBasalAutoISF.determine_basal(
+            glucose_status = glucoseStatus(input),
+            currenttemp = CurrentTemp(duration = 0, rate = 0.0, minutesrunning = null),
+            iob_data_array = iob,
+            profile = profile(),
+            autosens_data = AutosensResult(ratio = 1.0),
+            meal_data = mealData(input),
+            microBolusAllowed = true,
+            currentTime = now,
+            flatBGsDetected = false,
+            autoIsfMode = input.autoIsf,
+            loop_wanted_smb = "AAPS",
+            profile_percentage = 100,
+            smb_ratio = 0.5,
+            smb_max_range_extension = 1.0,
+            iob_threshold_percent = 100,
+            auto_isf_consoleError = mutableListOf(),
+            auto_isf_consoleLog = mutableListOf(),
+            diagnostics = diagnostics
+        )
+
+    // RT keeps reference to console lists which are reused by next run
+    private fun RT.decision(): String = copy(consoleLog = null, consoleError = null).serialize()
+
+    @Test
+    fun `disabled diagnostics do not change decision`() {
+        inputs.forEach { input ->
+            val expected = run(input, diagnostics = true).decision()
+            val withoutDiagnostics = run(input, diagnostics = false)
+            assertThat(withoutDiagnostics.consoleLog).isEmpty()
+            assertThat(withoutDiagnostics.decision()).isEqualTo(expected)
+        }
+    }
+
+    @Test
+    fun `decisions and messages match previous implementation`() {
+        // recorded before predictions were moved to primitive buffers
+        val recorded = Json.parseToJsonElement(File("src/test/res/determineBasal/autoisf.json").readText()).jsonArray
+        assertThat(recorded).isNotEmpty()
+        recorded.map { it.jsonObject }.forEach { case ->
+            val input = Input(case.double("bg"), case.double("delta"), case.double("iob"), case.double("cob"), case.getValue("autoIsf").jsonPrimitive.boolean)
+            assertThat(Json.parseToJsonElement(run(input, diagnostics = true).serialize())).isEqualTo(case["expected"])
+        }
+    }
+
+    @Test
+    fun `NaN zero temp activity gives zero ZT prediction`() {
+        val input = Input(bg = 110.0, delta = 0.5, iob = 2.5, cob = 0.0, autoIsf = true)
+        val iob = iobArray(input.iob).onEach { it.iobWithZeroTemp!!.activity = Double.NaN }
+        val result = run(input, diagnostics = false, iob = iob)
+        val zt = result.predBGs!!.ZT!!
+        assertThat(zt[0]).isEqualTo(110)
+        assertThat(zt.drop(1).all { it == 0 }).isTrue()
+        assertThat(result.predBGs!!.IOB!!.all { it in 39..401 }).isTrue()
+    }
+
+    private fun JsonObject.double(key: String): Double = getValue(key).jsonPrimitive.double
+
+    private fun iobArray(iob: Double): Array<IobTotal> =
+        Array(48) { i ->
+            val decay = exp(-i / 18.0)
+            IobTotal(
+                time = now + i * 5 * 60_000L,
+                iob = iob * decay,
+                basaliob = iob * decay / 3,
+                activity = iob * decay / 60,
+                lastBolusTime = now - 60 * 60_000L,
+                iobWithZeroTemp = IobTotal(
+                    time = now + i * 5 * 60_000L,
+                    iob = iob * decay - i * 0.05,
+                    activity = iob * decay / 60 - 0.001
+                )
+            )
+        }
+
+    private fun profile() = OapsProfileAutoIsf(
+        dia = 0.0,
+        min_5m_carbimpact = 0.0,
+        max_iob = 6.0,
+        max_daily_basal = 1.2,
+        max_basal = 4.0,
+        min_bg = 100.0,
+        max_bg = 100.0,
+        target_bg = 100.0,
+        carb_ratio = 10.0,
+        sens = 50.0,
+        autosens_adjust_targets = false,
+        max_daily_safety_multiplier = 3.0,
+        current_basal_safety_multiplier = 4.0,
+        high_temptarget_raises_sensitivity = false,
+        low_temptarget_lowers_sensitivity = false,
+        sensitivity_raises_target = true,
+        resistance_lowers_target = false,
+        adv_target_adjustments = false,
+        exercise_mode = false,
+        half_basal_exercise_target = 160,
+        maxCOB = 120,
+        skip_neutral_temps = false,
+        remainingCarbsCap = 90,
+        enableUAM = true,
+        A52_risk_enable = false,
+        SMBInterval = 3,
+        enableSMB_with_COB = true,
+        enableSMB_with_temptarget = false,
+        allowSMB_with_high_temptarget = false,
+        enableSMB_always = true,
+        enableSMB_after_carbs = false,
+        maxSMBBasalMinutes = 30,
+        maxUAMSMBBasalMinutes = 30,
+        bolus_increment = 0.1,
+        carbsReqThreshold = 1,
+        current_basal = 1.0,
+        temptargetSet = false,
+        autosens_max = 1.2,
+        out_units = "mg/dl",
+        lgsThreshold = 65,
+        variable_sens = 45.0,
+        autoISF_version = "3.0.1",
+        enable_autoISF = true,
+        autoISF_max = 1.5,
+        autoISF_min = 0.7,
+        bgAccel_ISF_weight = 0.1,
+        bgBrake_ISF_weight = 0.1,
+        pp_ISF_weight = 0.05,
+        lower_ISFrange_weight = 0.5,
+        higher_ISFrange_weight = 0.5,
+        dura_ISF_weight = 0.3,
+        smb_delivery_ratio = 0.5,
+        smb_delivery_ratio_min = 0.6,
+        smb_delivery_ratio_max = 0.9,
+        smb_delivery_ratio_bg_range = 0.0,
+        smb_max_range_extension = 1.0,
+        enableSMB_EvenOn_OddOff_always = true,
+        iob_threshold_percent = 100,
+        profile_percentage = 100
+    )
+}
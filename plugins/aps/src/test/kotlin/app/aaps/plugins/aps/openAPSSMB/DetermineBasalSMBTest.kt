@@ -0,0 +1,196 @@
+package app.aaps.plugins.aps.openAPSSMB
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.RT
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.boolean
+import kotlinx.serialization.json.double
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import kotlin.math.exp
+
+class DetermineBasalSMBTest : TestBaseWithProfile() {
+
+    private lateinit var determineBasalSMB: DetermineBasalSMB
+
+    private class Input(val bg: Double, val delta: Double, val iob: Double, val cob: Double, val dynIsf: Boolean)
+
+    private val inputs = buildList {
+        for (bg in listOf(65.0, 110.0, 180.0, 260.0))
+            for (delta in listOf(-9.0, 0.5, 7.0))
+                for (iob in listOf(-0.5, 0.0, 2.5))
+                    for (cob in listOf(0.0, 45.0))
+                        for (dynIsf in listOf(false, true))
+                            add(Input(bg, delta, iob, cob, dynIsf))
+    }
+
+    @BeforeEach
+    fun prepare() {
+        determineBasalSMB = DetermineBasalSMB(profileUtil, fabricPrivacy)
+    }
+
+    private fun glucoseStatus(input: Input) =
+        GlucoseStatusSMB(glucose = input.bg, delta = input.delta, shortAvgDelta = input.delta, longAvgDelta = input.delta / 2, date = now)
+
+    private fun mealData(input: Input) =
+        MealData(carbs = input.cob, mealCOB = input.cob, slopeFromMaxDeviation = 0.5, slopeFromMinDeviation = 0.0, lastCarbTime = if (input.cob > 0) now - 30 * 60_000L else 0L)
+
+    private fun run(input: Input, diagnostics: Boolean): RT =
+        determineBasalSMB.determine_basal(
+            glucose_status = glucoseStatus(input),
+            currenttemp = CurrentTemp(duration = 0, rate = 0.0, minutesrunning = null),
+            iob_data_array = iobArray(input.iob),
+            profile = profile(),
+            autosens_data = AutosensResult(ratio = 1.0),
+            meal_data = mealData(input),
+            microBolusAllowed = true,
+            currentTime = now,
+            flatBGsDetected = false,
+            dynIsfMode = input.dynIsf,
+            diagnostics = diagnostics
+        )
+
+    // RT keeps reference to console lists which are reused by next run
+    private fun RT.decision(): String = copy(consoleLog = null, consoleError = null).serialize()
+
+    @Test
+    fun `disabled diagnostics do not change decision`() {
+        var logged = 0
+        inputs.forEach { input ->
+            val withDiagnostics = run(input, diagnostics = true)
+            logged += withDiagnostics.consoleError!!.size
+            val expected = withDiagnostics.decision()
+            val withoutDiagnostics = run(input, diagnostics = false)
+            assertThat(withoutDiagnostics.consoleError).isEmpty()
+            assertThat(withoutDiagnostics.consoleLog).isEmpty()
+            assertThat(withoutDiagnostics.decision()).isEqualTo(expected)
+        }
+        assertThat(logged).isGreaterThan(0)
+    }
+
+    @Test
+    fun `predictions are limited and trimmed`() {
+        inputs.forEach { input ->
+            val predictions = run(input, diagnostics = false).predBGs!!
+            listOfNotNull(predictions.IOB, predictions.ZT, predictions.COB, predictions.UAM).forEach { prediction ->
+                assertThat(prediction.size).isAtMost(48)
+                assertThat(prediction.all { it in 39..401 }).isTrue()
+            }
+            predictions.IOB!!.let { iob ->
+                // flat tail after 1h is cut off
+                if (iob.size in 14..47) assertThat(iob[iob.size - 1]).isNotEqualTo(iob[iob.size - 2])
+            }
+        }
+    }
+
+    @Test
+    fun `decisions and messages match previous implementation`() {
+        // recorded before predictions were moved to primitive buffers
+        val recorded = Json.parseToJsonElement(File("src/test/res/determineBasal/smb.json").readText()).jsonArray
+        assertThat(recorded).isNotEmpty()
+        recorded.map { it.jsonObject }.forEach { case ->
+            val input = Input(case.double("bg"), case.double("delta"), case.double("iob"), case.double("cob"), case.getValue("dynIsf").jsonPrimitive.boolean)
+            assertThat(Json.parseToJsonElement(run(input, diagnostics = true).serialize())).isEqualTo(case["expected"])
+        }
+    }
+
+    @Test
+    fun `NaN zero temp activity gives zero ZT prediction`() {
+        val input = Input(bg = 110.0, delta = 0.5, iob = 2.5, cob = 0.0, dynIsf = false)
+        val iob = iobArray(input.iob).onEach { it.iobWithZeroTemp!!.activity = Double.NaN }
+        val result = determineBasalSMB.determine_basal(
+            glucose_status = glucoseStatus(input),
+            currenttemp = CurrentTemp(duration = 0, rate = 0.0, minutesrunning = null),
+            iob_data_array = iob,
+            profile = profile(),
+            autosens_data = AutosensResult(ratio = 1.0),
+            meal_data = mealData(input),
+            microBolusAllowed = true,
+            currentTime = now,
+            flatBGsDetected = false,
+            dynIsfMode = input.dynIsf,
+            diagnostics = false
+        )
+        val zt = result.predBGs!!.ZT!!
+        assertThat(zt[0]).isEqualTo(110)
+        assertThat(zt.drop(1).all { it == 0 }).isTrue()
+        assertThat(result.predBGs!!.IOB!!.all { it in 39..401 }).isTrue()
+    }
+
+    private fun JsonObject.double(key: String): Double = getValue(key).jsonPrimitive.double
+
+    private fun iobArray(iob: Double): Array<IobTotal> =
+        Array(48) { i ->
+            val decay = exp(-i / 18.0)
+            IobTotal(
+                time = now + i * 5 * 60_000L,
+                iob = iob * decay,
+                basaliob = iob * decay / 3,
+                activity = iob * decay / 60,
+                lastBolusTime = now - 60 * 60_000L,
+                iobWithZeroTemp = IobTotal(
+                    time = now + i * 5 * 60_000L,
+                    iob = iob * decay - i * 0.05,
+                    activity = iob * decay / 60 - 0.001
+                )
+            )
+        }
+
+    private fun profile() = OapsProfile(
+        dia = 0.0,
+        min_5m_carbimpact = 0.0,
+        max_iob = 6.0,
+        max_daily_basal = 1.2,
+        max_basal = 4.0,
+        min_bg = 100.0,
+        max_bg = 100.0,
+        target_bg = 100.0,
+        carb_ratio = 10.0,
+        sens = 50.0,
+        autosens_adjust_targets = false,
+        max_daily_safety_multiplier = 3.0,
+        current_basal_safety_multiplier = 4.0,
+        high_temptarget_raises_sensitivity = false,
+        low_temptarget_lowers_sensitivity = false,
+        sensitivity_raises_target = true,
+        resistance_lowers_target = false,
+        adv_target_adjustments = false,
+        exercise_mode = false,
+        half_basal_exercise_target = 160,
+        maxCOB = 120,
+        skip_neutral_temps = false,
+        remainingCarbsCap = 90,
+        enableUAM = true,
+        A52_risk_enable = false,
+        SMBInterval = 3,
+        enableSMB_with_COB = true,
+        enableSMB_with_temptarget = false,
+        allowSMB_with_high_temptarget = false,
+        enableSMB_always = true,
+        enableSMB_after_carbs = false,
+        maxSMBBasalMinutes = 30,
+        maxUAMSMBBasalMinutes = 30,
+        bolus_increment = 0.1,
+        carbsReqThreshold = 1,
+        current_basal = 1.0,
+        temptargetSet = false,
+        autosens_max = 1.2,
+        out_units = "mg/dl",
+        lgsThreshold = 65,
+        variable_sens = 45.0,
+        insulinDivisor = 75,
+        TDD = 40.0
+    )
+}
@@ -0,0 +1,180 @@
+package app.aaps.plugins.aps.replay
+
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import kotlin.math.exp
+import kotlin.math.sin
+
+class ApsReplayTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var apsReplay: ApsReplay
+
+    private val start = 1_700_000_000_000L
+    private val step = T.mins(5).msecs()
+
+    // one day of BG with two peaks
+    private val glucose = List(288) { i -> gv(start + i * step, 120.0 + 60.0 * sin(i / 20.0)) }
+
+    private val steps = List(288) { i ->
+        val bg = glucose[i].value
+        ApsReplay.Step(
+            timestamp = start + i * step,
+            algorithm = APSResult.Algorithm.SMB,
+            glucoseStatus = GlucoseStatusSMB(glucose = bg, delta = if (i > 0) bg - glucose[i - 1].value else 0.0, shortAvgDelta = 0.0, longAvgDelta = 0.0, date = start + i * step),
+            currentTemp = CurrentTemp(duration = 0, rate = 0.0, minutesrunning = null),
+            iobData = iobArray(start + i * step, (i % 24) / 10.0),
+            profile = profile(),
+            mealData = MealData(),
+            autosensResult = AutosensResult(ratio = 1.0),
+            dynIsfMode = i % 2 == 0,
+            recordedSmb = 0.1
+        )
+    }
+
+    @BeforeEach
+    fun prepare() {
+        apsReplay = ApsReplay(aapsLogger, persistenceLayer, profileUtil, fabricPrivacy)
+    }
+
+    @Test
+    fun `parallel replay gives the same results as sequential`() {
+        val parameters = listOf(
+            ApsReplay.Parameters("stored"),
+            ApsReplay.Parameters("low target", targetShift = -10.0),
+            ApsReplay.Parameters("no SMB", microBolusAllowed = false)
+        )
+        val sequential = apsReplay.replay(steps, glucose, parameters, threads = 1)
+        val parallel = apsReplay.replay(steps, glucose, parameters, threads = 3)
+
+        assertThat(parallel.map { it.parameters.name }).containsExactly("stored", "low target", "no SMB").inOrder()
+        parallel.forEachIndexed { index, report ->
+            assertThat(report.steps).isEqualTo(steps.size)
+            assertThat(report.results.map { listOf(it.rate, it.duration, it.smb, it.predicted30, it.predicted60) })
+                .isEqualTo(sequential[index].results.map { listOf(it.rate, it.duration, it.smb, it.predicted30, it.predicted60) })
+        }
+        assertThat(parallel[2].totalSmb).isEqualTo(0.0)
+        assertThat(parallel[0].recordedTotalSmb).isWithin(1e-9).of(28.8)
+    }
+
+    @Test
+    fun `parameters change only determine_basal settings`() {
+        val stored = profile()
+        val adjusted = ApsReplay.Parameters("adjusted", targetShift = -10.0, maxIob = 3.0, maxBasal = 2.0, enableUAM = false).adjust(stored)
+        assertThat(adjusted).isNotSameInstanceAs(stored)
+        assertThat(listOf(adjusted.min_bg, adjusted.max_bg, adjusted.target_bg)).containsExactly(90.0, 90.0, 90.0).inOrder()
+        assertThat(adjusted.max_iob).isEqualTo(3.0)
+        assertThat(adjusted.max_basal).isEqualTo(2.0)
+        assertThat(adjusted.enableUAM).isFalse()
+        // inputs of IOB, COB and autosens calculation stay as stored
+        assertThat(adjusted.copy(min_bg = 100.0, max_bg = 100.0, target_bg = 100.0, max_iob = 6.0, max_basal = 4.0, enableUAM = true)).isEqualTo(stored)
+        assertThat(ApsReplay.Parameters("stored").adjust(stored)).isEqualTo(stored)
+    }
+
+    @Test
+    fun `actual outcome is nearest BG within tolerance`() {
+        // BG gap between 60 and 90 minutes
+        val withGap = glucose.filterIndexed { i, _ -> i !in 12..18 } + gv(start + T.mins(92).msecs(), 200.0)
+        val results = apsReplay.replay(steps.take(1), withGap.sortedBy { it.timestamp }, listOf(ApsReplay.Parameters("stored"))).single().results
+        assertThat(results.single().actual30).isEqualTo(glucose[6].value)
+        assertThat(results.single().actual60).isNull()
+        assertThat(results.single().predicted30).isNotNull()
+
+        val shifted = apsReplay.replay(listOf(steps[6]), withGap.sortedBy { it.timestamp }, listOf(ApsReplay.Parameters("stored"))).single().results
+        // 90 min from start is 2 min from stored value at 92 min
+        assertThat(shifted.single().actual60).isEqualTo(200.0)
+    }
+
+    @Test
+    fun `stored history is read in daily chunks`() {
+        whenever(persistenceLayer.getApsResults(any(), any())).thenReturn(emptyList())
+        whenever(persistenceLayer.getBgReadingsDataFromTimeToTime(any(), any(), eq(true))).thenReturn(emptyList())
+        val reports = apsReplay.replay(start, start + T.days(2).msecs() + T.hours(1).msecs(), listOf(ApsReplay.Parameters("stored")))
+        assertThat(reports.single().steps).isEqualTo(0)
+        verify(persistenceLayer, times(3)).getApsResults(any(), any())
+        verify(persistenceLayer).getApsResults(start, start + T.days(1).msecs() - 1)
+        verify(persistenceLayer).getApsResults(start + T.days(2).msecs(), start + T.days(2).msecs() + T.hours(1).msecs())
+        verify(persistenceLayer, times(3)).getBgReadingsDataFromTimeToTime(any(), any(), any())
+    }
+
+    private fun gv(timestamp: Long, value: Double) =
+        GV(timestamp = timestamp, raw = null, value = value, trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN)
+
+    private fun iobArray(time: Long, iob: Double): Array<IobTotal> =
+        Array(48) { i ->
+            val decay = exp(-i / 18.0)
+            IobTotal(
+                time = time + i * step,
+                iob = iob * decay,
+                activity = iob * decay / 60,
+                iobWithZeroTemp = IobTotal(time = time + i * step, iob = iob * decay - i * 0.05, activity = iob * decay / 60 - 0.001)
+            )
+        }
+
+    private fun profile() = OapsProfile(
+        dia = 0.0,
+        min_5m_carbimpact = 0.0,
+        max_iob = 6.0,
+        max_daily_basal = 1.2,
+        max_basal = 4.0,
+        min_bg = 100.0,
+        max_bg = 100.0,
+        target_bg = 100.0,
+        carb_ratio = 10.0,
+        sens = 50.0,
+        autosens_adjust_targets = false,
+        max_daily_safety_multiplier = 3.0,
+        current_basal_safety_multiplier = 4.0,
+        high_temptarget_raises_sensitivity = false,
+        low_temptarget_lowers_sensitivity = false,
+        sensitivity_raises_target = true,
+        resistance_lowers_target = false,
+        adv_target_adjustments = false,
+        exercise_mode = false,
+        half_basal_exercise_target = 160,
+        maxCOB = 120,
+        skip_neutral_temps = false,
+        remainingCarbsCap = 90,
+        enableUAM = true,
+        A52_risk_enable = false,
+        SMBInterval = 3,
+        enableSMB_with_COB = true,
+        enableSMB_with_temptarget = false,
+        allowSMB_with_high_temptarget = false,
+        enableSMB_always = true,
+        enableSMB_after_carbs = false,
+        maxSMBBasalMinutes = 30,
+        maxUAMSMBBasalMinutes = 30,
+        bolus_increment = 0.1,
+        carbsReqThreshold = 1,
+        current_basal = 1.0,
+        temptargetSet = false,
+        autosens_max = 1.2,
+        out_units = "mg/dl",
+        lgsThreshold = 65,
+        variable_sens = 45.0,
+        insulinDivisor = 75,
+        TDD = 40.0
+    )
+}
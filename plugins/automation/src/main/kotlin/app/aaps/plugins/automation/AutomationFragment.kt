@@ -153,6 +153,8 @@ class AutomationFragment : DaggerFragment(), OnStartDragListener, MenuProvider {
     @Synchronized
     private fun updateGui() {
         if (_binding == null) return
+        // list is refreshed again on EventAutomationDataChanged if some event has been disabled
+        automationPlugin.disableInvalidEvents()
         eventListAdapter.notifyDataSetChanged()
         val sb = StringBuilder()
         for (l in automationPlugin.executionLog.reversed())
@@ -198,9 +200,9 @@ class AutomationFragment : DaggerFragment(), OnStartDragListener, MenuProvider {
                 rh.gac(
                     context,
                     when {
-                        automation.userAction        -> app.aaps.core.ui.R.attr.userAction
-                        automation.areActionsValid() -> app.aaps.core.ui.R.attr.validActions
-                        else                         -> app.aaps.core.ui.R.attr.actionsError
+                        automation.userAction                   -> app.aaps.core.ui.R.attr.userAction
+                        automation.actions.all { it.isValid() } -> app.aaps.core.ui.R.attr.validActions
+                        else                                    -> app.aaps.core.ui.R.attr.actionsError
                     }
                 )
             )
@@ -64,6 +64,7 @@ import app.aaps.plugins.automation.triggers.TriggerCOB
 import app.aaps.plugins.automation.triggers.TriggerCannulaAge
 import app.aaps.plugins.automation.triggers.TriggerConnector
 import app.aaps.plugins.automation.triggers.TriggerDelta
+import app.aaps.plugins.automation.triggers.TriggerEvaluationContext
 import app.aaps.plugins.automation.triggers.TriggerHeartRate
 import app.aaps.plugins.automation.triggers.TriggerInsulinAge
 import app.aaps.plugins.automation.triggers.TriggerIob
@@ -110,7 +111,8 @@ class AutomationPlugin @Inject constructor(
     private val locationServiceHelper: LocationServiceHelper,
     private val dateUtil: DateUtil,
     private val activePlugin: ActivePlugin,
-    private val timerUtil: TimerUtil
+    private val timerUtil: TimerUtil,
+    private val evaluationContext: TriggerEvaluationContext
 ) : PluginBaseWithPreferences(
     pluginDescription = PluginDescription()
         .mainType(PluginType.GENERAL)
@@ -129,6 +131,9 @@ class AutomationPlugin @Inject constructor(
     private var disposable: CompositeDisposable = CompositeDisposable()
 
     private val automationEvents = ArrayList<AutomationEventObject>()
+
+    /** List of events changed since last [storeToSP] */
+    @Volatile private var dirty = false
     var executionLog: MutableList<String> = ArrayList()
     var btConnects: MutableList<EventBTChange> = ArrayList()
 
@@ -170,7 +175,10 @@ class AutomationPlugin @Inject constructor(
         disposable += rxBus
             .toObservable(EventAutomationDataChanged::class.java)
             .observeOn(aapsSchedulers.io)
-            .subscribe({ storeToSP() }, fabricPrivacy::logException)
+            .subscribe({
+                           dirty = true
+                           storeToSP()
+                       }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventLocationChange::class.java)
             .observeOn(aapsSchedulers.io)
@@ -207,7 +215,11 @@ class AutomationPlugin @Inject constructor(
 
     private fun storeToSP() {
         val array = JSONArray()
-        val iterator = synchronized(this) { automationEvents.toMutableList().iterator() }
+        val iterator = synchronized(this) {
+            if (!dirty) return
+            dirty = false
+            automationEvents.toMutableList().iterator()
+        }
         try {
             while (iterator.hasNext()) {
                 val event = iterator.next()
@@ -235,12 +247,19 @@ class AutomationPlugin @Inject constructor(
             } catch (e: JSONException) {
                 e.printStackTrace()
             }
-        else
+        else {
             automationEvents.add(AutomationEventObject(injector).fromJSON(EMPTY_EVENT))
+            dirty = true
+        }
     }
 
     internal fun processActions() {
         if (!config.appInitialized) return
+        // BG, IOB, COB, ... are loaded once and shared by all triggers
+        evaluationContext.evaluate { snapshot -> processActions(snapshot) }
+    }
+
+    private fun processActions(snapshot: TriggerEvaluationContext.Snapshot) {
         /**
          * Changed to false if some condition prevents automation from running.
          * In this case only system automations are enabled.
@@ -249,7 +268,7 @@ class AutomationPlugin @Inject constructor(
         /*
          * Running mode must report running to process automation events.
          */
-        if (loop.runningMode.isSuspended() || !loop.runningMode.isLoopRunning()) {
+        if (snapshot.runningMode.isSuspended() || !snapshot.runningMode.isLoopRunning()) {
             aapsLogger.debug(LTag.AUTOMATION, "Loop suspended")
             executionLog.add(rh.gs(app.aaps.core.ui.R.string.loopsuspended))
             rxBus.send(EventAutomationUpdateGui())
@@ -294,7 +313,7 @@ class AutomationPlugin @Inject constructor(
          */
         btConnects.clear()
 
-        storeToSP() // save last run time
+        storeToSP() // only if auto removed events changed the list
     }
 
     override fun processEvent(someEvent: AutomationEvent) {
@@ -322,6 +341,7 @@ class AutomationPlugin @Inject constructor(
                         }
                     })
                     SystemClock.sleep(3000)
+                    evaluationContext.refresh()
                 } else {
                     executionLog.add("Invalid action: ${action.shortDescription()}")
                     aapsLogger.debug(LTag.AUTOMATION, "Invalid action: ${action.shortDescription()}")
@@ -329,6 +349,8 @@ class AutomationPlugin @Inject constructor(
                 }
             }
             SystemClock.sleep(1100)
+            // following events must see state changed by actions
+            evaluationContext.refresh()
             event.lastRun = dateUtil.now()
             if (event.autoRemove) remove(event)
         }
@@ -367,7 +389,18 @@ class AutomationPlugin @Inject constructor(
 
     @Synchronized
     fun remove(event: AutomationEvent) {
-        automationEvents.remove(event)
+        if (automationEvents.remove(event)) dirty = true
+    }
+
+    /**
+     * Disable events with invalid actions (ie. referencing removed profile)
+     *
+     * @return true if some event has been disabled
+     */
+    fun disableInvalidEvents(): Boolean {
+        val disabled = synchronized(this) { automationEvents.filter { it.isEnabled && !it.areActionsValid() } }
+        if (disabled.isNotEmpty()) rxBus.send(EventAutomationDataChanged())
+        return disabled.isNotEmpty()
     }
 
     fun at(index: Int) = automationEvents[index]
@@ -377,6 +410,7 @@ class AutomationPlugin @Inject constructor(
     @Synchronized
     fun swap(fromPosition: Int, toPosition: Int) {
         Collections.swap(automationEvents, fromPosition, toPosition)
+        dirty = true
     }
 
     override fun userEvents(): List<AutomationEvent> {
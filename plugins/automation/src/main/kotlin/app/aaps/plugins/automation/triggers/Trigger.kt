@@ -44,6 +44,7 @@ abstract class Trigger(val injector: HasAndroidInjector) {
     @Inject lateinit var iobCobCalculator: IobCobCalculator
     @Inject lateinit var glucoseStatusProvider: GlucoseStatusProvider
     @Inject lateinit var dateUtil: DateUtil
+    @Inject lateinit var evaluationContext: TriggerEvaluationContext
 
     init {
         @Suppress("LeakingThis")
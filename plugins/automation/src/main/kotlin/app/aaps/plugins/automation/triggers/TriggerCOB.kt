@@ -39,7 +39,7 @@ class TriggerCOB(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val cobInfo = iobCobCalculator.getCobInfo("AutomationTriggerCOB")
+        val cobInfo = evaluationContext.current().cobInfo
         if (cobInfo.displayCob == null) {
             return if (comparator.value === Comparator.Compare.IS_NOT_AVAILABLE) {
                 aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
@@ -0,0 +1,110 @@
+package app.aaps.plugins.automation.triggers
+
+import app.aaps.core.data.iob.CobInfo
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.HR
+import app.aaps.core.data.model.RM
+import app.aaps.core.data.model.SC
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.model.TT
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.GlucoseStatus
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.Loop
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.iob.GlucoseStatusProvider
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.utils.DateUtil
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Data shared by all triggers evaluated in one automation cycle
+ *
+ * Values are loaded lazily on first use, so triggers not present in any event cost nothing
+ * and triggers present in many events query database or calculator only once per cycle.
+ * All triggers reading database, profile, IOB/COB, autosens or running mode go through it,
+ * so one pass evaluates all rules against the same state. Pump, location and time triggers
+ * read in-memory state and are not part of snapshot.
+ * Outside of [evaluate] every call of [current] returns fresh snapshot, ie. behaves
+ * like direct query.
+ */
+@Singleton
+class TriggerEvaluationContext @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val glucoseStatusProvider: GlucoseStatusProvider,
+    private val iobCobCalculator: IobCobCalculator,
+    private val profileFunction: ProfileFunction,
+    private val persistenceLayer: PersistenceLayer,
+    private val loop: Loop,
+    private val dateUtil: DateUtil
+) {
+
+    inner class Snapshot(val now: Long) {
+
+        val glucoseStatus: GlucoseStatus? by lazy { glucoseStatusProvider.glucoseStatusData }
+
+        /** null if profile is not available */
+        val iobTotal: IobTotal? by lazy { profileFunction.getProfile()?.let { iobCobCalculator.calculateFromTreatmentsAndTemps(now, it) } }
+        val cobInfo: CobInfo by lazy { iobCobCalculator.getCobInfo("AutomationTriggerCOB") }
+
+        /** Steps count records from last [STEPS_COUNT_WINDOW] */
+        val stepsCounts: List<SC> by lazy { persistenceLayer.getStepsCountFromTime(now - STEPS_COUNT_WINDOW) }
+
+        /** Heart rate records from last [HEART_RATE_WINDOW] */
+        val heartRates: List<HR> by lazy { persistenceLayer.getHeartRatesFromTime(now - HEART_RATE_WINDOW) }
+        val runningMode: RM.Mode by lazy { loop.runningMode }
+
+        val profile: Profile? by lazy { profileFunction.getProfile() }
+        val isProfileChangePending: Boolean by lazy { profileFunction.isProfileChangePending() }
+        val autosensData: AutosensData? by lazy { iobCobCalculator.ads.getLastAutosensData("Automation trigger", aapsLogger, dateUtil) }
+        val lastNormalBolus: BS? by lazy { persistenceLayer.getNewestBolusOfType(BS.Type.NORMAL) }
+        val temporaryTarget: TT? by lazy { persistenceLayer.getTemporaryTargetActiveAt(now) }
+
+        private val therapyEvents = HashMap<TE.Type, TE?>()
+
+        /** Last therapy event of [type] up to now */
+        fun lastTherapyEvent(type: TE.Type): TE? =
+            if (therapyEvents.containsKey(type)) therapyEvents[type]
+            else persistenceLayer.getLastTherapyRecordUpToNow(type).also { therapyEvents[type] = it }
+    }
+
+    private val cycle = ThreadLocal<Snapshot?>()
+
+    /**
+     * Run [block] with one snapshot shared by all [current] calls made from it
+     */
+    fun <R> evaluate(block: (Snapshot) -> R): R {
+        val outer = cycle.get()
+        if (outer != null) return block(outer)
+        val snapshot = Snapshot(dateUtil.now())
+        cycle.set(snapshot)
+        try {
+            return block(snapshot)
+        } finally {
+            cycle.remove()
+        }
+    }
+
+    fun current(): Snapshot = cycle.get() ?: Snapshot(dateUtil.now())
+
+    /**
+     * Replace snapshot of running cycle after actions could change state (treatment, temp target, running mode, ...)
+     * Following triggers load fresh values. No-op outside of [evaluate]
+     */
+    fun refresh() {
+        if (cycle.get() != null) cycle.set(Snapshot(dateUtil.now()))
+    }
+
+    companion object {
+
+        // Steps count entries update every 1-1.5 minutes on watch,
+        // so we must get some entries from the last 5 minutes.
+        val STEPS_COUNT_WINDOW = T.mins(5).msecs()
+        val HEART_RATE_WINDOW = T.secs(330).msecs()
+    }
+}
@@ -17,7 +17,7 @@ import java.util.Optional
 
 class TriggerHeartRate(injector: HasAndroidInjector) : Trigger(injector) {
 
-    @VisibleForTesting val averageHeartRateDurationMillis = 330 * 1000L
+    @VisibleForTesting val averageHeartRateDurationMillis = TriggerEvaluationContext.HEART_RATE_WINDOW
     private val minValue = 30
     private val maxValue = 250
     var heartRate: InputDouble = InputDouble(80.0, minValue.toDouble(), maxValue.toDouble(), 10.0, DecimalFormat("1"))
@@ -30,8 +30,7 @@ class TriggerHeartRate(injector: HasAndroidInjector) : Trigger(injector) {
             aapsLogger.info(LTag.AUTOMATION, "HR ready, no limit set ${friendlyDescription()}")
             return true
         }
-        val start = dateUtil.now() - averageHeartRateDurationMillis
-        val hrs = persistenceLayer.getHeartRatesFromTime(start)
+        val hrs = evaluationContext.current().heartRates
         val duration = hrs.takeUnless { it.isEmpty() }?.sumOf { hr -> hr.duration } ?: 0L
         if (duration == 0L) {
             aapsLogger.info(LTag.AUTOMATION, "HR not ready, no heart rate measured for ${friendlyDescription()}")
@@ -37,9 +37,10 @@ class TriggerInsulinAge(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val therapyEvent = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.INSULIN_CHANGE)
+        val snapshot = evaluationContext.current()
+        val therapyEvent = snapshot.lastTherapyEvent(TE.Type.INSULIN_CHANGE)
         val currentAgeHours = therapyEvent?.timestamp?.let { timestamp ->
-            (dateUtil.now() - timestamp) / (60 * 60 * 1000.0)
+            (snapshot.now - timestamp) / (60 * 60 * 1000.0)
         } ?: 0.0
         val isPatchPump = activePlugin.activePump.pumpDescription.isPatchPump
         if (isPatchPump) {
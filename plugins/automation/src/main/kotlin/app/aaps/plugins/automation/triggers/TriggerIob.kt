@@ -34,8 +34,7 @@ class TriggerIob(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val profile = profileFunction.getProfile() ?: return false
-        val iob = iobCobCalculator.calculateFromTreatmentsAndTemps(dateUtil.now(), profile)
+        val iob = evaluationContext.current().iobTotal ?: return false
         if (comparator.value.check(iob.iob, insulin.value)) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
             return true
@@ -15,8 +15,9 @@ import java.util.Optional
 class TriggerPodChange(injector: HasAndroidInjector) : Trigger(injector) {
 
     override fun shouldRun(): Boolean {
-        val eventLastSettingsExport = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.SETTINGS_EXPORT)
-        val eventLastPodChange = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.CANNULA_CHANGE)
+        val snapshot = evaluationContext.current()
+        val eventLastSettingsExport = snapshot.lastTherapyEvent(TE.Type.SETTINGS_EXPORT)
+        val eventLastPodChange = snapshot.lastTherapyEvent(TE.Type.CANNULA_CHANGE)
         if (eventLastPodChange == null || eventLastSettingsExport == null) {
             aapsLogger.debug(LTag.AUTOMATION, "NOT ready for execution (no events): " + friendlyDescription())
             return false
@@ -41,8 +41,9 @@ class TriggerProfilePercent(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val profile = profileFunction.getProfile()
-        if (profileFunction.isProfileChangePending()) {
+        val snapshot = evaluationContext.current()
+        val profile = snapshot.profile
+        if (snapshot.isProfileChangePending) {
             aapsLogger.debug(LTag.AUTOMATION, "NOT ready for execution: " + "Profile change is already pending: " + friendlyDescription())
             return false
         }
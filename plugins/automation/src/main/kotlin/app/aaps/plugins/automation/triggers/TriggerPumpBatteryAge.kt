@@ -37,9 +37,10 @@ class TriggerPumpBatteryAge(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val therapyEvent = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.PUMP_BATTERY_CHANGE)
+        val snapshot = evaluationContext.current()
+        val therapyEvent = snapshot.lastTherapyEvent(TE.Type.PUMP_BATTERY_CHANGE)
         val currentAgeHours = therapyEvent?.timestamp?.let { timestamp ->
-            (dateUtil.now() - timestamp) / (60 * 60 * 1000.0)
+            (snapshot.now - timestamp) / (60 * 60 * 1000.0)
         } ?: 0.0
         val pump = activePlugin.activePump
         if (!pump.pumpDescription.isBatteryReplaceable && !pump.isBatteryChangeLoggingEnabled()) {
@@ -37,9 +37,10 @@ class TriggerSensorAge(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val therapyEvent = persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.SENSOR_CHANGE)
+        val snapshot = evaluationContext.current()
+        val therapyEvent = snapshot.lastTherapyEvent(TE.Type.SENSOR_CHANGE)
         val currentAgeHours = therapyEvent?.timestamp?.let { timestamp ->
-            (dateUtil.now() - timestamp) / (60 * 60 * 1000.0)
+            (snapshot.now - timestamp) / (60 * 60 * 1000.0)
         } ?: 0.0
         if (therapyEvent == null && comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
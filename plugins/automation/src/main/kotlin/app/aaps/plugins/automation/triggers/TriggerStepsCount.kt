@@ -28,11 +28,7 @@ class TriggerStepsCount(injector: HasAndroidInjector) : Trigger(injector) {
             return true
         }
 
-        
-        // Steps count entries update every 1-1.5 minutes on my watch,
-        // so we must get some entries from the last 5 minutes.
-        val start = dateUtil.now() - 5 * 60 * 1000L
-        val measurements = persistenceLayer.getStepsCountFromTime(start)
+        val measurements = evaluationContext.current().stepsCounts
         val lastSC = measurements.lastOrNull { it.duration == measurementDuration.value.toInt() * 60 * 1000L }
         if (lastSC == null) {
             aapsLogger.info(LTag.AUTOMATION, "No steps count measurements available - ${friendlyDescription()}")
@@ -29,7 +29,7 @@ class TriggerTempTarget(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val tt = persistenceLayer.getTemporaryTargetActiveAt(dateUtil.now())
+        val tt = evaluationContext.current().temporaryTarget
         if (tt == null && comparator.value == ComparatorExists.Compare.NOT_EXISTS) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
             return true
@@ -46,7 +46,7 @@ class TriggerTempTargetValue(injector: HasAndroidInjector) : Trigger(injector) {
     }
 
     override fun shouldRun(): Boolean {
-        val tt = persistenceLayer.getTemporaryTargetActiveAt(dateUtil.now())
+        val tt = evaluationContext.current().temporaryTarget
         if (tt == null && comparator.value == Comparator.Compare.IS_NOT_AVAILABLE) {
             aapsLogger.debug(LTag.AUTOMATION, "Ready for execution: " + friendlyDescription())
             return true
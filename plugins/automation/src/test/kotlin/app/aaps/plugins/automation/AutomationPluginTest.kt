@@ -5,6 +5,7 @@ import app.aaps.core.interfaces.constraints.ConstraintsChecker
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.validators.preferences.AdaptiveListPreference
 import app.aaps.plugins.automation.services.LocationServiceHelper
+import app.aaps.plugins.automation.triggers.TriggerEvaluationContext
 import app.aaps.plugins.automation.ui.TimerUtil
 import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
@@ -16,6 +17,7 @@ class AutomationPluginTest : TestBaseWithProfile() {
 
     @Mock lateinit var constraintChecker: ConstraintsChecker
     @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var evaluationContext: TriggerEvaluationContext
     @Mock lateinit var loop: Loop
     @Mock lateinit var locationServiceHelper: LocationServiceHelper
     @Mock lateinit var timerUtil: TimerUtil
@@ -32,7 +34,7 @@ class AutomationPluginTest : TestBaseWithProfile() {
     @BeforeEach fun prepare() {
         automationPlugin = AutomationPlugin(
             injector, aapsLogger, rh, preferences, context, fabricPrivacy, loop, rxBus, constraintChecker,
-            aapsSchedulers, config, locationServiceHelper, dateUtil, activePlugin, timerUtil
+            aapsSchedulers, config, locationServiceHelper, dateUtil, activePlugin, timerUtil, evaluationContext
         )
     }
 
@@ -13,6 +13,7 @@ import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.plugins.automation.services.LocationServiceHelper
 import app.aaps.plugins.automation.triggers.Trigger
+import app.aaps.plugins.automation.triggers.TriggerEvaluationContext
 import app.aaps.plugins.automation.ui.TimerUtil
 import app.aaps.shared.impl.utils.DateUtilImpl
 import app.aaps.shared.tests.TestBase
@@ -30,6 +31,7 @@ class BolusTimerImplTest : TestBase() {
     @Mock lateinit var rh: ResourceHelper
     @Mock lateinit var context: Context
     @Mock lateinit var fabricPrivacy: FabricPrivacy
+    @Mock lateinit var evaluationContext: TriggerEvaluationContext
     @Mock lateinit var loop: Loop
     @Mock lateinit var constraintChecker: ConstraintsChecker
     @Mock lateinit var config: Config
@@ -57,7 +59,7 @@ class BolusTimerImplTest : TestBase() {
         dateUtil = DateUtilImpl(context)
         automationPlugin = AutomationPlugin(
             injector, aapsLogger, rh, preferences, context, fabricPrivacy, loop, rxBus, constraintChecker, aapsSchedulers, config, locationServiceHelper, dateUtil,
-            activePlugin, timerUtil
+            activePlugin, timerUtil, evaluationContext
         )
     }
 
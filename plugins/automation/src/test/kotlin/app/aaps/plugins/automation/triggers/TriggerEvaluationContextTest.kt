@@ -0,0 +1,102 @@
+package app.aaps.plugins.automation.triggers
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.RM
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.plugins.automation.elements.Comparator
+import app.aaps.plugins.automation.elements.ComparatorExists
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class TriggerEvaluationContextTest : TriggerTestBase() {
+
+    @BeforeEach
+    fun prepare() {
+        whenever(profileFunction.getUnits()).thenReturn(GlucoseUnit.MGDL)
+        whenever(profileFunction.getProfile()).thenReturn(validProfile)
+        whenever(autosensDataStore.getBucketedDataTableCopy()).thenReturn(mutableListOf(InMemoryGlucoseValue(value = 214.0, timestamp = now - 1, trendArrow = TrendArrow.FLAT, sourceSensor = SourceSensor.UNKNOWN)))
+        whenever(iobCobCalculator.calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())).thenReturn(IobTotal(now).also { it.iob = 1.0 })
+        whenever(loop.runningMode).thenReturn(RM.Mode.CLOSED_LOOP)
+    }
+
+    private fun triggers(): List<Trigger> = listOf(
+        TriggerBg(injector).setUnits(GlucoseUnit.MGDL).setValue(214.0).comparator(Comparator.Compare.IS_EQUAL),
+        TriggerBg(injector).setUnits(GlucoseUnit.MGDL).setValue(100.0).comparator(Comparator.Compare.IS_GREATER),
+        TriggerIob(injector).setValue(1.0).comparator(Comparator.Compare.IS_EQUAL),
+        TriggerIob(injector).setValue(0.8).comparator(Comparator.Compare.IS_GREATER),
+        TriggerStepsCount(injector).apply { comparator.setValue(Comparator.Compare.IS_GREATER) },
+        TriggerStepsCount(injector).apply { comparator.setValue(Comparator.Compare.IS_LESSER) }
+    )
+
+    @Test
+    fun `data is loaded once per cycle`() {
+        val triggers = triggers()
+        val results = evaluationContext.evaluate { snapshot ->
+            assertThat(snapshot.runningMode).isEqualTo(RM.Mode.CLOSED_LOOP)
+            // nested evaluation shares the same snapshot
+            evaluationContext.evaluate { assertThat(it).isSameInstanceAs(snapshot) }
+            triggers.map { it.shouldRun() }
+        }
+        assertThat(results).containsExactly(true, true, true, true, false, false).inOrder()
+        verify(autosensDataStore, times(1)).getBucketedDataTableCopy()
+        verify(iobCobCalculator, times(1)).calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())
+        verify(persistenceLayer, times(1)).getStepsCountFromTime(now - TriggerEvaluationContext.STEPS_COUNT_WINDOW)
+        verify(loop, times(1)).runningMode
+    }
+
+    @Test
+    fun `database triggers share one query per cycle`() {
+        whenever(persistenceLayer.getLastTherapyRecordUpToNow(TE.Type.CANNULA_CHANGE)).thenReturn(TE(timestamp = now - T.hours(50).msecs(), type = TE.Type.CANNULA_CHANGE, glucoseUnit = GlucoseUnit.MGDL))
+        val results = evaluationContext.evaluate {
+            listOf(
+                TriggerCannulaAge(injector).apply { cannulaAgeHours.value = 48.0; comparator.value = Comparator.Compare.IS_GREATER },
+                TriggerCannulaAge(injector).apply { cannulaAgeHours.value = 72.0; comparator.value = Comparator.Compare.IS_GREATER },
+                TriggerPodChange(injector),
+                TriggerTempTarget(injector).apply { comparator.value = ComparatorExists.Compare.NOT_EXISTS },
+                TriggerTempTargetValue(injector).apply { comparator.value = Comparator.Compare.IS_NOT_AVAILABLE },
+                TriggerProfilePercent(injector).apply { pct.value = 100.0; comparator.value = Comparator.Compare.IS_EQUAL },
+                TriggerProfilePercent(injector).apply { pct.value = 110.0; comparator.value = Comparator.Compare.IS_EQUAL }
+            ).map { it.shouldRun() }
+        }
+        assertThat(results).containsExactly(true, false, false, true, true, true, false).inOrder()
+        verify(persistenceLayer, times(1)).getLastTherapyRecordUpToNow(TE.Type.CANNULA_CHANGE)
+        verify(persistenceLayer, times(1)).getLastTherapyRecordUpToNow(TE.Type.SETTINGS_EXPORT)
+        verify(persistenceLayer, times(1)).getTemporaryTargetActiveAt(now)
+        verify(profileFunction, times(1)).getProfile()
+        verify(profileFunction, times(1)).isProfileChangePending()
+    }
+
+    @Test
+    fun `refresh loads data again within cycle`() {
+        evaluationContext.evaluate { snapshot ->
+            TriggerIob(injector).setValue(1.0).comparator(Comparator.Compare.IS_EQUAL).shouldRun()
+            evaluationContext.refresh()
+            assertThat(evaluationContext.current()).isNotSameInstanceAs(snapshot)
+            TriggerIob(injector).setValue(1.0).comparator(Comparator.Compare.IS_EQUAL).shouldRun()
+            assertThat(evaluationContext.current()).isSameInstanceAs(evaluationContext.current())
+        }
+        verify(iobCobCalculator, times(2)).calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())
+        // outside of cycle nothing to refresh
+        evaluationContext.refresh()
+        assertThat(evaluationContext.current()).isNotSameInstanceAs(evaluationContext.current())
+    }
+
+    @Test
+    fun `data is loaded on every call outside of cycle`() {
+        triggers().forEach { it.shouldRun() }
+        verify(autosensDataStore, times(2)).getBucketedDataTableCopy()
+        verify(iobCobCalculator, times(2)).calculateFromTreatmentsAndTemps(anyLong(), anyOrNull())
+        assertThat(evaluationContext.current()).isNotSameInstanceAs(evaluationContext.current())
+    }
+}
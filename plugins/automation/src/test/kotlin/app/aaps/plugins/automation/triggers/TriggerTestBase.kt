@@ -1,6 +1,7 @@
 package app.aaps.plugins.automation.triggers
 
 import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.Loop
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.receivers.ReceiverStatusStore
 import app.aaps.plugins.automation.AutomationPlugin
@@ -17,6 +18,9 @@ open class TriggerTestBase : TestBaseWithProfile() {
     @Mock lateinit var automationPlugin: AutomationPlugin
     @Mock lateinit var receiverStatusStore: ReceiverStatusStore
     @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var loop: Loop
+
+    val evaluationContext by lazy { TriggerEvaluationContext(aapsLogger, smbGlucoseStatusProvider, iobCobCalculator, profileFunction, persistenceLayer, loop, dateUtil) }
 
     @BeforeEach
     fun prepareMock1() {
@@ -38,6 +42,7 @@ open class TriggerTestBase : TestBaseWithProfile() {
                 it.glucoseStatusProvider = smbGlucoseStatusProvider
                 it.dateUtil = dateUtil
                 it.profileUtil = profileUtil
+                it.evaluationContext = evaluationContext
             }
             if (it is TriggerBg) {
                 it.profileFunction = profileFunction
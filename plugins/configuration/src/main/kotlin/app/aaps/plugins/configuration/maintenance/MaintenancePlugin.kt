@@ -12,12 +12,14 @@ import app.aaps.core.data.ue.Action
 import app.aaps.core.data.ue.Sources
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.logging.LoggerUtils
 import app.aaps.core.interfaces.logging.UserEntryLogger
 import app.aaps.core.interfaces.maintenance.FileListProvider
 import app.aaps.core.interfaces.nsclient.NSSettingsStatus
 import app.aaps.core.interfaces.plugin.PluginBase
 import app.aaps.core.interfaces.plugin.PluginDescription
+import app.aaps.core.interfaces.profiling.Profiler
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.keys.BooleanKey
 import app.aaps.core.keys.IntKey
@@ -53,7 +55,8 @@ class MaintenancePlugin @Inject constructor(
     private val config: Config,
     private val fileListProvider: FileListProvider,
     private val loggerUtils: LoggerUtils,
-    private val uel: UserEntryLogger
+    private val uel: UserEntryLogger,
+    private val profiler: Profiler
 ) : PluginBase(
     PluginDescription()
         .mainType(PluginType.GENERAL)
@@ -71,7 +74,7 @@ class MaintenancePlugin @Inject constructor(
     fun sendLogs() {
         val recipient = preferences.get(StringKey.MaintenanceEmail)
         val amount = preferences.get(IntKey.MaintenanceLogsAmount)
-        val logs = getLogFiles(amount)
+        val logs = getLogFiles(amount) + listOfNotNull(exportTrace())
         val zipFile = fileListProvider.ensureTempDirExists()?.createFile("application/zip", constructName()) ?: return
         aapsLogger.debug("zipFile: ${zipFile.name}")
         val zip = zipLogs(zipFile, logs)
@@ -81,6 +84,22 @@ class MaintenancePlugin @Inject constructor(
         context.startActivity(emailIntent)
     }
 
+    /**
+     * Write recorded spans to log directory
+     *
+     * @return trace file or null if tracing is disabled
+     */
+    private fun exportTrace(): File? {
+        if (!profiler.isTracing) return null
+        profiler.statistics().forEach { aapsLogger.debug(LTag.CORE, "Profiler $it") }
+        return try {
+            File(loggerUtils.logDirectory, "AndroidAPS_trace.json").also { profiler.exportTrace(it) }
+        } catch (e: IOException) {
+            aapsLogger.error("Cannot export trace", e)
+            null
+        }
+    }
+
     fun deleteLogs(keep: Int) {
         val logDir = File(loggerUtils.logDirectory)
         val files = logDir.listFiles { _: File?, name: String ->
@@ -259,6 +278,7 @@ class MaintenancePlugin @Inject constructor(
                 )
             )
             addPreference(AdaptiveIntPreference(ctx = context, intKey = IntKey.MaintenanceLogsAmount, title = R.string.maintenance_amount))
+            addPreference(AdaptiveSwitchPreference(ctx = context, booleanKey = BooleanKey.MaintenanceProfilerTracing, title = R.string.profiler_tracing, summary = R.string.profiler_tracing_summary))
             addPreference(preferenceManager.createPreferenceScreen(context).apply {
                 key = "data_choice_setting"
                 title = rh.gs(R.string.data_choices)
@@ -61,6 +61,7 @@ import app.aaps.core.interfaces.rx.AapsSchedulers
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventAcceptOpenLoopChange
 import app.aaps.core.interfaces.rx.events.EventBucketedDataCreated
+import app.aaps.core.interfaces.rx.events.EventCalculationCompleted
 import app.aaps.core.interfaces.rx.events.EventEffectiveProfileSwitchChanged
 import app.aaps.core.interfaces.rx.events.EventExtendedBolusChange
 import app.aaps.core.interfaces.rx.events.EventInitializationChanged
@@ -74,9 +75,6 @@ import app.aaps.core.interfaces.rx.events.EventScale
 import app.aaps.core.interfaces.rx.events.EventTempBasalChange
 import app.aaps.core.interfaces.rx.events.EventTempTargetChange
 import app.aaps.core.interfaces.rx.events.EventUpdateOverviewCalcProgress
-import app.aaps.core.interfaces.rx.events.EventUpdateOverviewGraph
-import app.aaps.core.interfaces.rx.events.EventUpdateOverviewIobCob
-import app.aaps.core.interfaces.rx.events.EventUpdateOverviewSensitivity
 import app.aaps.core.interfaces.rx.events.EventWearUpdateTiles
 import app.aaps.core.interfaces.rx.weardata.EventData
 import app.aaps.core.interfaces.source.DexcomBoyda
@@ -86,6 +84,7 @@ import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.DecimalFormatter
 import app.aaps.core.interfaces.utils.TrendCalculator
 import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.keys.BooleanKey
 import app.aaps.core.keys.BooleanNonKey
 import app.aaps.core.keys.DoubleKey
@@ -274,19 +273,20 @@ class OverviewFragment : DaggerFragment(), View.OnClickListener, OnLongClickList
             .toObservable(EventUpdateOverviewCalcProgress::class.java)
             .observeOn(aapsSchedulers.main)
             .subscribe({ updateCalcProgress() }, fabricPrivacy::logException)
+        // one event per workflow run, refresh only changed parts
         disposable += activePlugin.activeOverview.overviewBus
-            .toObservable(EventUpdateOverviewIobCob::class.java)
-            .debounce(1L, TimeUnit.SECONDS)
+            .toObservable(EventCalculationCompleted::class.java)
+            .filter { it.hasChanged(CalculationWorkflow.ChangedPart.IOB_COB) }
             .observeOn(aapsSchedulers.io)
             .subscribe({ updateIobCob() }, fabricPrivacy::logException)
         disposable += activePlugin.activeOverview.overviewBus
-            .toObservable(EventUpdateOverviewSensitivity::class.java)
-            .debounce(1L, TimeUnit.SECONDS)
+            .toObservable(EventCalculationCompleted::class.java)
+            .filter { it.hasChanged(CalculationWorkflow.ChangedPart.SENSITIVITY) }
             .observeOn(aapsSchedulers.main)
             .subscribe({ updateSensitivity() }, fabricPrivacy::logException)
         disposable += activePlugin.activeOverview.overviewBus
-            .toObservable(EventUpdateOverviewGraph::class.java)
-            .debounce(1L, TimeUnit.SECONDS)
+            .toObservable(EventCalculationCompleted::class.java)
+            .filter { it.changed.isNotEmpty() }
             .observeOn(aapsSchedulers.main)
             .subscribe({ updateGraph() }, fabricPrivacy::logException)
         disposable += activePlugin.activeOverview.overviewBus
@@ -5,6 +5,7 @@ import app.aaps.core.data.aps.BasalData
 import app.aaps.core.data.configuration.Constants
 import app.aaps.core.data.iob.CobInfo
 import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
 import app.aaps.core.data.model.TB
 import app.aaps.core.data.plugin.PluginType
 import app.aaps.core.data.time.T
@@ -187,6 +188,7 @@ class IobCobCalculatorPlugin @Inject constructor(
         calculationWorkflow.stopCalculation(CalculationWorkflow.MAIN_CALCULATION, reason)
         clearCache()
         ads.reset()
+        calculationWorkflow.invalidateGraphData(CalculationWorkflow.MAIN_CALCULATION, 0)
         calculationWorkflow.runCalculation(
             job = CalculationWorkflow.MAIN_CALCULATION,
             iobCobCalculator = this,
@@ -234,16 +236,26 @@ class IobCobCalculatorPlugin @Inject constructor(
         return getBGDataFrom
     }
 
-    override fun calculateFromTreatmentsAndTemps(toTime: Long, profile: Profile): IobTotal {
+    override fun calculateFromTreatmentsAndTemps(toTime: Long, profile: Profile): IobTotal =
+        calculateFromTreatmentsAndTemps(ads.roundUpTime(toTime), profile, null)
+
+    override fun calculateFromTreatmentsAndTemps(toTimes: LongArray, profiles: Array<Profile>): Array<IobTotal> {
+        require(toTimes.size == profiles.size)
+        if (toTimes.isEmpty()) return emptyArray()
+        val times = LongArray(toTimes.size) { ads.roundUpTime(toTimes[it]) }
+        val history = TreatmentsHistory(persistenceLayer, times.min() - range(), times.max())
+        return Array(times.size) { calculateFromTreatmentsAndTemps(times[it], profiles[it], history) }
+    }
+
+    private fun calculateFromTreatmentsAndTemps(time: Long, profile: Profile, history: TreatmentsHistory?): IobTotal {
         val now = System.currentTimeMillis()
-        val time = ads.roundUpTime(toTime)
         val cacheHit = iobTable[time]
         if (time < now && cacheHit != null) {
             //og.debug(">>> calculateFromTreatmentsAndTemps Cache hit " + new Date(time).toLocaleString());
             return cacheHit
         } // else log.debug(">>> calculateFromTreatmentsAndTemps Cache miss " + new Date(time).toLocaleString());
-        val bolusIob = calculateIobFromBolusToTime(time).round()
-        val basalIob = calculateIobToTimeFromTempBasalsIncludingConvertedExtended(time).round()
+        val bolusIob = calculateIobFromBolusToTime(time, history).round()
+        val basalIob = calculateIobToTimeFromTempBasalsIncludingConvertedExtended(time, history).round()
         // OpenAPSSMB only
         // Add expected zero temp basal for next 240 minutes
         val basalIobWithZeroTemp = basalIob.copy()
@@ -486,6 +498,7 @@ class IobCobCalculatorPlugin @Inject constructor(
             }
             ads.newHistoryData(time, aapsLogger, dateUtil)
         }
+        calculationWorkflow.invalidateGraphData(CalculationWorkflow.MAIN_CALCULATION, time)
         calculationWorkflow.runCalculation(
             job = CalculationWorkflow.MAIN_CALCULATION,
             iobCobCalculator = this,
@@ -513,16 +526,17 @@ class IobCobCalculatorPlugin @Inject constructor(
      *  and are calculated towards temporary basals
      *
      * @param toTime timestamp in milliseconds
+     * @param history preloaded treatments of batch calculation, database is queried if null
      * @return calculated iob
      */
-    private fun calculateIobFromBolusToTime(toTime: Long): IobTotal {
+    private fun calculateIobFromBolusToTime(toTime: Long, history: TreatmentsHistory? = null): IobTotal {
         val total = IobTotal(toTime)
         val profile = profileFunction.getProfile() ?: return total
         val dia = profile.dia
         val divisor = preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor)
         assert(divisor > 0)
 
-        val boluses = persistenceLayer.getBolusesFromTime(toTime - range(), true).blockingGet()
+        val boluses = history?.boluses(toTime - range()) ?: persistenceLayer.getBolusesFromTime(toTime - range(), true).blockingGet()
 
         boluses.forEach { t ->
             if (t.isValid && t.timestamp < toTime) {
@@ -541,24 +555,19 @@ class IobCobCalculatorPlugin @Inject constructor(
             }
         }
 
-        total.plus(calculateIobToTimeFromExtendedBoluses(toTime))
+        total.plus(calculateIobToTimeFromExtendedBoluses(toTime, history))
         return total
     }
 
-    private fun calculateIobToTimeFromExtendedBoluses(toTime: Long): IobTotal {
+    private fun calculateIobToTimeFromExtendedBoluses(toTime: Long, history: TreatmentsHistory?): IobTotal {
         val total = IobTotal(toTime)
         val now = dateUtil.now()
         val pumpInterface = activePlugin.activePump
         if (!pumpInterface.isFakingTempsByExtendedBoluses) {
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = history?.extendedBoluses(toTime - range(), toTime) ?: persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
             for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
+                val e = extendedBoluses[pos].cutAt(now)
                 if (e.timestamp > toTime) continue
-                if (e.end > now) {
-                    val newDuration = now - e.timestamp
-                    e.amount *= newDuration.toDouble() / e.duration
-                    e.duration = newDuration
-                }
                 val profile = profileFunction.getProfile(e.timestamp) ?: return total
                 val calc = e.iobCalc(toTime, profile, activePlugin.activeInsulin)
                 total.plus(calc)
@@ -594,33 +603,30 @@ class IobCobCalculatorPlugin @Inject constructor(
     override fun calculateIobFromTempBasalsIncludingConvertedExtended(): IobTotal =
         calculateIobToTimeFromTempBasalsIncludingConvertedExtended(dateUtil.now())
 
-    override fun calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime: Long): IobTotal {
+    override fun calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime: Long): IobTotal =
+        calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime, null)
+
+    private fun calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime: Long, history: TreatmentsHistory?): IobTotal {
         val total = IobTotal(toTime)
         val now = dateUtil.now()
         val pumpInterface = activePlugin.activePump
 
-        val temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime, true)
+        val temporaryBasals = history?.temporaryBasals(toTime - range(), toTime) ?: persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime, true)
         for (pos in temporaryBasals.indices) {
-            val t = temporaryBasals[pos]
+            val t = temporaryBasals[pos].cutAt(now)
             if (t.timestamp > toTime) continue
             val profile = profileFunction.getProfile(t.timestamp) ?: continue
-            if (t.end > now) t.duration = now - t.timestamp
             val calc = t.iobCalc(toTime, profile, activePlugin.activeInsulin)
             //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basalIob);
             total.plus(calc)
         }
         if (pumpInterface.isFakingTempsByExtendedBoluses) {
             val totalExt = IobTotal(toTime)
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = history?.extendedBoluses(toTime - range(), toTime) ?: persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
             for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
+                val e = extendedBoluses[pos].cutAt(now)
                 if (e.timestamp > toTime) continue
                 val profile = profileFunction.getProfile(e.timestamp) ?: continue
-                if (e.end > now) {
-                    val newDuration = now - e.timestamp
-                    e.amount *= newDuration.toDouble() / e.duration
-                    e.duration = newDuration
-                }
                 val calc = e.iobCalc(toTime, profile, activePlugin.activeInsulin)
                 totalExt.plus(calc)
             }
@@ -672,4 +678,33 @@ class IobCobCalculatorPlugin @Inject constructor(
         }
         return total
     }
-}
\ No newline at end of file
+
+    // Running treatments are calculated up to now. Treatments of batch history are shared by calculated times, thus not modified in place
+    private fun TB.cutAt(now: Long): TB = if (end > now) copy().also { it.duration = now - timestamp } else this
+
+    private fun EB.cutAt(now: Long): EB =
+        if (end > now) copy().also {
+            val newDuration = now - timestamp
+            it.amount *= newDuration.toDouble() / duration
+            it.duration = newDuration
+        } else this
+
+    /**
+     * Treatments of batch calculation read by one query per type
+     * Slices contain the same records in the same order as per-time queries
+     *
+     * @param from start of oldest calculated interval
+     * @param to newest calculated time
+     */
+    private class TreatmentsHistory(persistenceLayer: PersistenceLayer, from: Long, to: Long) {
+
+        // loaded on first cache miss only
+        private val boluses by lazy { persistenceLayer.getBolusesFromTime(from, true).blockingGet() }
+        private val temporaryBasals by lazy { persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(from, to, true) }
+        private val extendedBoluses by lazy { persistenceLayer.getExtendedBolusesStartingFromTimeToTime(from, to, true) }
+
+        fun boluses(from: Long): List<BS> = boluses.filter { it.timestamp >= from }
+        fun temporaryBasals(from: Long, to: Long): List<TB> = temporaryBasals.filter { it.timestamp in from..to }
+        fun extendedBoluses(from: Long, to: Long): List<EB> = extendedBoluses.filter { it.timestamp in from..to }
+    }
+}
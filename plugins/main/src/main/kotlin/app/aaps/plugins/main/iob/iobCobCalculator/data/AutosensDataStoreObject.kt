@@ -7,6 +7,7 @@ import app.aaps.core.data.model.GV
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensData
 import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.BucketedDataSnapshot
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.utils.DateUtil
@@ -38,9 +39,15 @@ class AutosensDataStoreObject : AutosensDataStore {
         @Synchronized get
 
     override var bucketedData: MutableList<InMemoryGlucoseValue>? = null
-        @Synchronized set
+        @Synchronized set(value) {
+            field = value
+            bucketedDataSnapshot = null
+        }
         @Synchronized get
 
+    // valid until bucketedData is replaced, guarded by this
+    private var bucketedDataSnapshot: BucketedDataSnapshot? = null
+
     override fun clone(): AutosensDataStore =
         AutosensDataStoreObject().also {
             synchronized(dataLock) {
@@ -51,6 +58,13 @@ class AutosensDataStoreObject : AutosensDataStore {
         }
 
     override fun getBucketedDataTableCopy(): MutableList<InMemoryGlucoseValue>? = synchronized(dataLock) { bucketedData?.toMutableList() }
+    override fun getBucketedDataSnapshot(): BucketedDataSnapshot? =
+        synchronized(dataLock) {
+            synchronized(this) {
+                bucketedDataSnapshot ?: bucketedData?.let { BucketedDataSnapshot(it.toList()) }?.also { bucketedDataSnapshot = it }
+            }
+        }
+
     override fun getBgReadingsDataTableCopy(): List<GV> = synchronized(dataLock) { bgReadings.toMutableList() }
 
     override fun reset() {
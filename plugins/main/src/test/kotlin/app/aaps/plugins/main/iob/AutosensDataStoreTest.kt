@@ -1514,6 +1514,25 @@ class AutosensDataStoreTest : TestBaseWithProfile() {
         assertThat(glucoseStatus.longAvgDelta).isWithin(0.01).of(1.67)
     }
 
+    @Test
+    fun bucketedDataSnapshotIsSharedUntilDataIsReplaced() {
+        val list = mutableListOf<GV>()
+        for (i in 0..10) list.add(GV(timestamp = now - T.mins(5L * i).msecs(), value = 100.0 + i, raw = 0.0, trendArrow = TrendArrow.NONE, noise = 0.0, sourceSensor = SourceSensor.UNKNOWN))
+        autosensDataStore.bgReadings = list
+        autosensDataStore.createBucketedData(aapsLogger, dateUtil)
+        val snapshot = autosensDataStore.getBucketedDataSnapshot()!!
+        assertThat(autosensDataStore.getBucketedDataSnapshot()).isSameInstanceAs(snapshot)
+        assertThat(snapshot.data.map { it.timestamp }).isEqualTo(autosensDataStore.bucketedData!!.map { it.timestamp })
+        val glucoseStatus = glucoseStatusCalculatorSMB.glucoseStatusData
+        assertThat(glucoseStatusCalculatorSMB.glucoseStatusData).isSameInstanceAs(glucoseStatus)
+
+        autosensDataStore.createBucketedData(aapsLogger, dateUtil)
+        assertThat(autosensDataStore.getBucketedDataSnapshot()).isNotSameInstanceAs(snapshot)
+        assertThat(glucoseStatusCalculatorSMB.glucoseStatusData).isEqualTo(glucoseStatus)
+        autosensDataStore.bucketedData = null
+        assertThat(autosensDataStore.getBucketedDataSnapshot()).isNull()
+    }
+
     @Test
     fun getLastAutosensDataTest() {
         val ads = AutosensDataStoreObject()
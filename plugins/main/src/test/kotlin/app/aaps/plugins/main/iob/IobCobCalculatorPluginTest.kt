@@ -0,0 +1,119 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.core.keys.DoubleKey
+import app.aaps.plugins.insulin.InsulinLyumjevPlugin
+import app.aaps.plugins.main.iob.iobCobCalculator.IobCobCalculatorPlugin
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.rxjava3.core.Single
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import kotlin.random.Random
+
+class IobCobCalculatorPluginTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var overviewData: OverviewData
+    @Mock lateinit var calculationWorkflow: CalculationWorkflow
+    @Mock lateinit var uiInteraction: UiInteraction
+
+    private val step = T.mins(5).msecs()
+
+    // 48 hours of buckets ending at now
+    private val bucketTimes = LongArray(576) { now - (575 - it) * step }
+
+    private val boluses = ArrayList<BS>()
+    private val temporaryBasals = ArrayList<TB>()
+    private val extendedBoluses = ArrayList<EB>()
+
+    @BeforeEach
+    fun setup() {
+        val random = Random(1)
+        val start = bucketTimes[0] - T.hours(6).msecs()
+        var time = start
+        while (time < now) {
+            // SMB every 15 min, 30 min TBR, running TBR at the end
+            if ((time - start) % (3 * step) == 0L) boluses.add(BS(timestamp = time + 10_000, amount = random.nextDouble(0.0, 0.5), type = BS.Type.SMB, isValid = random.nextInt(10) != 0))
+            if ((time - start) % (6 * step) == 0L)
+                temporaryBasals.add(TB(timestamp = time + 20_000, rate = random.nextDouble(0.0, 3.0), isAbsolute = true, duration = T.mins(30).msecs(), type = TB.Type.NORMAL))
+            time += step
+        }
+        // meal boluses and extended boluses entered later (higher id) with older timestamps
+        for (hour in listOf(2L, 8L, 13L, 20L, 26L, 32L, 37L, 44L))
+            boluses.add(BS(timestamp = bucketTimes[0] + T.hours(hour).msecs() + 30_000, amount = random.nextDouble(2.0, 8.0), type = BS.Type.NORMAL))
+        for (hour in listOf(14L, 38L))
+            extendedBoluses.add(EB(timestamp = bucketTimes[0] + T.hours(hour).msecs(), duration = T.hours(2).msecs(), amount = 2.0))
+        extendedBoluses.add(EB(timestamp = now - T.mins(40).msecs(), duration = T.hours(2).msecs(), amount = 1.0))
+
+        whenever(activePlugin.activeInsulin).thenReturn(InsulinLyumjevPlugin(rh, profileFunction, rxBus, aapsLogger, config, hardLimits, uiInteraction))
+        whenever(profileFunction.getProfile()).thenReturn(validProfile)
+        whenever(profileFunction.getProfile(any())).thenReturn(validProfile)
+        whenever(preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).thenReturn(2.0)
+        // database returns new instances ordered as queries
+        whenever(persistenceLayer.getBolusesFromTime(any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            Single.just(boluses.filter { it.timestamp >= from }.map { it.copy() })
+        }
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(any(), any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            val to = invocation.getArgument<Long>(1)
+            temporaryBasals.filter { it.timestamp in from..to }.map { it.copy() }
+        }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            val to = invocation.getArgument<Long>(1)
+            extendedBoluses.filter { it.timestamp in from..to }.map { it.copy() }
+        }
+    }
+
+    private fun plugin() =
+        IobCobCalculatorPlugin(
+            aapsLogger, aapsSchedulers, rxBus, preferences, rh, profileFunction, activePlugin, fabricPrivacy, dateUtil,
+            persistenceLayer, overviewData, calculationWorkflow, decimalFormatter, processedTbrEbData
+        )
+
+    private fun IobTotal.fields() = listOf(iob, activity, bolussnooze, basaliob, netbasalinsulin, hightempinsulin, extendedBolusInsulin, lastBolusTime, iobWithZeroTemp?.iob)
+
+    @Test
+    fun `batch calculation equals per-time calculation with one read`() {
+        val single = bucketTimes.map { plugin().calculateFromTreatmentsAndTemps(it, validProfile) }
+        val batch = plugin().calculateFromTreatmentsAndTemps(bucketTimes, Array<Profile>(bucketTimes.size) { validProfile })
+
+        assertThat(batch.size).isEqualTo(bucketTimes.size)
+        for (i in bucketTimes.indices) {
+            assertThat(batch[i].time).isEqualTo(single[i].time)
+            assertThat(batch[i].fields()).isEqualTo(single[i].fields())
+        }
+        assertThat(batch.last().basaliob).isNotEqualTo(0.0)
+        // single calls read once per time, batch once in total
+        verify(persistenceLayer, times(bucketTimes.size + 1)).getBolusesFromTime(any(), any())
+        verify(persistenceLayer, times(bucketTimes.size + 1)).getTemporaryBasalsStartingFromTimeToTime(any(), any(), any())
+        // running treatments are not modified
+        assertThat(temporaryBasals.last().duration).isEqualTo(T.mins(30).msecs())
+        assertThat(extendedBoluses.last().amount).isEqualTo(1.0)
+    }
+
+    @Test
+    fun `cached times are not read`() {
+        val plugin = plugin()
+        bucketTimes.forEach { plugin.calculateFromTreatmentsAndTemps(it, validProfile) }
+        plugin.calculateFromTreatmentsAndTemps(bucketTimes, Array<Profile>(bucketTimes.size) { validProfile })
+        verify(persistenceLayer, times(bucketTimes.size)).getBolusesFromTime(any(), any())
+    }
+}
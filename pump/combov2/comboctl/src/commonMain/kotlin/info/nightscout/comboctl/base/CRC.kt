@@ -2,6 +2,18 @@
 
 package info.nightscout.comboctl.base
 
+// Lookup table with the CRC-16-MCRF4XX checksum of every possible byte value.
+// CRC-16-MCRF4XX is the reflected CCITT variant (polynomial 0x8408), so one
+// byte can be processed with a single table lookup instead of the bit shuffling
+// the original implementation (see calculateCRC16MCRF4XXBitwise) does.
+private val crc16MCRF4XXTable = IntArray(256) { index ->
+    var crc = index
+    repeat(8) {
+        crc = if ((crc and 0x0001) != 0) (crc ushr 1) xor 0x8408 else (crc ushr 1)
+    }
+    crc
+}
+
 /**
  * Computes the CRC-16-MCRF4XX checksum out of the given data.
  *
@@ -16,6 +28,48 @@ package info.nightscout.comboctl.base
  * @return The computed checksum.
  */
 fun calculateCRC16MCRF4XX(data: List<Byte>, currentChecksum: Int = 0xFFFF): Int {
+    var newChecksum = currentChecksum
+
+    for (dataByte in data)
+        newChecksum = (newChecksum ushr 8) xor crc16MCRF4XXTable[(newChecksum xor dataByte.toPosInt()) and 0xFF]
+
+    return newChecksum
+}
+
+/**
+ * Computes the CRC-16-MCRF4XX checksum out of a range of the given byte array.
+ *
+ * This is the allocation free variant of the [List] based overload above,
+ * meant for data that is already present in a primitive buffer.
+ *
+ * @param data Array with the data to compute the checksum out of.
+ * @param offset Offset of the first byte in the array to include.
+ * @param length Number of bytes to include.
+ * @param currentChecksum Current checksum, or 0xFFFF as initial seed.
+ * @return The computed checksum.
+ */
+fun calculateCRC16MCRF4XX(
+    data: ByteArray,
+    offset: Int = 0,
+    length: Int = data.size - offset,
+    currentChecksum: Int = 0xFFFF
+): Int {
+    require((offset >= 0) && (length >= 0) && (offset + length <= data.size))
+
+    var newChecksum = currentChecksum
+
+    for (i in offset until (offset + length))
+        newChecksum = (newChecksum ushr 8) xor crc16MCRF4XXTable[(newChecksum xor data[i].toInt()) and 0xFF]
+
+    return newChecksum
+}
+
+/**
+ * Bitwise reference implementation of [calculateCRC16MCRF4XX].
+ *
+ * Kept for verifying the table driven variants in tests.
+ */
+internal fun calculateCRC16MCRF4XXBitwise(data: List<Byte>, currentChecksum: Int = 0xFFFF): Int {
     // Original implementation from https://gist.github.com/aurelj/270bb8af82f65fa645c1#gistcomment-2884584
 
     if (data.isEmpty())
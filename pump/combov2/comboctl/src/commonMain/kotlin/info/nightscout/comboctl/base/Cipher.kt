@@ -47,6 +47,40 @@ class Cipher(val key: ByteArray) {
         return Twofish.blockDecrypt(ciphertext, 0, keyObject)
     }
 
+    /**
+     * Encrypts a 128-bit block of cleartext into a caller provided buffer.
+     *
+     * Unlike [encrypt], this does not allocate anything. Input and output
+     * may refer to the same block, which encrypts that block in place.
+     *
+     * @param input Array containing 16 bytes (128 bits) of cleartext at inputOffset.
+     * @param inputOffset Offset of the cleartext block in the input array.
+     * @param output Array to write the 16 bytes of ciphertext to.
+     * @param outputOffset Offset in the output array to write the ciphertext to.
+     */
+    fun encrypt(input: ByteArray, inputOffset: Int, output: ByteArray, outputOffset: Int) {
+        require((inputOffset + CIPHER_BLOCK_SIZE) <= input.size)
+        require((outputOffset + CIPHER_BLOCK_SIZE) <= output.size)
+        Twofish.blockEncrypt(input, inputOffset, output, outputOffset, keyObject)
+    }
+
+    /**
+     * Decrypts a 128-bit block of ciphertext into a caller provided buffer.
+     *
+     * Unlike [decrypt], this does not allocate anything. Input and output
+     * may refer to the same block, which decrypts that block in place.
+     *
+     * @param input Array containing 16 bytes (128 bits) of ciphertext at inputOffset.
+     * @param inputOffset Offset of the ciphertext block in the input array.
+     * @param output Array to write the 16 bytes of cleartext to.
+     * @param outputOffset Offset in the output array to write the cleartext to.
+     */
+    fun decrypt(input: ByteArray, inputOffset: Int, output: ByteArray, outputOffset: Int) {
+        require((inputOffset + CIPHER_BLOCK_SIZE) <= input.size)
+        require((outputOffset + CIPHER_BLOCK_SIZE) <= output.size)
+        Twofish.blockDecrypt(input, inputOffset, output, outputOffset, keyObject)
+    }
+
     override fun toString() = key.toHexString(" ")
 }
 
@@ -41,10 +41,11 @@ class ComboFrameParser {
      * This readies the parser for an entirely new transmission.
      */
     fun reset() {
-        accumulationBuffer.clear()
+        accumulationStart = 0
+        accumulationEnd = 0
         currentReadOffset = 0
         frameStarted = false
-        frameStartOffset = 0
+        framePayloadSize = 0
     }
 
     /**
@@ -58,7 +59,24 @@ class ComboFrameParser {
      * @param data Data to push into the parser.
      */
     fun pushData(data: List<Byte>) {
-        accumulationBuffer.addAll(data)
+        reserveAccumulationSpace(data.size)
+        for (dataByte in data)
+            accumulationBuffer[accumulationEnd++] = dataByte
+    }
+
+    /**
+     * Pushes a range of a byte array into the parser's accumulation buffer.
+     *
+     * Same as the [List] based overload, but the bytes are copied in one block.
+     *
+     * @param data Array with the data to push into the parser.
+     * @param offset Offset of the first byte in the array to push.
+     * @param length Number of bytes to push.
+     */
+    fun pushData(data: ByteArray, offset: Int = 0, length: Int = data.size - offset) {
+        reserveAccumulationSpace(length)
+        data.copyInto(accumulationBuffer, accumulationEnd, offset, offset + length)
+        accumulationEnd += length
     }
 
     /**
@@ -79,60 +97,64 @@ class ComboFrameParser {
      *         currently found.
      * @throws FrameParseException in case of invalid data.
      */
-    fun parseFrame(): List<Byte>? {
-        // The part that begins at currentReadOffset is not yet parsed.
-        // Look through it to see if a frame delimiter can be found.
-        while (currentReadOffset < accumulationBuffer.size) {
-            // Get the next byte. We use readNextFrameByte() here to handle
-            // escaped bytes.
-            val currentByteInfo = readNextFrameByte(currentReadOffset)
-
-            // Get the current byte. It is set to null when readNextFrameByte()
-            // finds an escape byte, but there's currently no more data after
-            // that byte. See readNextFrameByte() for more about this.
-            val currentByte: Byte = currentByteInfo.first ?: return null
-            val currentByteWasEscaped = currentByteInfo.third
+    fun parseFrame(): List<Byte>? = parseFrameBytes()?.asList()
 
-            val oldReadOffset = currentReadOffset
-            currentReadOffset = currentByteInfo.second
+    /**
+     * Variant of [parseFrame] that returns the payload as a primitive byte array.
+     */
+    fun parseFrameBytes(): ByteArray? {
+        // The part that begins at currentReadOffset is not yet parsed.
+        // Payload bytes are un-escaped into framePayloadBuffer as they
+        // are parsed, so every byte is looked at only once, even if
+        // a frame arrives in many small pieces.
+        while (currentReadOffset < accumulationEnd) {
+            val currentByte = accumulationBuffer[currentReadOffset]
 
             if (frameStarted) {
                 // The start of a frame was previously detected. Continue
                 // to parse data until either the end of the current accumulated
                 // data is reached or a frame delimiter byte is found.
 
-                if (currentByte == FRAME_DELIMITER) {
-                    // Found a frame delimiter byte. If it wasn't present as
-                    // an escaped byte, it means it actually does delimit
-                    // the end of the current frame. if so, extract its payload.
+                when (currentByte) {
+                    FRAME_DELIMITER -> {
+                        // Found a non-escaped frame delimiter byte. It
+                        // delimits the end of the current frame.
+                        val framePayload = framePayloadBuffer.copyOf(framePayloadSize)
 
-                    if (currentByteWasEscaped) {
-                        // In this case, the byte was escaped, so it is part
-                        // of the payload, and not the end of the current frame.
-                        continue
-                    }
+                        // After extracting the frame, drop its data from the
+                        // accumulation buffer. The remainder is kept around,
+                        // since it may be the start of a new frame.
+                        currentReadOffset++
+                        accumulationStart = currentReadOffset
+                        frameStarted = false
+                        framePayloadSize = 0
 
-                    // Extract the frame's payload, un-escaping any escaped
-                    // bytes inside (done by the readNextFrameByte() call).
-                    val framePayload = ArrayList<Byte>()
-                    val frameEndOffset = currentReadOffset - 1
-                    var frameReadOffset = frameStartOffset
-                    while (frameReadOffset < frameEndOffset) {
-                        val nextByteInfo = readNextFrameByte(frameReadOffset)
-                        frameReadOffset = nextByteInfo.second
-                        framePayload.add(nextByteInfo.first!!)
+                        return framePayload
                     }
 
-                    // After extracting the frame, remove its data from the
-                    // accumulation buffer and keep track of what data is left
-                    // in there. We need to keep that remainder around, since
-                    // it may be the start of a new frame.
-                    accumulationBuffer.subList(0, currentReadOffset).clear()
+                    ESCAPE_BYTE     -> {
+                        // We found an escape byte. We need the next byte to see what
+                        // particular byte was escaped by it. If it is not here yet,
+                        // wait for more data; the escape byte is parsed again then.
+                        if (currentReadOffset == (accumulationEnd - 1))
+                            return null
 
-                    frameStarted = false
-                    currentReadOffset = 0
+                        val unescapedByte = when (accumulationBuffer[currentReadOffset + 1]) {
+                            ESCAPED_FRAME_DELIMITER -> FRAME_DELIMITER
+                            ESCAPED_ESCAPE_BYTE     -> ESCAPE_BYTE
+                            else                    -> throw FrameParseException(
+                                "Found escape byte, but followup byte ${accumulationBuffer[currentReadOffset + 1].toHexString(2)} " +
+                                    "is not a valid combination (surrounding context: ${accumulationContext(currentReadOffset + 1)})"
+                            )
+                        }
+                        appendPayloadByte(unescapedByte)
+                        currentReadOffset += 2
+                    }
 
-                    return framePayload
+                    else            -> {
+                        appendPayloadByte(currentByte)
+                        currentReadOffset++
+                    }
                 }
             } else {
                 // No frame start was detected so far. Combo transmissions
@@ -145,12 +167,12 @@ class ComboFrameParser {
 
                 if (currentByte == FRAME_DELIMITER) {
                     frameStarted = true
-                    frameStartOffset = currentReadOffset
-                    continue
+                    framePayloadSize = 0
+                    currentReadOffset++
                 } else {
                     throw FrameParseException(
                         "Found non-delimiter byte ${currentByte.toHexString(2)} " +
-                        "outside of frames (surrounding context: ${accumulationBuffer.toHexStringWithContext(oldReadOffset)})"
+                            "outside of frames (surrounding context: ${accumulationContext(currentReadOffset)})"
                     )
                 }
             }
@@ -159,62 +181,48 @@ class ComboFrameParser {
         return null
     }
 
-    private fun readNextFrameByte(readOffset: Int): Triple<Byte?, Int, Boolean> {
-        // The code here reads bytes from the accumulation buffer. If the
-        // start of a frame was detected, it also handles un-escaping
-        // escaped bytes (see the explanation at the top of this source).
-        // It returns a triple of the parsed byte, the updated read offset,
-        // and a boolean that is true if the read byte was present in escaped
-        // escaped form in the accumulated data. The latter is important to
-        // be able to distinguish actual frame delimiters and escape bytes
-        // from payload bytes that happen to have the same value as these
-        // special bytes. In case no byte could be parsed, null is returned.
-
-        // We can't read anything, since there is no data that can be parsed.
-        // Return null as byte value to indicate to the caller that we need
-        // to accumulate more data.
-        if (readOffset >= accumulationBuffer.size)
-            return Triple(null, readOffset, false)
-
-        val curByte = accumulationBuffer[readOffset]
-
-        // If we are outside of a frame, just return the current byte directly.
-        // Outside of a frame, only frame delimiter bytes should exist anyway.
-        if (!frameStarted)
-            return Triple(curByte, readOffset + 1, false)
+    private fun appendPayloadByte(payloadByte: Byte) {
+        if (framePayloadSize == framePayloadBuffer.size)
+            framePayloadBuffer = framePayloadBuffer.copyOf(framePayloadBuffer.size * 2)
+        framePayloadBuffer[framePayloadSize++] = payloadByte
+    }
 
-        return if (curByte == ESCAPE_BYTE) {
-            // We found an escape byte. We need the next byte to see what
-            // particular byte was escaped by it.
+    // Makes room for numBytes at the end of the accumulation buffer. Data that
+    // was already consumed is dropped by moving the unconsumed remainder to the
+    // beginning of the buffer; the buffer is only enlarged if that is not enough.
+    private fun reserveAccumulationSpace(numBytes: Int) {
+        if (accumulationStart > 0) {
+            accumulationBuffer.copyInto(accumulationBuffer, 0, accumulationStart, accumulationEnd)
+            accumulationEnd -= accumulationStart
+            currentReadOffset -= accumulationStart
+            accumulationStart = 0
+        }
 
-            if (readOffset == (accumulationBuffer.size - 1)) {
-                // Can't determine the output yet since we need 2 bytes to determine
-                // what the output should be, and currently we only have one byte;
-                // the escape byte. Return null as byte value to indicate to the
-                // caller that we need to accumulate more data.
-                Triple(null, readOffset, false)
-            } else {
-                when (accumulationBuffer[readOffset + 1]) {
-                    ESCAPED_FRAME_DELIMITER -> Triple(FRAME_DELIMITER, readOffset + 2, true)
-                    ESCAPED_ESCAPE_BYTE -> Triple(ESCAPE_BYTE, readOffset + 2, true)
-                    else -> {
-                        throw FrameParseException(
-                            "Found escape byte, but followup byte ${accumulationBuffer[readOffset + 1].toHexString(2)} " +
-                            "is not a valid combination (surrounding context: ${accumulationBuffer.toHexStringWithContext(readOffset + 1)})"
-                        )
-                    }
-                }
-            }
-        } else {
-            // This is not an escape byte, so just output it directly.
-            Triple(curByte, readOffset + 1, false)
+        val requiredSize = accumulationEnd + numBytes
+        if (requiredSize > accumulationBuffer.size) {
+            var newSize = accumulationBuffer.size * 2
+            while (newSize < requiredSize) newSize *= 2
+            accumulationBuffer = accumulationBuffer.copyOf(newSize)
         }
     }
 
-    private var accumulationBuffer = ArrayList<Byte>()
+    private fun accumulationContext(offset: Int) =
+        accumulationBuffer.asList().subList(accumulationStart, accumulationEnd).toHexStringWithContext(offset - accumulationStart)
+
+    private var accumulationBuffer = ByteArray(INITIAL_BUFFER_SIZE)
+    private var accumulationStart: Int = 0
+    private var accumulationEnd: Int = 0
     private var currentReadOffset: Int = 0
     private var frameStarted: Boolean = false
-    private var frameStartOffset: Int = 0
+    private var framePayloadBuffer = ByteArray(INITIAL_BUFFER_SIZE)
+    private var framePayloadSize: Int = 0
+
+    private companion object {
+
+        // Large enough for the biggest regular packets (RT display frames) so
+        // that the buffers normally never need to be enlarged.
+        const val INITIAL_BUFFER_SIZE = 512
+    }
 }
 
 /**
@@ -235,27 +243,36 @@ class ComboFrameParser {
  * @return Framed version of this payload.
  */
 fun List<Byte>.toComboFrame(): List<Byte> {
-    val escapedFrameData = ArrayList<Byte>()
+    var numSpecialBytes = 0
+    for (inputByte in this) {
+        if ((inputByte == FRAME_DELIMITER) || (inputByte == ESCAPE_BYTE))
+            numSpecialBytes++
+    }
+
+    // Every special byte is escaped with 2 bytes, and the delimiters
+    // add 2 more, so the exact frame size is known in advance.
+    val escapedFrameData = ByteArray(size + numSpecialBytes + 2)
+    var writeOffset = 0
 
-    escapedFrameData.add(FRAME_DELIMITER)
+    escapedFrameData[writeOffset++] = FRAME_DELIMITER
 
     for (inputByte in this) {
         when (inputByte) {
             FRAME_DELIMITER -> {
-                escapedFrameData.add(ESCAPE_BYTE)
-                escapedFrameData.add(ESCAPED_FRAME_DELIMITER)
+                escapedFrameData[writeOffset++] = ESCAPE_BYTE
+                escapedFrameData[writeOffset++] = ESCAPED_FRAME_DELIMITER
             }
 
             ESCAPE_BYTE -> {
-                escapedFrameData.add(ESCAPE_BYTE)
-                escapedFrameData.add(ESCAPED_ESCAPE_BYTE)
+                escapedFrameData[writeOffset++] = ESCAPE_BYTE
+                escapedFrameData[writeOffset++] = ESCAPED_ESCAPE_BYTE
             }
 
-            else -> escapedFrameData.add(inputByte)
+            else -> escapedFrameData[writeOffset++] = inputByte
         }
     }
 
-    escapedFrameData.add(FRAME_DELIMITER)
+    escapedFrameData[writeOffset] = FRAME_DELIMITER
 
-    return escapedFrameData
+    return escapedFrameData.asList()
 }
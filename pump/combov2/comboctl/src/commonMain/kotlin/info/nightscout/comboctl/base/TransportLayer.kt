@@ -265,26 +265,43 @@ object TransportLayer {
          * @param withPayload Include the payload bytes into the packet data.
          * @return The serialized packet data.
          */
-        fun toByteList(withMAC: Boolean = true, withPayload: Boolean = true): ArrayList<Byte> {
-            val bytes = ArrayList<Byte>(PACKET_HEADER_SIZE)
+        fun toByteList(withMAC: Boolean = true, withPayload: Boolean = true): ArrayList<Byte> =
+            ArrayList(toByteArray(withMAC, withPayload).asList())
 
-            bytes.add(version)
-            bytes.add(
+        /**
+         * Serializes a packet to a primitive byte array.
+         *
+         * Same as [toByteList], except that the bytes are written directly
+         * into one preallocated array. This is used internally for CRC and
+         * MAC calculations to avoid boxed intermediate copies.
+         *
+         * @param withMAC Include the MAC bytes into the packet data.
+         * @param withPayload Include the payload bytes into the packet data.
+         * @return The serialized packet data.
+         */
+        fun toByteArray(withMAC: Boolean = true, withPayload: Boolean = true): ByteArray {
+            val payloadSize = if (withPayload) payload.size else 0
+            val bytes = ByteArray(PACKET_HEADER_SIZE + payloadSize + (if (withMAC) NUM_MAC_BYTES else 0))
+
+            bytes[VERSION_BYTE_OFFSET] = version
+            bytes[SEQ_REL_CMD_BYTE_OFFSET] =
                 ((if (sequenceBit) 0x80 else 0)
                     or (if (reliabilityBit) 0x20 else 0)
                     or command.id).toByte()
-            )
-            bytes.add((payload.size and 0xFF).toByte())
-            bytes.add(((payload.size shr 8) and 0xFF).toByte())
-            bytes.add(address)
+            bytes[PAYLOAD_LENGTH_BYTES_OFFSET + 0] = (payload.size and 0xFF).toByte()
+            bytes[PAYLOAD_LENGTH_BYTES_OFFSET + 1] = ((payload.size shr 8) and 0xFF).toByte()
+            bytes[ADDRESS_BYTE_OFFSET] = address
 
-            bytes.addAll(nonce.asSequence())
+            for (i in 0 until NUM_NONCE_BYTES)
+                bytes[NONCE_BYTES_OFFSET + i] = nonce[i]
 
-            if (withPayload)
-                bytes.addAll(payload)
+            for (i in 0 until payloadSize)
+                bytes[PAYLOAD_BYTES_OFFSET + i] = payload[i]
 
-            if (withMAC)
-                bytes.addAll(machineAuthenticationCode.asSequence())
+            if (withMAC) {
+                for (i in 0 until NUM_MAC_BYTES)
+                    bytes[PAYLOAD_BYTES_OFFSET + payloadSize + i] = machineAuthenticationCode[i]
+            }
 
             return bytes
         }
@@ -297,7 +314,7 @@ object TransportLayer {
          */
         fun computeCRC16Payload() {
             payload = byteArrayListOfInts(0, 0)
-            val headerData = toByteList(withMAC = false, withPayload = false)
+            val headerData = toByteArray(withMAC = false, withPayload = false)
             val calculatedCRC16 = calculateCRC16MCRF4XX(headerData)
             payload[0] = (calculatedCRC16 and 0xFF).toByte()
             payload[1] = ((calculatedCRC16 shr 8) and 0xFF).toByte()
@@ -317,7 +334,7 @@ object TransportLayer {
                     "Invalid CRC16 payload: CRC16 payload has 2 bytes, this packet has ${payload.size}"
                 )
             }
-            val headerData = toByteList(withMAC = false, withPayload = false)
+            val headerData = toByteArray(withMAC = false, withPayload = false)
             val calculatedCRC16 = calculateCRC16MCRF4XX(headerData)
             return (payload[0] == (calculatedCRC16 and 0xFF).toByte()) &&
                 (payload[1] == ((calculatedCRC16 shr 8) and 0xFF).toByte())
@@ -348,8 +365,10 @@ object TransportLayer {
         // This computes the MAC using Two-Fish and a modified RFC3610 CCM authentication
         // process. See "Packet authentication" in combo-comm-spec.adoc for details.
         private fun calculateMAC(cipher: Cipher): MachineAuthCode {
-            val macBytes = ArrayList<Byte>(NUM_MAC_BYTES)
-            var block = ByteArray(CIPHER_BLOCK_SIZE)
+            // All blocks are encrypted in place, so the only
+            // allocations are the block, the serialized packet
+            // data, and the resulting MAC.
+            val block = ByteArray(CIPHER_BLOCK_SIZE)
 
             // Set up B_0.
             block[0] = 0x79
@@ -358,9 +377,9 @@ object TransportLayer {
             block[15] = 0x00
 
             // Produce X_1 out of B_0.
-            block = cipher.encrypt(block)
+            cipher.encrypt(block, 0, block, 0)
 
-            val packetData = toByteList(withMAC = false, withPayload = true)
+            val packetData = toByteArray(withMAC = false, withPayload = true)
             val numDataBlocks = packetData.size / CIPHER_BLOCK_SIZE
 
             // Repeatedly produce X_i+1 out of X_i and B_i.
@@ -368,37 +387,31 @@ object TransportLayer {
             // data from packetData that is being accessed
             // inside the loop.
             for (dataBlockNr in 0 until numDataBlocks) {
-                for (i in 0 until CIPHER_BLOCK_SIZE) {
-                    val a: Int = block[i].toPosInt()
-                    val b: Int = packetData[dataBlockNr * CIPHER_BLOCK_SIZE + i].toPosInt()
-                    block[i] = (a xor b).toByte()
-                }
+                val dataBlockOffset = dataBlockNr * CIPHER_BLOCK_SIZE
+                for (i in 0 until CIPHER_BLOCK_SIZE)
+                    block[i] = (block[i].toInt() xor packetData[dataBlockOffset + i].toInt()).toByte()
 
-                block = cipher.encrypt(block)
+                cipher.encrypt(block, 0, block, 0)
             }
 
             // Handle the last block, and apply padding if needed.
             val remainingDataBytes = packetData.size - numDataBlocks * CIPHER_BLOCK_SIZE
             if (remainingDataBytes > 0) {
-                for (i in 0 until remainingDataBytes) {
-                    val a: Int = block[i].toPosInt()
-                    val b: Int = packetData[packetData.size - remainingDataBytes + i].toPosInt()
-                    block[i] = (a xor b).toByte()
-                }
+                for (i in 0 until remainingDataBytes)
+                    block[i] = (block[i].toInt() xor packetData[packetData.size - remainingDataBytes + i].toInt()).toByte()
 
                 val paddingValue = 16 - remainingDataBytes
 
                 for (i in remainingDataBytes until CIPHER_BLOCK_SIZE)
-                    block[i] = ((block[i].toPosInt()) xor paddingValue).toByte()
+                    block[i] = (block[i].toInt() xor paddingValue).toByte()
 
-                block = cipher.encrypt(block)
+                cipher.encrypt(block, 0, block, 0)
             }
 
             // Here, the non-standard portion of the authentication starts.
 
             // Produce the "U" value.
-            for (i in 0 until NUM_MAC_BYTES)
-                macBytes.add(block[i])
+            val macBytes = block.copyOf(NUM_MAC_BYTES)
 
             // Produce the new B_0.
             block[0] = 0x41
@@ -407,14 +420,14 @@ object TransportLayer {
             block[15] = 0x00
 
             // Produce X_1 out of the new B_0.
-            block = cipher.encrypt(block)
+            cipher.encrypt(block, 0, block, 0)
 
             // Compute the final MAC out of U and the
             // first 8 bytes of X_1 XORed together.
             for (i in 0 until NUM_MAC_BYTES)
-                macBytes[i] = ((macBytes[i].toPosInt()) xor (block[i].toPosInt())).toByte()
+                macBytes[i] = (macBytes[i].toInt() xor block[i].toInt()).toByte()
 
-            return MachineAuthCode(macBytes)
+            return MachineAuthCode(macBytes.asList())
         }
 
         override fun toString() =
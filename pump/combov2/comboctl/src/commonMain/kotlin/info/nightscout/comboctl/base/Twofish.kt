@@ -518,25 +518,29 @@ object Twofish {
      * @param keyObject Key object to use for encryption.
      * @return Byte array with the ciphertext version of the 16 input bytes.
      */
-    fun blockEncrypt(input: ByteArray, offset: Int, keyObject: KeyObject): ByteArray {
-        var inputOffset = offset
-
-        var x0 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 24)
-        var x1 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 24)
-        var x2 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 24)
-        var x3 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset].toPosInt() and 0xFF) shl 24)
+    fun blockEncrypt(input: ByteArray, offset: Int, keyObject: KeyObject): ByteArray =
+        ByteArray(16).also { blockEncrypt(input, offset, it, 0, keyObject) }
+
+    /**
+     * Encrypts a block of 16 plaintext bytes into a caller provided buffer.
+     *
+     * Same as [blockEncrypt] above, except that the ciphertext is written to
+     * the output array at the given offset instead of a newly allocated array.
+     * Input and output may be the same array, even with the same offset, since
+     * all input bytes are read before the first output byte is written.
+     *
+     * @param input Byte array with the input bytes of plaintext to encrypt.
+     * @param inputOffset Offset in the input byte array to start reading bytes from.
+     * @param output Byte array to write the 16 bytes of ciphertext to.
+     * @param outputOffset Offset in the output byte array to start writing bytes to.
+     * @param keyObject Key object to use for encryption.
+     */
+    fun blockEncrypt(input: ByteArray, inputOffset: Int, output: ByteArray, outputOffset: Int, keyObject: KeyObject) {
+        var x0 = readInt(input, inputOffset + 0)
+        var x1 = readInt(input, inputOffset + 4)
+        var x2 = readInt(input, inputOffset + 8)
+        var x3 = readInt(input, inputOffset + 12)
+
 
         val sBox = keyObject.sBox
         val subKeys = keyObject.subKeys
@@ -570,12 +574,10 @@ object Twofish {
         x0 = x0 xor subKeys[OUTPUT_WHITEN + 2]
         x1 = x1 xor subKeys[OUTPUT_WHITEN + 3]
 
-        return byteArrayOfInts(
-            x2, x2 ushr 8, x2 ushr 16, x2 ushr 24,
-            x3, x3 ushr 8, x3 ushr 16, x3 ushr 24,
-            x0, x0 ushr 8, x0 ushr 16, x0 ushr 24,
-            x1, x1 ushr 8, x1 ushr 16, x1 ushr 24
-        )
+        writeInt(output, outputOffset + 0, x2)
+        writeInt(output, outputOffset + 4, x3)
+        writeInt(output, outputOffset + 8, x0)
+        writeInt(output, outputOffset + 12, x1)
     }
 
     /**
@@ -591,25 +593,27 @@ object Twofish {
      * @param keyObject Key object to use for decryption.
      * @return Byte array with the plaintext version of the 16 input bytes.
      */
-    fun blockDecrypt(input: ByteArray, offset: Int, keyObject: KeyObject): ByteArray {
-        var inputOffset = offset
-
-        var x2 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 24)
-        var x3 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 24)
-        var x0 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 24)
-        var x1 = ((input[inputOffset++].toPosInt() and 0xFF) shl 0) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 8) or
-            ((input[inputOffset++].toPosInt() and 0xFF) shl 16) or
-            ((input[inputOffset].toPosInt() and 0xFF) shl 24)
+    fun blockDecrypt(input: ByteArray, offset: Int, keyObject: KeyObject): ByteArray =
+        ByteArray(16).also { blockDecrypt(input, offset, it, 0, keyObject) }
+
+    /**
+     * Decrypts a block of 16 ciphertext bytes into a caller provided buffer.
+     *
+     * Same as [blockDecrypt] above, except that the plaintext is written to
+     * the output array at the given offset instead of a newly allocated array.
+     * Input and output may be the same array, even with the same offset.
+     *
+     * @param input Byte array with the input bytes of ciphertext to decrypt.
+     * @param inputOffset Offset in the input byte array to start reading bytes from.
+     * @param output Byte array to write the 16 bytes of plaintext to.
+     * @param outputOffset Offset in the output byte array to start writing bytes to.
+     * @param keyObject Key object to use for decryption.
+     */
+    fun blockDecrypt(input: ByteArray, inputOffset: Int, output: ByteArray, outputOffset: Int, keyObject: KeyObject) {
+        var x2 = readInt(input, inputOffset + 0)
+        var x3 = readInt(input, inputOffset + 4)
+        var x0 = readInt(input, inputOffset + 8)
+        var x1 = readInt(input, inputOffset + 12)
 
         val sBox = keyObject.sBox
         val subKeys = keyObject.subKeys
@@ -645,11 +649,23 @@ object Twofish {
         x2 = x2 xor subKeys[INPUT_WHITEN + 2]
         x3 = x3 xor subKeys[INPUT_WHITEN + 3]
 
-        return byteArrayOfInts(
-            x0, x0 ushr 8, x0 ushr 16, x0 ushr 24,
-            x1, x1 ushr 8, x1 ushr 16, x1 ushr 24,
-            x2, x2 ushr 8, x2 ushr 16, x2 ushr 24,
-            x3, x3 ushr 8, x3 ushr 16, x3 ushr 24
-        )
+        writeInt(output, outputOffset + 0, x0)
+        writeInt(output, outputOffset + 4, x1)
+        writeInt(output, outputOffset + 8, x2)
+        writeInt(output, outputOffset + 12, x3)
+    }
+
+    // Little endian 32-bit access to the 16-byte blocks.
+    private fun readInt(bytes: ByteArray, offset: Int): Int =
+        (bytes[offset + 0].toPosInt() shl 0) or
+            (bytes[offset + 1].toPosInt() shl 8) or
+            (bytes[offset + 2].toPosInt() shl 16) or
+            (bytes[offset + 3].toPosInt() shl 24)
+
+    private fun writeInt(bytes: ByteArray, offset: Int, value: Int) {
+        bytes[offset + 0] = value.toByte()
+        bytes[offset + 1] = (value ushr 8).toByte()
+        bytes[offset + 2] = (value ushr 16).toByte()
+        bytes[offset + 3] = (value ushr 24).toByte()
     }
 }
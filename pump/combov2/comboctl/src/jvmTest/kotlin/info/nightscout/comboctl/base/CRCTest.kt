@@ -1,6 +1,7 @@
 package info.nightscout.comboctl.base
 
 import app.aaps.shared.tests.TestBase
+import kotlin.random.Random
 import kotlin.test.Test
 import kotlin.test.assertEquals
 
@@ -13,5 +14,25 @@ class CRCTest : TestBase() {
         val expectedChecksum = 0x02A2
         val actualChecksum = calculateCRC16MCRF4XX(inputData)
         assertEquals(expectedChecksum, actualChecksum)
+        assertEquals(expectedChecksum, calculateCRC16MCRF4XX(inputData.toByteArray()))
+    }
+
+    @Test
+    fun verifyTableChecksumMatchesBitwiseChecksum() {
+        val random = Random(1234)
+        repeat(1000) {
+            val data = random.nextBytes(random.nextInt(0, 300))
+            val offset = if (data.isEmpty()) 0 else random.nextInt(0, data.size)
+            val range = data.toList().subList(offset, data.size)
+
+            val expectedChecksum = calculateCRC16MCRF4XXBitwise(range)
+            assertEquals(expectedChecksum, calculateCRC16MCRF4XX(range))
+            assertEquals(expectedChecksum, calculateCRC16MCRF4XX(data, offset))
+
+            // Checksums of consecutive ranges can be chained.
+            val split = range.size / 2
+            val chainedChecksum = calculateCRC16MCRF4XX(data, offset + split, range.size - split, calculateCRC16MCRF4XX(data, offset, split))
+            assertEquals(expectedChecksum, chainedChecksum)
+        }
     }
 }
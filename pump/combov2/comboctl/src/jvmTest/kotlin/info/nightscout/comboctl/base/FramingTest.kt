@@ -0,0 +1,76 @@
+package info.nightscout.comboctl.base
+
+import app.aaps.shared.tests.TestBase
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+/**
+ * Round trip of the transport layer byte path:
+ * MAC calculation, framing, frame parsing, packet parsing and MAC verification.
+ * Frames are compared against a straightforward boxed reference framer.
+ */
+class FramingTest : TestBase() {
+
+    private val cipher = Cipher(ByteArray(CIPHER_KEY_SIZE) { it.toByte() })
+
+    // Payload size similar to RT display frame and history block packets.
+    private fun createPackets(count: Int): List<TransportLayer.Packet> {
+        val random = Random(42)
+        return List(count) {
+            TransportLayer.Packet(
+                command = TransportLayer.Command.DATA,
+                sequenceBit = (it % 2) == 0,
+                reliabilityBit = true,
+                address = 0x10,
+                nonce = Nonce(List(NUM_NONCE_BYTES) { i -> (it shr (i % 4)).toByte() }),
+                payload = ArrayList(random.nextBytes(100 + random.nextInt(0, 20)).asList())
+            ).apply { authenticate(cipher) }
+        }
+    }
+
+    // Boxed framer working byte by byte on lists, as the frames were produced before.
+    private fun referenceFrame(payload: List<Byte>): List<Byte> {
+        val frame = ArrayList<Byte>()
+        frame.add(0xCC.toByte())
+        for (b in payload) {
+            when (b) {
+                0xCC.toByte() -> frame.addAll(listOf(0x77.toByte(), 0xDD.toByte()))
+                0x77.toByte() -> frame.addAll(listOf(0x77.toByte(), 0xEE.toByte()))
+                else          -> frame.add(b)
+            }
+        }
+        frame.add(0xCC.toByte())
+        return frame
+    }
+
+    @Test
+    fun framesMatchReferenceFramer() {
+        for (packet in createPackets(200)) {
+            val packetBytes = packet.toByteList()
+            assertEquals(referenceFrame(packetBytes), packetBytes.toComboFrame())
+        }
+    }
+
+    @Test
+    fun roundTrip() {
+        val parser = ComboFrameParser()
+
+        for (packet in createPackets(200)) {
+            val frame = packet.toByteList().toComboFrame()
+
+            // Deliver the frame in 2 chunks like a stream would.
+            val split = frame.size / 3
+            parser.pushData(frame.subList(0, split))
+            assertEquals(null, parser.parseFrame())
+            parser.pushData(frame.subList(split, frame.size))
+            val parsed = assertNotNull(parser.parseFrame())
+
+            val parsedPacket = TransportLayer.Packet(parsed)
+            assertTrue(parsedPacket.verifyAuthentication(cipher))
+            assertEquals(packet.payload, parsedPacket.payload)
+        }
+    }
+}
@@ -330,6 +330,14 @@ class TwofishTest : TestBase() {
 
             val computedPlaintext = Twofish.blockDecrypt(testVector.ciphertextArray, 0, keyObject)
             assertEquals(testVector.plaintextArray.toList(), computedPlaintext.toList())
+
+            // Same in place, at an offset inside a larger buffer.
+            val buffer = ByteArray(20)
+            testVector.plaintextArray.copyInto(buffer, 3)
+            Twofish.blockEncrypt(buffer, 3, buffer, 3, keyObject)
+            assertEquals(testVector.ciphertextArray.toList(), buffer.toList().subList(3, 19))
+            Twofish.blockDecrypt(buffer, 3, buffer, 3, keyObject)
+            assertEquals(testVector.plaintextArray.toList(), buffer.toList().subList(3, 19))
         }
     }
 }
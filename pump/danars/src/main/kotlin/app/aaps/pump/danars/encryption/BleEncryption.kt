@@ -387,60 +387,69 @@ class BleEncryption @Inject constructor() {
         return array.toByteArray()
     }
 
-    fun decryptSecondLevelPacket(bytes: ByteArray): ByteArray {
-        val size = bytes.size
-        val array = bytes.toUByteArray()
-        if (size > 0) {
-            for (i in 0..<size) {
-                if (securityVersion == EncryptionType.ENCRYPTION_RSv3) {
-                    val tempData = array[i]
-                    randomPairingKey?.let { randomPairingKey ->
-                        pairingKey?.let { pairingKey ->
-                            array[i] = array[i].plusUByte(encryptionMatrix[randomPairingKey[2]])
-                            array[i] = array[i].minusUByte(encryptionMatrix[randomPairingKey[1]])
-                            array[i] = array[i] xor encryptionMatrix[randomPairingKey[0]]
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i].plusUByte(encryptionMatrix[pairingKey[5]])
-                            array[i] = array[i].minusUByte(encryptionMatrix[pairingKey[4]])
-                            array[i] = array[i] xor encryptionMatrix[pairingKey[3]]
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i].plusUByte(encryptionMatrix[pairingKey[2]])
-                            array[i] = array[i].minusUByte(encryptionMatrix[pairingKey[1]])
-                            array[i] = array[i] xor encryptionMatrix[pairingKey[0]]
-                            array[i] = array[i] xor randomSyncKey
-                            array[i] = array[i] xor pairingKey[5]
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i] xor pairingKey[4]
-                            array[i] = array[i].plusUByte(pairingKey[3])
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i] xor pairingKey[2]
-                            array[i] = array[i].minusUByte(pairingKey[1])
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i].plusUByte(randomSyncKey)
-                            array[i] = array[i] xor pairingKey[0]
-                            randomSyncKey = tempData
-                        } ?: error("pairingKey is null")
-                    } ?: error("randomPairingKey is null")
-                } else if (securityVersion == EncryptionType.ENCRYPTION_BLE5) {
-                    array[i] = array[i] xor encryptionBle5Key[2]
-                    array[i] = array[i].plusUByte(encryptionBle5Key[1])
-                    array[i] = array[i].switchLoHi()
-                    array[i] = array[i].minusUByte(encryptionBle5Key[0])
-                }
+    fun decryptSecondLevelPacket(bytes: ByteArray): ByteArray =
+        bytes.copyOf().also { decryptSecondLevelPacket(it, 0, it.size) }
+
+    /**
+     * Decrypt second level of [length] bytes from [offset] in place
+     *
+     * Receive path calls it directly on read buffer, so nothing is allocated per notification.
+     * Matrix lookups depend only on keys and are resolved once per call.
+     */
+    fun decryptSecondLevelPacket(bytes: ByteArray, offset: Int, length: Int) {
+        if (length <= 0) return
+        val end = offset + length
+        if (securityVersion == EncryptionType.ENCRYPTION_RSv3) {
+            val randomPairingKey = randomPairingKey ?: error("randomPairingKey is null")
+            val pairingKey = pairingKey ?: error("pairingKey is null")
+            val mr0 = encryptionMatrix[randomPairingKey[0]].toInt()
+            val mr1 = encryptionMatrix[randomPairingKey[1]].toInt()
+            val mr2 = encryptionMatrix[randomPairingKey[2]].toInt()
+            val mp0 = encryptionMatrix[pairingKey[0]].toInt()
+            val mp1 = encryptionMatrix[pairingKey[1]].toInt()
+            val mp2 = encryptionMatrix[pairingKey[2]].toInt()
+            val mp3 = encryptionMatrix[pairingKey[3]].toInt()
+            val mp4 = encryptionMatrix[pairingKey[4]].toInt()
+            val mp5 = encryptionMatrix[pairingKey[5]].toInt()
+            val p0 = pairingKey[0].toInt()
+            val p1 = pairingKey[1].toInt()
+            val p2 = pairingKey[2].toInt()
+            val p3 = pairingKey[3].toInt()
+            val p4 = pairingKey[4].toInt()
+            val p5 = pairingKey[5].toInt()
+            var syncKey = randomSyncKey.toInt()
+            for (i in offset until end) {
+                val data = bytes[i].toInt() and 0xff
+                var b = switchLoHi((data + mr2 - mr1 and 0xff) xor mr0)
+                b = switchLoHi((b + mp5 - mp4 and 0xff) xor mp3)
+                b = (b + mp2 - mp1 and 0xff) xor mp0 xor syncKey xor p5
+                b = switchLoHi(b) xor p4
+                b = switchLoHi(b + p3 and 0xff) xor p2
+                b = switchLoHi(b - p1 and 0xff)
+                b = (b + syncKey and 0xff) xor p0
+                bytes[i] = b.toByte()
+                syncKey = data
             }
-            if (securityVersion == EncryptionType.ENCRYPTION_RSv3) {
-                if (array[DANAR_PACKET__START_POS] == DANAR_PACKET__ENCRYPTION_START && array[DANAR_PACKET__START_POS + 1] == DANAR_PACKET__ENCRYPTION_START) {
-                    array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                    array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
+            randomSyncKey = syncKey.toUByte()
+            if (length >= 2) {
+                if (bytes[offset + DANAR_PACKET__START_POS].toUByte() == DANAR_PACKET__ENCRYPTION_START && bytes[offset + DANAR_PACKET__START_POS + 1].toUByte() == DANAR_PACKET__ENCRYPTION_START) {
+                    bytes[offset + DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET.toByte()
+                    bytes[offset + DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET.toByte()
                 }
-
-                if (array[size - 2] == DANAR_PACKET__ENCRYPTION_END && array[size - 1] == DANAR_PACKET__ENCRYPTION_END) {
-                    array[size - 2] = DANAR_PACKET__END_PACKET
-                    array[size - 1] = DANAR_PACKET__END_PACKET
+                if (bytes[end - 2].toUByte() == DANAR_PACKET__ENCRYPTION_END && bytes[end - 1].toUByte() == DANAR_PACKET__ENCRYPTION_END) {
+                    bytes[end - 2] = DANAR_PACKET__END_PACKET.toByte()
+                    bytes[end - 1] = DANAR_PACKET__END_PACKET.toByte()
                 }
             }
+        } else if (securityVersion == EncryptionType.ENCRYPTION_BLE5) {
+            val k0 = encryptionBle5Key[0].toInt()
+            val k1 = encryptionBle5Key[1].toInt()
+            val k2 = encryptionBle5Key[2].toInt()
+            for (i in offset until end) {
+                val b = switchLoHi((bytes[i].toInt() and 0xff xor k2) + k1 and 0xff)
+                bytes[i] = (b - k0).toByte()
+            }
         }
-        return array.toByteArray()
     }
 
     private fun setDeviceName(deviceName: String?) {
@@ -521,6 +530,7 @@ class BleEncryption @Inject constructor() {
     private fun UByte.shr(bitCount: Int): UByte = toUInt().shr(bitCount).toUByte()
     private fun UByte.shl(bitCount: Int): UByte = toUInt().shl(bitCount).toUByte()
     private fun UByte.switchLoHi(): UByte = (shr(4) and 0x0fu) or (shl(4) and 0xf0u)
+    private fun switchLoHi(value: Int): Int = (value shr 4 and 0x0f) or (value shl 4 and 0xf0)
     private operator fun UByteArray.get(index: UByte): UByte = get(index.toInt())
     private infix fun UShort.ushr(bitCount: Int): UShort = toInt().ushr(bitCount).toUShort()
     private infix fun UShort.shl(bitCount: Int): UShort = toInt().shl(bitCount).toUShort()
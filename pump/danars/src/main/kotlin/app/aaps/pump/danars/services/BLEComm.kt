@@ -34,6 +34,7 @@ import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.ui.extensions.scanForActivity
 import app.aaps.core.ui.toast.ToastUtils
 import app.aaps.core.utils.notifyAll
+import app.aaps.core.utils.pump.SerialExecutor
 import app.aaps.core.utils.waitMillis
 import app.aaps.pump.dana.DanaPump
 import app.aaps.pump.dana.R
@@ -87,6 +88,9 @@ class BLEComm @Inject internal constructor(
     private var scheduledDisconnection: ScheduledFuture<*>? = null
     private var processedMessage: DanaRSPacket? = null
     private val mSendQueue = ArrayList<ByteArray>()
+    // all writes go through one thread in order of sending
+    private val writeExecutor = SerialExecutor("DanaRS BLE writer") { aapsLogger.error(LTag.PUMPBTCOMM, "Write failed", it) }
+    private val packetFramer = DanaRSPacketFramer(aapsLogger)
     private val bluetoothAdapter: BluetoothAdapter? get() = (context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager?)?.adapter
     private var connectDeviceName: String? = null
     private var bluetoothGatt: BluetoothGatt? = null
@@ -156,7 +160,7 @@ class BLEComm @Inject internal constructor(
         encryptedCommandSent = false
         pumpCheckSent = false  // Reset the guard flag for new connection
         isConnecting = true
-        bufferLength = 0
+        packetFramer.reset()
         aapsLogger.debug(LTag.PUMPBTCOMM, "Trying to create a new connection from: $from")
         connectDeviceName = device.name
         bluetoothGatt = device.connectGatt(context, false, mGattCallback)
@@ -243,7 +247,7 @@ class BLEComm @Inject internal constructor(
 
     @SuppressLint("MissingPermission")
     @Synchronized fun close() {
-        aapsLogger.debug(LTag.PUMPBTCOMM, "BluetoothAdapter close")
+        aapsLogger.debug(LTag.PUMPBTCOMM, "BluetoothAdapter close, writes: ${writeExecutor.metrics()}")
         bluetoothGatt?.close()
         bluetoothGatt = null
     }
@@ -276,16 +280,14 @@ class BLEComm @Inject internal constructor(
         override fun onCharacteristicWrite(gatt: BluetoothGatt, characteristic: BluetoothGattCharacteristic, status: Int) {
             // for v3 after initial handshake it's encrypted - useless
             // aapsLogger.debug(LTag.PUMPBTCOMM, "onCharacteristicWrite: " + DanaRS_Packet.toHexString(characteristic.value))
-            Thread {
-                synchronized(mSendQueue) {
-                    // after message sent, check if there is the rest of the message waiting and send it
-                    if (mSendQueue.isNotEmpty()) {
-                        val bytes = mSendQueue[0]
-                        mSendQueue.removeAt(0)
-                        writeCharacteristicNoResponse(uartWriteBTGattChar, bytes)
-                    }
+            synchronized(mSendQueue) {
+                // after message sent, check if there is the rest of the message waiting and send it
+                if (mSendQueue.isNotEmpty()) {
+                    val bytes = mSendQueue[0]
+                    mSendQueue.removeAt(0)
+                    writeCharacteristicNoResponse(uartWriteBTGattChar, bytes)
                 }
-            }.start()
+            }
         }
 
         override fun onDescriptorWrite(gatt: BluetoothGatt?, descriptor: BluetoothGattDescriptor?, status: Int) {
@@ -323,26 +325,27 @@ class BLEComm @Inject internal constructor(
         }
     }
 
+    /**
+     * Queue write to writer thread. Every write is scheduled [WRITE_DELAY_MILLIS]
+     * after the previous one, caller is not blocked.
+     */
     @Suppress("DEPRECATION")
     @SuppressLint("MissingPermission")
-    @Synchronized
     private fun writeCharacteristicNoResponse(characteristic: BluetoothGattCharacteristic, data: ByteArray) {
-        Thread(Runnable {
-            SystemClock.sleep(WRITE_DELAY_MILLIS)
+        writeExecutor.executePaced(WRITE_DELAY_MILLIS) {
             if (bluetoothAdapter == null || bluetoothGatt == null) {
                 aapsLogger.error(LTag.PUMPBTCOMM, "BluetoothAdapter not initialized_ERROR")
                 isConnecting = false
                 isConnected = false
                 encryptedDataRead = false
                 encryptedCommandSent = false
-                return@Runnable
+                return@executePaced
             }
             characteristic.value = data
             characteristic.writeType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
             //aapsLogger.debug("writeCharacteristic:" + DanaRS_Packet.toHexString(data))
             bluetoothGatt?.writeCharacteristic(characteristic)
-        }).start()
-        SystemClock.sleep(50)
+        }
     }
 
     private val uartReadBTGattChar: BluetoothGattCharacteristic
@@ -403,138 +406,60 @@ class BLEComm @Inject internal constructor(
         }
     }
 
-    private val readBuffer = ByteArray(1024)
-    @Volatile private var bufferLength = 0
-
-    private fun addToReadBuffer(buffer: ByteArray) {
-        //log.debug("addToReadBuffer " + DanaRS_Packet.toHexString(buffer));
-        if (buffer.isEmpty()) return
-
-        synchronized(readBuffer) {
-            // Append incoming data to input buffer
-            System.arraycopy(buffer, 0, readBuffer, bufferLength, buffer.size)
-            bufferLength += buffer.size
-        }
-    }
-
     private fun readDataParsing(receivedData: ByteArray) {
         //aapsLogger.debug(LTag.PUMPBTCOMM, "<<<<< readDataParsing " + DanaRS_Packet.toHexString(receivedData))
-        var packetIsValid = false
-        var isProcessing: Boolean
-        isProcessing = true
-        var inputBuffer: ByteArray?
-
-        // decrypt 2nd level after successful connection
-        val incomingBuffer =
-            if (isConnected && (encryption == EncryptionType.ENCRYPTION_RSv3 || encryption == EncryptionType.ENCRYPTION_BLE5))
-                bleEncryption.decryptSecondLevelPacket(receivedData).also {
-                    encryptedDataRead = true
-                    preferences.put(DanaLongKey.LastClearKeyRequest, 0L)
-                }
-            else receivedData
-        addToReadBuffer(incomingBuffer)
-        //aapsLogger.debug(LTag.PUMPBTCOMM, "incomingBuffer " + DanaRS_Packet.toHexString(incomingBuffer))
-
-        while (isProcessing) {
-            var length = 0
-            synchronized(readBuffer) {
-                // Find packet start [A5 A5] or [AA AA]
-                if (bufferLength >= 6) {
-                    for (idxStartByte in 0 until bufferLength - 2) {
-                        if (readBuffer[idxStartByte] == PACKET_START_BYTE && readBuffer[idxStartByte + 1] == PACKET_START_BYTE ||
-                            readBuffer[idxStartByte] == BLE5_PACKET_START_BYTE && readBuffer[idxStartByte + 1] == BLE5_PACKET_START_BYTE
-                        ) {
-                            if (idxStartByte > 0) {
-                                // if buffer doesn't start with signature remove the leading trash
-                                aapsLogger.debug(LTag.PUMPBTCOMM, "Shifting the input buffer by $idxStartByte bytes")
-                                System.arraycopy(readBuffer, idxStartByte, readBuffer, 0, bufferLength - idxStartByte)
-                                bufferLength -= idxStartByte
-                                if (bufferLength < 0) bufferLength = 0
-                            }
-                            // A5 A5 LEN TYPE CODE PARAMS CHECKSUM1 CHECKSUM2 5A 5A    or
-                            // AA AA LEN TYPE CODE PARAMS CHECKSUM1 CHECKSUM2 EE EE
-                            //           ^---- LEN -----^
-                            // total packet length 2 + 1 + readBuffer[2] + 2 + 2
-                            length = readBuffer[2].toInt()
-                            // test if there is enough data loaded
-                            if (length + 7 > bufferLength)
-                                return
-                            // Verify packed end [5A 5A]
-                            if (readBuffer[length + 5] == PACKET_END_BYTE && readBuffer[length + 6] == PACKET_END_BYTE ||
-                                readBuffer[length + 5] == BLE5_PACKET_END_BYTE && readBuffer[length + 6] == BLE5_PACKET_END_BYTE
-                            ) {
-                                packetIsValid = true
-                            } else {
-                                aapsLogger.error(LTag.PUMPBTCOMM, "Error in input data. Resetting buffer.")
-                                bufferLength = 0
-                            }
-                            break
-                        }
-                        break
-                    }
-                }
+        // decrypt 2nd level after successful connection, in place inside of read buffer
+        if (isConnected && (encryption == EncryptionType.ENCRYPTION_RSv3 || encryption == EncryptionType.ENCRYPTION_BLE5)) {
+            packetFramer.push(receivedData) { buffer, offset, length -> bleEncryption.decryptSecondLevelPacket(buffer, offset, length) }
+            if (!encryptedDataRead) {
+                // store only once per connection, not on every packet
+                encryptedDataRead = true
+                preferences.put(DanaLongKey.LastClearKeyRequest, 0L)
             }
-            if (packetIsValid) {
-                inputBuffer = ByteArray(length + 7)
-                // copy packet to input buffer
-                System.arraycopy(readBuffer, 0, inputBuffer, 0, length + 7)
-                // Cut off the message from readBuffer
-                try {
-                    System.arraycopy(readBuffer, length + 7, readBuffer, 0, bufferLength - (length + 7))
-                } catch (e: Exception) {
-                    aapsLogger.error(LTag.PUMPBTCOMM, "length: " + length + "bufferLength: " + bufferLength)
-                    throw e
-                }
-                bufferLength -= length + 7
-                // now we have encrypted packet in inputBuffer
-
-                // decrypt the packet
-                val decrypted = bleEncryption.getDecryptedPacket(inputBuffer)
-                decrypted?.let { decryptedBuffer ->
-                    if (decryptedBuffer[0] == BleEncryption.DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE.toByte()) {
-                        when (decryptedBuffer[1]) {
-                            // 1st packet exchange
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK.toByte()          ->
-                                processConnectResponse(decryptedBuffer)
-
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION.toByte()    ->
-                                processEncryptionResponse(decryptedBuffer)
-
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY.toByte()       ->
-                                processPasskeyCheck(decryptedBuffer)
-
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_REQUEST.toByte()     ->
-                                processPairingRequest(decryptedBuffer)
-
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_RETURN.toByte()      ->
-                                processPairingRequest2(decryptedBuffer)
-
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__GET_PUMP_CHECK.toByte()      -> {
-                                // not easy mode, request time info
-                                if (decryptedBuffer[2] == 0x05.toByte()) sendTimeInfo()
-                                // easy mode
-                                else sendEasyMenuCheck()
-                            }
-
-                            BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__GET_EASY_MENU_CHECK.toByte() ->
-                                processEasyMenuCheck(decryptedBuffer)
+        } else packetFramer.push(receivedData)
+
+        while (true) {
+            val inputBuffer = packetFramer.nextPacket() ?: break
+            // now we have encrypted packet in inputBuffer
+
+            // decrypt the packet
+            val decrypted = bleEncryption.getDecryptedPacket(inputBuffer)
+            decrypted?.let { decryptedBuffer ->
+                if (decryptedBuffer[0] == BleEncryption.DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE.toByte()) {
+                    when (decryptedBuffer[1]) {
+                        // 1st packet exchange
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK.toByte()          ->
+                            processConnectResponse(decryptedBuffer)
+
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION.toByte()    ->
+                            processEncryptionResponse(decryptedBuffer)
+
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY.toByte()       ->
+                            processPasskeyCheck(decryptedBuffer)
+
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_REQUEST.toByte()     ->
+                            processPairingRequest(decryptedBuffer)
+
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_RETURN.toByte()      ->
+                            processPairingRequest2(decryptedBuffer)
+
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__GET_PUMP_CHECK.toByte()      -> {
+                            // not easy mode, request time info
+                            if (decryptedBuffer[2] == 0x05.toByte()) sendTimeInfo()
+                            // easy mode
+                            else sendEasyMenuCheck()
                         }
 
-                    } else {
-                        // Retrieve message code from received buffer and last message sent
-                        processMessage(decryptedBuffer)
+                        BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__GET_EASY_MENU_CHECK.toByte() ->
+                            processEasyMenuCheck(decryptedBuffer)
                     }
+
+                } else {
+                    // Retrieve message code from received buffer and last message sent
+                    processMessage(decryptedBuffer)
                 }
-                checkNotNull(decrypted) { "Null decryptedInputBuffer" }
-                packetIsValid = false
-                if (bufferLength < 6) {
-                    // stop the loop
-                    isProcessing = false
-                }
-            } else {
-                // stop the loop
-                isProcessing = false
             }
+            checkNotNull(decrypted) { "Null decryptedInputBuffer" }
         }
     }
 
@@ -0,0 +1,108 @@
+package app.aaps.pump.danars.services
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+
+/**
+ * Splits stream of BLE notifications into DanaRS packets
+ *
+ * A5 A5 LEN TYPE CODE PARAMS CHECKSUM1 CHECKSUM2 5A 5A    or
+ * AA AA LEN TYPE CODE PARAMS CHECKSUM1 CHECKSUM2 EE EE
+ *           ^---- LEN -----^
+ *
+ * Data is kept between read and write cursors. Parsed packets only move the read cursor,
+ * remaining bytes are moved to the beginning only when there is not enough space at the end,
+ * which happens rarely because buffer is usually drained completely by every notification.
+ */
+class DanaRSPacketFramer(private val aapsLogger: AAPSLogger, capacity: Int = 1024) {
+
+    private var buffer = ByteArray(capacity)
+    private var readPosition = 0
+    private var writePosition = 0
+
+    val available: Int get() = writePosition - readPosition
+
+    @Synchronized
+    fun reset() {
+        readPosition = 0
+        writePosition = 0
+    }
+
+    /**
+     * Append received data
+     *
+     * @param transform called on appended bytes inside of internal buffer (ie. in place decryption)
+     */
+    @Synchronized
+    fun push(data: ByteArray, transform: ((buffer: ByteArray, offset: Int, length: Int) -> Unit)? = null) {
+        if (data.isEmpty()) return
+        ensureSpace(data.size)
+        val offset = writePosition
+        System.arraycopy(data, 0, buffer, offset, data.size)
+        writePosition += data.size
+        transform?.invoke(buffer, offset, data.size)
+    }
+
+    /**
+     * @return next complete packet or null if more data is needed
+     */
+    @Synchronized
+    fun nextPacket(): ByteArray? {
+        while (available >= MIN_PACKET_SIZE) {
+            val start = findStart()
+            if (start < 0) {
+                // keep last byte, it may be the first half of start signature
+                readPosition = writePosition - 1
+                return null
+            }
+            if (start > readPosition) {
+                // if buffer doesn't start with signature skip the leading trash
+                aapsLogger.debug(LTag.PUMPBTCOMM, "Skipping ${start - readPosition} bytes of input buffer")
+                readPosition = start
+                continue
+            }
+            // total packet length 2 + 1 + LEN + 2 + 2
+            val length = (buffer[readPosition + 2].toInt() and 0xFF) + 7
+            // test if there is enough data loaded
+            if (length > available) return null
+            val endByte = buffer[readPosition + length - 2]
+            if (endByte != buffer[readPosition + length - 1] || endByte != PACKET_END_BYTE && endByte != BLE5_PACKET_END_BYTE) {
+                aapsLogger.error(LTag.PUMPBTCOMM, "Error in input data. Resetting buffer.")
+                reset()
+                return null
+            }
+            val packet = buffer.copyOfRange(readPosition, readPosition + length)
+            readPosition += length
+            if (readPosition == writePosition) reset()
+            return packet
+        }
+        return null
+    }
+
+    private fun findStart(): Int {
+        for (i in readPosition until writePosition - 1) {
+            val b = buffer[i]
+            if ((b == PACKET_START_BYTE || b == BLE5_PACKET_START_BYTE) && buffer[i + 1] == b) return i
+        }
+        return -1
+    }
+
+    private fun ensureSpace(size: Int) {
+        if (writePosition + size <= buffer.size) return
+        val remaining = available
+        val target = if (remaining + size > buffer.size) ByteArray(maxOf(buffer.size * 2, remaining + size)) else buffer
+        System.arraycopy(buffer, readPosition, target, 0, remaining)
+        buffer = target
+        readPosition = 0
+        writePosition = remaining
+    }
+
+    companion object {
+
+        private const val MIN_PACKET_SIZE = 6
+        private const val PACKET_START_BYTE = 0xA5.toByte()
+        private const val PACKET_END_BYTE = 0x5A.toByte()
+        private const val BLE5_PACKET_START_BYTE = 0xAA.toByte()
+        private const val BLE5_PACKET_END_BYTE = 0xEE.toByte()
+    }
+}
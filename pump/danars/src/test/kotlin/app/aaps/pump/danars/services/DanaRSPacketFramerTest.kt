@@ -0,0 +1,87 @@
+package app.aaps.pump.danars.services
+
+import app.aaps.pump.danars.encryption.BleEncryption
+import app.aaps.pump.danars.encryption.EncryptionType
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+class DanaRSPacketFramerTest : TestBase() {
+
+    private lateinit var sut: DanaRSPacketFramer
+
+    // captured packets
+    private val pumpCheckResponse = byteArrayOf(-91, -91, 14, -25, -14, -46, -82, -65, -108, -75, -29, -91, -43, -57, -82, -47, -61, -122, 95, 90, 90)
+    private val ble5Response = byteArrayOf(-86, -86, 18, 87, -46, -56, -83, -70, -83, -43, -62, -83, -41, -90, -44, -93, -96, -36, -15, -11, -118, 15, -23, -18, -18)
+    private val keepConnection = byteArrayOf(-91, -91, 2, 68, 13, -42, -108, 90, 90)
+
+    @BeforeEach
+    fun setup() {
+        sut = DanaRSPacketFramer(aapsLogger, capacity = 32)
+    }
+
+    // split stream to BLE notifications of max 20 bytes
+    private fun notifications(vararg packets: ByteArray, size: Int = 20): List<ByteArray> =
+        packets.fold(ByteArray(0)) { acc, p -> acc + p }.toList().chunked(size).map { it.toByteArray() }
+
+    private fun replay(notifications: List<ByteArray>, transform: ((ByteArray, Int, Int) -> Unit)? = null): List<ByteArray> {
+        val result = ArrayList<ByteArray>()
+        for (notification in notifications) {
+            sut.push(notification, transform)
+            while (true) result.add(sut.nextPacket() ?: break)
+        }
+        return result
+    }
+
+    @Test
+    fun `packets split to notifications are reassembled`() {
+        val packets = replay(notifications(pumpCheckResponse, ble5Response, keepConnection, pumpCheckResponse))
+        assertThat(packets.map { it.toList() }).containsExactly(pumpCheckResponse.toList(), ble5Response.toList(), keepConnection.toList(), pumpCheckResponse.toList()).inOrder()
+        assertThat(sut.available).isEqualTo(0)
+    }
+
+    @Test
+    fun `byte by byte stream is reassembled`() {
+        val packets = replay(notifications(keepConnection, ble5Response, keepConnection, size = 1))
+        assertThat(packets.map { it.toList() }).containsExactly(keepConnection.toList(), ble5Response.toList(), keepConnection.toList()).inOrder()
+    }
+
+    @Test
+    fun `leading garbage is skipped`() {
+        val packets = replay(notifications(byteArrayOf(1, 2, -91, 3, 4, 5, 6, 7), keepConnection, byteArrayOf(0x5A, 0x11), ble5Response))
+        assertThat(packets.map { it.toList() }).containsExactly(keepConnection.toList(), ble5Response.toList()).inOrder()
+    }
+
+    @Test
+    fun `invalid end resets buffer`() {
+        val broken = keepConnection.copyOf().also { it[it.size - 1] = 0 }
+        assertThat(replay(listOf(broken))).isEmpty()
+        assertThat(sut.available).isEqualTo(0)
+        assertThat(replay(notifications(keepConnection)).map { it.toList() }).containsExactly(keepConnection.toList())
+    }
+
+    @Test
+    fun `incomplete packet waits for more data`() {
+        sut.push(ble5Response.copyOfRange(0, 10))
+        assertThat(sut.nextPacket()).isNull()
+        sut.push(ble5Response.copyOfRange(10, ble5Response.size))
+        assertThat(sut.nextPacket()!!.toList()).isEqualTo(ble5Response.toList())
+        assertThat(sut.nextPacket()).isNull()
+    }
+
+    @Test
+    fun `second level is decrypted in place`() {
+        val encryption = BleEncryption().apply {
+            setEnhancedEncryption(EncryptionType.ENCRYPTION_BLE5)
+            setBle5Key(byteArrayOf(56, 48, 53, 51, 52, 49))
+        }
+        val encrypted = encryption.encryptSecondLevelPacket(keepConnection)
+        assertThat(encrypted.toList()).isEqualTo(byteArrayOf(19, 19, -119, -11, 120, -52, -16, 78, 78).toList())
+
+        val packets = replay(notifications(encrypted, encrypted, encrypted, size = 7)) { buffer, offset, length ->
+            encryption.decryptSecondLevelPacket(buffer, offset, length)
+        }
+        assertThat(packets.map { it.toList() }).containsExactly(keepConnection.toList(), keepConnection.toList(), keepConnection.toList())
+    }
+}
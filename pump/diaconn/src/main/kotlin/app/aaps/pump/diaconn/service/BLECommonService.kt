@@ -23,6 +23,7 @@ import app.aaps.core.interfaces.rx.events.EventPumpStatusChanged
 import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.ui.toast.ToastUtils
 import app.aaps.core.utils.notifyAll
+import app.aaps.core.utils.pump.SerialExecutor
 import app.aaps.core.utils.waitMillis
 import app.aaps.pump.diaconn.DiaconnG8Pump
 import app.aaps.pump.diaconn.R
@@ -65,6 +66,8 @@ class BLECommonService @Inject internal constructor(
     private var processedMessage: DiaconnG8Packet? = null
     private var processedMessageByte: ByteArray? = null
     private val mSendQueue = ArrayList<ByteArray>()
+    // all writes go through one thread in order of sending
+    private val writeExecutor = SerialExecutor("Diaconn BLE writer") { aapsLogger.error(LTag.PUMPBTCOMM, "Write failed", it) }
     private val bluetoothAdapter: BluetoothAdapter? get() = (context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager?)?.adapter
     private var connectDeviceName: String? = null
     private var bluetoothGatt: BluetoothGatt? = null
@@ -167,7 +170,7 @@ class BLECommonService @Inject internal constructor(
     @SuppressLint("MissingPermission")
     @Synchronized
     fun close() {
-        aapsLogger.debug(LTag.PUMPBTCOMM, "BluetoothAdapter close")
+        aapsLogger.debug(LTag.PUMPBTCOMM, "BluetoothAdapter close, writes: ${writeExecutor.metrics()}")
         bluetoothGatt?.close()
         bluetoothGatt = null
     }
@@ -208,25 +211,26 @@ class BLECommonService @Inject internal constructor(
         }
     }
 
+    /**
+     * Queue write to writer thread. Every write is scheduled [WRITE_DELAY_MILLIS]
+     * after the previous one, caller is not blocked.
+     */
     @Suppress("DEPRECATION")
     @SuppressLint("MissingPermission")
-    @Synchronized
     private fun writeCharacteristicNoResponse(characteristic: BluetoothGattCharacteristic, data: ByteArray) {
-        Thread(Runnable {
+        writeExecutor.executePaced(WRITE_DELAY_MILLIS) {
             synchronized(this) {
-                SystemClock.sleep(WRITE_DELAY_MILLIS)
                 if (bluetoothAdapter == null || bluetoothGatt == null) {
                     aapsLogger.error("BluetoothAdapter not initialized_ERROR")
                     isConnecting = false
                     isConnected = false
-                    return@Runnable
+                    return@executePaced
                 }
                 characteristic.value = data
                 characteristic.writeType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
                 bluetoothGatt?.writeCharacteristic(characteristic)
             }
-        }).start()
-        SystemClock.sleep(50)
+        }
     }
 
     // private val uartIndicateBTGattChar: BluetoothGattCharacteristic
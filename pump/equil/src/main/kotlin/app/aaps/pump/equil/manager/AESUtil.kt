@@ -12,6 +12,10 @@ import javax.crypto.spec.SecretKeySpec
 
 object AESUtil {
 
+    // Provider lookup and seeding are expensive, instances are reused for every packet
+    private val secureRandom = SecureRandom()
+    private val gcmCipher = ThreadLocal.withInitial { Cipher.getInstance("AES/GCM/NoPadding") }
+
     private fun generateAESKeyFromPassword(password: String): ByteArray {
         val digest = MessageDigest.getInstance("SHA-256")
         val inputBytes = password.toByteArray(StandardCharsets.UTF_8)
@@ -30,7 +34,6 @@ object AESUtil {
     }
 
     fun generateRandomIV(length: Int): ByteArray {
-        val secureRandom = SecureRandom()
         val ivBytes = ByteArray(length)
         secureRandom.nextBytes(ivBytes)
         return ivBytes
@@ -39,7 +42,7 @@ object AESUtil {
     fun aesEncrypt(pwd: ByteArray?, data: ByteArray?): EquilCmdModel {
         val iv = generateRandomIV(12)
         val key: SecretKey = SecretKeySpec(pwd, "AES")
-        val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+        val cipher = gcmCipher.get()!!
         val gcmParameterSpec = GCMParameterSpec(128, iv)
         cipher.init(Cipher.ENCRYPT_MODE, key, gcmParameterSpec)
         val ciphertext = cipher.doFinal(data)
@@ -60,7 +63,7 @@ object AESUtil {
         val keySpec = SecretKeySpec(keyBytes, "AES")
         val decodedCiphertext = Utils.hexStringToBytes(ciphertext)
         val decodedAuthenticationTag = Utils.hexStringToBytes(authenticationTag)
-        val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+        val cipher = gcmCipher.get()!!
         val parameterSpec = GCMParameterSpec(128, ivBytes)
         cipher.init(Cipher.DECRYPT_MODE, keySpec, parameterSpec)
         cipher.update(decodedCiphertext)
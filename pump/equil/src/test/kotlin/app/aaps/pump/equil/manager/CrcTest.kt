@@ -5,6 +5,8 @@ import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertNotEquals
 import org.junit.jupiter.api.Test
+import java.util.Locale
+import kotlin.random.Random
 
 class CrcTest : TestBase() {
 
@@ -228,4 +230,37 @@ class CrcTest : TestBase() {
             throw AssertionError(message)
         }
     }
+
+    @Test
+    fun `table crc matches bitwise implementation for random data`() {
+        val random = Random(39)
+        repeat(1000) {
+            val data = random.nextBytes(random.nextInt(0, 100))
+            assertEquals(referenceCrc8Maxim(data), Crc.crc8Maxim(data))
+            assertArrayEquals(referenceCrc16(data), Crc.getCRC(data))
+            if (data.size > 2) {
+                assertEquals(referenceCrc8Maxim(data.copyOfRange(1, data.size - 1)), Crc.crc8Maxim(data, 1, data.size - 2))
+            }
+        }
+    }
+
+    // previous bitwise implementations
+
+    private fun referenceCrc8Maxim(source: ByteArray): Int {
+        var crc = 0x00
+        for (b in source) {
+            crc = crc xor (b.toInt() and 0xFF)
+            repeat(8) { crc = if ((crc and 0x01) != 0) (crc shr 1) xor 0x8C else crc shr 1 }
+        }
+        return crc
+    }
+
+    private fun referenceCrc16(bytes: ByteArray): ByteArray {
+        var crc = 0x0000ffff
+        for (b in bytes) {
+            crc = crc xor (b.toInt() and 0x000000ff)
+            repeat(8) { crc = if ((crc and 0x00000001) != 0) (crc shr 1) xor 0x0000a001 else crc shr 1 }
+        }
+        return Utils.hexStringToBytes(Integer.toHexString(crc).uppercase(Locale.getDefault()).padStart(4, '0'))
+    }
 }
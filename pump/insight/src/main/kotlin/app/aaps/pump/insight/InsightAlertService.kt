@@ -17,6 +17,7 @@ import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.utils.HtmlHelper
+import app.aaps.core.utils.pump.SerialExecutor
 import app.aaps.pump.insight.app_layer.activities.InsightAlertActivity
 import app.aaps.pump.insight.app_layer.remote_control.ConfirmAlertMessage
 import app.aaps.pump.insight.app_layer.remote_control.SnoozeAlertMessage
@@ -50,6 +51,8 @@ class InsightAlertService : DaggerService(), InsightConnectionService.StateCallb
     private var connectionService: InsightConnectionService? = null
     private var ignoreTimestamp: Long = 0
     private var ignoreType: AlertType? = null
+    // mute and confirm requests are sent one after another, in order of user actions
+    private val alertActions = SerialExecutor("Insight alert actions") { aapsLogger.error(LTag.PUMP, "Alert action failed", it) }
     private val serviceConnection: ServiceConnection = object : ServiceConnection {
         override fun onServiceConnected(name: ComponentName, binder: IBinder) {
             connectionService = (binder as InsightConnectionService.LocalBinder).service
@@ -90,6 +93,7 @@ class InsightAlertService : DaggerService(), InsightConnectionService.StateCallb
 
     override fun onDestroy() {
         if (thread != null) thread?.interrupt()
+        alertActions.shutdown()
         unbindService(serviceConnection)
     }
 
@@ -183,7 +187,8 @@ class InsightAlertService : DaggerService(), InsightConnectionService.StateCallb
     }
 
     fun mute() {
-        Thread(Runnable {
+        if (alertActions.isShutdown) return
+        alertActions.execute(Runnable {
             try {
                 synchronized(alertLock) {
                     if (alert == null) return@Runnable
@@ -207,11 +212,12 @@ class InsightAlertService : DaggerService(), InsightConnectionService.StateCallb
                 aapsLogger.error(LTag.PUMP, "Exception while muting alert", e)
                 ExceptionTranslator.makeToast(this@InsightAlertService, e)
             }
-        }).start()
+        })
     }
 
     fun confirm() {
-        Thread(Runnable {
+        if (alertActions.isShutdown) return
+        alertActions.execute(Runnable {
             try {
                 synchronized(alertLock) {
                     if (alert == null) return@Runnable
@@ -233,7 +239,7 @@ class InsightAlertService : DaggerService(), InsightConnectionService.StateCallb
                 aapsLogger.error(LTag.PUMP, "Exception while confirming alert", e)
                 ExceptionTranslator.makeToast(this@InsightAlertService, e)
             }
-        }).start()
+        })
     }
 
     @SuppressLint("MissingPermission", "UnspecifiedImmutableFlag")
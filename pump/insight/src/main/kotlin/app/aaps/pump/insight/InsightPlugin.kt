@@ -1043,30 +1043,27 @@ class InsightPlugin @Inject constructor(
             temporaryBasals.add(temporaryBasal)
         }
         temporaryBasals.sortWith { o1, o2 -> (o1.timestamp - o2.timestamp).toInt() }
+        val events = ArrayList<PumpSync.PumpEvent>()
         for (temporaryBasal in temporaryBasals) {
             temporaryBasal.pumpId?.let { pumpId ->
                 if (temporaryBasal.duration == 0L) {                    // for Stop TBR event duration = 0L
-                    pumpSync.syncStopTemporaryBasalWithPumpId(
-                        timestamp = temporaryBasal.timestamp,
-                        endPumpId = pumpId,
-                        pumpType = PumpType.ACCU_CHEK_INSIGHT,
-                        pumpSerial = serial
-                    )
+                    events.add(PumpSync.PumpEvent.StopTemporaryBasal(timestamp = temporaryBasal.timestamp, endPumpId = pumpId))
                 }
                 if (temporaryBasal.rate != 100.0) {
-                    pumpSync.syncTemporaryBasalWithPumpId(
-                        timestamp = temporaryBasal.timestamp,
-                        rate = temporaryBasal.rate,
-                        duration = temporaryBasal.duration,
-                        isAbsolute = temporaryBasal.isAbsolute,
-                        type = temporaryBasal.type,
-                        pumpId = pumpId,
-                        pumpType = PumpType.ACCU_CHEK_INSIGHT,
-                        pumpSerial = serial
+                    events.add(
+                        PumpSync.PumpEvent.TemporaryBasal(
+                            timestamp = temporaryBasal.timestamp,
+                            rate = temporaryBasal.rate,
+                            duration = temporaryBasal.duration,
+                            isAbsolute = temporaryBasal.isAbsolute,
+                            type = temporaryBasal.type,
+                            pumpId = pumpId
+                        )
                     )
                 }
             }
         }
+        if (events.isNotEmpty()) pumpSync.syncPumpEvents(events, PumpType.ACCU_CHEK_INSIGHT, serial)
     }
 
     private fun processHistoryEvent(serial: String, temporaryBasals: MutableList<TemporaryBasal>, pumpStartedEvents: MutableList<InsightPumpID>, event: HistoryEvent?): Boolean {
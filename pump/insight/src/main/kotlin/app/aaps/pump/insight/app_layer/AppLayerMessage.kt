@@ -16,13 +16,13 @@ open class AppLayerMessage(private val messagePriority: MessagePriority, private
     protected open fun parse(byteBuf: ByteBuf) = Unit
 
     fun serialize(): ByteBuf {
-        val data = data.bytes
-        val byteBuf = ByteBuf(4 + data.size + if (outCRC) 2 else 0)
+        val data = data
+        val byteBuf = ByteBuf(4 + data.filledSize + if (outCRC) 2 else 0)
         byteBuf.putByte(VERSION)
         byteBuf.putByte(service!!.id)
         byteBuf.putUInt16LE(AppCommands.fromType(this))
-        byteBuf.putBytes(data)
-        if (outCRC) byteBuf.putUInt16LE(Cryptograph.calculateCRC(data))
+        byteBuf.putByteBuf(data)
+        if (outCRC) byteBuf.putUInt16LE(Cryptograph.calculateCRC(data, 0, data.filledSize))
         return byteBuf
     }
 
@@ -48,9 +48,9 @@ open class AppLayerMessage(private val messagePriority: MessagePriority, private
                         error
                     )
             }
-            val data = byteBuf.readBytes(byteBuf.filledSize - if (message.inCRC) 2 else 0)
-            if (message.inCRC && Cryptograph.calculateCRC(data) != byteBuf.readUInt16LE()) throw app.aaps.pump.insight.exceptions.InvalidAppCRCException()
-            message.parse(ByteBuf.from(data))
+            val data = byteBuf.readSlice(byteBuf.filledSize - if (message.inCRC) 2 else 0)
+            if (message.inCRC && Cryptograph.calculateCRC(data, 0, data.filledSize) != byteBuf.readUInt16LE()) throw app.aaps.pump.insight.exceptions.InvalidAppCRCException()
+            message.parse(data)
             return message
         }
 
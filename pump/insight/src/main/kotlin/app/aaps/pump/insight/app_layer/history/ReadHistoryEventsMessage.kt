@@ -18,7 +18,7 @@ class ReadHistoryEventsMessage : AppLayerMessage(MessagePriority.NORMAL, true, f
                 val frameCount = it1.readUInt16LE()
                 for (i in 0 until frameCount) {
                     val length = it1.readUInt16LE()
-                    it.add(HistoryEvent.deserialize(ByteBuf.from(it1.readBytes(length))))
+                    it.add(HistoryEvent.deserialize(it1.readSlice(length)))
                 }
             }
         }
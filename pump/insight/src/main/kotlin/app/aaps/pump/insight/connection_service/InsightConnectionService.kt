@@ -14,6 +14,7 @@ import androidx.core.app.ActivityCompat
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.utils.pump.SerialExecutor
 import app.aaps.pump.insight.app_layer.AppLayerMessage
 import app.aaps.pump.insight.app_layer.AppLayerMessage.Companion.unwrap
 import app.aaps.pump.insight.app_layer.AppLayerMessage.Companion.wrap
@@ -75,8 +76,6 @@ import app.aaps.pump.insight.satl.VerifyDisplayRequest
 import app.aaps.pump.insight.satl.VerifyDisplayResponse
 import app.aaps.pump.insight.utils.ByteBuf
 import app.aaps.pump.insight.utils.ConnectionEstablisher
-import app.aaps.pump.insight.utils.DelayedActionThread
-import app.aaps.pump.insight.utils.DelayedActionThread.Companion.runDelayed
 import app.aaps.pump.insight.utils.InputStreamReader
 import app.aaps.pump.insight.utils.Nonce
 import app.aaps.pump.insight.utils.OutputStreamWriter
@@ -87,10 +86,12 @@ import app.aaps.pump.insight.utils.crypto.Cryptograph.deriveKeys
 import app.aaps.pump.insight.utils.crypto.Cryptograph.generateRSAKey
 import app.aaps.pump.insight.utils.crypto.Cryptograph.getServicePasswordHash
 import app.aaps.pump.insight.utils.crypto.KeyPair
+import app.aaps.pump.insight.utils.crypto.TwofishCCM
 import dagger.android.DaggerService
 import org.spongycastle.crypto.InvalidCipherTextException
 import java.io.IOException
 import java.security.SecureRandom
+import java.util.concurrent.ScheduledFuture
 import javax.inject.Inject
 import kotlin.math.max
 import kotlin.math.min
@@ -107,9 +108,10 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
     @get:Synchronized lateinit var state: InsightState
         private set
     private lateinit var wakeLock: PowerManager.WakeLock
-    private var disconnectTimer: DelayedActionThread? = null
-    private var recoveryTimer: DelayedActionThread? = null
-    private var timeoutTimer: DelayedActionThread? = null
+    private val timers = SerialExecutor("Insight timers") { aapsLogger.error(LTag.PUMP, "Timer action failed", it) }
+    private var disconnectTimer: ScheduledFuture<*>? = null
+    private var recoveryTimer: ScheduledFuture<*>? = null
+    private var timeoutTimer: ScheduledFuture<*>? = null
     private var bluetoothAdapter: BluetoothAdapter? = null
     private var bluetoothDevice: BluetoothDevice? = null
     private var bluetoothSocket: BluetoothSocket? = null
@@ -118,6 +120,8 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
     private var outputStreamWriter: OutputStreamWriter? = null
     private var keyRequest: KeyRequest? = null
     private val buffer = ByteBuf(BUFFER_SIZE)
+    private var incomingCipher: TwofishCCM? = null
+    private var outgoingCipher: TwofishCCM? = null
     @get:Synchronized var verificationString: String? = null
         private set
     private val messageQueue = MessageQueue()
@@ -246,7 +250,7 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
     @Synchronized fun requestConnection(lock: Any) {
         if (connectionRequests.contains(lock)) return
         connectionRequests.add(lock)
-        disconnectTimer?.interrupt()
+        disconnectTimer?.cancel(false)
         disconnectTimer = null
         if (state === InsightState.DISCONNECTED && pairingDataStorage.paired) {
             recoveryDuration = 0
@@ -260,7 +264,7 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
         connectionRequests.remove(lock)
         if (connectionRequests.isEmpty()) {
             if (state === InsightState.RECOVERING) {
-                recoveryTimer?.interrupt()
+                recoveryTimer?.cancel(false)
                 recoveryTimer = null
                 setState(InsightState.DISCONNECTED)
                 cleanup(true)
@@ -269,7 +273,7 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
                 disconnectTimeout = min(disconnectTimeout, 15)
                 disconnectTimeout = max(disconnectTimeout, 0)
                 aapsLogger.info(LTag.PUMP, "Last connection lock released, will disconnect in $disconnectTimeout seconds")
-                disconnectTimer = runDelayed("Disconnect Timer", disconnectTimeout * 1000) { disconnect() }
+                disconnectTimer = schedule(disconnectTimeout * 1000) { disconnect() }
             }
         }
     }
@@ -281,10 +285,10 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
     private fun cleanup(closeSocket: Boolean) {
         messageQueue.completeActiveRequest(ConnectionLostException())
         messageQueue.completePendingRequests(ConnectionLostException())
-        recoveryTimer?.interrupt()
+        recoveryTimer?.cancel(false)
         recoveryTimer = null
 
-        disconnectTimer?.interrupt()
+        disconnectTimer?.cancel(false)
         disconnectTimer = null
 
         inputStreamReader?.close()
@@ -300,7 +304,7 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
             }
         }
         connectionEstablisher = null
-        timeoutTimer?.interrupt()
+        timeoutTimer?.cancel(false)
         timeoutTimer = null
 
         buffer.clear()
@@ -344,10 +348,17 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
                 } else {
                     increaseRecoveryDuration()
                     if (recoveryDuration == 0L) connect() else {
-                        recoveryTimer = runDelayed("RecoveryTimer", recoveryDuration) {
-                            recoveryTimer = null
-                            synchronized(this@InsightConnectionService) { if (!Thread.currentThread().isInterrupted) connect() }
+                        var timer: ScheduledFuture<*>? = null
+                        timer = schedule(recoveryDuration) {
+                            // not cancelled or replaced while waiting for lock
+                            synchronized(this@InsightConnectionService) {
+                                if (recoveryTimer === timer) {
+                                    recoveryTimer = null
+                                    connect()
+                                }
+                            }
                         }
+                        recoveryTimer = timer
                     }
                 }
             }
@@ -418,7 +429,7 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
         this.buffer.putBytes(buffer, bytesRead)
         try {
             while (hasCompletePacket(this.buffer)) {
-                val satlMessage = deserialize(this.buffer, pairingDataStorage.lastNonceReceived, pairingDataStorage.incomingKey)
+                val satlMessage = deserialize(this.buffer, pairingDataStorage.lastNonceReceived, incomingCipher())
                 satlMessage?.let {
                     if (pairingDataStorage.incomingKey != null && pairingDataStorage.lastNonceReceived != null && !pairingDataStorage.lastNonceReceived!!.isSmallerThan(it.nonce!!)) {
                         throw InvalidNonceException()
@@ -438,21 +449,30 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
             pairingDataStorage.lastNonceSent = it
             satlMessage.nonce = it
         }
-        val serialized = satlMessage.serialize(pairingDataStorage.outgoingKey)
-        timeoutTimer?.interrupt()
-        timeoutTimer = runDelayed("TimeoutTimer", RESPONSE_TIMEOUT) {
+        val serialized = satlMessage.serialize(if (satlMessage.nonce == null) null else outgoingCipher())
+        timeoutTimer?.cancel(false)
+        timeoutTimer = schedule(RESPONSE_TIMEOUT) {
             timeoutTimer = null
             handleException(TimeoutException())
         }
         return serialized.bytes
     }
 
+    // key schedule is done once, ciphers are replaced only when keys change after pairing
+    private fun incomingCipher(): TwofishCCM? = pairingDataStorage.incomingKey?.let { key ->
+        incomingCipher?.takeIf { it.usesKey(key) } ?: TwofishCCM(key).also { incomingCipher = it }
+    }
+
+    private fun outgoingCipher(): TwofishCCM? = pairingDataStorage.outgoingKey?.let { key ->
+        outgoingCipher?.takeIf { it.usesKey(key) } ?: TwofishCCM(key).also { outgoingCipher = it }
+    }
+
     private fun sendSatlMessage(satlMessage: SatlMessage) = outputStreamWriter?.write(prepareSatlMessage(satlMessage))
 
     private fun sendSatlMessageAndWait(satlMessage: SatlMessage) = outputStreamWriter?.writeAndWait(prepareSatlMessage(satlMessage))
 
     private fun processSatlMessage(satlMessage: SatlMessage?) {
-        timeoutTimer?.interrupt()
+        timeoutTimer?.cancel(false)
         timeoutTimer = null
         satlMessage?.let { pairingDataStorage.lastNonceReceived = it.nonce }
         if (satlMessage is ConnectionResponse) processConnectionResponse()      // Pairing seems to be better with if ... else if than with when (satlMessage) is ... ->
@@ -712,8 +732,21 @@ class InsightConnectionService : DaggerService(), ConnectionEstablisher.Callback
         handleException(ConnectionLostException())
     }
 
+    // callbacks may still arrive after onDestroy, timers are not started anymore
+    @Synchronized private fun schedule(delayMillis: Long, task: Runnable): ScheduledFuture<*>? {
+        if (timers.isShutdown) {
+            aapsLogger.debug(LTag.PUMP, "Service destroyed, timer not scheduled")
+            return null
+        }
+        return timers.schedule(delayMillis, task)
+    }
+
     override fun onDestroy() {
         disconnect()
+        synchronized(this) {
+            aapsLogger.debug(LTag.PUMP, "Timers: ${timers.metrics()}")
+            timers.shutdown()
+        }
     }
 
     override fun onBind(intent: Intent): IBinder {
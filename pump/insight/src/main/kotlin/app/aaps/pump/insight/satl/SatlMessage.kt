@@ -11,6 +11,7 @@ import app.aaps.pump.insight.exceptions.InvalidSatlCommandException
 import app.aaps.pump.insight.utils.ByteBuf
 import app.aaps.pump.insight.utils.Nonce
 import app.aaps.pump.insight.utils.crypto.Cryptograph
+import app.aaps.pump.insight.utils.crypto.TwofishCCM
 
 abstract class SatlMessage {
 
@@ -22,8 +23,8 @@ abstract class SatlMessage {
 
     protected open fun parse(byteBuf: ByteBuf) = Unit
 
-    fun serialize(key: ByteArray?): ByteBuf {
-        val byteBuf: ByteBuf = if (nonce == null || key == null) serializeCRC() else serializeCTR(nonce!!.productionalBytes, key, SatlCommands.fromType(this))
+    fun serialize(cipher: TwofishCCM?): ByteBuf {
+        val byteBuf: ByteBuf = if (nonce == null || cipher == null) serializeCRC() else serializeCTR(nonce!!.productionalBytes, cipher, SatlCommands.fromType(this))
         satlContent = byteBuf.getBytes(8, byteBuf.filledSize - 16)
         return byteBuf
     }
@@ -40,26 +41,30 @@ abstract class SatlMessage {
         byteBuf.putUInt32LE(if (this is KeyRequest) 1 else commID)
         byteBuf.putBytes(0x00.toByte(), 13)
         byteBuf.putByteBuf(data)
-        byteBuf.putUInt16LE(Cryptograph.calculateCRC(byteBuf.getBytes(8, length - 10)))
+        byteBuf.putUInt16LE(Cryptograph.calculateCRC(byteBuf, 8, length - 10))
         byteBuf.putBytes(0x00.toByte(), 8)
         return byteBuf
     }
 
-    private fun serializeCTR(nonce: ByteBuf, key: ByteArray, commandId: Byte): ByteBuf {
+    private fun serializeCTR(nonce: ByteBuf, cipher: TwofishCCM, commandId: Byte): ByteBuf {
         val data = data
-        val encryptedData = ByteBuf.from(Cryptograph.encryptDataCTR(data.bytes, key, nonce.bytes))
-        val length = 29 + encryptedData.filledSize
+        val dataLength = data.filledSize
+        val length = 29 + dataLength
         val byteBuf = ByteBuf(length + 8)
         byteBuf.putUInt32LE(PREAMBLE)
         byteBuf.putUInt16LE(length)
         byteBuf.putUInt16LE(length.inv())
         byteBuf.putByte(VERSION)
         byteBuf.putByte(commandId)
-        byteBuf.putUInt16LE(encryptedData.filledSize)
+        byteBuf.putUInt16LE(dataLength)
         byteBuf.putUInt32LE(commID)
         byteBuf.putByteBuf(nonce)
-        byteBuf.putByteBuf(encryptedData)
-        byteBuf.putBytes(Cryptograph.produceCCMTag(byteBuf.getBytes(16, 13), data.bytes, byteBuf.getBytes(8, 21), key))
+        byteBuf.putByteBuf(data)
+        byteBuf.putBytes(0x00.toByte(), 8)
+        // header is 8..29 with nonce at 16..29, tag of plain data is computed before encryption in place
+        val packet = byteBuf.array
+        cipher.produceTag(packet, 16, packet, 8, 21, packet, 29, dataLength, packet, 29 + dataLength)
+        cipher.processCTR(packet, 16, packet, 29, dataLength)
         return byteBuf
     }
 
@@ -78,9 +83,9 @@ abstract class SatlMessage {
             IncompatibleSatlVersionException::class,
             InvalidSatlCommandException::class
         )
-        fun deserialize(data: ByteBuf, lastNonce: Nonce?, key: ByteArray?): SatlMessage? {
+        fun deserialize(data: ByteBuf, lastNonce: Nonce?, cipher: TwofishCCM?): SatlMessage? {
             val satlContent = data.getBytes(8, data.filledSize - 16)
-            val satlMessage: SatlMessage? = if (key == null) deserializeCRC(data) else lastNonce?.let { deserializeCTR(data, it, key) }
+            val satlMessage: SatlMessage? = if (cipher == null) deserializeCRC(data) else lastNonce?.let { deserializeCTR(data, it, cipher) }
             satlMessage?.let { it.satlContent = satlContent }
             return satlMessage
         }
@@ -93,29 +98,32 @@ abstract class SatlMessage {
             IncompatibleSatlVersionException::class,
             InvalidSatlCommandException::class
         )
-        private fun deserializeCTR(data: ByteBuf, lastNonce: Nonce, key: ByteArray): SatlMessage {
+        private fun deserializeCTR(data: ByteBuf, lastNonce: Nonce, cipher: TwofishCCM): SatlMessage {
             val preamble = data.readUInt32LE()
             val packetLength = data.readUInt16LE()
             val packetLengthXOR = data.readUInt16LE() xor 65535
-            val header = data.getBytes(21)
+            // header and trailer are used in place, received bytes are not compacted while packets are read
+            val packet = data.array
+            val headerOffset = data.arrayOffset
             val version = data.readByte()
             val commandId = data.readByte()
             val message = SatlCommands.fromId(commandId)
             val dataLength = data.readUInt16LE()
             val commId = data.readUInt32LE()
             val nonce = data.readBytes(13)
-            var payload = data.readBytes(dataLength)
-            val trailer = data.readBytes(8)
+            val payload = data.readBytes(dataLength)
+            val trailerOffset = data.arrayOffset
+            data.shift(8)
             val parsedNonce = Nonce.fromProductionalBytes(nonce)
-            payload = Cryptograph.encryptDataCTR(payload, key, nonce)
-            if (!trailer.contentEquals(Cryptograph.produceCCMTag(nonce, payload, header, key))) throw InvalidMacTrailerException()
+            cipher.processCTR(nonce, 0, payload, 0, dataLength)
+            if (!cipher.verifyTag(nonce, 0, packet, headerOffset, 21, payload, 0, dataLength, packet, trailerOffset)) throw InvalidMacTrailerException()
             if (!lastNonce.isSmallerThan(parsedNonce)) throw InvalidNonceException()
             if (preamble != PREAMBLE) throw InvalidPreambleException()
             if (packetLength != packetLengthXOR) throw InvalidPacketLengthsException()
             if (version != VERSION) throw IncompatibleSatlVersionException()
             if (message == null) throw InvalidSatlCommandException()
             return message.also {
-                it.parse(ByteBuf.from(payload))
+                it.parse(ByteBuf.wrap(payload))
                 it.nonce = parsedNonce
                 it.commID = commId
             }
@@ -126,7 +134,7 @@ abstract class SatlMessage {
             val preamble = data.readUInt32LE()
             val packetLength = data.readUInt16LE()
             val packetLengthXOR = data.readUInt16LE() xor 65535
-            val crcContent = data.getBytes(packetLength - 10)
+            val crc = Cryptograph.calculateCRC(data, 0, packetLength - 10)
             val version = data.readByte()
             val commandId = data.readByte()
             val message = SatlCommands.fromId(commandId)
@@ -134,15 +142,15 @@ abstract class SatlMessage {
             val commId = data.readUInt32LE()
             val nonce = data.readBytes(13)
             val payload = data.readBytes(dataLength - 2)
-            val crc = data.readUInt16LE()
+            val receivedCrc = data.readUInt16LE()
             data.shift(8)
-            if (crc != Cryptograph.calculateCRC(crcContent)) throw InvalidSatlCRCException()
+            if (receivedCrc != crc) throw InvalidSatlCRCException()
             if (preamble != PREAMBLE) throw InvalidPreambleException()
             if (packetLength != packetLengthXOR) throw InvalidPacketLengthsException()
             if (version != VERSION) throw IncompatibleSatlVersionException()
             if (message == null) throw InvalidSatlCommandException()
             return message.also {
-                it.parse(ByteBuf.from(payload))
+                it.parse(ByteBuf.wrap(payload))
                 it.nonce = Nonce.fromProductionalBytes(nonce)
                 it.commID = commId
             }
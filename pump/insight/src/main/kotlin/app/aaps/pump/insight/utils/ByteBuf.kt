@@ -5,26 +5,47 @@ import java.math.RoundingMode
 import java.nio.charset.StandardCharsets
 import kotlin.experimental.and
 
-class ByteBuf(length: Int) {
-
-    private val _bytes: ByteArray = ByteArray(length)
-    var filledSize = 0
+/**
+ * Buffer with read index: reading moves the index instead of copying remaining bytes
+ * to the front. Space before read index is reclaimed only when more data is put and
+ * does not fit to the end.
+ *
+ * [readSlice] and [wrap] share bytes without copying. Slice is valid until more data
+ * is put to the buffer it was taken from.
+ */
+class ByteBuf private constructor(private val _bytes: ByteArray, private val start: Int, private val end: Int, filled: Int) {
+
+    constructor(length: Int) : this(ByteArray(length), 0, length, 0)
+
+    private var readIndex = start
+    var filledSize = filled
         private set
     val bytes: ByteArray
-        get() {
-            val bytes = ByteArray(filledSize)
-            System.arraycopy(_bytes, 0, bytes, 0, filledSize)
-            return bytes
-        }
+        get() = _bytes.copyOfRange(readIndex, readIndex + filledSize)
+
+    // backing array and offset of first unread byte, for in place crypto and CRC
+    internal val array: ByteArray
+        get() = _bytes
+    internal val arrayOffset: Int
+        get() = readIndex
 
     fun shift(offset: Int) {
-        System.arraycopy(_bytes, offset, _bytes, 0, _bytes.size - offset)
+        readIndex += offset
         filledSize -= offset
     }
 
+    private fun ensureSpace(length: Int) {
+        if (readIndex + filledSize + length <= end) return
+        if (readIndex > start) {
+            System.arraycopy(_bytes, readIndex, _bytes, start, filledSize)
+            readIndex = start
+        }
+        if (readIndex + filledSize + length > end) throw IndexOutOfBoundsException("ByteBuf full: ${filledSize + length} > ${end - start}")
+    }
+
     // public byte getByte(int position) { return _bytes[position]; }
     private val byte: Byte
-        get() = _bytes[0]
+        get() = _bytes[readIndex]
 
     fun readByte(): Byte {
         val b = byte
@@ -33,17 +54,20 @@ class ByteBuf(length: Int) {
     }
 
     fun putByte(b: Byte) {
-        _bytes[filledSize] = b
+        ensureSpace(1)
+        _bytes[readIndex + filledSize] = b
         filledSize += 1
     }
 
     fun putBytes(b: Byte, count: Int) {
-        for (i in 0 until count) _bytes[filledSize++] = b
+        ensureSpace(count)
+        _bytes.fill(b, readIndex + filledSize, readIndex + filledSize + count)
+        filledSize += count
     }
 
     fun getBytes(position: Int, length: Int): ByteArray {
         val copy = ByteArray(length)
-        System.arraycopy(_bytes, position, copy, 0, length)
+        System.arraycopy(_bytes, readIndex + position, copy, 0, length)
         return copy
     }
 
@@ -61,14 +85,29 @@ class ByteBuf(length: Int) {
         return readBytes(filledSize)
     }
 
+    /**
+     * Next [length] bytes as ByteBuf sharing this buffer's bytes
+     */
+    fun readSlice(length: Int): ByteBuf {
+        if (length > filledSize) throw IndexOutOfBoundsException("Slice of $length bytes, $filledSize available")
+        val slice = ByteBuf(_bytes, readIndex, readIndex + length, length)
+        shift(length)
+        return slice
+    }
+
     @JvmOverloads fun putBytes(bytes: ByteArray, length: Int = bytes.size) {
-        System.arraycopy(bytes, 0, _bytes, filledSize, length)
+        putBytes(bytes, 0, length)
+    }
+
+    private fun putBytes(bytes: ByteArray, offset: Int, length: Int) {
+        ensureSpace(length)
+        System.arraycopy(bytes, offset, _bytes, readIndex + filledSize, length)
         filledSize += length
     }
 
     private fun getBytesLE(position: Int, length: Int): ByteArray {
         val copy = ByteArray(length)
-        for (i in 0 until length) copy[i] = _bytes[length - 1 - i + position]
+        for (i in 0 until length) copy[i] = _bytes[readIndex + length - 1 - i + position]
         return copy
     }
 
@@ -80,7 +119,8 @@ class ByteBuf(length: Int) {
     }
 
     private fun putBytesLE(bytes: ByteArray, length: Int) {
-        for (i in 0 until length) _bytes[filledSize + length - 1 - i] = bytes[i]
+        ensureSpace(length)
+        for (i in 0 until length) _bytes[readIndex + filledSize + length - 1 - i] = bytes[i]
         filledSize += length
     }
 
@@ -89,11 +129,11 @@ class ByteBuf(length: Int) {
     }
 
     fun putByteBuf(byteBuf: ByteBuf) {
-        putBytes(byteBuf.bytes, byteBuf.filledSize)
+        putBytes(byteBuf._bytes, byteBuf.readIndex, byteBuf.filledSize)
     }
 
     private fun getUInt8(position: Int): Short {
-        return _bytes[position].toShort() and 0xFF
+        return _bytes[readIndex + position].toShort() and 0xFF
     }
 
     // private short getUInt8() { return getUInt8(0); }
@@ -108,7 +148,7 @@ class ByteBuf(length: Int) {
     }
 
     fun getUInt16LE(position: Int): Int {
-        var p = position
+        var p = readIndex + position
         return (_bytes[p++].toShort() and 0xFF) +
             (_bytes[p].toShort() and 0xFF) * 256 // Convert to short and replace "or" by "+" and "shl 8" by "* 256" to fix convertion compared to java
     }
@@ -125,10 +165,9 @@ class ByteBuf(length: Int) {
         putByte((i shr 8 and 0xFF).toByte())
     }
 
+    // integer divided by power of ten is rounded once, same result as BigDecimal divide and toDouble
     private fun getUInt16Decimal(position: Int): Double {
-        return BigDecimal(getUInt16LE(position))
-            .divide(BigDecimal(100), 2, RoundingMode.HALF_UP)
-            .toDouble()
+        return getUInt16LE(position) / 100.0
     }
 
     //private double getUInt16Decimal() { return getUInt16Decimal(0); }
@@ -148,9 +187,7 @@ class ByteBuf(length: Int) {
     }
 
     private fun getUInt32Decimal100(position: Int): Double {
-        return BigDecimal(getUInt32LE(position))
-            .divide(BigDecimal(100), 2, RoundingMode.HALF_UP)
-            .toDouble()
+        return getUInt32LE(position) / 100.0
     }
 
     //private double getUInt32Decimal100() { return getUInt32Decimal100(0); }
@@ -169,9 +206,7 @@ class ByteBuf(length: Int) {
     }
 */
     private fun getUInt32Decimal1000(position: Int): Double {
-        return BigDecimal(getUInt32LE(position))
-            .divide(BigDecimal(1000), 3, RoundingMode.HALF_UP)
-            .toDouble()
+        return getUInt32LE(position) / 1000.0
     }
 
     //private double getUInt32Decimal1000() { return getUInt32Decimal1000(0); }
@@ -182,7 +217,7 @@ class ByteBuf(length: Int) {
     }
 
     private fun getShort(position: Int): Short {
-        var p = position
+        var p = readIndex + position
         return (
             (_bytes[p++].toLong() and 0xFF) shl 8 or
                 (_bytes[p].toLong() and 0xFF)
@@ -202,7 +237,7 @@ class ByteBuf(length: Int) {
     }
 
     private fun getUInt32LE(position: Int): Long {
-        var p = position
+        var p = readIndex + position
         return _bytes[p++].toLong() and 0xFF or (
             _bytes[p++].toLong() and 0xFF shl 8) or (
             _bytes[p++].toLong() and 0xFF shl 16) or (
@@ -224,7 +259,7 @@ class ByteBuf(length: Int) {
     }
 
     private fun getUTF16(position: Int, stringLength: Int): String {
-        val string = String(getBytes(position, stringLength * 2 + 2), StandardCharsets.UTF_16LE)
+        val string = String(_bytes, readIndex + position, stringLength * 2 + 2, StandardCharsets.UTF_16LE)
         return string.substring(0, string.indexOf(String(charArrayOf(0.toChar(), 0.toChar()))))
     }
 
@@ -241,7 +276,7 @@ class ByteBuf(length: Int) {
     }
 
     private fun getASCII(position: Int, stringLength: Int): String {
-        val string = String(getBytes(position, stringLength + 1), StandardCharsets.US_ASCII)
+        val string = String(_bytes, readIndex + position, stringLength + 1, StandardCharsets.US_ASCII)
         return string.substring(0, string.indexOf(0.toChar()))
     }
 
@@ -273,7 +308,8 @@ class ByteBuf(length: Int) {
     }
 
     fun clear() {
-        shift(filledSize)
+        readIndex = start
+        filledSize = 0
     }
 
     companion object {
@@ -287,6 +323,11 @@ class ByteBuf(length: Int) {
         fun from(bytes: ByteArray): ByteBuf {
             return from(bytes, bytes.size)
         }
+
+        /**
+         * ByteBuf reading [bytes] without copy. Array must not be modified later.
+         */
+        fun wrap(bytes: ByteArray): ByteBuf = ByteBuf(bytes, 0, bytes.size, bytes.size)
     }
 }
 
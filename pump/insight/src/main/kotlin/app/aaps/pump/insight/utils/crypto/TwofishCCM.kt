@@ -0,0 +1,24 @@
+package app.aaps.pump.insight.utils.crypto
+
+import app.aaps.core.utils.pump.InPlaceCCM
+import org.spongycastle.crypto.engines.TwofishEngine
+import org.spongycastle.crypto.params.KeyParameter
+
+/**
+ * Twofish CCM used for SATL messages: 13 bytes nonce and 8 bytes tag.
+ *
+ * One instance is kept per direction of connection and reused for every message,
+ * so key schedule is done once per key.
+ */
+class TwofishCCM(key: ByteArray) : InPlaceCCM(TwofishEngine().also { it.init(true, KeyParameter(key)) }, NONCE_SIZE, TAG_SIZE) {
+
+    private val key: ByteArray = key.copyOf()
+
+    fun usesKey(key: ByteArray): Boolean = this.key.contentEquals(key)
+
+    companion object {
+
+        private const val NONCE_SIZE = 13
+        private const val TAG_SIZE = 8
+    }
+}
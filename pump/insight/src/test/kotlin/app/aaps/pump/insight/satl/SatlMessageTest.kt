@@ -0,0 +1,129 @@
+package app.aaps.pump.insight.satl
+
+import app.aaps.pump.insight.exceptions.InvalidMacTrailerException
+import app.aaps.pump.insight.utils.ByteBuf
+import app.aaps.pump.insight.utils.Nonce
+import app.aaps.pump.insight.utils.crypto.TwofishCCM
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.spongycastle.crypto.engines.TwofishEngine
+import org.spongycastle.crypto.modes.CBCBlockCipher
+import org.spongycastle.crypto.params.KeyParameter
+import org.spongycastle.crypto.params.ParametersWithIV
+import kotlin.random.Random
+
+/**
+ * Encrypted SATL frames compared with previous copying implementation and replayed
+ * through receive buffer like from Bluetooth socket.
+ */
+class SatlMessageTest : TestBase() {
+
+    private val random = Random(35)
+    private val key = random.nextBytes(16)
+    private val payloads = List(200) { random.nextBytes(random.nextInt(0, 120)) }
+
+    private fun dataMessage(payload: ByteArray, nonceValue: Int?) = DataMessage().also {
+        it.data = ByteBuf.from(payload)
+        it.commID = 0x12345678
+        it.nonce = nonceValue?.let { value -> Nonce().also { nonce -> nonce.increment(value) } }
+    }
+
+    private fun frames(cipher: TwofishCCM?): List<ByteArray> =
+        payloads.mapIndexed { index, payload -> dataMessage(payload, if (cipher == null) null else index + 1).serialize(cipher).bytes }
+
+    private fun replay(frames: List<ByteArray>, cipher: TwofishCCM?, chunkSize: Int = 64): List<ByteArray> {
+        val stream = frames.fold(ByteArray(0)) { acc, frame -> acc + frame }
+        val buffer = ByteBuf(1024)
+        val lastNonce = Nonce()
+        val received = ArrayList<ByteArray>()
+        var offset = 0
+        while (offset < stream.size) {
+            val length = minOf(chunkSize, stream.size - offset)
+            buffer.putBytes(stream.copyOfRange(offset, offset + length))
+            offset += length
+            while (SatlMessage.hasCompletePacket(buffer)) {
+                val message = SatlMessage.deserialize(buffer, lastNonce, cipher) as DataMessage
+                received.add(message.data.bytes)
+            }
+        }
+        return received
+    }
+
+    @Test
+    fun `encrypted frames match previous implementation`() {
+        val frames = frames(TwofishCCM(key))
+        payloads.forEachIndexed { index, payload ->
+            val nonce = Nonce().also { it.increment(index + 1) }.productionalBytes.bytes
+            assertThat(frames[index].toList()).isEqualTo(referenceFrame(payload, nonce).toList())
+        }
+    }
+
+    @Test
+    fun `encrypted frames are decoded from received stream`() {
+        val received = replay(frames(TwofishCCM(key)), TwofishCCM(key))
+        assertThat(received.map { it.toList() }).isEqualTo(payloads.map { it.toList() })
+    }
+
+    @Test
+    fun `crc frames are decoded from received stream`() {
+        val received = replay(frames(null), null, chunkSize = 17)
+        assertThat(received.map { it.toList() }).isEqualTo(payloads.map { it.toList() })
+    }
+
+    @Test
+    fun `modified frame is rejected`() {
+        val frame = dataMessage(random.nextBytes(40), 1).serialize(TwofishCCM(key)).bytes
+        frame[32] = (frame[32].toInt() xor 0x01).toByte()
+        assertThrows<InvalidMacTrailerException> { SatlMessage.deserialize(ByteBuf.from(frame), Nonce(), TwofishCCM(key)) }
+    }
+
+    // previous implementation with new engine and copies for every message
+
+    private fun referenceFrame(payload: ByteArray, nonce: ByteArray): ByteArray {
+        val encrypted = referenceCTR(payload, nonce)
+        val length = 29 + encrypted.size
+        val byteBuf = ByteBuf(length + 8)
+        byteBuf.putUInt32LE(4293840008L)
+        byteBuf.putUInt16LE(length)
+        byteBuf.putUInt16LE(length.inv())
+        byteBuf.putByte(0x20)
+        byteBuf.putByte(3)
+        byteBuf.putUInt16LE(encrypted.size)
+        byteBuf.putUInt32LE(0x12345678)
+        byteBuf.putBytes(nonce)
+        byteBuf.putBytes(encrypted)
+        byteBuf.putBytes(referenceTag(nonce, payload, byteBuf.getBytes(8, 21)))
+        return byteBuf.bytes
+    }
+
+    private fun primitive(headerByte: Byte, nonce: ByteArray, number: Int): ByteArray =
+        byteArrayOf(headerByte) + nonce + byteArrayOf((number shr 8).toByte(), number.toByte())
+
+    private fun zeroPad(input: ByteArray): ByteArray = if (input.size % 16 == 0) input else input + ByteArray(16 - input.size % 16)
+
+    private fun referenceCTR(data: ByteArray, nonce: ByteArray): ByteArray {
+        val padded = zeroPad(data)
+        val result = ByteArray(padded.size)
+        val engine = TwofishEngine()
+        engine.init(true, KeyParameter(key))
+        for (i in 0 until padded.size / 16) engine.processBlock(primitive(0x01, nonce, i + 1), 0, result, i * 16)
+        return ByteArray(data.size) { (padded[it].toInt() xor result[it].toInt()).toByte() }
+    }
+
+    private fun referenceTag(nonce: ByteArray, payload: ByteArray, header: ByteArray): ByteArray {
+        val engine = TwofishEngine()
+        engine.init(true, KeyParameter(key))
+        val initializationVector = ByteArray(16)
+        engine.processBlock(primitive(0x59, nonce, payload.size), 0, initializationVector, 0)
+        val cbc = CBCBlockCipher(TwofishEngine())
+        cbc.init(true, ParametersWithIV(KeyParameter(key), initializationVector))
+        val combined = zeroPad(byteArrayOf((header.size shr 8).toByte(), header.size.toByte()) + header) + zeroPad(payload)
+        val result = ByteArray(combined.size)
+        for (i in 0 until combined.size / 16) cbc.processBlock(combined, i * 16, result, i * 16)
+        val ctr = ByteArray(16)
+        engine.processBlock(primitive(0x01, nonce, 0), 0, ctr, 0)
+        return ByteArray(8) { (result[result.size - 16 + it].toInt() xor ctr[it].toInt()).toByte() }
+    }
+}
@@ -4,6 +4,8 @@ import app.aaps.shared.tests.TestBase
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertTrue
 import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+import java.math.RoundingMode
 
 class ByteBufTest : TestBase() {
 
@@ -109,4 +111,42 @@ class ByteBufTest : TestBase() {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    fun testSliceSharesBytes() {
+        val sut = ByteBuf.from(byteArrayOf(1, 2, 3, 4, 5, 6, 7))
+        sut.shift(1)
+        val slice = sut.readSlice(4)
+        assertEquals(2, sut.filledSize)
+        assertTrue(slice.bytes.contentEquals(byteArrayOf(2, 3, 4, 5)))
+        assertEquals(0x0302, slice.getUInt16LE(0))
+        assertEquals(2.toByte(), slice.readByte())
+        assertTrue(slice.readBytes().contentEquals(byteArrayOf(3, 4, 5)))
+        assertTrue(sut.readBytes().contentEquals(byteArrayOf(6, 7)))
+        assertTrue(ByteBuf.wrap(byteArrayOf(9, 8)).bytes.contentEquals(byteArrayOf(9, 8)))
+    }
+
+    @Test
+    fun testReadSpaceIsReused() {
+        val sut = ByteBuf(8)
+        sut.putBytes(byteArrayOf(1, 2, 3, 4, 5, 6))
+        sut.shift(4)
+        sut.putBytes(byteArrayOf(7, 8, 9, 10, 11, 12))
+        assertTrue(sut.bytes.contentEquals(byteArrayOf(5, 6, 7, 8, 9, 10, 11, 12)))
+        sut.clear()
+        sut.putUInt32LE(164532015)
+        assertEquals(164532015, sut.readUInt32LE())
+    }
+
+    @Test
+    fun testDecimalMatchesBigDecimal() {
+        val random = java.util.Random(35)
+        repeat(100000) {
+            val value = random.nextInt() and 0x7fffffff
+            val sut = ByteBuf(8)
+            sut.putUInt32LE(value.toLong())
+            sut.putUInt32LE(value.toLong())
+            assertEquals(BigDecimal(value).divide(BigDecimal(100), 2, RoundingMode.HALF_UP).toDouble(), sut.readUInt32Decimal100(), 0.0)
+            assertEquals(BigDecimal(value).divide(BigDecimal(1000), 3, RoundingMode.HALF_UP).toDouble(), sut.readUInt32Decimal1000(), 0.0)
+        }
+    }
+}
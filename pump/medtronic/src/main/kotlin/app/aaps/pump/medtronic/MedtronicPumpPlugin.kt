@@ -39,6 +39,7 @@ import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.utils.DateTimeUtil
+import app.aaps.core.utils.pump.SerialExecutor
 import app.aaps.core.validators.DefaultEditTextValidator
 import app.aaps.core.validators.EditTextValidator
 import app.aaps.core.validators.preferences.AdaptiveIntPreference
@@ -164,6 +165,9 @@ class MedtronicPumpPlugin @Inject constructor(
     private var hasTimeDateOrTimeZoneChanged = false
     private var isBusy = false
 
+    // service start retries, status refresh and delayed alarms
+    private val timers = SerialExecutor("Medtronic timers") { aapsLogger.error(LTag.PUMP, "Timer action failed", it) }
+
     override fun onStart() {
         aapsLogger.debug(LTag.PUMP, deviceID() + " started. (V2.0006)")
         serviceConnection = object : ServiceConnection {
@@ -178,15 +182,7 @@ class MedtronicPumpPlugin @Inject constructor(
                 rileyLinkMedtronicService = mLocalBinder.serviceInstance
                 isServiceSet = true
                 rileyLinkMedtronicService?.verifyConfiguration()
-                Thread {
-                    for (i in 0..19) {
-                        SystemClock.sleep(5000)
-                        aapsLogger.debug(LTag.PUMP, "Starting Medtronic-RileyLink service")
-                        if (rileyLinkMedtronicService?.setNotInPreInit() == true) {
-                            break
-                        }
-                    }
-                }.start()
+                scheduleServiceStart(attempt = 0)
             }
         }
         // Pass only to setup wizard
@@ -236,20 +232,29 @@ class MedtronicPumpPlugin @Inject constructor(
     override fun onStartScheduledPumpActions() {
 
         // check status every minute (if any status needs refresh we send readStatus command)
-        Thread {
-            do {
-                SystemClock.sleep(60000)
-                if (this.isInitialized) {
-                    val statusRefresh = synchronized(statusRefreshMap) { HashMap(statusRefreshMap) }
-                    if (doWeHaveAnyStatusNeededRefreshing(statusRefresh)) {
-                        if (!commandQueue.statusInQueue()) {
-                            commandQueue.readStatus(rh.gs(R.string.scheduled_status_refresh), null)
-                        }
+        scheduleStatusRefresh()
+    }
+
+    private fun scheduleServiceStart(attempt: Int) {
+        timers.schedule(5000) {
+            aapsLogger.debug(LTag.PUMP, "Starting Medtronic-RileyLink service")
+            if (rileyLinkMedtronicService?.setNotInPreInit() != true && attempt < 19) scheduleServiceStart(attempt + 1)
+        }
+    }
+
+    private fun scheduleStatusRefresh() {
+        timers.schedule(60000) {
+            if (this.isInitialized) {
+                val statusRefresh = synchronized(statusRefreshMap) { HashMap(statusRefreshMap) }
+                if (doWeHaveAnyStatusNeededRefreshing(statusRefresh)) {
+                    if (!commandQueue.statusInQueue()) {
+                        commandQueue.readStatus(rh.gs(R.string.scheduled_status_refresh), null)
                     }
-                    clearBusyQueue()
                 }
-            } while (serviceRunning)
-        }.start()
+                clearBusyQueue()
+            }
+            if (serviceRunning) scheduleStatusRefresh()
+        }
     }
 
     override val serviceClass: Class<*> = RileyLinkMedtronicService::class.java
@@ -649,10 +654,9 @@ class MedtronicPumpPlugin @Inject constructor(
             } else {
                 if (bolusDeliveryType == BolusDeliveryType.CancelDelivery) {
                     // LOG.debug("MedtronicPumpPlugin::deliverBolus - Delivery Canceled after Bolus started.");
-                    Thread {
-                        SystemClock.sleep(2000)
+                    timers.schedule(2000) {
                         uiInteraction.runAlarm(rh.gs(R.string.medtronic_cmd_cancel_bolus_not_supported), rh.gs(R.string.medtronic_warning), app.aaps.core.ui.R.raw.boluserror)
-                    }.start()
+                    }
                 }
                 val now = System.currentTimeMillis()
 
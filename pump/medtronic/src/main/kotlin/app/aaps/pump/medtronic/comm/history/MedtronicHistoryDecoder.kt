@@ -28,17 +28,17 @@ abstract class MedtronicHistoryDecoder<T : MedtronicHistoryEntry?>(
 
     // TODO_ extend this to also use bigger pages (for now we support only 1024 pages)
     @Throws(RuntimeException::class)
-    private fun checkPage(page: RawHistoryPage): MutableList<Byte> {
+    private fun checkPage(page: RawHistoryPage): ByteArray {
         if (!medtronicUtil.isModelSet) {
             aapsLogger.error(LTag.PUMPCOMM, "Device Type is not defined.")
-            return mutableListOf()
+            return ByteArray(0)
         }
         return if (page.data.size != 1024) {
-            page.data.toMutableList()
+            page.data
         } else if (page.isChecksumOK) {
-            page.onlyData.toMutableList()
+            page.onlyData
         } else {
-            mutableListOf()
+            ByteArray(0)
         }
     }
 
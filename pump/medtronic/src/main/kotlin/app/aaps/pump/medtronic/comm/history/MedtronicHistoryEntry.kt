@@ -53,7 +53,7 @@ abstract class MedtronicHistoryEntry : MedtronicHistoryEntryInterface {
 
     abstract fun isEntryTypeSet(): Boolean
 
-    override fun setData(listRawData: MutableList<Byte>, doNotProcess: Boolean) {
+    override fun setData(listRawData: List<Byte>, doNotProcess: Boolean) {
         rawData = listRawData
 
         // System.out.println("Head: " + sizes[0] + ", dates: " + sizes[1] +
@@ -6,6 +6,6 @@ package app.aaps.pump.medtronic.comm.history
 interface MedtronicHistoryEntryInterface {
 
     val entryTypeName: String
-    fun setData(listRawData: MutableList<Byte>, doNotProcess: Boolean)
+    fun setData(listRawData: List<Byte>, doNotProcess: Boolean)
     val dateLength: Int
 }
\ No newline at end of file
@@ -30,7 +30,7 @@ class RawHistoryPage(private val aapsLogger: AAPSLogger) {
             if (length != 1024) {
                 return false
             }
-            val computedCRC = CRC.calculate16CCITT(ByteUtil.substring(data, 0, 1022))
+            val computedCRC = CRC.calculate16CCITT(data, 0, 1022)
             val crcCalculated = ByteUtil.toInt(computedCRC[0].toInt(), computedCRC[1].toInt())
             val crcStored = ByteUtil.toInt(data[1022].toInt(), data[1023].toInt())
             if (crcCalculated != crcStored) {
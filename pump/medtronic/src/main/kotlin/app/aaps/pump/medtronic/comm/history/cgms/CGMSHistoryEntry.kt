@@ -39,7 +39,7 @@ class CGMSHistoryEntry : MedtronicHistoryEntry() {
         return entryType != CGMSHistoryEntryType.UnknownOpCode
     }
 
-    override fun setData(listRawData: MutableList<Byte>, doNotProcess: Boolean) {
+    override fun setData(listRawData: List<Byte>, doNotProcess: Boolean) {
         if (entryType.schemaSet) {
             super.setData(listRawData, doNotProcess)
         } else {
@@ -36,11 +36,13 @@ class MedtronicPumpHistoryDecoder @Inject constructor(
     //private var tbrPreviousRecord: PumpHistoryEntry? = null
     private var changeTimeRecord: PumpHistoryEntry? = null
 
-    override fun createRecords(dataClearInput: MutableList<Byte>): MutableList<PumpHistoryEntry> {
+    /**
+     * Decode records by moving cursor over page data. Raw data of every record is one copy of its range.
+     */
+    override fun createRecords(dataClearInput: ByteArray): MutableList<PumpHistoryEntry> {
         prepareStatistics()
         var counter = 0
         var record = 0
-        var incompletePacket: Boolean
         val outList: MutableList<PumpHistoryEntry> = mutableListOf()
         var skipped: String? = null
         if (dataClearInput.isEmpty()) {
@@ -50,7 +52,6 @@ class MedtronicPumpHistoryDecoder @Inject constructor(
         do {
             val opCode: Int = dataClearInput[counter].toInt()
             var special = false
-            incompletePacket = false
             var skippedRecords = false
             if (opCode == 0) {
                 counter++
@@ -69,43 +70,30 @@ class MedtronicPumpHistoryDecoder @Inject constructor(
             val entryType = getByCode(opCode.toByte())
             val pe = PumpHistoryEntry()
             pe.setEntryType(medtronicUtil.medtronicPumpModel, entryType, if (entryType == PumpHistoryEntryType.UnknownBasePacket) opCode.toByte() else null)
+            val recordStart = counter
             pe.offset = counter
             counter++
             if (counter >= 1022) {
                 break
             }
-            val listRawData: MutableList<Byte> = ArrayList()
-            listRawData.add(opCode.toByte())
             if (entryType === PumpHistoryEntryType.UnabsorbedInsulin
                 || entryType === PumpHistoryEntryType.UnabsorbedInsulin512
             ) {
                 val elements: Int = dataClearInput[counter].toInt()
-                listRawData.add(elements.toByte())
                 counter++
-                val els = getUnsignedInt(elements)
-                for (k in 0 until els - 2) {
-                    if (counter < 1022) {
-                        listRawData.add(dataClearInput[counter])
-                        counter++
-                    }
-                }
+                // rest of elements, limited by end of page data
+                counter = minOf(counter + maxOf(getUnsignedInt(elements) - 2, 0), maxOf(counter, 1022))
                 special = true
             } else {
-                for (j in 0 until entryType.getTotalLength(medtronicUtil.medtronicPumpModel) - 1) {
-                    try {
-                        listRawData.add(dataClearInput[counter])
-                        counter++
-                    } catch (ex: Exception) {
-                        aapsLogger.error(
-                            LTag.PUMPBTCOMM, "OpCode: " + ByteUtil.shortHexString(opCode.toByte()) + ", Invalid package: "
-                                + ByteUtil.getHex(listRawData)
-                        )
-                        // throw ex;
-                        incompletePacket = true
-                        break
-                    }
+                val recordEnd = counter + entryType.getTotalLength(medtronicUtil.medtronicPumpModel) - 1
+                if (recordEnd > dataClearInput.size) {
+                    aapsLogger.error(
+                        LTag.PUMPBTCOMM, "OpCode: " + ByteUtil.shortHexString(opCode.toByte()) + ", Invalid package: "
+                            + ByteUtil.getHex(dataClearInput.copyOfRange(recordStart, dataClearInput.size))
+                    )
+                    break
                 }
-                if (incompletePacket) break
+                counter = maxOf(counter, recordEnd)
             }
             if (entryType === PumpHistoryEntryType.None) {
                 aapsLogger.error(LTag.PUMPBTCOMM, "Error in code. We should have not come into this branch.")
@@ -114,7 +102,7 @@ class MedtronicPumpHistoryDecoder @Inject constructor(
                     pe.opCode = opCode.toByte()
                 }
                 if (entryType.getHeadLength(medtronicUtil.medtronicPumpModel) == 0) special = true
-                pe.setData(listRawData, special)
+                pe.setData(dataClearInput.copyOfRange(recordStart, counter).asList(), special)
                 val decoded = decodeRecord(pe)
                 if (decoded === RecordDecodeStatus.OK || decoded === RecordDecodeStatus.Ignored) {
                     //Log.i(TAG, "#" + record + " " + decoded.getDescription() + " " + pe);
@@ -14,7 +14,6 @@ import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.utils.DateTimeUtil
 import app.aaps.core.utils.StringUtil
 import app.aaps.pump.common.sync.PumpDbEntry
-import app.aaps.pump.common.sync.PumpDbEntryBolus
 import app.aaps.pump.common.sync.PumpDbEntryCarbs
 import app.aaps.pump.common.sync.PumpDbEntryTBR
 import app.aaps.pump.common.sync.PumpSyncStorage
@@ -68,7 +67,7 @@ class MedtronicHistoryData @Inject constructor(
 ) {
 
     val allHistory: MutableList<PumpHistoryEntry> = mutableListOf()
-    private var allPumpIds: MutableSet<Long> = mutableSetOf()
+    private val allHistoryByPumpId: MutableMap<Long, PumpHistoryEntry> = HashMap()
     private var newHistory: MutableList<PumpHistoryEntry> = mutableListOf()
     private var isInit = false
 
@@ -85,40 +84,38 @@ class MedtronicHistoryData @Inject constructor(
         val validEntries: List<PumpHistoryEntry> = result.validEntries
         val newEntries: MutableList<PumpHistoryEntry> = mutableListOf()
         for (validEntry in validEntries) {
-            if (!allPumpIds.contains(validEntry.pumpId)) {
+            val entryByPumpId = allHistoryByPumpId[validEntry.pumpId]
+            if (entryByPumpId == null) {
                 newEntries.add(validEntry)
-            } else {
-                val entryByPumpId = getEntryByPumpId(validEntry.pumpId)
-
-                if (entryByPumpId != null && entryByPumpId.hasBolusChanged(validEntry)) {
-                    newEntries.add(validEntry)
-                    allHistory.remove(entryByPumpId)
-                    allPumpIds.remove(validEntry.pumpId)
-                }
+            } else if (entryByPumpId.hasBolusChanged(validEntry)) {
+                newEntries.add(validEntry)
+                allHistory.remove(entryByPumpId)
+                allHistoryByPumpId.remove(validEntry.pumpId)
             }
         }
         newHistory = newEntries
-        showLogs("List of history (before filtering): [" + newHistory.size + "]", gson.toJson(newHistory))
-    }
-
-    private fun getEntryByPumpId(pumpId: Long): PumpHistoryEntry? {
-        val findFirst = this.allHistory.stream()
-            .filter { f -> f.pumpId == pumpId }
-            .findFirst()
-
-        return if (findFirst.isPresent) findFirst.get() else null
+        showLogs("List of history (before filtering): [" + newHistory.size + "]") { gson.toJson(newHistory) }
     }
 
-    private fun showLogs(header: String?, data: String) {
+    /**
+     * Dump of data is created only if debug logging of PUMP is enabled
+     */
+    private fun showLogs(header: String?, data: () -> String) {
         if (header != null) {
             aapsLogger.debug(LTag.PUMP, header)
         }
-        if (StringUtils.isNotBlank(data)) {
-            for (token in StringUtil.splitString(data, 3500)) {
-                aapsLogger.debug(LTag.PUMP, token)
-            }
-        } else {
-            aapsLogger.debug(LTag.PUMP, "No data.")
+        // accessor is invoked only when logging is enabled, rest of tokens is logged after it
+        var remainingTokens: List<String> = emptyList()
+        aapsLogger.debug(LTag.PUMP) {
+            val dump = data()
+            if (StringUtils.isNotBlank(dump)) {
+                val tokens = StringUtil.splitString(dump, 3500)
+                remainingTokens = tokens.drop(1)
+                tokens.firstOrNull() ?: "No data."
+            } else "No data."
+        }
+        for (token in remainingTokens) {
+            aapsLogger.debug(LTag.PUMP, token)
         }
     }
 
@@ -130,7 +127,7 @@ class MedtronicHistoryData @Inject constructor(
 
         if (!isCollectionEmpty(newHistory)) {
             for (pumpHistoryEntry in newHistory) {
-                if (!allPumpIds.contains(pumpHistoryEntry.pumpId)) {
+                if (!allHistoryByPumpId.containsKey(pumpHistoryEntry.pumpId)) {
                     val type = pumpHistoryEntry.entryType
                     if (type === PumpHistoryEntryType.TempBasalRate || type === PumpHistoryEntryType.TempBasalDuration) {
                         tbrs.add(pumpHistoryEntry)
@@ -157,7 +154,7 @@ class MedtronicHistoryData @Inject constructor(
             val newHistory3: MutableList<PumpHistoryEntry> = mutableListOf()
 
             for (pumpHistoryEntry in newHistory2) {
-                if (!allPumpIds.contains(pumpHistoryEntry.pumpId)) {
+                if (!allHistoryByPumpId.containsKey(pumpHistoryEntry.pumpId)) {
                     newHistory3.add(pumpHistoryEntry)
                 }
             }
@@ -166,7 +163,7 @@ class MedtronicHistoryData @Inject constructor(
             sort(newHistory)
         }
         aapsLogger.debug(LTag.PUMP, "New History entries found: " + newHistory.size)
-        showLogs("List of history (after filtering): [" + newHistory.size + "]", gson.toJson(newHistory))
+        showLogs("List of history (after filtering): [" + newHistory.size + "]") { gson.toJson(newHistory) }
     }
 
     private fun extendBolusRecords(bolusEstimates: MutableList<PumpHistoryEntry>, newHistory2: MutableList<PumpHistoryEntry>) {
@@ -194,11 +191,11 @@ class MedtronicHistoryData @Inject constructor(
         // add new entries
         newHistory.reverse()
         for (pumpHistoryEntry in newHistory) {
-            if (!allPumpIds.contains(pumpHistoryEntry.pumpId)) {
+            if (!allHistoryByPumpId.containsKey(pumpHistoryEntry.pumpId)) {
                 lastIdUsed++
                 pumpHistoryEntry.id = lastIdUsed
                 allHistory.add(pumpHistoryEntry)
-                allPumpIds.add(pumpHistoryEntry.pumpId)
+                allHistoryByPumpId[pumpHistoryEntry.pumpId] = pumpHistoryEntry
             }
         }
 
@@ -216,7 +213,7 @@ class MedtronicHistoryData @Inject constructor(
             for (pumpHistoryEntry in allHistory) {
                 if (!pumpHistoryEntry.isAfter(dtRemove)) {
                     removeList.add(pumpHistoryEntry)
-                    allPumpIds.remove(pumpHistoryEntry.pumpId)
+                    allHistoryByPumpId.remove(pumpHistoryEntry.pumpId)
                 }
             }
             allHistory.removeAll(removeList.toSet())
@@ -256,7 +253,7 @@ class MedtronicHistoryData @Inject constructor(
 
     fun isPumpSuspended(): Boolean {
         val items = getDataForPumpSuspends()
-        showLogs("isPumpSuspended: ", gson.toJson(items))
+        showLogs("isPumpSuspended: ") { gson.toJson(items) }
         return if (isCollectionNotEmpty(items)) {
             val pumpHistoryEntryType = items[0].entryType
             val isSuspended = !(pumpHistoryEntryType === PumpHistoryEntryType.TempBasalCombined || //
@@ -320,7 +317,7 @@ class MedtronicHistoryData @Inject constructor(
     fun processNewHistoryData() {
         // Finger BG (for adding entry to careportal)
         val bgRecords: MutableList<PumpHistoryEntry> = getFilteredItems(setOf(PumpHistoryEntryType.BGReceived, PumpHistoryEntryType.BGReceived512))
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: BGReceived [count=%d, items=%s]", bgRecords.size, gson.toJson(bgRecords)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: BGReceived [count=%d, items=%s]", bgRecords.size, gson.toJson(bgRecords)) }
         if (isCollectionNotEmpty(bgRecords)) {
             try {
                 processBgReceived(bgRecords)
@@ -332,7 +329,7 @@ class MedtronicHistoryData @Inject constructor(
 
         // Prime (for resetting autosense)
         val primeRecords: MutableList<PumpHistoryEntry> = getFilteredItems(PumpHistoryEntryType.Prime)
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: Prime [count=%d, items=%s]", primeRecords.size, gson.toJson(primeRecords)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: Prime [count=%d, items=%s]", primeRecords.size, gson.toJson(primeRecords)) }
         if (isCollectionNotEmpty(primeRecords)) {
             try {
                 processPrime(primeRecords)
@@ -344,7 +341,7 @@ class MedtronicHistoryData @Inject constructor(
 
         // Rewind (for marking insulin change)
         val rewindRecords: MutableList<PumpHistoryEntry> = getFilteredItems(PumpHistoryEntryType.Rewind)
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: Rewind [count=%d, items=%s]", rewindRecords.size, gson.toJson(rewindRecords)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: Rewind [count=%d, items=%s]", rewindRecords.size, gson.toJson(rewindRecords)) }
         if (isCollectionNotEmpty(rewindRecords)) {
             try {
                 processRewind(rewindRecords)
@@ -356,7 +353,7 @@ class MedtronicHistoryData @Inject constructor(
 
         // BatteryChange
         val batteryChangeRecords: MutableList<PumpHistoryEntry> = getFilteredItems(PumpHistoryEntryType.BatteryChange)
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: BatteryChange [count=%d, items=%s]", batteryChangeRecords.size, gson.toJson(batteryChangeRecords)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: BatteryChange [count=%d, items=%s]", batteryChangeRecords.size, gson.toJson(batteryChangeRecords)) }
         if (isCollectionNotEmpty(batteryChangeRecords)) {
             try {
                 processBatteryChange(batteryChangeRecords)
@@ -368,7 +365,7 @@ class MedtronicHistoryData @Inject constructor(
 
         // TDD
         val tdds: MutableList<PumpHistoryEntry> = getFilteredItems(setOf(PumpHistoryEntryType.EndResultTotals, getTDDType()))
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: TDD [count=%d, items=%s]", tdds.size, gson.toJson(tdds)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: TDD [count=%d, items=%s]", tdds.size, gson.toJson(tdds)) }
         if (tdds.isNotEmpty()) {
             try {
                 processTDDs(tdds)
@@ -381,7 +378,7 @@ class MedtronicHistoryData @Inject constructor(
 
         // Bolus
         val treatments = getFilteredItems(PumpHistoryEntryType.Bolus)
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: Bolus [count=%d, items=%s]", treatments.size, gson.toJson(treatments)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: Bolus [count=%d, items=%s]", treatments.size, gson.toJson(treatments)) }
         if (treatments.isNotEmpty()) {
             try {
                 processBolusEntries(treatments)
@@ -393,7 +390,7 @@ class MedtronicHistoryData @Inject constructor(
 
         // TBR
         val tbrs: MutableList<PumpHistoryEntry> = getFilteredItems(PumpHistoryEntryType.TempBasalCombined)
-        aapsLogger.debug(LTag.PUMP, String.format(Locale.ENGLISH, "ProcessHistoryData: TBRs Processed [count=%d, items=%s]", tbrs.size, gson.toJson(tbrs)))
+        aapsLogger.debug(LTag.PUMP) { String.format(Locale.ENGLISH, "ProcessHistoryData: TBRs Processed [count=%d, items=%s]", tbrs.size, gson.toJson(tbrs)) }
         if (tbrs.isNotEmpty()) {
             try {
                 processTBREntries(tbrs)
@@ -410,12 +407,12 @@ class MedtronicHistoryData @Inject constructor(
             aapsLogger.error("ProcessHistoryData: Error getting Suspend entries: " + ex.message, ex)
             throw ex
         }
-        aapsLogger.debug(
-            LTag.PUMP, String.format(
+        aapsLogger.debug(LTag.PUMP) {
+            String.format(
                 Locale.ENGLISH, "ProcessHistoryData: 'Delivery Suspend' Processed [count=%d, items=%s]", suspends.size,
                 gson.toJson(suspends)
             )
-        )
+        }
         if (suspends.isNotEmpty()) {
             try {
                 processSuspends(suspends)  // TODO not tested yet
@@ -557,12 +554,12 @@ class MedtronicHistoryData @Inject constructor(
     private fun processTDDs(tddsIn: MutableList<PumpHistoryEntry>) {
         val tdds = filterTDDs(tddsIn)
 
-        aapsLogger.debug(
-            LTag.PUMP, String.format(
+        aapsLogger.debug(LTag.PUMP) {
+            String.format(
                 Locale.ENGLISH, logPrefix + "TDDs found: %d.\n%s",
                 tdds.size, gson.toJson(tdds)
             )
-        )
+        }
 
         for (tdd in tdds) {
             val totalsDTO = tdd.decodedData["Object"] as DailyTotalsDTO
@@ -590,6 +587,7 @@ class MedtronicHistoryData @Inject constructor(
     private fun processBolusEntries(entryList: MutableList<PumpHistoryEntry>) {
 
         val boluses = pumpSyncStorage.getBoluses()
+        val bolusIndex = TemporaryEntryIndex(boluses)
 
         for (bolus in entryList) {
 
@@ -611,8 +609,7 @@ class MedtronicHistoryData @Inject constructor(
             var temporaryId: Long? = null
 
             if (!multiWave) {
-                @Suppress("Unchecked_Cast")
-                val entryWithTempId = findDbEntry(bolus, boluses as MutableList<PumpDbEntry>) as PumpDbEntryBolus?
+                val entryWithTempId = findDbEntry(bolus, bolusIndex)
 
                 aapsLogger.debug(LTag.PUMP, "DD: entryWithTempId=$entryWithTempId")
 
@@ -622,6 +619,7 @@ class MedtronicHistoryData @Inject constructor(
                     temporaryId = entryWithTempId.temporaryId
                     pumpSyncStorage.removeBolusWithTemporaryId(temporaryId)
                     boluses.remove(entryWithTempId)
+                    bolusIndex.remove(entryWithTempId)
                     //type = entryWithTempId.bolusType
                 }
             }
@@ -728,6 +726,7 @@ class MedtronicHistoryData @Inject constructor(
         }
 
         val tbrRecords = pumpSyncStorage.getTBRs()
+        val tbrIndex = TemporaryEntryIndex(tbrRecords)
 
         val processList: MutableList<TempBasalProcessDTO> = createTBRProcessList(entryList)
 
@@ -738,14 +737,13 @@ class MedtronicHistoryData @Inject constructor(
                 //aapsLogger.debug(LTag.PUMP, "DD: tempBasalProcessDTO.itemOne: " + gson.toJson(tempBasalProcessDTO.itemOne))
                 //aapsLogger.debug(LTag.PUMP, "DD: tempBasalProcessDTO.itemTwo: " + (if (tempBasalProcessDTO.itemTwo == null) "null" else gson.toJson(tempBasalProcessDTO.itemTwo!!)))
 
-                @Suppress("Unchecked_Cast")
-                val entryWithTempId = findDbEntry(tempBasalProcessDTO.itemOne, tbrRecords as MutableList<PumpDbEntry>) as PumpDbEntryTBR?
+                val entryWithTempId = findDbEntry(tempBasalProcessDTO.itemOne, tbrIndex)
 
                 aapsLogger.debug(LTag.PUMP, "DD: entryWithTempId: " + (entryWithTempId?.toString() ?: "null"))
 
                 val tbrEntry = tempBasalProcessDTO.itemOneTbr
 
-                aapsLogger.debug(LTag.PUMP, String.format("DD: tbrEntry=%s, tempBasalProcessDTO=%s", gson.toJson(tbrEntry), gson.toJson(tempBasalProcessDTO)))
+                aapsLogger.debug(LTag.PUMP) { String.format("DD: tbrEntry=%s, tempBasalProcessDTO=%s", gson.toJson(tbrEntry), gson.toJson(tempBasalProcessDTO)) }
 
                 if (entryWithTempId != null) {
 
@@ -787,6 +785,7 @@ class MedtronicHistoryData @Inject constructor(
 
                         pumpSyncStorage.removeTemporaryBasalWithTemporaryId(entryWithTempId.temporaryId)
                         tbrRecords.remove(entryWithTempId)
+                        tbrIndex.remove(entryWithTempId)
 
                         entryWithTempId.pumpId = tempBasalProcessDTO.pumpId
                         entryWithTempId.date = tryToGetByLocalTime(tempBasalProcessDTO.atechDateTime)
@@ -861,7 +860,7 @@ class MedtronicHistoryData @Inject constructor(
 
     fun createTBRProcessList(entryList: MutableList<PumpHistoryEntry>): MutableList<TempBasalProcessDTO> {
 
-        aapsLogger.debug(LTag.PUMP, "${ProcessHistoryRecord.TBR.description}  List (before filter): ${gson.toJson(entryList)}")
+        aapsLogger.debug(LTag.PUMP) { "${ProcessHistoryRecord.TBR.description}  List (before filter): ${gson.toJson(entryList)}" }
 
         var processDTO: TempBasalProcessDTO? = null
         val processList: MutableList<TempBasalProcessDTO> = mutableListOf()
@@ -988,12 +987,12 @@ class MedtronicHistoryData @Inject constructor(
      * is no treatment at all. For now we look fro treatment that was from 0s - 1m59s within pump entry.
      *
      * @param treatment          Pump Entry
-     * @param temporaryEntries entries from history
+     * @param temporaryEntries entries from history, indexed by time
      * @return DbObject from AAPS (if found)
      *
-     * Looks at all boluses that have temporaryId and find one that is correct for us (if such entry exists)
+     * Looks at boluses that have temporaryId within 2 minutes and find one that is correct for us (if such entry exists)
      */
-    private fun findDbEntry(treatment: PumpHistoryEntry, temporaryEntries: MutableList<PumpDbEntry>): PumpDbEntry? {
+    private fun <T : PumpDbEntry> findDbEntry(treatment: PumpHistoryEntry, temporaryEntries: TemporaryEntryIndex<T>): T? {
 
         if (temporaryEntries.isEmpty()) {
             return null
@@ -1004,14 +1003,7 @@ class MedtronicHistoryData @Inject constructor(
         // pumpTime should never be null, but it can theoretically happen if reading of time from pump fails
         this.pumpTime?.let { proposedTime += (it.timeDifference * 1000) }
 
-        val proposedTimeDiff: LongArray = longArrayOf(proposedTime - (2 * 60 * 1000), proposedTime + (2L * 60L * 1000L))
-        val tempEntriesList: MutableList<PumpDbEntry> = mutableListOf()
-
-        for (temporaryEntry in temporaryEntries) {
-            if (temporaryEntry.date > proposedTimeDiff[0] && temporaryEntry.date < proposedTimeDiff[1]) {
-                tempEntriesList.add(temporaryEntry)
-            }
-        }
+        val tempEntriesList: List<T> = temporaryEntries.between(proposedTime - (2 * 60 * 1000), proposedTime + (2L * 60L * 1000L))
 
         if (tempEntriesList.isEmpty()) {
             return null
@@ -1027,7 +1019,7 @@ class MedtronicHistoryData @Inject constructor(
                     sec = 59
                 }
                 val diff = sec * 1000
-                val outList = mutableListOf<PumpDbEntry>()
+                val outList = mutableListOf<T>()
                 for (treatment1 in tempEntriesList) {
                     if (treatment1.date > proposedTime - diff && treatment1.date < proposedTime + diff) {
                         outList.add(treatment1)
@@ -1054,12 +1046,12 @@ class MedtronicHistoryData @Inject constructor(
                             min, sec, outList.size, gson.toJson(outList)
                         )
                     )
-                    if (doubleBolusDebug) aapsLogger.debug(
-                        LTag.PUMP, String.format(
+                    if (doubleBolusDebug) aapsLogger.debug(LTag.PUMP) {
+                        String.format(
                             Locale.ENGLISH, "DoubleBolusDebug: findDbEntry Error - Too many entries (with too small diff): (timeDiff=[min=%d,sec=%d],count=%d,list=%s)",
                             min, sec, outList.size, gson.toJson(outList)
                         )
-                    )
+                    }
                 }
                 sec += 10
             }
@@ -1234,10 +1226,10 @@ class MedtronicHistoryData @Inject constructor(
             }
         }
         if (!finishedItems) {
-            showLogs("NoDeliveryRewindPrimeRecords: Not finished Items: ", gson.toJson(tempData))
+            showLogs("NoDeliveryRewindPrimeRecords: Not finished Items: ") { gson.toJson(tempData) }
             return outList
         }
-        showLogs("NoDeliveryRewindPrimeRecords: Records to evaluate: ", gson.toJson(tempData))
+        showLogs("NoDeliveryRewindPrimeRecords: Records to evaluate: ") { gson.toJson(tempData) }
         var items: MutableList<PumpHistoryEntry> = getFilteredItems(tempData, PumpHistoryEntryType.Prime)
         val itemTwo = items[0]
 
@@ -1318,7 +1310,7 @@ class MedtronicHistoryData @Inject constructor(
 
     fun hasBasalProfileChanged(): Boolean {
         val filteredItems: List<PumpHistoryEntry?> = getFilteredItems(PumpHistoryEntryType.ChangeBasalProfile_NewProfile)
-        aapsLogger.debug(LTag.PUMP, "hasBasalProfileChanged. Items: " + gson.toJson(filteredItems))
+        aapsLogger.debug(LTag.PUMP) { "hasBasalProfileChanged. Items: " + gson.toJson(filteredItems) }
         return filteredItems.isNotEmpty()
     }
 
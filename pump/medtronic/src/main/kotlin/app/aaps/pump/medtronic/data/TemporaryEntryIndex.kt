@@ -0,0 +1,44 @@
+package app.aaps.pump.medtronic.data
+
+import app.aaps.pump.common.sync.PumpDbEntry
+
+/**
+ * Entries with temporaryId (waiting for pairing with pump history) sorted by time.
+ *
+ * Entries around one history record are found by binary search, so matching whole
+ * history read after reconnect doesn't scan all pending entries for every record.
+ */
+class TemporaryEntryIndex<T : PumpDbEntry>(entries: Collection<T>) {
+
+    private val sorted: MutableList<T> = entries.sortedBy { it.date }.toMutableList()
+
+    val size: Int get() = sorted.size
+
+    fun isEmpty(): Boolean = sorted.isEmpty()
+
+    /**
+     * @return entries with from < date < to, ordered by date
+     */
+    fun between(from: Long, to: Long): List<T> {
+        val result = mutableListOf<T>()
+        var index = firstAfter(from)
+        while (index < sorted.size && sorted[index].date < to) {
+            result.add(sorted[index])
+            index++
+        }
+        return result
+    }
+
+    fun remove(entry: T): Boolean = sorted.remove(entry)
+
+    // index of first entry with date > time
+    private fun firstAfter(time: Long): Int {
+        var low = 0
+        var high = sorted.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (sorted[mid].date <= time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
@@ -0,0 +1,78 @@
+package app.aaps.pump.medtronic.data
+
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.utils.pump.ByteUtil
+import app.aaps.pump.medtronic.MedtronicTestBase
+import app.aaps.pump.medtronic.comm.history.RawHistoryPage
+import app.aaps.pump.medtronic.comm.history.pump.MedtronicPumpHistoryDecoder
+import app.aaps.pump.medtronic.comm.history.pump.PumpHistoryEntry
+import app.aaps.pump.medtronic.comm.history.pump.PumpHistoryResult
+import app.aaps.pump.medtronic.defs.MedtronicDeviceType
+import app.aaps.pump.medtronic.driver.MedtronicPumpStatus
+import app.aaps.pump.medtronic.util.MedtronicUtil
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+
+/**
+ * Replays recorded history pages like they are read again after RileyLink reconnect.
+ * Duplicates in history are asserted, timings are measured by MedtronicHistoryBenchmark in benchmark module.
+ */
+class MedtronicHistoryReplayUTest : MedtronicTestBase() {
+
+    @Mock lateinit var uiInteraction: UiInteraction
+
+    private lateinit var medtronicPumpStatus: MedtronicPumpStatus
+
+    private class RecordedPage(val deviceType: MedtronicDeviceType, val data: ByteArray)
+
+    private val pages: List<RecordedPage> by lazy {
+        ClassLoader.getSystemResource("history_pages.txt").readText().lines()
+            .filter { it.isNotBlank() && !it.startsWith("#") }
+            .map { line ->
+                val (type, data) = line.split(";")
+                RecordedPage(MedtronicDeviceType.valueOf(type), ByteUtil.createByteArrayFromString(data))
+            }
+    }
+
+    @BeforeEach
+    fun setup() {
+        medtronicPumpStatus = MedtronicPumpStatus(preferences, rxBus, rileyLinkUtil)
+        medtronicUtil = MedtronicUtil(aapsLogger, rxBus, rileyLinkUtil, medtronicPumpStatus, uiInteraction)
+        decoder = MedtronicPumpHistoryDecoder(aapsLogger, medtronicUtil)
+        medtronicUtil.isModelSet = true
+    }
+
+    private fun decode(page: RecordedPage): List<PumpHistoryEntry> {
+        medtronicUtil.medtronicPumpModel = page.deviceType
+        return decoder.processPageAndCreateRecords(RawHistoryPage(aapsLogger).also { it.appendData(page.data) })
+    }
+
+    @Test
+    fun decodingRecordedPages() {
+        assertThat(pages.map { decode(it).size }).containsExactly(20, 131, 41).inOrder()
+        // decoding is repeatable
+        assertThat(pages.map { decode(it).size }).containsExactly(20, 131, 41).inOrder()
+    }
+
+    @Test
+    fun replayAfterReconnect() {
+        for (page in pages) {
+            val sut = MedtronicHistoryData(aapsLogger, preferences, rh, medtronicUtil, decoder, medtronicPumpStatus, pumpSync, pumpSyncStorage, uiInteraction, profileUtil)
+            val sizes = mutableListOf<Int>()
+            // every reconnect reads the same page again
+            repeat(5) {
+                val entries = decode(page)
+                val result = PumpHistoryResult(aapsLogger, null, null)
+                result.addHistoryEntries(entries.toMutableList())
+                sut.addNewHistory(result)
+                sut.filterNewEntries()
+                sut.finalizeNewHistoryRecords()
+                sizes.add(sut.allHistory.size)
+            }
+            assertThat(sizes.distinct()).hasSize(1)
+            assertThat(sut.allHistory.map { it.pumpId }.distinct()).hasSize(sut.allHistory.size)
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package app.aaps.pump.medtronic.data
+
+import app.aaps.core.data.pump.defs.PumpType
+import app.aaps.core.interfaces.pump.PumpSync
+import app.aaps.pump.common.sync.PumpDbEntryTBR
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class TemporaryEntryIndexUTest {
+
+    private fun tbr(temporaryId: Long, date: Long) =
+        PumpDbEntryTBR(temporaryId, date, PumpType.MEDTRONIC_522_722, "123456", null, 1.0, true, 1800, PumpSync.TemporaryBasalType.NORMAL)
+
+    @Test
+    fun `entries in range are found in time order`() {
+        val entries = listOf(tbr(1, 5000), tbr(2, 1000), tbr(3, 3000), tbr(4, 3000), tbr(5, 9000))
+        val sut = TemporaryEntryIndex(entries)
+
+        assertThat(sut.between(1000, 5000).map { it.temporaryId }).containsExactly(3L, 4L).inOrder()
+        assertThat(sut.between(0, 10000).map { it.temporaryId }).containsExactly(2L, 3L, 4L, 1L, 5L).inOrder()
+        assertThat(sut.between(9000, 20000)).isEmpty()
+        assertThat(sut.between(-1000, 1000)).isEmpty()
+    }
+
+    @Test
+    fun `removed entry is not found`() {
+        val entries = listOf(tbr(1, 1000), tbr(2, 2000))
+        val sut = TemporaryEntryIndex(entries)
+
+        assertThat(sut.remove(entries[0])).isTrue()
+        assertThat(sut.size).isEqualTo(1)
+        assertThat(sut.between(0, 3000).map { it.temporaryId }).containsExactly(2L)
+        assertThat(sut.remove(entries[0])).isFalse()
+    }
+}
@@ -4,13 +4,16 @@ import app.aaps.pump.medtrum.util.CrcUtils.calcCrc8
 
 class ReadDataPacket(data: ByteArray) {
 
-    private var totalData = data.copyOfRange(0, data.size - 1) // Strip crc
+    // Received data without crc, allocated for announced size and grown only if pump sends more
+    private var totalData = ByteArray(maxOf(data.size - 1, data[0].toInt() and 0xff))
+    private var totalSize = 0
     private var failed = false
     private var dataSize: Byte = data[0]
     private var sequenceNumber: Byte = data[3]
 
     init {
-        val crcInitialChunk = calcCrc8(data.copyOfRange(0, data.size - 1), data.size - 1)
+        append(data, 0, data.size - 1) // Strip crc
+        val crcInitialChunk = calcCrc8(data, 0, data.size - 1)
 
         if (crcInitialChunk != data[data.size - 1]) {
             failed = true
@@ -18,9 +21,9 @@ class ReadDataPacket(data: ByteArray) {
     }
 
     fun addData(newData: ByteArray) {
-        totalData += newData.copyOfRange(4, newData.size - 1) // Strip header and crc
+        append(newData, 4, newData.size - 5) // Strip header and crc
         sequenceNumber++
-        val crcNewChunk = calcCrc8(newData.copyOfRange(0, newData.size - 1), newData.size - 1)
+        val crcNewChunk = calcCrc8(newData, 0, newData.size - 1)
         if (crcNewChunk != newData[newData.size - 1]) {
             failed = true
         }
@@ -30,14 +33,20 @@ class ReadDataPacket(data: ByteArray) {
     }
 
     fun allDataReceived(): Boolean {
-        return (totalData.size >= dataSize)
+        return (totalSize >= dataSize)
     }
 
     fun getData(): ByteArray {
-        return totalData
+        return totalData.copyOf(totalSize)
     }
 
     fun failed(): Boolean {
         return failed
     }
+
+    private fun append(source: ByteArray, offset: Int, length: Int) {
+        if (totalSize + length > totalData.size) totalData = totalData.copyOf(maxOf(totalData.size * 2, totalSize + length))
+        source.copyInto(totalData, totalSize, offset, offset + length)
+        totalSize += length
+    }
 }
@@ -16,31 +16,40 @@ class WriteCommandPackets(data: ByteArray, sequenceNumber: Int) {
             0.toByte() // pkgIndex
         )
 
-        var tmp: ByteArray = header + data.copyOfRange(1, data.size)
-        val totalCommand: ByteArray = tmp + calcCrc8(tmp, tmp.size)
+        // header + data without command byte + crc
+        val totalCommand = ByteArray(header.size + data.size)
+        header.copyInto(totalCommand)
+        data.copyInto(totalCommand, header.size, 1)
+        totalCommand[totalCommand.size - 1] = calcCrc8(totalCommand, 0, totalCommand.size - 1)
 
         if ((totalCommand.size - header.size) <= 15) {
-            packages.add(totalCommand + 0.toByte())
+            packages.add(totalCommand.copyOf(totalCommand.size + 1))
         } else {
             var pkgIndex = 1
-            var remainingCommand = totalCommand.copyOfRange(4, totalCommand.size)
+            var offset = header.size
 
-            while (remainingCommand.size > 15) {
+            while (totalCommand.size - offset > 15) {
                 header[3] = pkgIndex.toByte()
-                tmp = header + remainingCommand.copyOfRange(0, 15)
-                packages.add(tmp + calcCrc8(tmp, tmp.size))
+                packages.add(packet(header, totalCommand, offset, 15))
 
-                remainingCommand = remainingCommand.copyOfRange(15, remainingCommand.size)
+                offset += 15
                 pkgIndex = (pkgIndex + 1) % 256
             }
 
             // Add last package
             header[3] = pkgIndex.toByte()
-            tmp = header + remainingCommand
-            packages.add(tmp + calcCrc8(tmp, tmp.size))
+            packages.add(packet(header, totalCommand, offset, totalCommand.size - offset))
         }
     }
 
+    private fun packet(header: ByteArray, source: ByteArray, offset: Int, length: Int): ByteArray {
+        val packet = ByteArray(header.size + length + 1)
+        header.copyInto(packet)
+        source.copyInto(packet, header.size, offset, offset + length)
+        packet[packet.size - 1] = calcCrc8(packet, 0, packet.size - 1)
+        return packet
+    }
+
     fun getNextPacket(): ByteArray? {
         var ret: ByteArray? = null
         if (index < packages.size) {
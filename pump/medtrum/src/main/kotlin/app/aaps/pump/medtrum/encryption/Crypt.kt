@@ -1,6 +1,5 @@
 package app.aaps.pump.medtrum.encryption
 
-import app.aaps.pump.medtrum.extension.toByteArray
 import app.aaps.pump.medtrum.extension.toLong
 
 class Crypt {
@@ -564,18 +563,14 @@ class Crypt {
         return ret
     }
 
+    // Substitute each of lower 4 bytes, without temporary arrays
     private fun changeByTable(inputData: Long, tableData: IntArray): Long {
-        val value = inputData.toByteArray(4)
-        val results = ByteArray(4)
-
-        for (i in value.indices) {
-            var byte = value[i].toInt()
-            if (byte < 0) {
-                byte += 256
-            }
-            results[i] = tableData[byte].toByte()
+        var result = 0L
+        for (i in 0 until 4) {
+            val byte = ((inputData ushr (8 * i)) and 0xFF).toInt()
+            result = result or (tableData[byte].toLong() shl (8 * i))
         }
-        return results.toLong()
+        return result
     }
 
     private fun rotatoLeft(x: Long, s: Int, n: Int): Long {
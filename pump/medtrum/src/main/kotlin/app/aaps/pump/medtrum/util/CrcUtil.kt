@@ -261,9 +261,14 @@ object CrcUtils {
         123u
     )
 
-    fun calcCrc8(value: ByteArray, size: Int): Byte {
+    fun calcCrc8(value: ByteArray, size: Int): Byte = calcCrc8(value, 0, size)
+
+    /**
+     * CRC8 of [size] bytes of [value] starting at [offset], avoids copying packet parts
+     */
+    fun calcCrc8(value: ByteArray, offset: Int, size: Int): Byte {
         var crc8: UByte = 0u
-        for (i in 0 until size) {
+        for (i in offset until offset + size) {
             val tableIndex: UByte = (value[i].toUByte() xor crc8)
             crc8 = lookupTable[tableIndex.toInt()]
         }
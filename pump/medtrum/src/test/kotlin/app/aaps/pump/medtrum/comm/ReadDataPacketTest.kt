@@ -1,7 +1,9 @@
 package app.aaps.pump.medtrum.comm
 
+import app.aaps.pump.medtrum.util.CrcUtils.calcCrc8
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.Test
+import kotlin.random.Random
 
 class ReadDataPacketTest {
 
@@ -151,4 +153,48 @@ class ReadDataPacketTest {
         assertThat(packet.allDataReceived()).isTrue()
         assertThat(packet.failed()).isTrue()
     }
+
+    @Test
+    fun givenRandomChunksExpectSameResultAsPreviousImplementation() {
+        val random = Random(39)
+        repeat(1000) {
+            val first = random.nextBytes(random.nextInt(6, 21))
+            val chunks = List(random.nextInt(1, 8)) { index ->
+                val chunk = if (index == 0) first else random.nextBytes(random.nextInt(6, 21))
+                // valid sequence and crc in most chunks, so both complete and failed packets are compared
+                if (index > 0 && random.nextInt(4) > 0) chunk[3] = (first[3] + index).toByte()
+                if (random.nextInt(4) > 0) chunk[chunk.size - 1] = calcCrc8(chunk, chunk.size - 1)
+                chunk
+            }
+            val packet = ReadDataPacket(chunks[0])
+            val reference = ReferenceReadDataPacket(chunks[0])
+            for (chunk in chunks.drop(1)) {
+                packet.addData(chunk)
+                reference.addData(chunk)
+                assertThat(packet.allDataReceived()).isEqualTo(reference.allDataReceived())
+            }
+            assertThat(packet.getData()).isEqualTo(reference.getData())
+            assertThat(packet.failed()).isEqualTo(reference.failed())
+        }
+    }
+
+    // previous implementation, copying data for every chunk
+    private class ReferenceReadDataPacket(data: ByteArray) {
+
+        private var totalData = data.copyOfRange(0, data.size - 1)
+        private var failed = calcCrc8(data.copyOfRange(0, data.size - 1), data.size - 1) != data[data.size - 1]
+        private val dataSize: Byte = data[0]
+        private var sequenceNumber: Byte = data[3]
+
+        fun addData(newData: ByteArray) {
+            totalData += newData.copyOfRange(4, newData.size - 1)
+            sequenceNumber++
+            if (calcCrc8(newData.copyOfRange(0, newData.size - 1), newData.size - 1) != newData[newData.size - 1]) failed = true
+            if (sequenceNumber != newData[3]) failed = true
+        }
+
+        fun allDataReceived(): Boolean = totalData.size >= dataSize
+        fun getData(): ByteArray = totalData
+        fun failed(): Boolean = failed
+    }
 }
@@ -1,7 +1,9 @@
 package app.aaps.pump.medtrum.comm
 
+import app.aaps.pump.medtrum.util.CrcUtils.calcCrc8
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.Test
+import kotlin.random.Random
 
 class WriteCommandPacketsTest {
 
@@ -37,4 +39,43 @@ class WriteCommandPacketsTest {
         assertThat(output4).isNull()
         assertThat(cmdPackets.allPacketsConsumed()).isTrue()
     }
+
+    @Test
+    fun givenRandomCommandsExpectSameResultAsPreviousImplementation() {
+        val random = Random(39)
+        repeat(1000) {
+            val input = random.nextBytes(random.nextInt(1, 250))
+            val sequence = random.nextInt(256)
+            val cmdPackets = WriteCommandPackets(input, sequence)
+            for (expected in referencePackets(input, sequence)) {
+                assertThat(cmdPackets.getNextPacket().contentToString()).isEqualTo(expected.contentToString())
+            }
+            assertThat(cmdPackets.allPacketsConsumed()).isTrue()
+        }
+    }
+
+    // previous implementation, copying remaining command for every packet
+    private fun referencePackets(data: ByteArray, sequenceNumber: Int): List<ByteArray> {
+        val packages = mutableListOf<ByteArray>()
+        val header = byteArrayOf((data.size + 4).toByte(), data[0], sequenceNumber.toByte(), 0.toByte())
+        var tmp: ByteArray = header + data.copyOfRange(1, data.size)
+        val totalCommand: ByteArray = tmp + calcCrc8(tmp, tmp.size)
+        if ((totalCommand.size - header.size) <= 15) {
+            packages.add(totalCommand + 0.toByte())
+        } else {
+            var pkgIndex = 1
+            var remainingCommand = totalCommand.copyOfRange(4, totalCommand.size)
+            while (remainingCommand.size > 15) {
+                header[3] = pkgIndex.toByte()
+                tmp = header + remainingCommand.copyOfRange(0, 15)
+                packages.add(tmp + calcCrc8(tmp, tmp.size))
+                remainingCommand = remainingCommand.copyOfRange(15, remainingCommand.size)
+                pkgIndex = (pkgIndex + 1) % 256
+            }
+            header[3] = pkgIndex.toByte()
+            tmp = header + remainingCommand
+            packages.add(tmp + calcCrc8(tmp, tmp.size))
+        }
+        return packages
+    }
 }
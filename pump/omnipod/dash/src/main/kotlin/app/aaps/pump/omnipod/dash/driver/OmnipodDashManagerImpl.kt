@@ -730,11 +730,14 @@ class OmnipodDashManagerImpl @Inject constructor(
                         }
                     }
                     podStateManager.increaseMessageSequenceNumber()
+                    // no response, exchange is finished
+                    podStateManager.flush()
                 }
 
                 is PodEvent.ResponseReceived        -> {
                     podStateManager.increaseMessageSequenceNumber()
                     handleResponse(event.response)
+                    podStateManager.flush()
                 }
 
                 is PodEvent.Paired                  -> {
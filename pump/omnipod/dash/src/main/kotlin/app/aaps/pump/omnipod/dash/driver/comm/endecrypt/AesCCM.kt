@@ -0,0 +1,55 @@
+package app.aaps.pump.omnipod.dash.driver.comm.endecrypt
+
+import app.aaps.core.utils.pump.InPlaceCCM
+import org.spongycastle.crypto.InvalidCipherTextException
+import org.spongycastle.crypto.engines.AESEngine
+import org.spongycastle.crypto.params.KeyParameter
+
+/**
+ * AES-CCM with 13 bytes nonce and 8 bytes MAC, as used by Dash for encrypted messages.
+ *
+ * Key schedule is done once per session instead of for every message. Output is written
+ * to caller buffers, which can be the same as input buffers.
+ */
+class AesCCM(key: ByteArray) : InPlaceCCM(AESEngine().also { it.init(true, KeyParameter(key)) }, NONCE_SIZE, MAC_SIZE) {
+
+    private val receivedTag = ByteArray(MAC_SIZE)
+
+    /**
+     * Encrypt [length] bytes of [input] at [inputOffset] and write ciphertext followed by MAC
+     * to [output] at [outputOffset]. [output] needs space for [length] + [MAC_SIZE] bytes.
+     */
+    @Synchronized
+    fun encrypt(nonce: ByteArray, header: ByteArray, input: ByteArray, inputOffset: Int, length: Int, output: ByteArray, outputOffset: Int) {
+        produceTag(nonce, 0, header, 0, header.size, input, inputOffset, length, output, outputOffset + length)
+        System.arraycopy(input, inputOffset, output, outputOffset, length)
+        processCTR(nonce, 0, output, outputOffset, length)
+    }
+
+    /**
+     * Decrypt [length] bytes of [input] at [inputOffset] (ciphertext followed by MAC) and write
+     * plain text to [output] at [outputOffset]. [output] needs space for [length] - [MAC_SIZE] bytes.
+     *
+     * @throws InvalidCipherTextException when MAC doesn't match, output is cleared in that case
+     */
+    @Synchronized
+    @Throws(InvalidCipherTextException::class)
+    fun decrypt(nonce: ByteArray, header: ByteArray, input: ByteArray, inputOffset: Int, length: Int, output: ByteArray, outputOffset: Int) {
+        if (length < MAC_SIZE) throw InvalidCipherTextException("data too short")
+        val plainLength = length - MAC_SIZE
+        // keep received MAC, output may overlap input
+        System.arraycopy(input, inputOffset + plainLength, receivedTag, 0, MAC_SIZE)
+        System.arraycopy(input, inputOffset, output, outputOffset, plainLength)
+        processCTR(nonce, 0, output, outputOffset, plainLength)
+        if (!verifyTag(nonce, 0, header, 0, header.size, output, outputOffset, plainLength, receivedTag, 0)) {
+            output.fill(0, outputOffset, outputOffset + plainLength)
+            throw InvalidCipherTextException("mac check in CCM failed")
+        }
+    }
+
+    companion object {
+
+        const val MAC_SIZE = 8
+        const val NONCE_SIZE = 13
+    }
+}
@@ -4,63 +4,47 @@ import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.utils.toHex
 import app.aaps.pump.omnipod.dash.driver.comm.message.MessagePacket
-import org.spongycastle.crypto.engines.AESEngine
-import org.spongycastle.crypto.modes.CCMBlockCipher
-import org.spongycastle.crypto.params.AEADParameters
-import org.spongycastle.crypto.params.KeyParameter
 
-class EnDecrypt(private val aapsLogger: AAPSLogger, private val nonce: Nonce, private val ck: ByteArray) {
+/**
+ * Encryption of messages in one session. Cipher context, nonce and header buffers
+ * are created once with session keys and reused for every message.
+ */
+class EnDecrypt(private val aapsLogger: AAPSLogger, private val nonce: Nonce, ck: ByteArray) {
 
-    val engine = AESEngine()
-    val cipher = CCMBlockCipher(engine)
+    private val ccm = AesCCM(ck)
+    private val nonceBuffer = ByteArray(AesCCM.NONCE_SIZE)
+    private val headerBuffer = ByteArray(MessagePacket.HEADER_SIZE)
 
+    @Synchronized
     fun decrypt(msg: MessagePacket): MessagePacket {
         val payload = msg.payload
-        val header = msg.asByteArray().copyOfRange(0, 16)
+        msg.writeHeader(headerBuffer)
 
-        val n = nonce.increment(false)
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Decrypt header ${header.toHex()} payload: ${payload.toHex()}")
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Decrypt NONCE ${n.toHex()}")
-        cipher.init(
-            false,
-            AEADParameters(
-                KeyParameter(ck),
-                MAC_SIZE * 8, // in bits
-                n,
-                header
-            )
-        )
+        nonce.increment(false, nonceBuffer)
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Decrypt header ${headerBuffer.toHex()} payload: ${payload.toHex()}" }
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Decrypt NONCE ${nonceBuffer.toHex()}" }
         val decryptedPayload = ByteArray(payload.size - MAC_SIZE)
-        cipher.processPacket(payload, 0, payload.size, decryptedPayload, 0)
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Decrypted payload ${decryptedPayload.toHex()}")
+        ccm.decrypt(nonceBuffer, headerBuffer, payload, 0, payload.size, decryptedPayload, 0)
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Decrypted payload ${decryptedPayload.toHex()}" }
         return msg.copy(payload = decryptedPayload)
     }
 
+    @Synchronized
     fun encrypt(headerMessage: MessagePacket): MessagePacket {
         val payload = headerMessage.payload
-        val header = headerMessage.asByteArray(true).copyOfRange(0, 16)
+        headerMessage.writeHeader(headerBuffer, true)
 
-        val n = nonce.increment(true)
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Encrypt header ${header.toHex()} payload: ${payload.toHex()}")
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Encrypt NONCE ${n.toHex()}")
+        nonce.increment(true, nonceBuffer)
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Encrypt header ${headerBuffer.toHex()} payload: ${payload.toHex()}" }
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Encrypt NONCE ${nonceBuffer.toHex()}" }
         val encryptedPayload = ByteArray(payload.size + MAC_SIZE)
-
-        cipher.init(
-            true,
-            AEADParameters(
-                KeyParameter(ck),
-                MAC_SIZE * 8, // in bits
-                n,
-                header
-            )
-        )
-        cipher.processPacket(payload, 0, payload.size, encryptedPayload, 0)
+        ccm.encrypt(nonceBuffer, headerBuffer, payload, 0, payload.size, encryptedPayload, 0)
 
         return headerMessage.copy(payload = encryptedPayload)
     }
 
     companion object {
 
-        private const val MAC_SIZE = 8
+        private const val MAC_SIZE = AesCCM.MAC_SIZE
     }
 }
@@ -1,23 +1,22 @@
 package app.aaps.pump.omnipod.dash.driver.comm.endecrypt
 
-import java.nio.ByteBuffer
-
 data class Nonce(val prefix: ByteArray, var sqn: Long) {
     init {
         require(prefix.size == 8) { "Nonce prefix should be 8 bytes long" }
     }
 
-    fun increment(podReceiving: Boolean): ByteArray {
+    /**
+     * Increment sequence number and write nonce to [output], used for every message without allocation
+     */
+    fun increment(podReceiving: Boolean, output: ByteArray) {
         sqn++
-        val ret = ByteBuffer.allocate(8)
-            .putLong(sqn)
-            .array()
-            .copyOfRange(3, 8)
+        System.arraycopy(prefix, 0, output, 0, 8)
+        // lowest 5 bytes of sqn, big endian
+        for (i in 0 until 5) output[8 + i] = (sqn ushr (8 * (4 - i))).toByte()
         if (podReceiving) {
-            ret[0] = (ret[0].toInt() and 127).toByte()
+            output[8] = (output[8].toInt() and 127).toByte()
         } else {
-            ret[0] = (ret[0].toInt() or 128).toByte()
+            output[8] = (output[8].toInt() or 128).toByte()
         }
-        return prefix + ret
     }
 }
@@ -26,8 +26,18 @@ data class MessagePacket(
 ) {
 
     fun asByteArray(forEncryption: Boolean = false): ByteArray {
-        val bb = ByteBuffer.allocate(16 + payload.size)
-        bb.put(MAGIC_PATTERN.toByteArray())
+        val ret = ByteArray(HEADER_SIZE + payload.size)
+        writeHeader(ret, forEncryption)
+        payload.copyInto(ret, HEADER_SIZE)
+        return ret
+    }
+
+    /**
+     * Write 16 bytes header to [output], header is used as associated data for encryption
+     */
+    fun writeHeader(output: ByteArray, forEncryption: Boolean = false) {
+        val bb = ByteBuffer.wrap(output, 0, HEADER_SIZE)
+        bb.put(MAGIC_BYTES)
 
         val f1 = Flag()
         f1.set(0, this.version.toInt() and 4 != 0)
@@ -60,20 +70,13 @@ data class MessagePacket(
 
         bb.put(this.source.address)
         bb.put(this.destination.address)
-
-        bb.put(this.payload)
-
-        val ret = ByteArray(bb.position())
-        bb.flip()
-        bb.get(ret)
-
-        return ret
     }
 
     companion object {
 
         private const val MAGIC_PATTERN = "TW" // all messages start with this string
-        private const val HEADER_SIZE = 16
+        const val HEADER_SIZE = 16
+        private val MAGIC_BYTES = MAGIC_PATTERN.toByteArray()
 
         fun parse(payload: ByteArray): MessagePacket {
             payload.assertSizeAtLeast(HEADER_SIZE)
@@ -3,9 +3,9 @@ package app.aaps.pump.omnipod.dash.driver.pod.definition
 import java.io.Serializable
 
 data class SoftwareVersion(
-    private val major: Short,
-    private val minor: Short,
-    private val interim: Short
+    val major: Short,
+    val minor: Short,
+    val interim: Short
 ) : Serializable {
 
     override fun toString(): String {
@@ -88,6 +88,11 @@ interface OmnipodDashPodStateManager {
     fun increaseMessageSequenceNumber()
     fun increaseEapAkaSequenceNumber(): ByteArray
     fun commitEapAkaSequenceNumber()
+
+    /**
+     * Write state changed during command exchange. Called once when exchange is finished.
+     */
+    fun flush()
     fun updateFromDefaultStatusResponse(response: DefaultStatusResponse)
     fun updateFromVersionResponse(response: VersionResponse)
     fun updateFromSetUniqueIdResponse(response: SetUniqueIdResponse)
@@ -46,6 +46,16 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
     private val preferences: Preferences
 ) : OmnipodDashPodStateManager {
 
+    private val snapshotStore = PodStateStore(object : PodStateStore.Storage {
+        override fun readSnapshot(): String? = preferences.getIfExists(DashStringNonPreferenceKey.PodStateSnapshot)?.takeIf { it.isNotEmpty() }
+        override fun writeSnapshot(value: String) = preferences.put(DashStringNonPreferenceKey.PodStateSnapshot, value)
+        override fun readLegacy(): String? = preferences.getIfExists(DashStringNonPreferenceKey.PodState)?.takeIf { it.isNotEmpty() }
+        override fun writeLegacy(value: String) = preferences.put(DashStringNonPreferenceKey.PodState, value)
+    })
+
+    // changes not written yet, coalesced to one write per command exchange
+    @Volatile private var dirty = false
+
     private var podState: PodState
 
     init {
@@ -309,7 +319,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
 
     override fun increaseMessageSequenceNumber() {
         podState.messageSequenceNumber = ((podState.messageSequenceNumber.toInt() + 1) and 0x0f).toShort()
-        store()
+        markDirty()
     }
 
     override var eapAkaSequenceNumber: Long
@@ -443,6 +453,8 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
 
     @Synchronized
     override fun updateActiveCommand(): Maybe<CommandConfirmed> = Maybe.create { source ->
+        // confirmation depends on status received in last exchange
+        flush()
         val activeCommand = podState.activeCommand
         if (activeCommand == null) {
             logger.error(LTag.PUMPCOMM, "No active command to update")
@@ -608,7 +620,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
             podState.activationTime = System.currentTimeMillis() - (response.minutesSinceActivation * 60_000)
         }
 
-        store()
+        markDirty()
         rxBus.send(EventOmnipodDashPumpValuesChanged())
     }
 
@@ -629,7 +641,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
 
         podState.lastUpdatedSystem = System.currentTimeMillis()
 
-        store()
+        markDirty()
         rxBus.send(EventOmnipodDashPumpValuesChanged())
     }
 
@@ -655,7 +667,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         podState.uniqueId = response.uniqueIdReceivedInCommand
 
         podState.lastUpdatedSystem = System.currentTimeMillis()
-        store()
+        markDirty()
         rxBus.send(EventOmnipodDashPumpValuesChanged())
     }
 
@@ -680,7 +692,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         podState.lastStatusResponseReceived = SystemClock.elapsedRealtime()
         updateLastBolusFromResponse(response.bolusPulsesRemaining)
 
-        store()
+        markDirty()
         rxBus.send(EventOmnipodDashPumpValuesChanged())
     }
 
@@ -702,25 +714,34 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         store()
     }
 
+    private fun markDirty() {
+        dirty = true
+    }
+
+    // change outside of command exchange, written immediately
     private fun store() {
-        try {
-            val cleanPodState = podState.copy(ltk = byteArrayOf()) // do not log ltk
-            logger.debug(LTag.PUMPCOMM, "Storing Pod state: ${Gson().toJson(cleanPodState)}")
+        markDirty()
+        flush()
+    }
 
-            val serialized = Gson().toJson(podState)
-            preferences.put(DashStringNonPreferenceKey.PodState, serialized)
+    @Synchronized
+    override fun flush() {
+        if (!dirty) return
+        dirty = false
+        try {
+            logger.debug(LTag.PUMPCOMM) { "Storing Pod state: ${Gson().toJson(podState.copy(ltk = byteArrayOf()))}" } // do not log ltk
+            snapshotStore.save(podState)
         } catch (ex: Exception) {
+            dirty = true
             logger.error(LTag.PUMPCOMM, "Failed to store Pod state", ex)
         }
     }
 
     private fun load(): PodState {
-        if (preferences.getIfExists(DashStringNonPreferenceKey.PodState) != null) {
-            try {
-                return Gson().fromJson(preferences.get(DashStringNonPreferenceKey.PodState), PodState::class.java)
-            } catch (ex: Exception) {
-                logger.error(LTag.PUMPCOMM, "Failed to deserialize Pod state", ex)
-            }
+        try {
+            snapshotStore.load()?.let { return it }
+        } catch (ex: Exception) {
+            logger.error(LTag.PUMPCOMM, "Failed to load Pod state", ex)
         }
         return PodState()
     }
@@ -0,0 +1,243 @@
+package app.aaps.pump.omnipod.dash.driver.pod.state
+
+import app.aaps.core.data.model.BS
+import app.aaps.pump.omnipod.dash.driver.pod.definition.ActivationProgress
+import app.aaps.pump.omnipod.dash.driver.pod.definition.AlarmType
+import app.aaps.pump.omnipod.dash.driver.pod.definition.AlertType
+import app.aaps.pump.omnipod.dash.driver.pod.definition.BasalProgram
+import app.aaps.pump.omnipod.dash.driver.pod.definition.DeliveryStatus
+import app.aaps.pump.omnipod.dash.driver.pod.definition.PodStatus
+import app.aaps.pump.omnipod.dash.driver.pod.definition.SoftwareVersion
+import app.aaps.pump.omnipod.dash.driver.pod.state.OmnipodDashPodStateManagerImpl.PodState
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.util.EnumSet
+
+/**
+ * Versioned binary form of [PodState].
+ *
+ * Fields are written in fixed order, nullable fields with presence flag and enums by name.
+ * New fields must be appended and [VERSION] increased, older snapshots are then read with defaults.
+ * Bluetooth connection state is not stored, it is always DISCONNECTED after load.
+ */
+object PodStateSnapshot {
+
+    const val VERSION = 1
+
+    fun encode(state: PodState): ByteArray {
+        val bytes = ByteArrayOutputStream(512)
+        DataOutputStream(bytes).use { out ->
+            out.writeByte(VERSION)
+            with(state) {
+                out.writeUTF(activationProgress.name)
+                out.writeLong(lastUpdatedSystem)
+                out.writeLong(lastStatusResponseReceived)
+                out.writeInt(connectionAttempts)
+                out.writeInt(successfulConnections)
+                out.writeInt(successfulConnectionAttemptsAfterRetries)
+                out.writeInt(failedConnectionsAfterRetries)
+                out.writeShort(messageSequenceNumber.toInt())
+                out.writeNullable(sequenceNumberOfLastProgrammingCommand) { writeShort(it.toInt()) }
+                out.writeNullable(activationTime) { writeLong(it) }
+                out.writeNullable(uniqueId) { writeLong(it) }
+                out.writeNullable(bluetoothAddress) { writeUTF(it) }
+                out.writeNullable(ltk) { writeByteArray(it) }
+                out.writeLong(eapAkaSequenceNumber)
+                out.writeNullable(timeZone) { writeUTF(it) }
+                out.writeNullable(timeZoneOffset) { writeInt(it) }
+                out.writeNullable(timeZoneUpdated) { writeLong(it) }
+                out.writeBoolean(alarmSynced)
+                out.writeBoolean(suspendAlertsEnabled)
+
+                out.writeNullable(bleVersion) { writeSoftwareVersion(it) }
+                out.writeNullable(firmwareVersion) { writeSoftwareVersion(it) }
+                out.writeNullable(lotNumber) { writeLong(it) }
+                out.writeNullable(podSequenceNumber) { writeLong(it) }
+                out.writeNullable(pulseRate) { writeShort(it.toInt()) }
+                out.writeNullable(primePulseRate) { writeShort(it.toInt()) }
+                out.writeNullable(podLifeInHours) { writeShort(it.toInt()) }
+                out.writeNullable(firstPrimeBolusVolume) { writeShort(it.toInt()) }
+                out.writeNullable(secondPrimeBolusVolume) { writeShort(it.toInt()) }
+
+                out.writeNullable(expirationReminderEnabled) { writeBoolean(it) }
+                out.writeNullable(expirationReminderHours) { writeInt(it) }
+                out.writeNullable(expirationAlarmEnabled) { writeBoolean(it) }
+                out.writeNullable(expirationAlarmHours) { writeInt(it) }
+                out.writeNullable(lowReservoirAlertEnabled) { writeBoolean(it) }
+                out.writeNullable(lowReservoirAlertUnits) { writeInt(it) }
+
+                out.writeNullable(pulsesDelivered) { writeShort(it.toInt()) }
+                out.writeNullable(pulsesRemaining) { writeShort(it.toInt()) }
+                out.writeNullable(podStatus) { writeUTF(it.name) }
+                out.writeNullable(deliveryStatus) { writeUTF(it.name) }
+                out.writeNullable(minutesSinceActivation) { writeShort(it.toInt()) }
+                out.writeNullable(activeAlerts) { alerts ->
+                    writeInt(alerts.size)
+                    alerts.forEach { writeUTF(it.name) }
+                }
+                out.writeNullable(alarmType) { writeUTF(it.name) }
+
+                out.writeNullable(basalProgram) { writeBasalProgram(it) }
+                out.writeNullable(tempBasal) { writeTempBasal(it) }
+                out.writeNullable(activeCommand) { writeActiveCommand(it) }
+                out.writeNullable(lastBolus) { writeLastBolus(it) }
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    @Throws(IOException::class)
+    fun decode(data: ByteArray): PodState {
+        DataInputStream(ByteArrayInputStream(data)).use { input ->
+            val version = input.readUnsignedByte()
+            if (version < 1 || version > VERSION) throw IOException("Unsupported pod state snapshot version $version")
+            return PodState(
+                activationProgress = ActivationProgress.valueOf(input.readUTF()),
+                lastUpdatedSystem = input.readLong(),
+                lastStatusResponseReceived = input.readLong(),
+                connectionAttempts = input.readInt(),
+                successfulConnections = input.readInt(),
+                successfulConnectionAttemptsAfterRetries = input.readInt(),
+                failedConnectionsAfterRetries = input.readInt(),
+                messageSequenceNumber = input.readShort(),
+                sequenceNumberOfLastProgrammingCommand = input.readNullable { readShort() },
+                activationTime = input.readNullable { readLong() },
+                uniqueId = input.readNullable { readLong() },
+                bluetoothAddress = input.readNullable { readUTF() },
+                ltk = input.readNullable { readByteArray() },
+                eapAkaSequenceNumber = input.readLong(),
+                timeZone = input.readNullable { readUTF() },
+                timeZoneOffset = input.readNullable { readInt() },
+                timeZoneUpdated = input.readNullable { readLong() },
+                alarmSynced = input.readBoolean(),
+                suspendAlertsEnabled = input.readBoolean(),
+
+                bleVersion = input.readNullable { readSoftwareVersion() },
+                firmwareVersion = input.readNullable { readSoftwareVersion() },
+                lotNumber = input.readNullable { readLong() },
+                podSequenceNumber = input.readNullable { readLong() },
+                pulseRate = input.readNullable { readShort() },
+                primePulseRate = input.readNullable { readShort() },
+                podLifeInHours = input.readNullable { readShort() },
+                firstPrimeBolusVolume = input.readNullable { readShort() },
+                secondPrimeBolusVolume = input.readNullable { readShort() },
+
+                expirationReminderEnabled = input.readNullable { readBoolean() },
+                expirationReminderHours = input.readNullable { readInt() },
+                expirationAlarmEnabled = input.readNullable { readBoolean() },
+                expirationAlarmHours = input.readNullable { readInt() },
+                lowReservoirAlertEnabled = input.readNullable { readBoolean() },
+                lowReservoirAlertUnits = input.readNullable { readInt() },
+
+                pulsesDelivered = input.readNullable { readShort() },
+                pulsesRemaining = input.readNullable { readShort() },
+                podStatus = input.readNullable { PodStatus.valueOf(readUTF()) },
+                deliveryStatus = input.readNullable { DeliveryStatus.valueOf(readUTF()) },
+                minutesSinceActivation = input.readNullable { readShort() },
+                activeAlerts = input.readNullable {
+                    EnumSet.noneOf(AlertType::class.java).also { alerts -> repeat(readInt()) { alerts.add(AlertType.valueOf(readUTF())) } }
+                },
+                alarmType = input.readNullable { AlarmType.valueOf(readUTF()) },
+
+                basalProgram = input.readNullable { readBasalProgram() },
+                tempBasal = input.readNullable { readTempBasal() },
+                activeCommand = input.readNullable { readActiveCommand() },
+                lastBolus = input.readNullable { readLastBolus() }
+            )
+        }
+    }
+
+    private inline fun <T : Any> DataOutputStream.writeNullable(value: T?, write: DataOutputStream.(T) -> Unit) {
+        writeBoolean(value != null)
+        if (value != null) write(value)
+    }
+
+    private inline fun <T : Any> DataInputStream.readNullable(read: DataInputStream.() -> T): T? =
+        if (readBoolean()) read() else null
+
+    private fun DataOutputStream.writeByteArray(value: ByteArray) {
+        writeInt(value.size)
+        write(value)
+    }
+
+    private fun DataInputStream.readByteArray(): ByteArray {
+        val size = readInt()
+        if (size < 0 || size > available()) throw IOException("Invalid array size $size")
+        return ByteArray(size).also { readFully(it) }
+    }
+
+    private fun DataOutputStream.writeSoftwareVersion(value: SoftwareVersion) {
+        writeShort(value.major.toInt())
+        writeShort(value.minor.toInt())
+        writeShort(value.interim.toInt())
+    }
+
+    private fun DataInputStream.readSoftwareVersion() = SoftwareVersion(readShort(), readShort(), readShort())
+
+    private fun DataOutputStream.writeBasalProgram(value: BasalProgram) {
+        writeInt(value.segments.size)
+        value.segments.forEach {
+            writeShort(it.startSlotIndex.toInt())
+            writeShort(it.endSlotIndex.toInt())
+            writeInt(it.basalRateInHundredthUnitsPerHour)
+        }
+    }
+
+    private fun DataInputStream.readBasalProgram(): BasalProgram {
+        val size = readInt()
+        if (size < 0 || size > available()) throw IOException("Invalid segment count $size")
+        return BasalProgram(List(size) { BasalProgram.Segment(readShort(), readShort(), readInt()) })
+    }
+
+    private fun DataOutputStream.writeTempBasal(value: OmnipodDashPodStateManager.TempBasal) {
+        writeLong(value.startTime)
+        writeDouble(value.rate)
+        writeShort(value.durationInMinutes.toInt())
+    }
+
+    private fun DataInputStream.readTempBasal() = OmnipodDashPodStateManager.TempBasal(readLong(), readDouble(), readShort())
+
+    // send error is kept as message only
+    private fun DataOutputStream.writeActiveCommand(value: OmnipodDashPodStateManager.ActiveCommand) {
+        writeShort(value.sequence.toInt())
+        writeLong(value.createdRealtime)
+        writeLong(value.sentRealtime)
+        writeLong(value.historyId)
+        writeNullable(value.sendError) { writeUTF(it.message ?: it.javaClass.simpleName) }
+        writeNullable(value.basalProgram) { writeBasalProgram(it) }
+        writeNullable(value.tempBasal) { writeTempBasal(it) }
+        writeNullable(value.requestedBolus) { writeDouble(it) }
+    }
+
+    private fun DataInputStream.readActiveCommand() = OmnipodDashPodStateManager.ActiveCommand(
+        sequence = readShort(),
+        createdRealtime = readLong(),
+        sentRealtime = readLong(),
+        historyId = readLong(),
+        sendError = readNullable { Throwable(readUTF()) },
+        basalProgram = readNullable { readBasalProgram() },
+        tempBasal = readNullable { readTempBasal() },
+        requestedBolus = readNullable { readDouble() }
+    )
+
+    private fun DataOutputStream.writeLastBolus(value: OmnipodDashPodStateManager.LastBolus) {
+        writeLong(value.startTime)
+        writeDouble(value.requestedUnits)
+        writeDouble(value.bolusUnitsRemaining)
+        writeBoolean(value.deliveryComplete)
+        writeLong(value.historyId)
+        writeUTF(value.bolusType.name)
+    }
+
+    private fun DataInputStream.readLastBolus() = OmnipodDashPodStateManager.LastBolus(
+        startTime = readLong(),
+        requestedUnits = readDouble(),
+        bolusUnitsRemaining = readDouble(),
+        deliveryComplete = readBoolean(),
+        historyId = readLong(),
+        bolusType = BS.Type.valueOf(readUTF())
+    )
+}
@@ -0,0 +1,92 @@
+package app.aaps.pump.omnipod.dash.driver.pod.state
+
+import app.aaps.pump.omnipod.dash.driver.pod.state.OmnipodDashPodStateManagerImpl.PodState
+import com.google.gson.Gson
+import com.google.gson.JsonParser
+import java.nio.ByteBuffer
+import java.util.Base64
+import java.util.zip.CRC32
+
+/**
+ * Storage of [PodStateSnapshot] with CRC32, so damaged value is detected and not loaded.
+ *
+ * Pod state JSON used by previous versions is read when there is no snapshot or when it was written
+ * by previous version after downgrade. It is written only once per snapshot format, marked by [SNAPSHOT_FORMAT],
+ * so downgrade finds the pod state from the time of upgrade.
+ */
+class PodStateStore(private val storage: Storage) {
+
+    interface Storage {
+
+        fun readSnapshot(): String?
+        fun writeSnapshot(value: String)
+        fun readLegacy(): String?
+        fun writeLegacy(value: String)
+    }
+
+    private val gson = Gson()
+
+    // legacy JSON of current snapshot format is stored
+    private var legacyWritten = false
+
+    /**
+     * @return newest valid state or null if there is none
+     */
+    @Synchronized
+    fun load(): PodState? {
+        val snapshot = storage.readSnapshot()?.let { parse(it) }
+        val json = try {
+            storage.readLegacy()?.let { JsonParser.parseString(it).asJsonObject }
+        } catch (_: Exception) {
+            null
+        }
+        legacyWritten = json?.get(SNAPSHOT_FORMAT)?.asInt == PodStateSnapshot.VERSION
+        if (json == null || snapshot != null && json.has(SNAPSHOT_FORMAT)) return snapshot
+        return try {
+            gson.fromJson(json, PodState::class.java)
+        } catch (_: Exception) {
+            snapshot
+        }
+    }
+
+    /**
+     * Write snapshot of [state] and, first time after format change, legacy JSON
+     */
+    @Synchronized
+    fun save(state: PodState) {
+        val payload = PodStateSnapshot.encode(state)
+        val buffer = ByteBuffer.allocate(payload.size + CRC_SIZE)
+        buffer.put(payload)
+        buffer.putInt(crc(payload, payload.size))
+        storage.writeSnapshot(Base64.getEncoder().encodeToString(buffer.array()))
+        if (!legacyWritten) {
+            val legacy = gson.toJsonTree(state).asJsonObject.apply { addProperty(SNAPSHOT_FORMAT, PodStateSnapshot.VERSION) }
+            storage.writeLegacy(legacy.toString())
+            legacyWritten = true
+        }
+    }
+
+    private fun parse(value: String): PodState? {
+        val data = try {
+            Base64.getDecoder().decode(value)
+        } catch (_: IllegalArgumentException) {
+            return null
+        }
+        if (data.size <= CRC_SIZE) return null
+        val size = data.size - CRC_SIZE
+        if (ByteBuffer.wrap(data).getInt(size) != crc(data, size)) return null
+        return try {
+            PodStateSnapshot.decode(data.copyOf(size))
+        } catch (_: Exception) {
+            null
+        }
+    }
+
+    private fun crc(data: ByteArray, length: Int): Int = CRC32().also { it.update(data, 0, length) }.value.toInt()
+
+    companion object {
+
+        const val SNAPSHOT_FORMAT = "snapshotFormat"
+        private const val CRC_SIZE = 4
+    }
+}
@@ -9,4 +9,5 @@ enum class DashStringNonPreferenceKey(
 ) : StringNonPreferenceKey {
 
     PodState("AAPS.OmnipodDash.pod_state", ""),
+    PodStateSnapshot("AAPS.OmnipodDash.pod_state_snapshot", ""),
 }
\ No newline at end of file
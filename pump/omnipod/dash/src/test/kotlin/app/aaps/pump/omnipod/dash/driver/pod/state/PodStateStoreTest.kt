@@ -0,0 +1,239 @@
+package app.aaps.pump.omnipod.dash.driver.pod.state
+
+import app.aaps.core.data.model.BS
+import app.aaps.pump.omnipod.dash.driver.pod.definition.ActivationProgress
+import app.aaps.pump.omnipod.dash.driver.pod.definition.AlarmType
+import app.aaps.pump.omnipod.dash.driver.pod.definition.AlertType
+import app.aaps.pump.omnipod.dash.driver.pod.definition.BasalProgram
+import app.aaps.pump.omnipod.dash.driver.pod.definition.DeliveryStatus
+import app.aaps.pump.omnipod.dash.driver.pod.definition.PodStatus
+import app.aaps.pump.omnipod.dash.driver.pod.definition.SoftwareVersion
+import app.aaps.pump.omnipod.dash.driver.pod.state.OmnipodDashPodStateManagerImpl.PodState
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.util.EnumSet
+import kotlin.random.Random
+
+class PodStateStoreTest {
+
+    // values are written asynchronously like SharedPreferences.apply()
+    // process killed: writes not yet on disk are lost
+    private class MemoryStorage {
+
+        private val disk = HashMap<String, String>()
+        private val memory = HashMap<String, String>()
+        var snapshotWrites = 0
+        var legacyWrites = 0
+
+        var legacy: String?
+            get() = memory[LEGACY]
+            set(value) {
+                if (value == null) memory.remove(LEGACY) else memory[LEGACY] = value
+                disk.clear()
+                disk.putAll(memory)
+            }
+
+        fun sync() {
+            disk.clear()
+            disk.putAll(memory)
+        }
+
+        fun die() {
+            memory.clear()
+            memory.putAll(disk)
+        }
+
+        fun damageSnapshot() {
+            memory[SNAPSHOT] = memory[SNAPSHOT]!!.substring(0, 20)
+        }
+
+        fun store() = PodStateStore(object : PodStateStore.Storage {
+            override fun readSnapshot(): String? = memory[SNAPSHOT]
+            override fun writeSnapshot(value: String) {
+                snapshotWrites++
+                memory[SNAPSHOT] = value
+            }
+
+            override fun readLegacy(): String? = memory[LEGACY]
+            override fun writeLegacy(value: String) {
+                legacyWrites++
+                memory[LEGACY] = value
+            }
+        })
+
+        companion object {
+
+            private const val SNAPSHOT = "snapshot"
+            private const val LEGACY = "legacy"
+        }
+    }
+
+    private fun fullState(index: Int) = PodState(
+        activationProgress = ActivationProgress.CANNULA_INSERTED,
+        lastUpdatedSystem = 1_700_000_000_000 + index,
+        lastStatusResponseReceived = 1_700_000_000_500 + index,
+        connectionAttempts = 10 + index,
+        successfulConnections = 9,
+        successfulConnectionAttemptsAfterRetries = 8,
+        failedConnectionsAfterRetries = 1,
+        messageSequenceNumber = (index and 0x0f).toShort(),
+        sequenceNumberOfLastProgrammingCommand = 3,
+        activationTime = 1_699_000_000_000,
+        uniqueId = 0x1234567,
+        bluetoothAddress = "00:11:22:33:44:55",
+        ltk = ByteArray(16) { it.toByte() },
+        eapAkaSequenceNumber = 100L + index,
+        timeZone = "Europe/Amsterdam",
+        timeZoneOffset = 3_600_000,
+        timeZoneUpdated = 1_699_500_000_000,
+        alarmSynced = true,
+        suspendAlertsEnabled = true,
+        bleVersion = SoftwareVersion(4, 3, 7),
+        firmwareVersion = SoftwareVersion(1, 2, 3),
+        lotNumber = 135_556_289,
+        podSequenceNumber = 611_540,
+        pulseRate = 1,
+        primePulseRate = 8,
+        podLifeInHours = 80,
+        firstPrimeBolusVolume = 52,
+        secondPrimeBolusVolume = 10,
+        expirationReminderEnabled = true,
+        expirationReminderHours = 9,
+        expirationAlarmEnabled = false,
+        expirationAlarmHours = 8,
+        lowReservoirAlertEnabled = true,
+        lowReservoirAlertUnits = 20,
+        pulsesDelivered = (1000 + index).toShort(),
+        pulsesRemaining = 1023,
+        podStatus = PodStatus.RUNNING_ABOVE_MIN_VOLUME,
+        deliveryStatus = DeliveryStatus.BOLUS_AND_TEMP_BASAL_ACTIVE,
+        minutesSinceActivation = 1234,
+        activeAlerts = EnumSet.of(AlertType.LOW_RESERVOIR, AlertType.USER_SET_EXPIRATION),
+        alarmType = AlarmType.NONE,
+        basalProgram = BasalProgram(listOf(BasalProgram.Segment(0, 10, 50), BasalProgram.Segment(10, 48, 105))),
+        tempBasal = OmnipodDashPodStateManager.TempBasal(1_700_000_000_000, 1.25, 30),
+        activeCommand = OmnipodDashPodStateManager.ActiveCommand(5, 123_456, 123_500, 77, null, null, null, 0.5),
+        lastBolus = OmnipodDashPodStateManager.LastBolus(1_700_000_000_000, 2.0, 0.35, false, 78, BS.Type.SMB)
+    )
+
+    private fun assertSameState(actual: PodState?, expected: PodState) {
+        assertThat(actual).isNotNull()
+        assertThat(PodStateSnapshot.encode(actual!!).toList()).isEqualTo(PodStateSnapshot.encode(expected).toList())
+    }
+
+    @Test
+    fun `snapshot keeps all fields`() {
+        // Throwable is not written to JSON by Gson on JVM, only to snapshot
+        val state = fullState(1).apply { activeCommand?.sendError = Throwable("timeout") }
+        val decoded = PodStateSnapshot.decode(PodStateSnapshot.encode(state))
+        assertSameState(decoded, state)
+        assertThat(decoded.ltk).isEqualTo(state.ltk)
+        assertThat(decoded.activeAlerts).isEqualTo(state.activeAlerts)
+        assertThat(decoded.tempBasal).isEqualTo(state.tempBasal)
+        assertThat(decoded.lastBolus).isEqualTo(state.lastBolus)
+        assertThat(decoded.activeCommand?.sendError?.message).isEqualTo("timeout")
+        assertThat(decoded.basalProgram?.segments?.map { it.basalRateInHundredthUnitsPerHour }).containsExactly(50, 105).inOrder()
+    }
+
+    @Test
+    fun `empty state is stored`() {
+        val storage = MemoryStorage()
+        assertThat(storage.store().load()).isNull()
+        storage.store().save(PodState())
+        assertSameState(storage.store().load(), PodState())
+    }
+
+    @Test
+    fun `legacy state is written once per snapshot format`() {
+        val storage = MemoryStorage()
+        val store = storage.store()
+        repeat(5) { store.save(fullState(it)) }
+        val restarted = storage.store()
+        assertSameState(restarted.load(), fullState(4))
+        restarted.save(fullState(5))
+        assertSameState(storage.store().load(), fullState(5))
+        assertThat(storage.snapshotWrites).isEqualTo(6)
+        assertThat(storage.legacyWrites).isEqualTo(1)
+    }
+
+    @Test
+    fun `process death loses only writes not on disk`() {
+        val random = Random(37)
+        val storage = MemoryStorage()
+        var store = storage.store()
+        var onDisk: PodState? = null
+        var deaths = 0
+        repeat(500) { index ->
+            val state = fullState(index)
+            store.save(state)
+            if (random.nextBoolean()) {
+                storage.sync()
+                onDisk = state
+            }
+            if (random.nextInt(4) == 0) {
+                storage.die()
+                deaths++
+                store = storage.store()
+                val loaded = store.load()
+                if (onDisk == null) assertThat(loaded).isNull()
+                else assertSameState(loaded, onDisk!!)
+            }
+        }
+        assertThat(deaths).isGreaterThan(100)
+    }
+
+    @Test
+    fun `damaged snapshot falls back to legacy state`() {
+        val storage = MemoryStorage()
+        val store = storage.store()
+        store.save(fullState(1))
+        store.save(fullState(2))
+        storage.damageSnapshot()
+        assertSameState(storage.store().load(), fullState(1))
+        storage.legacy = null
+        assertThat(storage.store().load()).isNull()
+    }
+
+    @Test
+    fun `legacy state is kept for downgrade`() {
+        val storage = MemoryStorage()
+        val gson = Gson()
+        // state stored by previous version is migrated
+        storage.legacy = gson.toJson(fullState(1))
+        val store = storage.store()
+        assertSameState(store.load(), fullState(1))
+        // written with first snapshot and readable by previous version
+        store.save(fullState(2))
+        store.save(fullState(3))
+        assertSameState(gson.fromJson(storage.legacy, PodState::class.java), fullState(2))
+        assertSameState(storage.store().load(), fullState(3))
+        // state stored by previous version after downgrade is newer than snapshot
+        storage.legacy = gson.toJson(fullState(4))
+        assertSameState(storage.store().load(), fullState(4))
+        // snapshot is used again after upgrade and legacy state is written again
+        storage.store().apply { load() }.save(fullState(5))
+        assertSameState(storage.store().load(), fullState(5))
+        assertSameState(gson.fromJson(storage.legacy, PodState::class.java), fullState(5))
+    }
+
+    @Test
+    fun `legacy state is written again when snapshot format changes`() {
+        val storage = MemoryStorage()
+        storage.store().save(fullState(1))
+        val json = Gson().toJsonTree(fullState(1)).asJsonObject.apply { addProperty(PodStateStore.SNAPSHOT_FORMAT, PodStateSnapshot.VERSION - 1) }
+        storage.legacy = json.toString()
+        storage.store().apply { load() }.save(fullState(2))
+        assertThat(storage.legacyWrites).isEqualTo(2)
+        assertSameState(Gson().fromJson(storage.legacy, PodState::class.java), fullState(2))
+    }
+
+    @Test
+    fun `unknown version is rejected`() {
+        val data = PodStateSnapshot.encode(PodState())
+        data[0] = (PodStateSnapshot.VERSION + 1).toByte()
+        val result = runCatching { PodStateSnapshot.decode(data) }
+        assertThat(result.exceptionOrNull()).isInstanceOf(IOException::class.java)
+    }
+}
@@ -1,11 +1,21 @@
 package app.aaps.pump.omnipod.dash.driver.comm.endecrypt
 
 import app.aaps.core.utils.toHex
+import app.aaps.pump.omnipod.dash.driver.comm.Id
 import app.aaps.pump.omnipod.dash.driver.comm.message.MessagePacket
+import app.aaps.pump.omnipod.dash.driver.comm.message.MessageType
 import app.aaps.shared.tests.AAPSLoggerTest
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.spongycastle.crypto.InvalidCipherTextException
+import org.spongycastle.crypto.engines.AESEngine
+import org.spongycastle.crypto.modes.CCMBlockCipher
+import org.spongycastle.crypto.params.AEADParameters
+import org.spongycastle.crypto.params.KeyParameter
 import org.spongycastle.util.encoders.Hex
+import java.nio.ByteBuffer
+import kotlin.random.Random
 
 @Suppress("SpellCheckingInspection") class EnDecryptTest {
 
@@ -58,4 +68,103 @@ import org.spongycastle.util.encoders.Hex
 
         assertThat(encrypted.asByteArray().toHex()).isEqualTo(encryptedMessage.toHex())
     }
+
+    private val random = Random(38)
+    private val ck = random.nextBytes(16)
+    private val prefix = random.nextBytes(8)
+    private val payloads = List(200) { random.nextBytes(random.nextInt(0, 100)) }
+
+    private fun message(payload: ByteArray, sequence: Int) = MessagePacket(
+        type = MessageType.ENCRYPTED,
+        source = Id(byteArrayOf(0x17, 0x0a, 0x3c, 0x48)),
+        destination = Id(byteArrayOf(0x17, 0x0a, 0x3c, 0x49)),
+        payload = payload,
+        sequenceNumber = sequence.toByte(),
+        eqos = 1
+    )
+
+    @Test
+    fun `nonce matches previous implementation`() {
+        val nonce = Nonce(prefix, 0xfe_ffff_fff0)
+        val buffer = ByteArray(13)
+        repeat(40) {
+            val podReceiving = it % 2 == 0
+            val expected = referenceNonce(prefix, nonce.sqn + 1, podReceiving)
+            nonce.increment(podReceiving, buffer)
+            assertThat(buffer.toHex()).isEqualTo(expected.toHex())
+        }
+    }
+
+    @Test
+    fun `encrypted messages match previous implementation`() {
+        val enDecrypt = EnDecrypt(AAPSLoggerTest(), Nonce(prefix, 5), ck)
+        payloads.forEachIndexed { index, payload ->
+            val msg = message(payload, index)
+            val expected = referenceCCM(true, referenceNonce(prefix, 6L + index, true), msg.asByteArray(true).copyOfRange(0, 16), payload)
+            assertThat(enDecrypt.encrypt(msg).payload.toHex()).isEqualTo(expected.toHex())
+        }
+    }
+
+    @Test
+    fun `messages are decrypted by the other side`() {
+        val sender = EnDecrypt(AAPSLoggerTest(), Nonce(prefix, 5), ck)
+        val receiver = Nonce(prefix, 5)
+        payloads.forEachIndexed { index, payload ->
+            val encrypted = sender.encrypt(message(payload, index))
+            // pod reads nonce with receiving flag as well
+            val nonce = ByteArray(13).also { receiver.increment(true, it) }
+            val decrypted = referenceCCM(false, nonce, encrypted.asByteArray().copyOfRange(0, 16), encrypted.payload)
+            assertThat(decrypted.toHex()).isEqualTo(payload.toHex())
+        }
+    }
+
+    @Test
+    fun `received messages match previous implementation`() {
+        val enDecrypt = EnDecrypt(AAPSLoggerTest(), Nonce(prefix, 5), ck)
+        payloads.forEachIndexed { index, payload ->
+            val header = message(payload, index).asByteArray(true).copyOfRange(0, 16)
+            val encrypted = message(referenceCCM(true, referenceNonce(prefix, 6L + index, false), header, payload), index)
+            assertThat(enDecrypt.decrypt(encrypted).payload.toHex()).isEqualTo(payload.toHex())
+        }
+    }
+
+    @Test
+    fun `modified message is rejected`() {
+        val payload = random.nextBytes(30)
+        val header = message(payload, 1).asByteArray(true).copyOfRange(0, 16)
+        val encrypted = referenceCCM(true, referenceNonce(prefix, 1, false), header, payload)
+        encrypted[3] = (encrypted[3].toInt() xor 0x10).toByte()
+        val enDecrypt = EnDecrypt(AAPSLoggerTest(), Nonce(prefix, 0), ck)
+        assertThrows<InvalidCipherTextException> { enDecrypt.decrypt(message(encrypted, 1)) }
+    }
+
+    @Test
+    fun `in place encryption`() {
+        val ccm = AesCCM(ck)
+        val nonce = referenceNonce(prefix, 1, true)
+        val header = random.nextBytes(16)
+        val payload = random.nextBytes(50)
+        val buffer = payload.copyOf(payload.size + AesCCM.MAC_SIZE)
+        ccm.encrypt(nonce, header, buffer, 0, payload.size, buffer, 0)
+        assertThat(buffer.toHex()).isEqualTo(referenceCCM(true, nonce, header, payload).toHex())
+        ccm.decrypt(nonce, header, buffer, 0, buffer.size, buffer, 0)
+        assertThat(buffer.copyOf(payload.size).toHex()).isEqualTo(payload.toHex())
+    }
+
+    // previous implementation with new nonce and cipher parameters for every message
+
+    private fun referenceNonce(prefix: ByteArray, sqn: Long, podReceiving: Boolean): ByteArray {
+        val ret = ByteBuffer.allocate(8).putLong(sqn).array().copyOfRange(3, 8)
+        if (podReceiving) ret[0] = (ret[0].toInt() and 127).toByte()
+        else ret[0] = (ret[0].toInt() or 128).toByte()
+        return prefix + ret
+    }
+
+    private fun referenceCCM(forEncryption: Boolean, nonce: ByteArray, header: ByteArray, data: ByteArray): ByteArray {
+        val cipher = CCMBlockCipher(AESEngine())
+        cipher.init(forEncryption, AEADParameters(KeyParameter(ck), 64, nonce, header))
+        val output = ByteArray(cipher.getOutputSize(data.size))
+        cipher.processPacket(data, 0, data.size, output, 0)
+        return output
+    }
 }
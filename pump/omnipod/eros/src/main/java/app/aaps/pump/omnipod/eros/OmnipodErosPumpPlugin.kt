@@ -7,7 +7,6 @@ import android.content.ServiceConnection
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.IBinder
-import android.os.SystemClock
 import android.text.TextUtils
 import androidx.preference.PreferenceCategory
 import androidx.preference.PreferenceManager
@@ -220,14 +219,7 @@ class OmnipodErosPumpPlugin @Inject constructor(
                 rileyLinkOmnipodService = mLocalBinder.serviceInstance
                 rileyLinkOmnipodService?.let { rileyLinkOmnipodService ->
                     rileyLinkOmnipodService.verifyConfiguration()
-                    Thread {
-                        for (@Suppress("unused") i in 0..19) {
-                            SystemClock.sleep(5000)
-
-                            aapsLogger.debug(LTag.PUMP, "Starting Omnipod-RileyLink service")
-                            if (rileyLinkOmnipodService.setNotInPreInit()) break
-                        }
-                    }.start()
+                    scheduleServiceStart(rileyLinkOmnipodService, attempt = 0)
                 }
             }
 
@@ -401,6 +393,13 @@ class OmnipodErosPumpPlugin @Inject constructor(
         disposable.clear()
     }
 
+    private fun scheduleServiceStart(service: RileyLinkOmnipodService, attempt: Int) {
+        loopHandler.postDelayed({
+                                    aapsLogger.debug(LTag.PUMP, "Starting Omnipod-RileyLink service")
+                                    if (!service.setNotInPreInit() && attempt < 19) scheduleServiceStart(service, attempt + 1)
+                                }, 5000)
+    }
+
     private fun queueAcknowledgeAlertsCommand() {
         commandQueue.customCommand(CommandSilenceAlerts(), object : Callback() {
             override fun run() {
@@ -40,14 +40,17 @@ abstract class Encoding4b6bAbstract : Encoding4b6b {
         val encode4b6bList: ByteArray = byteArrayOf(0x15, 0x31, 0x32, 0x23, 0x34, 0x25, 0x26, 0x16, 0x1a, 0x19, 0x2a, 0x0b, 0x2c, 0x0d, 0x0e, 0x1c)
 
         // 21, 49, 50, 35, 52, 37, 38, 22, 26, 25, 42, 11, 44, 13, 14, 28
-        /* O(n) lookup. Run on an O(n) translation of a byte-stream, gives O(n**2) performance. Sigh. */
-        fun encode4b6bListIndex(b: Byte): Int {
-            for (i in encode4b6bList.indices) {
-                if (b == encode4b6bList[i]) {
-                    return i
-                }
-            }
-            return -1
-        }
+
+        /**
+         * Both 6 bit codes of every byte value (high nibble code in bits 6-11, low nibble code in bits 0-5)
+         */
+        val encode4b6bTable: IntArray = IntArray(256) { (encode4b6bList[it shr 4].toInt() shl 6) or encode4b6bList[it and 0x0f].toInt() }
+
+        /**
+         * 6 bit code -> 4 bit value, -1 for invalid code
+         */
+        val decode4b6bTable: IntArray = IntArray(64) { encode4b6bList.indexOf(it.toByte()) }
+
+        fun encode4b6bListIndex(b: Byte): Int = if (b in 0..63) decode4b6bTable[b.toInt()] else -1
     }
 }
@@ -72,46 +72,42 @@ object CRC {
         224, 123
     )
 
+    /**
+     * CRC-16/CCITT (polynomial 0x1021) of every byte value
+     */
+    private val crc16lookup: IntArray = IntArray(256) { value ->
+        var crc = value shl 8
+        repeat(8) { crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x1021 else crc shl 1 }
+        crc and 0xFFFF
+    }
+
     fun crc8(data: ByteArray?, len: Int): Byte {
-        var len = len
-        var result: Byte = 0
         if (data == null) {
             return 0
         }
-        if (len > data.size) {
-            len = data.size
-        }
-        for (i in 0 until len) {
-            val tmp = result.toInt()
-            val tmp2 = tmp xor data[i].toInt()
-            val tmp3 = tmp2 and 0xFF
-            val idx = tmp3
-            result = crc8lookup[idx].toByte()
+        return crc8(data, 0, minOf(len, data.size))
+    }
+
+    fun crc8(data: ByteArray, offset: Int, length: Int): Byte {
+        var result = 0
+        for (i in offset until offset + length) {
+            result = crc8lookup[(result xor data[i].toInt()) and 0xFF]
         }
-        return result
+        return result.toByte()
     }
 
     fun crc8(data: ByteArray): Byte {
-        return crc8(data, data.size)
+        return crc8(data, 0, data.size)
     }
 
-    fun calculate16CCITT(data: ByteArray?): ByteArray {
+    fun calculate16CCITT(data: ByteArray?): ByteArray =
+        if (data == null) calculate16CCITT(ByteArray(0), 0, 0) else calculate16CCITT(data, 0, data.size)
+
+    fun calculate16CCITT(data: ByteArray, offset: Int, length: Int): ByteArray {
         var crc = 0xFFFF
-        val polynomial = 0x1021
-        if (data != null) {
-            if (data.isNotEmpty()) {
-                for (j in data.indices) {
-                    val b = data[j]
-                    for (i in 0..7) {
-                        val bit = ((b.toInt() shr (7 - i) and 1) == 1)
-                        val c15 = ((crc shr 15 and 1) == 1)
-                        crc = crc shl 1
-                        if (c15 xor bit) crc = crc xor polynomial
-                    }
-                }
-            }
+        for (i in offset until offset + length) {
+            crc = ((crc shl 8) xor crc16lookup[((crc shr 8) xor data[i].toInt()) and 0xFF]) and 0xFFFF
         }
-        crc = crc and 0xffff
         return byteArrayOf(((crc and 0xFF00) shr 8).toByte(), (crc and 0xFF).toByte())
     }
 }
@@ -0,0 +1,117 @@
+package app.aaps.pump.common.hw.rileylink.ble.data.encoding
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.pump.common.hw.rileylink.ble.RileyLinkCommunicationException
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.kotlin.mock
+import kotlin.random.Random
+
+/**
+ * Lookup table codec compared with previous list based implementation on random packets
+ */
+class Encoding4b6bEquivalenceTest {
+
+    private lateinit var encoder: Encoding4b6bGeoff
+
+    @BeforeEach
+    fun setup() {
+        val aapsLogger: AAPSLogger = mock()
+        encoder = Encoding4b6bGeoff(aapsLogger)
+    }
+
+    @Test
+    fun `encoding matches previous implementation`() {
+        val random = Random(4)
+        repeat(2000) {
+            val data = random.nextBytes(random.nextInt(0, 120))
+            val encoded = encoder.encode4b6b(data)
+            assertArrayEquals(referenceEncode(data), encoded)
+            assertArrayEquals(data, encoder.decode4b6b(encoded))
+        }
+    }
+
+    @Test
+    fun `decoding of random data matches previous implementation`() {
+        val random = Random(6)
+        var failures = 0
+        repeat(5000) {
+            // mostly valid packets with some corrupted bytes, plus pure noise
+            val raw = if (it % 2 == 0) random.nextBytes(random.nextInt(0, 40))
+            else encoder.encode4b6b(random.nextBytes(random.nextInt(1, 60))).also { encoded ->
+                if (random.nextInt(3) == 0) encoded[random.nextInt(encoded.size)] = random.nextInt().toByte()
+            }
+            val expected = referenceDecode(raw)
+            val actual = try {
+                encoder.decode4b6b(raw)
+            } catch (_: RileyLinkCommunicationException) {
+                null
+            }
+            if (expected == null) failures++
+            assertEquals(expected?.toList(), actual?.toList())
+        }
+        // both paths were exercised
+        assert(failures in 1..4999)
+    }
+
+    // previous implementation working with boxed lists
+
+    private fun referenceEncode(data: ByteArray): ByteArray {
+        val outData: MutableList<Byte> = ArrayList()
+        var acc = 0
+        var bitcount = 0
+        for (b in data.toList()) {
+            acc = acc shl 6
+            acc = acc or Encoding4b6bAbstract.encode4b6bList[(b.toInt() shr 4) and 0x0f].toInt()
+            bitcount += 6
+            acc = acc shl 6
+            acc = acc or Encoding4b6bAbstract.encode4b6bList[b.toInt() and 0x0f].toInt()
+            bitcount += 6
+            while (bitcount >= 8) {
+                outData.add((acc shr (bitcount - 8) and 0xff).toByte())
+                bitcount -= 8
+                acc = acc and (0xffff shr (16 - bitcount))
+            }
+        }
+        if (bitcount > 0) {
+            acc = acc shl 6
+            acc = acc or 0x14
+            bitcount += 6
+            if (bitcount >= 8) {
+                outData.add(((acc shr (bitcount - 8)) and 0xff).toByte())
+                bitcount -= 8
+            }
+            while (bitcount >= 8) {
+                outData.add(0.toByte())
+                bitcount -= 8
+            }
+        }
+        return outData.toByteArray()
+    }
+
+    private fun referenceIndex(b: Byte): Int = Encoding4b6bAbstract.encode4b6bList.indexOf(b)
+
+    // null on coding errors
+    private fun referenceDecode(raw: ByteArray): ByteArray? {
+        var rval = byteArrayOf()
+        var availableBits = 0
+        var codingErrors = 0
+        var x = 0
+        for (i in raw.indices) {
+            x = (x shl 8) + (raw[i].toInt() and 0xff)
+            availableBits += 8
+            if (availableBits >= 12) {
+                val highIndex = referenceIndex(((x shr (availableBits - 6)) and 0x3F).toByte())
+                val lowIndex = referenceIndex(((x shr (availableBits - 12)) and 0x3F).toByte())
+                if ((highIndex >= 0) && (lowIndex >= 0)) rval += ((highIndex shl 4) + lowIndex).toByte()
+                else codingErrors++
+                availableBits -= 12
+                x = x and (0x0000ffff shr (16 - availableBits))
+            }
+        }
+        if (availableBits != 0 && !(availableBits == 4 && x == 0x05)) codingErrors++
+        return if (codingErrors > 0) null else rval
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertNotNull
 import org.junit.jupiter.api.Test
+import kotlin.random.Random
 
 /**
  * Tests for CRC utility functions
@@ -282,4 +283,49 @@ class CRCTest {
             assertEquals(expected, result, "Failed for length $len")
         }
     }
+
+    @Test
+    fun `calculate16CCITT matches known check value`() {
+        // CRC-16/CCITT-FALSE of "123456789" is 0x29B1
+        val result = CRC.calculate16CCITT("123456789".toByteArray())
+        assertArrayEquals(byteArrayOf(0x29, 0xB1.toByte()), result)
+    }
+
+    @Test
+    fun `table calculations match bitwise calculations`() {
+        val random = Random(1)
+        repeat(500) {
+            val data = random.nextBytes(random.nextInt(0, 1100))
+            assertArrayEquals(bitwise16CCITT(data), CRC.calculate16CCITT(data))
+            assertEquals(bitwiseCrc8(data), CRC.crc8(data))
+        }
+        val page = random.nextBytes(1024)
+        assertArrayEquals(bitwise16CCITT(page.copyOfRange(0, 1022)), CRC.calculate16CCITT(page, 0, 1022))
+        assertEquals(bitwiseCrc8(page.copyOfRange(10, 30)), CRC.crc8(page, 10, 20))
+    }
+
+    // previous bit by bit implementation
+    private fun bitwise16CCITT(data: ByteArray): ByteArray {
+        var crc = 0xFFFF
+        for (b in data) {
+            for (i in 0..7) {
+                val bit = ((b.toInt() shr (7 - i) and 1) == 1)
+                val c15 = ((crc shr 15 and 1) == 1)
+                crc = crc shl 1
+                if (c15 xor bit) crc = crc xor 0x1021
+            }
+        }
+        crc = crc and 0xffff
+        return byteArrayOf(((crc and 0xFF00) shr 8).toByte(), (crc and 0xFF).toByte())
+    }
+
+    // CRC-8 with polynomial 0x9B
+    private fun bitwiseCrc8(data: ByteArray): Byte {
+        var crc = 0
+        for (b in data) {
+            crc = crc xor (b.toInt() and 0xFF)
+            repeat(8) { crc = if (crc and 0x80 != 0) ((crc shl 1) xor 0x9B) and 0xFF else (crc shl 1) and 0xFF }
+        }
+        return crc.toByte()
+    }
 }
@@ -0,0 +1,71 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventCalculationCompleted
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import java.util.EnumSet
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Gathers changes done by stages of one workflow run and publishes them as single [EventCalculationCompleted]
+ *
+ * Intermediate graph passes only [collect] changed parts, final pass calls [publish].
+ * Changes of a run cancelled by newer one are carried over to the next published event.
+ */
+@Singleton
+class CalculationEventCoalescer @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val rxBus: RxBus,
+    private val activePlugin: ActivePlugin
+) {
+
+    private class Pending {
+
+        val changed: EnumSet<CalculationWorkflow.ChangedPart> = EnumSet.noneOf(CalculationWorkflow.ChangedPart::class.java)
+        var suppressedPasses = 0
+    }
+
+    private val pending = HashMap<String, Pending>()
+
+    /** Number of published events since start */
+    var publishedEvents = 0L
+        private set
+
+    /** Number of UI refreshes avoided by coalescing since start */
+    var suppressedPasses = 0L
+        private set
+
+    /**
+     * Record changes of intermediate pass without notifying listeners
+     */
+    @Synchronized
+    fun collect(job: String?, changed: Collection<CalculationWorkflow.ChangedPart>) {
+        val run = pending.getOrPut(job ?: "") { Pending() }
+        run.changed.addAll(changed)
+        run.suppressedPasses++
+        suppressedPasses++
+    }
+
+    /**
+     * Merge last changes with collected ones and send one event to [RxBus]
+     * and for [CalculationWorkflow.MAIN_CALCULATION] to overview bus too
+     *
+     * @return sent event
+     */
+    fun publish(job: String?, changed: Collection<CalculationWorkflow.ChangedPart>): EventCalculationCompleted {
+        val event = synchronized(this) {
+            val run = pending.remove(job ?: "") ?: Pending()
+            run.changed.addAll(changed)
+            publishedEvents++
+            EventCalculationCompleted(job, run.changed, run.suppressedPasses)
+        }
+        aapsLogger.debug(LTag.WORKER, "$event coalesced, total suppressed UI passes $suppressedPasses in $publishedEvents runs")
+        if (job == CalculationWorkflow.MAIN_CALCULATION) activePlugin.activeOverview.overviewBus.send(event)
+        rxBus.send(event)
+        return event
+    }
+}
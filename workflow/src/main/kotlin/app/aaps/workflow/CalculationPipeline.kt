@@ -0,0 +1,213 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.profiling.trace
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * In-process executor of calculation workflow
+ *
+ * Every job ([app.aaps.core.interfaces.workflow.CalculationWorkflow.MAIN_CALCULATION], ...) has own dedicated thread
+ * so runs of the same job are serialized while different jobs don't block each other.
+ * Threads are daemons and end after [IDLE_TIMEOUT_S] without work.
+ * Stages are plain function calls, no scheduling or data hand-off between them.
+ *
+ * - superseded runs are cancelled when new run is submitted with replace = true
+ * - stages with unchanged [CalculationStage.inputs] are skipped
+ * - duration of every stage is measured and aggregated in [statistics]
+ * - runs and stages are traced as profiler spans "run:<job>" and "stage:<name>", span names are built only while tracing is enabled
+ */
+@Singleton
+class CalculationPipeline @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val fabricPrivacy: FabricPrivacy,
+    private val profiler: Profiler
+) {
+
+    class Step(val name: String, val inputs: () -> Any?, val action: (Run) -> StageResult)
+
+    class Run(val job: String, val id: Long, val reason: String) {
+
+        @Volatile var isStopped = false
+            internal set
+    }
+
+    class StageStatistics(val name: String) {
+
+        var executed = 0L
+        var skipped = 0L
+        var failed = 0L
+        var totalMs = 0L
+        var maxMs = 0L
+        var lastMs = 0L
+
+        val averageMs: Long get() = if (executed > 0) totalMs / executed else 0L
+
+        override fun toString(): String = "$name: executed=$executed skipped=$skipped failed=$failed avg=${averageMs}ms max=${maxMs}ms last=${lastMs}ms"
+    }
+
+    private val executors = HashMap<String, ExecutorService>()
+    private val activeRuns = HashMap<String, MutableList<Run>>()
+    private val lastFuture = HashMap<String, Future<*>>()
+    private val lastInputs = ConcurrentHashMap<String, Any>()
+    private val statistics = LinkedHashMap<String, StageStatistics>()
+    private var runCounter = 0L
+
+    /**
+     * Build step executing [stage] with [data]
+     *
+     * @param name used for statistics and for storing of inputs, must be unique within job for stages with inputs
+     */
+    fun <T> step(stage: CalculationStage<T>, data: T, name: String = stage::class.java.simpleName): Step =
+        Step(name, { stage.inputs(data) }) { run -> stage.run(data, run) }
+
+    /**
+     * Enqueue steps to job's thread
+     *
+     * @param replace cancel not finished runs of the same job (otherwise steps are appended after them)
+     */
+    @Synchronized
+    fun submit(job: String, reason: String, replace: Boolean, steps: List<Step>): Run {
+        val runs = activeRuns.getOrPut(job) { ArrayList() }
+        if (replace) runs.forEach { it.isStopped = true }
+        val run = Run(job, ++runCounter, reason)
+        runs.add(run)
+        lastFuture[job] = executor(job).submit { execute(run, steps) }
+        return run
+    }
+
+    /**
+     * Cancel all runs of job and wait for finishing of currently executed stage
+     */
+    fun cancel(job: String) {
+        synchronized(this) { activeRuns[job]?.forEach { it.isStopped = true } }
+        await(job)
+    }
+
+    /**
+     * Wait until all submitted runs of job are finished
+     */
+    fun await(job: String) {
+        val future = synchronized(this) { lastFuture[job] }
+        // don't wait for itself when called from stage
+        if (Thread.currentThread().name == threadName(job)) return
+        try {
+            future?.get()
+        } catch (e: ExecutionException) {
+            aapsLogger.error(LTag.WORKER, "Cancelled run failed", e)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    /**
+     * Forget stored inputs so every stage of job is executed in next run
+     */
+    fun invalidate(job: String) {
+        lastInputs.keys.removeAll { it.startsWith("$job:") }
+    }
+
+    @Synchronized
+    fun statistics(): List<StageStatistics> = statistics.values.toList()
+
+    /**
+     * Cancel runs of all jobs and stop their threads
+     * Pipeline stays usable, next [submit] starts new thread
+     */
+    @Synchronized
+    fun shutdown() {
+        activeRuns.values.forEach { runs -> runs.forEach { it.isStopped = true } }
+        executors.values.forEach { it.shutdown() }
+        executors.clear()
+    }
+
+    private fun execute(run: Run, steps: List<Step>) = traced("run:", run.job) { executeSteps(run, steps) }
+
+    private inline fun <T> traced(prefix: String, name: String, block: () -> T): T =
+        if (profiler.isTracing) profiler.trace(prefix + name, block) else block()
+
+    private fun executeSteps(run: Run, steps: List<Step>) {
+        val timings = StringBuilder()
+        val start = System.nanoTime()
+        var result = StageResult.success()
+        for (step in steps) {
+            if (run.isStopped) {
+                result = StageResult.failure("cancelled before ${step.name}")
+                break
+            }
+            val key = "${run.job}:${step.name}"
+            val inputs = step.inputs()
+            if (inputs != null && lastInputs[key] == inputs) {
+                synchronized(this) { stageStatistics(step.name).skipped++ }
+                timings.append(" ${step.name}=skipped")
+                continue
+            }
+            val stepStart = System.nanoTime()
+            result = try {
+                traced("stage:", step.name) { step.action(run) }
+            } catch (e: Exception) {
+                aapsLogger.error(LTag.WORKER, "Stage ${step.name} failed", e)
+                fabricPrivacy.logException(e)
+                StageResult.failure(e.toString())
+            }
+            val elapsed = (System.nanoTime() - stepStart) / 1_000_000
+            synchronized(this) {
+                stageStatistics(step.name).also {
+                    it.executed++
+                    it.totalMs += elapsed
+                    it.lastMs = elapsed
+                    if (elapsed > it.maxMs) it.maxMs = elapsed
+                    if (!result.success) it.failed++
+                }
+            }
+            timings.append(" ${step.name}=${elapsed}ms")
+            // evaluate again, inputs may include identity of produced output
+            val storedInputs = if (result.success && !run.isStopped) step.inputs() else null
+            if (storedInputs != null) lastInputs[key] = storedInputs
+            else lastInputs.remove(key)
+            if (!result.success) break
+        }
+        synchronized(this) { activeRuns[run.job]?.remove(run) }
+        aapsLogger.debug(LTag.WORKER) {
+            "Calculation run #${run.id} ${run.job} (${run.reason}) $result in ${(System.nanoTime() - start) / 1_000_000}ms:$timings"
+        }
+    }
+
+    private fun stageStatistics(name: String) = statistics.getOrPut(name) { StageStatistics(name) }
+
+    private fun executor(job: String): ExecutorService =
+        executors.getOrPut(job) {
+            ThreadPoolExecutor(1, 1, IDLE_TIMEOUT_S, TimeUnit.SECONDS, LinkedBlockingQueue()) { runnable ->
+                Thread(runnable, threadName(job)).apply { isDaemon = true }
+            }.apply { allowCoreThreadTimeOut(true) }
+        }
+
+    private fun threadName(job: String) = "CalculationPipeline-$job"
+
+    companion object {
+
+        const val IDLE_TIMEOUT_S = 60L
+
+        /**
+         * Wrap reference for [CalculationStage.inputs] so it's compared by identity
+         */
+        fun identity(ref: Any?): Any = Identity(ref)
+
+        private class Identity(val ref: Any?) {
+
+            override fun equals(other: Any?): Boolean = other is Identity && other.ref === ref
+            override fun hashCode(): Int = System.identityHashCode(ref)
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package app.aaps.workflow
+
+/**
+ * Single step of calculation workflow executed in-process by [CalculationPipeline]
+ */
+interface CalculationStage<T> {
+
+    /**
+     * Do the work of this stage
+     *
+     * @param data input prepared by [CalculationWorkflowImpl]
+     * @param run executed run. Long loops should check [CalculationPipeline.Run.isStopped]
+     * @return result, following stages are not executed on failure
+     */
+    fun run(data: T, run: CalculationPipeline.Run): StageResult
+
+    /**
+     * Key describing inputs of stage.
+     * It's evaluated before execution and again after successful execution.
+     * If key equals to key stored after last successful execution within the same job, stage is skipped.
+     * Include identity of produced output to detect its replacement by somebody else.
+     *
+     * @return key or null if stage must be always executed
+     */
+    fun inputs(data: T): Any? = null
+}
+
+class StageResult private constructor(val success: Boolean, val message: String?) {
+
+    override fun toString(): String = (if (success) "SUCCESS" else "FAILURE") + (message?.let { " $it" } ?: "")
+
+    companion object {
+
+        fun success(message: String? = null) = StageResult(true, message)
+        fun failure(message: String) = StageResult(false, message)
+    }
+}
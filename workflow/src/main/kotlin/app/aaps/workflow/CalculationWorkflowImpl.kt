@@ -1,12 +1,5 @@
 package app.aaps.workflow
 
-import android.content.Context
-import android.os.SystemClock
-import androidx.work.Data
-import androidx.work.ExistingWorkPolicy
-import androidx.work.OneTimeWorkRequest
-import androidx.work.WorkInfo
-import androidx.work.WorkManager
 import app.aaps.core.interfaces.iob.IobCobCalculator
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
@@ -15,24 +8,35 @@ import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.rx.events.Event
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
-import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.JOB
+import app.aaps.core.interfaces.workflow.CalculationWorkflow.ChangedPart
 import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.MAIN_CALCULATION
-import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.PASS
 import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.UPDATE_PREDICTIONS
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import app.aaps.core.utils.worker.then
-import app.aaps.workflow.iob.IobCobOref1Worker
-import app.aaps.workflow.iob.IobCobOrefWorker
+import app.aaps.workflow.iob.IobCobOref1Stage
+import app.aaps.workflow.iob.IobCobOrefStage
 import javax.inject.Inject
+import javax.inject.Provider
 import javax.inject.Singleton
 
 @Singleton
 class CalculationWorkflowImpl @Inject constructor(
-    private val context: Context,
     private val aapsLogger: AAPSLogger,
     private val dateUtil: DateUtil,
-    private val dataWorkerStorage: DataWorkerStorage,
-    private val activePlugin: ActivePlugin
+    private val activePlugin: ActivePlugin,
+    private val pipeline: CalculationPipeline,
+    private val iobAutosensGraphCache: IobAutosensGraphCache,
+    private val loadBgDataStage: Provider<LoadBgDataStage>,
+    private val prepareBucketedDataStage: Provider<PrepareBucketedDataStage>,
+    private val prepareBgDataStage: Provider<PrepareBgDataStage>,
+    private val prepareTreatmentsDataStage: Provider<PrepareTreatmentsDataStage>,
+    private val prepareBasalDataStage: Provider<PrepareBasalDataStage>,
+    private val prepareTemporaryTargetDataStage: Provider<PrepareTemporaryTargetDataStage>,
+    private val prepareRunningModeDataStage: Provider<PrepareRunningModeDataStage>,
+    private val iobCobOref1Stage: Provider<IobCobOref1Stage>,
+    private val iobCobOrefStage: Provider<IobCobOrefStage>,
+    private val prepareIobAutosensGraphDataStage: Provider<PrepareIobAutosensGraphDataStage>,
+    private val invokeLoopStage: Provider<InvokeLoopStage>,
+    private val preparePredictionsStage: Provider<PreparePredictionsStage>,
+    private val updateGraphStage: Provider<UpdateGraphStage>
 ) : CalculationWorkflow {
 
     init {
@@ -44,13 +48,15 @@ class CalculationWorkflowImpl @Inject constructor(
 
     override fun stopCalculation(job: String, from: String) {
         aapsLogger.debug(LTag.WORKER, "Stopping calculation thread: $from")
-        WorkManager.getInstance(context).cancelUniqueWork(job)
-        val workStatus = WorkManager.getInstance(context).getWorkInfosForUniqueWork(job).get()
-        while (workStatus.isNotEmpty() && workStatus[0].state == WorkInfo.State.RUNNING)
-            SystemClock.sleep(100)
+        pipeline.cancel(job)
         aapsLogger.debug(LTag.WORKER, "Calculation thread stopped: $from")
     }
 
+    override fun invalidateGraphData(job: String, from: Long) {
+        aapsLogger.debug(LTag.WORKER, "Invalidating graph data of $job from ${dateUtil.dateAndTimeAndSecondsString(from)}")
+        iobAutosensGraphCache.invalidate(job, from)
+    }
+
     override fun runCalculation(
         job: String,
         iobCobCalculator: IobCobCalculator,
@@ -62,96 +68,38 @@ class CalculationWorkflowImpl @Inject constructor(
     ) {
         aapsLogger.debug(LTag.WORKER, "Starting calculation worker: $reason to ${dateUtil.dateAndTimeAndSecondsString(end)}")
 
-        WorkManager.getInstance(context)
-            .beginUniqueWork(
-                job, ExistingWorkPolicy.REPLACE,
-                if (bgDataReload) OneTimeWorkRequest.Builder(LoadBgDataWorker::class.java).setInputData(dataWorkerStorage.storeInputData(LoadBgDataWorker.LoadBgData(iobCobCalculator, end))).build()
-                else OneTimeWorkRequest.Builder(DummyWorker::class.java).build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareBucketedDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareBucketedDataWorker.PrepareBucketedData(iobCobCalculator, overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareBgDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareBgDataWorker.PrepareBgData(iobCobCalculator, overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_BG.pass).build())
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareTreatmentsDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareTreatmentsDataWorker.PrepareTreatmentsData(overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareBasalDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareBasalDataWorker.PrepareBasalData(iobCobCalculator, overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareTemporaryTargetDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareTemporaryTargetDataWorker.PrepareTemporaryTargetData(overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareRunningModeDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareRunningModeDataWorker.PrepareRunningModeData(overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_TT.pass).build())
-                    .build()
-            )
-            .then(
-                if (activePlugin.activeSensitivity.isOref1)
-                    OneTimeWorkRequest.Builder(IobCobOref1Worker::class.java)
-                        .setInputData(dataWorkerStorage.storeInputData(IobCobOref1Worker.IobCobOref1WorkerData(iobCobCalculator, reason, end, job == MAIN_CALCULATION, cause)))
-                        .build()
-                else
-                    OneTimeWorkRequest.Builder(IobCobOrefWorker::class.java)
-                        .setInputData(dataWorkerStorage.storeInputData(IobCobOrefWorker.IobCobOrefWorkerData(iobCobCalculator, reason, end, job == MAIN_CALCULATION, cause)))
-                        .build()
-            )
-            .then(OneTimeWorkRequest.Builder(UpdateIobCobSensWorker::class.java).build())
-            .then(
-                OneTimeWorkRequest.Builder(PrepareIobAutosensGraphDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareIobAutosensGraphDataWorker.PrepareIobAutosensData(iobCobCalculator, overviewData)))
-                    .build()
-            )
-            .then(
-                runIf = job == MAIN_CALCULATION,
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_IOB.pass).build())
-                    .build()
-            )
-            .then(
-                runIf = job == MAIN_CALCULATION,
-                OneTimeWorkRequest.Builder(InvokeLoopWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(InvokeLoopWorker.InvokeLoopData(cause)))
-                    .build()
-            )
-            .then(
-                runIf = job == MAIN_CALCULATION,
-                OneTimeWorkRequest.Builder(UpdateWidgetWorker::class.java).build()
-            )
-            .then(
-                runIf = job == MAIN_CALCULATION,
-                OneTimeWorkRequest.Builder(PreparePredictionsWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PreparePredictionsWorker.PreparePredictionsData(overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
-                    .build()
-            )
-            .enqueue()
+        // history browser recalculates its own data on every move
+        if (job != MAIN_CALCULATION) iobAutosensGraphCache.invalidate(job, 0)
+        val steps = ArrayList<CalculationPipeline.Step>()
+        if (bgDataReload) steps += pipeline.step(loadBgDataStage.get(), LoadBgDataStage.LoadBgData(iobCobCalculator, end))
+        steps += pipeline.step(prepareBucketedDataStage.get(), PrepareBucketedDataStage.PrepareBucketedData(iobCobCalculator, overviewData))
+        steps += pipeline.step(prepareBgDataStage.get(), PrepareBgDataStage.PrepareBgData(iobCobCalculator, overviewData))
+        steps += updateGraph(job, CalculationWorkflow.ProgressData.DRAW_BG, ChangedPart.BG)
+        steps += pipeline.step(prepareTreatmentsDataStage.get(), PrepareTreatmentsDataStage.PrepareTreatmentsData(overviewData))
+        steps += pipeline.step(prepareBasalDataStage.get(), PrepareBasalDataStage.PrepareBasalData(iobCobCalculator, overviewData))
+        steps += pipeline.step(prepareTemporaryTargetDataStage.get(), PrepareTemporaryTargetDataStage.PrepareTemporaryTargetData(overviewData))
+        steps += pipeline.step(prepareRunningModeDataStage.get(), PrepareRunningModeDataStage.PrepareRunningModeData(overviewData))
+        steps += updateGraph(
+            job, CalculationWorkflow.ProgressData.DRAW_TT,
+            ChangedPart.TREATMENTS, ChangedPart.BASAL, ChangedPart.TEMPORARY_TARGET, ChangedPart.RUNNING_MODE
+        )
+        steps +=
+            if (activePlugin.activeSensitivity.isOref1)
+                pipeline.step(iobCobOref1Stage.get(), IobCobOref1Stage.IobCobOref1Data(iobCobCalculator, reason, end, job == MAIN_CALCULATION, cause))
+            else
+                pipeline.step(iobCobOrefStage.get(), IobCobOrefStage.IobCobOrefData(iobCobCalculator, reason, end, job == MAIN_CALCULATION, cause))
+        steps += pipeline.step(prepareIobAutosensGraphDataStage.get(), PrepareIobAutosensGraphDataStage.PrepareIobAutosensData(job, iobCobCalculator, overviewData))
+        steps += updateGraph(
+            job, CalculationWorkflow.ProgressData.DRAW_IOB,
+            ChangedPart.IOB_COB, ChangedPart.SENSITIVITY, ChangedPart.IOB_AUTOSENS_GRAPH
+        )
+        if (job == MAIN_CALCULATION) {
+            steps += pipeline.step(invokeLoopStage.get(), InvokeLoopStage.InvokeLoopData(cause))
+            steps += pipeline.step(preparePredictionsStage.get(), PreparePredictionsStage.PreparePredictionsData(overviewData))
+            steps += updateGraph(job, CalculationWorkflow.ProgressData.DRAW_FINAL, ChangedPart.PREDICTIONS)
+        } else
+            steps += updateGraph(job, CalculationWorkflow.ProgressData.DRAW_FINAL)
+        pipeline.submit(job, reason, replace = true, steps)
     }
 
     override fun runOnReceivedPredictions(
@@ -159,56 +107,40 @@ class CalculationWorkflowImpl @Inject constructor(
     ) {
         aapsLogger.debug(LTag.WORKER, "Starting updateReceivedPredictions worker")
 
-        WorkManager.getInstance(context)
-            .beginUniqueWork(
-                UPDATE_PREDICTIONS, ExistingWorkPolicy.REPLACE,
-                OneTimeWorkRequest.Builder(PreparePredictionsWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PreparePredictionsWorker.PreparePredictionsData(overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putString(JOB, UPDATE_PREDICTIONS).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
-                    .build()
+        pipeline.submit(
+            UPDATE_PREDICTIONS, "runOnReceivedPredictions", replace = true,
+            listOf(
+                pipeline.step(preparePredictionsStage.get(), PreparePredictionsStage.PreparePredictionsData(overviewData)),
+                updateGraph(UPDATE_PREDICTIONS, CalculationWorkflow.ProgressData.DRAW_FINAL, ChangedPart.PREDICTIONS)
             )
-            .enqueue()
+        )
     }
 
     override fun runOnEventTherapyEventChange(overviewData: OverviewData) {
-        WorkManager.getInstance(context)
-            .beginUniqueWork(
-                MAIN_CALCULATION, ExistingWorkPolicy.APPEND,
-                OneTimeWorkRequest.Builder(PrepareTreatmentsDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareTreatmentsDataWorker.PrepareTreatmentsData(overviewData)))
-                    .build()
+        pipeline.submit(
+            MAIN_CALCULATION, "runOnEventTherapyEventChange", replace = false,
+            listOf(
+                pipeline.step(prepareTreatmentsDataStage.get(), PrepareTreatmentsDataStage.PrepareTreatmentsData(overviewData)),
+                updateGraph(null, CalculationWorkflow.ProgressData.DRAW_FINAL, ChangedPart.TREATMENTS)
             )
-            .then(
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
-                    .build()
-            )
-            .enqueue()
-
+        )
     }
 
     override fun runOnScaleChanged(iobCobCalculator: IobCobCalculator, overviewData: OverviewData) {
-        WorkManager.getInstance(context)
-            .beginUniqueWork(
-                MAIN_CALCULATION, ExistingWorkPolicy.APPEND,
-                OneTimeWorkRequest.Builder(PrepareBucketedDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareBucketedDataWorker.PrepareBucketedData(iobCobCalculator, overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(PrepareBgDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareBgDataWorker.PrepareBgData(iobCobCalculator, overviewData)))
-                    .build()
-            )
-            .then(
-                OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
-                    .build()
-            )
-            .enqueue()
+        pipeline.submit(
+            MAIN_CALCULATION, "runOnScaleChanged", replace = false,
+            listOf(
+                pipeline.step(prepareBucketedDataStage.get(), PrepareBucketedDataStage.PrepareBucketedData(iobCobCalculator, overviewData)),
+                pipeline.step(prepareBgDataStage.get(), PrepareBgDataStage.PrepareBgData(iobCobCalculator, overviewData)),
+                updateGraph(null, CalculationWorkflow.ProgressData.DRAW_FINAL, ChangedPart.BG)
+            )
+        )
     }
-}
\ No newline at end of file
+
+    /**
+     * Graph pass reporting progress and changed parts to [CalculationEventCoalescer].
+     * Listeners are notified only on [CalculationWorkflow.ProgressData.DRAW_FINAL]
+     */
+    private fun updateGraph(job: String?, pass: CalculationWorkflow.ProgressData, vararg changed: ChangedPart): CalculationPipeline.Step =
+        pipeline.step(updateGraphStage.get(), UpdateGraphStage.UpdateGraphData(job, pass, changed.toList()))
+}
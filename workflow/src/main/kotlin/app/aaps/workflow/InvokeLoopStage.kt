@@ -0,0 +1,34 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.aps.Loop
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.rx.events.Event
+import app.aaps.core.interfaces.rx.events.EventNewBG
+import javax.inject.Inject
+
+class InvokeLoopStage @Inject constructor(
+    private val iobCobCalculator: IobCobCalculator,
+    private val loop: Loop
+) : CalculationStage<InvokeLoopStage.InvokeLoopData> {
+
+    class InvokeLoopData(
+        val cause: Event?
+    )
+
+    /*
+     This method is triggered once autosens calculation has completed, so the LoopPlugin
+     has current data to work with. However, autosens calculation can be triggered by multiple
+     sources and currently only a new BG should trigger a loop run. Hence we return early if
+     the event causing the calculation is not EventNewBG.
+     <p>
+    */
+    override fun run(data: InvokeLoopData, run: CalculationPipeline.Run): StageResult {
+
+        if (data.cause !is EventNewBG) return StageResult.success("no calculation needed")
+        val glucoseValue = iobCobCalculator.ads.actualBg() ?: return StageResult.success("bg outdated")
+        if (glucoseValue.timestamp <= loop.lastBgTriggeredRun) return StageResult.success("already looped with that value")
+        loop.lastBgTriggeredRun = glucoseValue.timestamp
+        loop.invoke("Calculation for $glucoseValue", true)
+        return StageResult.success()
+    }
+}
@@ -0,0 +1,140 @@
+package app.aaps.workflow
+
+import app.aaps.core.data.time.T
+
+/**
+ * Raw values of IOB/COB/autosens graphs on 5 min grid starting at [start]
+ *
+ * Values are stored in primitive columns so points calculated in previous run
+ * can be reused and only tail of the buffer is recalculated.
+ * Colors and scales are not stored, they are applied when graph series are built.
+ */
+class IobAutosensGraphBuffer {
+
+    /** [app.aaps.core.interfaces.iob.IobCobCalculator] values were calculated by */
+    var owner: Any? = null
+
+    /** Time of first point */
+    var start = 0L
+        private set
+
+    /** Number of valid points */
+    var size = 0
+        private set
+
+    /** Points from this time depend on current time or on not yet calculated autosens data */
+    var volatileFrom = Long.MAX_VALUE
+
+    var flags = IntArray(INITIAL_CAPACITY)
+    var iob = DoubleArray(INITIAL_CAPACITY)
+    var absIob = DoubleArray(INITIAL_CAPACITY)
+    var activity = DoubleArray(INITIAL_CAPACITY)
+    var cob = DoubleArray(INITIAL_CAPACITY)
+    var bgi = DoubleArray(INITIAL_CAPACITY)
+    var deviation = DoubleArray(INITIAL_CAPACITY)
+    var deviationType = ByteArray(INITIAL_CAPACITY)
+    var ratio = DoubleArray(INITIAL_CAPACITY)
+    var slopeFromMax = DoubleArray(INITIAL_CAPACITY)
+    var slopeFromMin = DoubleArray(INITIAL_CAPACITY)
+
+    fun time(index: Int): Long = start + index * STEP
+
+    fun has(index: Int, flag: Int): Boolean = flags[index] and flag != 0
+
+    /** Time of the first point which is not calculated yet */
+    fun end(): Long = time(size)
+
+    fun clear() {
+        size = 0
+        volatileFrom = Long.MAX_VALUE
+    }
+
+    /**
+     * Move grid to [fromTime] keeping already calculated points of overlapping part
+     */
+    fun align(fromTime: Long) {
+        if (fromTime == start) return
+        val shift = (fromTime - start) / STEP
+        if (fromTime < start || (fromTime - start) % STEP != 0L || shift >= size) {
+            size = 0
+        } else {
+            val remaining = size - shift.toInt()
+            val offset = shift.toInt()
+            System.arraycopy(flags, offset, flags, 0, remaining)
+            System.arraycopy(iob, offset, iob, 0, remaining)
+            System.arraycopy(absIob, offset, absIob, 0, remaining)
+            System.arraycopy(activity, offset, activity, 0, remaining)
+            System.arraycopy(cob, offset, cob, 0, remaining)
+            System.arraycopy(bgi, offset, bgi, 0, remaining)
+            System.arraycopy(deviation, offset, deviation, 0, remaining)
+            System.arraycopy(deviationType, offset, deviationType, 0, remaining)
+            System.arraycopy(ratio, offset, ratio, 0, remaining)
+            System.arraycopy(slopeFromMax, offset, slopeFromMax, 0, remaining)
+            System.arraycopy(slopeFromMin, offset, slopeFromMin, 0, remaining)
+            size = remaining
+        }
+        start = fromTime
+    }
+
+    /**
+     * Drop points at [time] and later
+     */
+    fun truncate(time: Long) {
+        if (time >= end()) return
+        size = if (time <= start) 0 else ((time - start + STEP - 1) / STEP).toInt()
+    }
+
+    /**
+     * Append new point with empty values
+     *
+     * @return index of the point
+     */
+    fun add(): Int {
+        if (size == flags.size) grow()
+        val index = size++
+        flags[index] = 0
+        iob[index] = 0.0
+        absIob[index] = 0.0
+        activity[index] = 0.0
+        cob[index] = 0.0
+        bgi[index] = 0.0
+        deviation[index] = 0.0
+        deviationType[index] = DEVIATION_EQUAL
+        ratio[index] = 0.0
+        slopeFromMax[index] = 0.0
+        slopeFromMin[index] = 0.0
+        return index
+    }
+
+    private fun grow() {
+        val capacity = flags.size * 2
+        flags = flags.copyOf(capacity)
+        iob = iob.copyOf(capacity)
+        absIob = absIob.copyOf(capacity)
+        activity = activity.copyOf(capacity)
+        cob = cob.copyOf(capacity)
+        bgi = bgi.copyOf(capacity)
+        deviation = deviation.copyOf(capacity)
+        deviationType = deviationType.copyOf(capacity)
+        ratio = ratio.copyOf(capacity)
+        slopeFromMax = slopeFromMax.copyOf(capacity)
+        slopeFromMin = slopeFromMin.copyOf(capacity)
+    }
+
+    companion object {
+
+        val STEP = T.mins(5).msecs()
+        private const val INITIAL_CAPACITY = 24 * 12 + 16
+
+        const val FLAG_PROFILE = 1
+        const val FLAG_AUTOSENS = 2
+        const val FLAG_CARBS_FROM_BOLUS = 4
+        const val FLAG_FAIL_OVER = 8
+
+        const val DEVIATION_EQUAL: Byte = 0
+        const val DEVIATION_NEUTRAL: Byte = 1
+        const val DEVIATION_POSITIVE: Byte = 2
+        const val DEVIATION_NEGATIVE: Byte = 3
+        const val DEVIATION_UAM: Byte = 4
+    }
+}
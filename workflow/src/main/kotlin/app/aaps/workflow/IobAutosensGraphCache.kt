@@ -0,0 +1,40 @@
+package app.aaps.workflow
+
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Keeps [IobAutosensGraphBuffer] of every job between runs together with time
+ * from which data was invalidated by new history data
+ */
+@Singleton
+class IobAutosensGraphCache @Inject constructor() {
+
+    private val buffers = HashMap<String, IobAutosensGraphBuffer>()
+    private val invalidatedFrom = HashMap<String, Long>()
+
+    /**
+     * Record change of data. Earliest time is kept until next [acquire]
+     */
+    @Synchronized
+    fun invalidate(job: String, from: Long) {
+        invalidatedFrom[job] = minOf(invalidatedFrom[job] ?: Long.MAX_VALUE, from)
+    }
+
+    /**
+     * Get buffer of job aligned to [fromTime] with all invalidated and volatile points removed
+     *
+     * @param owner calculator providing data, buffer is cleared when it changes
+     */
+    @Synchronized
+    fun acquire(job: String, owner: Any, fromTime: Long): IobAutosensGraphBuffer {
+        val buffer = buffers.getOrPut(job) { IobAutosensGraphBuffer() }
+        if (buffer.owner !== owner) {
+            buffer.clear()
+            buffer.owner = owner
+        }
+        buffer.align(fromTime)
+        buffer.truncate(minOf(buffer.volatileFrom, invalidatedFrom.remove(job) ?: Long.MAX_VALUE))
+        return buffer
+    }
+}
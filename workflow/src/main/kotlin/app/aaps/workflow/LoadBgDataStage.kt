@@ -1,8 +1,5 @@
 package app.aaps.workflow
 
-import android.content.Context
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensDataStore
 import app.aaps.core.interfaces.db.PersistenceLayer
@@ -13,21 +10,15 @@ import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventBucketedDataCreated
 import app.aaps.core.interfaces.utils.DateUtil
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
 import javax.inject.Inject
 
-class LoadBgDataWorker(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
-
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var dateUtil: DateUtil
-    @Inject lateinit var rxBus: RxBus
-    @Inject lateinit var persistenceLayer: PersistenceLayer
-    @Inject lateinit var activePlugin: ActivePlugin
+class LoadBgDataStage @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val dateUtil: DateUtil,
+    private val rxBus: RxBus,
+    private val persistenceLayer: PersistenceLayer,
+    private val activePlugin: ActivePlugin
+) : CalculationStage<LoadBgDataStage.LoadBgData> {
 
     class LoadBgData(
         val iobCobCalculator: IobCobCalculator,
@@ -55,15 +46,12 @@ class LoadBgDataWorker(
         }
     }
 
-    override suspend fun doWorkAndLog(): Result {
-
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as LoadBgData?
-            ?: return Result.failure(workDataOf("Error" to "missing input data"))
+    override fun run(data: LoadBgData, run: CalculationPipeline.Run): StageResult {
 
         data.iobCobCalculator.ads.loadBgData(data.end, persistenceLayer, aapsLogger, dateUtil)
         data.iobCobCalculator.ads.smoothData(activePlugin)
         rxBus.send(EventBucketedDataCreated())
         data.iobCobCalculator.clearCache()
-        return Result.success()
+        return StageResult.success()
     }
-}
\ No newline at end of file
+}
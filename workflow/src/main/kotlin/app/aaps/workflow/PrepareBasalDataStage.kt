@@ -3,8 +3,6 @@ package app.aaps.workflow
 import android.content.Context
 import android.graphics.DashPathEffect
 import android.graphics.Paint
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.graph.data.LineGraphSeries
 import app.aaps.core.graph.data.ScaledDataPoint
 import app.aaps.core.interfaces.iob.IobCobCalculator
@@ -14,20 +12,15 @@ import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
 import javax.inject.Inject
 
-class PrepareBasalDataWorker(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
+class PrepareBasalDataStage @Inject constructor(
+    private val context: Context,
+    private val profileFunction: ProfileFunction,
+    private val rh: ResourceHelper,
+    private val rxBus: RxBus
+) : CalculationStage<PrepareBasalDataStage.PrepareBasalData> {
 
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var profileFunction: ProfileFunction
-    @Inject lateinit var rh: ResourceHelper
-    @Inject lateinit var rxBus: RxBus
     private var ctx: Context = rh.getThemedCtx(context)
 
     class PrepareBasalData(
@@ -35,10 +28,7 @@ class PrepareBasalDataWorker(
         val overviewData: OverviewData
     )
 
-    override suspend fun doWorkAndLog(): Result {
-
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareBasalData?
-            ?: return Result.failure(workDataOf("Error" to "missing input data"))
+    override fun run(data: PrepareBasalData, run: CalculationPipeline.Run): StageResult {
 
         rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, 0, null))
         val baseBasalArray: MutableList<ScaledDataPoint> = ArrayList()
@@ -53,7 +43,7 @@ class PrepareBasalDataWorker(
         val fromTime = data.overviewData.fromTime
         var time = fromTime
         while (time < endTime) {
-            if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
+            if (run.isStopped) return StageResult.failure("stopped")
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
             rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, progress.toInt(), null))
             val profile = profileFunction.getProfile(time)
@@ -138,6 +128,6 @@ class PrepareBasalDataWorker(
             })
         }
         rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, 100, null))
-        return Result.success()
+        return StageResult.success()
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,5 @@
 package app.aaps.workflow
 
-import android.content.Context
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.data.model.GlucoseUnit
 import app.aaps.core.graph.data.DataPointWithLabelInterface
 import app.aaps.core.graph.data.GlucoseValueDataPoint
@@ -16,32 +13,29 @@ import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.Round
 import app.aaps.core.keys.UnitDoubleKey
 import app.aaps.core.keys.interfaces.Preferences
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
 import javax.inject.Inject
 
-class PrepareBgDataWorker(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
-
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var profileUtil: ProfileUtil
-    @Inject lateinit var rh: ResourceHelper
-    @Inject lateinit var persistenceLayer: PersistenceLayer
-    @Inject lateinit var preferences: Preferences
-    @Inject lateinit var dateUtil: DateUtil
+class PrepareBgDataStage @Inject constructor(
+    private val profileUtil: ProfileUtil,
+    private val rh: ResourceHelper,
+    private val persistenceLayer: PersistenceLayer,
+    private val preferences: Preferences,
+    private val dateUtil: DateUtil
+) : CalculationStage<PrepareBgDataStage.PrepareBgData> {
 
     class PrepareBgData(
         val iobCobCalculator: IobCobCalculator, // cannot be injected : HistoryBrowser uses different instance
         val overviewData: OverviewData
     )
 
-    override suspend fun doWorkAndLog(): Result {
+    // BG readings change only together with reload of ads.bgReadings
+    override fun inputs(data: PrepareBgData): Any =
+        listOf(
+            CalculationPipeline.identity(data.iobCobCalculator.ads.bgReadings), CalculationPipeline.identity(data.overviewData.bgReadingGraphSeries),
+            data.overviewData.fromTime, data.overviewData.toTime, profileUtil.units, preferences.get(UnitDoubleKey.OverviewHighMark)
+        )
 
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareBgData?
-            ?: return Result.failure(workDataOf("Error" to "missing input data"))
+    override fun run(data: PrepareBgData, run: CalculationPipeline.Run): StageResult {
 
         val toTime = data.overviewData.toTime
         val fromTime = data.overviewData.fromTime
@@ -59,9 +53,9 @@ class PrepareBgDataWorker(
         if (preferences.get(UnitDoubleKey.OverviewHighMark) > data.overviewData.maxBgValue)
             data.overviewData.maxBgValue = preferences.get(UnitDoubleKey.OverviewHighMark)
         data.overviewData.maxBgValue = addUpperChartMargin(data.overviewData.maxBgValue)
-        return Result.success()
+        return StageResult.success()
     }
 
     private fun addUpperChartMargin(maxBgValue: Double) =
         if (profileUtil.units == GlucoseUnit.MGDL) Round.roundTo(maxBgValue, 40.0) + 80 else Round.roundTo(maxBgValue, 2.0) + 4
-}
\ No newline at end of file
+}
@@ -0,0 +1,399 @@
+package app.aaps.workflow
+
+import android.content.Context
+import android.graphics.DashPathEffect
+import android.graphics.Paint
+import app.aaps.core.data.aps.SMBDefaults
+import app.aaps.core.graph.data.BarGraphSeries
+import app.aaps.core.graph.data.DataPointWithLabelInterface
+import app.aaps.core.graph.data.DeviationDataPoint
+import app.aaps.core.graph.data.FixedLineGraphSeries
+import app.aaps.core.graph.data.LineGraphSeries
+import app.aaps.core.graph.data.PointsWithLabelGraphSeries
+import app.aaps.core.graph.data.ScaledDataPoint
+import app.aaps.core.graph.data.Shape
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.graph.Scale
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.overview.OverviewMenus
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.interfaces.utils.DecimalFormatter
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.core.objects.extensions.combine
+import javax.inject.Inject
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+class PrepareIobAutosensGraphDataStage @Inject constructor(
+    private val context: Context,
+    private val aapsLogger: AAPSLogger,
+    private val dateUtil: DateUtil,
+    private val profileFunction: ProfileFunction,
+    private val profileUtil: ProfileUtil,
+    private val rh: ResourceHelper,
+    private val overviewMenus: OverviewMenus,
+    private val persistenceLayer: PersistenceLayer,
+    private val rxBus: RxBus,
+    private val decimalFormatter: DecimalFormatter,
+    private val graphCache: IobAutosensGraphCache
+) : CalculationStage<PrepareIobAutosensGraphDataStage.PrepareIobAutosensData> {
+
+    private var ctx: Context
+
+    init {
+        ctx = rh.getThemedCtx(context)
+    }
+
+    class PrepareIobAutosensData(
+        val job: String,
+        val iobCobCalculator: IobCobCalculator, // cannot be injected : HistoryBrowser uses different instance
+        val overviewData: OverviewData
+    )
+
+    class IobTotalDataPoint(val i: IobTotal) : DataPointWithLabelInterface {
+
+        private var color = 0
+        override fun getX(): Double = i.time.toDouble()
+        override fun getY(): Double = i.iob
+        override fun setY(y: Double) {}
+        override val label = ""
+        override val duration = 0L
+        override val shape = Shape.IOB_PREDICTION
+        override val size = 0.5f
+        override val paintStyle: Paint.Style = Paint.Style.FILL
+
+        override fun color(context: Context?): Int = color
+        fun setColor(color: Int): IobTotalDataPoint {
+            this.color = color
+            return this
+        }
+    }
+
+    class AutosensDataPoint(
+        private val cob: Double,
+        private val scale: Scale,
+        private val chartTime: Long,
+        private val rh: ResourceHelper
+    ) : DataPointWithLabelInterface {
+
+        override fun getX(): Double = chartTime.toDouble()
+        override fun getY(): Double = scale.transform(cob)
+        override fun setY(y: Double) {}
+        override val label: String = ""
+        override val duration = 0L
+        override val shape = Shape.COB_FAIL_OVER
+        override val size = 0.5f
+        override val paintStyle: Paint.Style = Paint.Style.FILL
+        override fun color(context: Context?): Int {
+            return rh.gac(context, app.aaps.core.ui.R.attr.cobColor)
+        }
+    }
+
+    override fun run(data: PrepareIobAutosensData, run: CalculationPipeline.Run): StageResult {
+
+        val endTime = data.overviewData.endTime
+        val fromTime = data.overviewData.fromTime
+        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, 0, null))
+        val now = dateUtil.now()
+        val adsData = data.iobCobCalculator.ads.clone()
+
+        // Reuse points calculated in previous runs, calculate only invalidated and volatile tail
+        val buffer = graphCache.acquire(data.job, data.iobCobCalculator, fromTime)
+        val reused = buffer.size
+        var lastAutosensTime = 0L
+        for (index in 0 until buffer.size)
+            if (buffer.has(index, IobAutosensGraphBuffer.FLAG_AUTOSENS)) lastAutosensTime = buffer.time(index)
+        var time = buffer.end()
+        while (time <= endTime) {
+            if (run.isStopped) return StageResult.failure("stopped")
+            val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
+            rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, progress.toInt(), null))
+            val index = buffer.add()
+            val profile = profileFunction.getProfile(time)
+            if (profile == null) {
+                time += IobAutosensGraphBuffer.STEP
+                continue
+            }
+            // IOB
+            val iob = data.iobCobCalculator.calculateFromTreatmentsAndTemps(time, profile)
+            val baseBasalIob = data.iobCobCalculator.calculateAbsoluteIobFromBaseBasals(time)
+            val absIob = IobTotal.combine(iob, baseBasalIob)
+            var flags = IobAutosensGraphBuffer.FLAG_PROFILE
+            buffer.iob[index] = iob.iob
+            buffer.absIob[index] = absIob.iob
+            buffer.activity[index] = iob.activity
+
+            val autosensData = adsData.getAutosensDataAtTime(time)
+            if (autosensData != null) {
+                flags = flags or IobAutosensGraphBuffer.FLAG_AUTOSENS
+                if (autosensData.carbsFromBolus != 0.0) flags = flags or IobAutosensGraphBuffer.FLAG_CARBS_FROM_BOLUS
+                if (autosensData.failOverToMinAbsorptionRate) flags = flags or IobAutosensGraphBuffer.FLAG_FAIL_OVER
+                buffer.cob[index] = autosensData.cob
+                buffer.bgi[index] = iob.activity * autosensData.sens * 5.0
+                buffer.deviation[index] = autosensData.deviation
+                buffer.deviationType[index] = when (autosensData.type) {
+                    "", "non-meal" -> when (autosensData.pastSensitivity) {
+                        "C"  -> IobAutosensGraphBuffer.DEVIATION_NEUTRAL
+                        "+"  -> IobAutosensGraphBuffer.DEVIATION_POSITIVE
+                        "-"  -> IobAutosensGraphBuffer.DEVIATION_NEGATIVE
+                        else -> IobAutosensGraphBuffer.DEVIATION_EQUAL
+                    }
+
+                    "uam"          -> IobAutosensGraphBuffer.DEVIATION_UAM
+                    "csf"          -> IobAutosensGraphBuffer.DEVIATION_NEUTRAL
+                    else           -> IobAutosensGraphBuffer.DEVIATION_EQUAL
+                }
+                buffer.ratio[index] = 100.0 * (autosensData.autosensResult.ratio - 1)
+                buffer.slopeFromMax[index] = autosensData.slopeFromMaxDeviation
+                buffer.slopeFromMin[index] = autosensData.slopeFromMinDeviation
+                lastAutosensTime = time
+            }
+            buffer.flags[index] = flags
+            time += IobAutosensGraphBuffer.STEP
+        }
+        // IOB after now depends on running temporary basal, later points may get autosens data of newer BG
+        buffer.volatileFrom = min(now, lastAutosensTime + 1)
+        aapsLogger.debug(LTag.WORKER, "IOB/autosens graph: reused $reused points, calculated ${buffer.size - reused}")
+
+        buildSeries(data.overviewData, buffer, now.toDouble())
+
+        if (overviewMenus.setting[0][OverviewMenus.CharType.PRE.ordinal]) {
+            val autosensData = adsData.getLastAutosensData("GraphData", aapsLogger, dateUtil)
+            val lastAutosensResult = autosensData?.autosensResult ?: AutosensResult()
+            val isTempTarget = persistenceLayer.getTemporaryTargetActiveAt(dateUtil.now()) != null
+            val iobPrediction: MutableList<DataPointWithLabelInterface> = ArrayList()
+            val iobPredictionArray = data.iobCobCalculator.calculateIobArrayForSMB(lastAutosensResult, SMBDefaults.exercise_mode, SMBDefaults.half_basal_exercise_target, isTempTarget)
+            val iobPredictionColor = rh.gac(ctx, app.aaps.core.ui.R.attr.iobPredASColor)
+            for (i in iobPredictionArray) {
+                iobPrediction.add(IobTotalDataPoint(i).setColor(iobPredictionColor))
+                data.overviewData.maxIobValueFound = max(data.overviewData.maxIobValueFound, abs(i.iob))
+            }
+            data.overviewData.iobPredictions1Series = PointsWithLabelGraphSeries(Array(iobPrediction.size) { i -> iobPrediction[i] })
+            aapsLogger.debug(LTag.AUTOSENS, "IOB prediction for AS=" + decimalFormatter.to2Decimal(lastAutosensResult.ratio) + ": " + data.iobCobCalculator.iobArrayToString(iobPredictionArray))
+        } else {
+            data.overviewData.iobPredictions1Series = PointsWithLabelGraphSeries<DataPointWithLabelInterface>()
+        }
+
+        // VAR_SENS
+        val ratioColor = rh.gac(ctx, app.aaps.core.ui.R.attr.ratioColor)
+        val varSensArray: MutableList<ScaledDataPoint> = ArrayList()
+        data.overviewData.maxVarSensValueFound = Double.MIN_VALUE
+        data.overviewData.minVarSensValueFound = Double.MAX_VALUE
+        val apsResults = persistenceLayer.getApsResultSummaries(fromTime, endTime)
+        apsResults.forEach {
+            it.variableSens?.let { variableSens ->
+                val varSens = profileUtil.fromMgdlToUnits(variableSens)
+                varSensArray.add(ScaledDataPoint(it.date, varSens, data.overviewData.varSensScale))
+                data.overviewData.maxVarSensValueFound = max(data.overviewData.maxVarSensValueFound, varSens)
+                data.overviewData.minVarSensValueFound = min(data.overviewData.minVarSensValueFound, varSens)
+            }
+        }
+        data.overviewData.varSensSeries = LineGraphSeries(Array(varSensArray.size) { i -> varSensArray[i] }).also {
+            it.color = ratioColor
+            it.thickness = 3
+        }
+
+        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, 100, null))
+        return StageResult.success()
+    }
+
+    /**
+     * Build graph series from buffered values
+     * Colors are resolved once per series
+     */
+    private fun buildSeries(overviewData: OverviewData, buffer: IobAutosensGraphBuffer, now: Double) {
+        val iobArray: MutableList<ScaledDataPoint> = ArrayList()
+        val absIobArray: MutableList<ScaledDataPoint> = ArrayList()
+        overviewData.maxIobValueFound = Double.MIN_VALUE
+        var lastIob = 0.0
+        var absLastIob = 0.0
+
+        val minFailOverActiveList: MutableList<DataPointWithLabelInterface> = ArrayList()
+        val cobArray: MutableList<ScaledDataPoint> = ArrayList()
+        overviewData.maxCobValueFound = Double.MIN_VALUE
+        var lastCob = 0
+
+        val actArrayHist: MutableList<ScaledDataPoint> = ArrayList()
+        val actArrayPrediction: MutableList<ScaledDataPoint> = ArrayList()
+        overviewData.maxIAValue = 0.0
+
+        val bgiArrayHist: MutableList<ScaledDataPoint> = ArrayList()
+        val bgiArrayPrediction: MutableList<ScaledDataPoint> = ArrayList()
+        overviewData.maxBGIValue = Double.MIN_VALUE
+
+        val devArray: MutableList<DeviationDataPoint> = ArrayList()
+        overviewData.maxDevValueFound = Double.MIN_VALUE
+
+        val ratioArray: MutableList<ScaledDataPoint> = ArrayList()
+        overviewData.maxRatioValueFound = 5.0                    //even if sens data equals 0 for all the period, minimum scale is between 95% and 105%
+        overviewData.minRatioValueFound = -5.0
+
+        val dsMaxArray: MutableList<ScaledDataPoint> = ArrayList()
+        val dsMinArray: MutableList<ScaledDataPoint> = ArrayList()
+        overviewData.maxFromMaxValueFound = Double.MIN_VALUE
+        overviewData.maxFromMinValueFound = Double.MIN_VALUE
+
+        // indexed by IobAutosensGraphBuffer.DEVIATION_*
+        val deviationColors = intArrayOf(
+            rh.gac(ctx, app.aaps.core.ui.R.attr.deviationBlackColor),
+            rh.gac(ctx, app.aaps.core.ui.R.attr.deviationGreyColor),
+            rh.gac(ctx, app.aaps.core.ui.R.attr.deviationGreenColor),
+            rh.gac(ctx, app.aaps.core.ui.R.attr.deviationRedColor),
+            rh.gac(ctx, app.aaps.core.ui.R.attr.uamColor)
+        )
+        val devBgiScale = overviewMenus.isEnabledIn(OverviewMenus.CharType.DEV) == overviewMenus.isEnabledIn(OverviewMenus.CharType.BGI)
+
+        for (index in 0 until buffer.size) {
+            val time = buffer.time(index)
+            if (time > overviewData.endTime) break
+            if (!buffer.has(index, IobAutosensGraphBuffer.FLAG_PROFILE)) continue
+            // IOB
+            val iob = buffer.iob[index]
+            val absIob = buffer.absIob[index]
+            if (abs(lastIob - iob) > 0.02) {
+                if (abs(lastIob - iob) > 0.2) iobArray.add(ScaledDataPoint(time, lastIob, overviewData.iobScale))
+                iobArray.add(ScaledDataPoint(time, iob, overviewData.iobScale))
+                overviewData.maxIobValueFound = maxOf(overviewData.maxIobValueFound, abs(iob))
+                lastIob = iob
+            }
+            if (abs(absLastIob - absIob) > 0.02) {
+                if (abs(absLastIob - absIob) > 0.2) absIobArray.add(ScaledDataPoint(time, absLastIob, overviewData.iobScale))
+                absIobArray.add(ScaledDataPoint(time, absIob, overviewData.iobScale))
+                overviewData.maxIobValueFound = maxOf(overviewData.maxIobValueFound, abs(absIob))
+                absLastIob = absIob
+            }
+
+            if (buffer.has(index, IobAutosensGraphBuffer.FLAG_AUTOSENS)) {
+                // COB
+                val cob = buffer.cob[index].toInt()
+                if (cob != lastCob) {
+                    if (buffer.has(index, IobAutosensGraphBuffer.FLAG_CARBS_FROM_BOLUS)) cobArray.add(ScaledDataPoint(time, lastCob.toDouble(), overviewData.cobScale))
+                    cobArray.add(ScaledDataPoint(time, cob.toDouble(), overviewData.cobScale))
+                    overviewData.maxCobValueFound = max(overviewData.maxCobValueFound, cob.toDouble())
+                    lastCob = cob
+                }
+                if (buffer.has(index, IobAutosensGraphBuffer.FLAG_FAIL_OVER)) {
+                    minFailOverActiveList.add(AutosensDataPoint(buffer.cob[index], overviewData.cobScale, time, rh))
+                }
+                // BGI
+                val deviation = if (devBgiScale) buffer.deviation[index] else 0.0
+                val bgi = buffer.bgi[index]
+                if (time <= now) bgiArrayHist.add(ScaledDataPoint(time, bgi, overviewData.bgiScale))
+                else bgiArrayPrediction.add(ScaledDataPoint(time, bgi, overviewData.bgiScale))
+                overviewData.maxBGIValue = max(overviewData.maxBGIValue, max(abs(bgi), deviation))
+
+                // DEVIATIONS
+                val color = deviationColors[buffer.deviationType[index].toInt()]
+                devArray.add(DeviationDataPoint(time.toDouble(), buffer.deviation[index], color, overviewData.devScale))
+                overviewData.maxDevValueFound = maxOf(overviewData.maxDevValueFound, abs(buffer.deviation[index]), abs(bgi))
+
+                // RATIO
+                val ratio = buffer.ratio[index]
+                ratioArray.add(ScaledDataPoint(time, ratio, overviewData.ratioScale))
+                overviewData.maxRatioValueFound = max(overviewData.maxRatioValueFound, ratio)
+                overviewData.minRatioValueFound = min(overviewData.minRatioValueFound, ratio)
+
+                // DEV SLOPE
+                dsMaxArray.add(ScaledDataPoint(time, buffer.slopeFromMax[index], overviewData.dsMaxScale))
+                dsMinArray.add(ScaledDataPoint(time, buffer.slopeFromMin[index], overviewData.dsMinScale))
+                overviewData.maxFromMaxValueFound = max(overviewData.maxFromMaxValueFound, abs(buffer.slopeFromMax[index]))
+                overviewData.maxFromMinValueFound = max(overviewData.maxFromMinValueFound, abs(buffer.slopeFromMin[index]))
+            }
+
+            // ACTIVITY
+            val activity = buffer.activity[index]
+            if (time <= now) actArrayHist.add(ScaledDataPoint(time, activity, overviewData.actScale))
+            else actArrayPrediction.add(ScaledDataPoint(time, activity, overviewData.actScale))
+            overviewData.maxIAValue = max(overviewData.maxIAValue, abs(activity))
+        }
+
+        // IOB
+        val iobColor = rh.gac(ctx, app.aaps.core.ui.R.attr.iobColor)
+        overviewData.iobSeries = FixedLineGraphSeries(Array(iobArray.size) { i -> iobArray[i] }).also {
+            it.isDrawBackground = true
+            it.backgroundColor = -0x7f000001 and iobColor  //50%
+            it.color = iobColor
+            it.thickness = 3
+        }
+        overviewData.absIobSeries = FixedLineGraphSeries(Array(absIobArray.size) { i -> absIobArray[i] }).also {
+            it.isDrawBackground = true
+            it.backgroundColor = -0x7f000001 and iobColor //50%
+            it.color = iobColor
+            it.thickness = 3
+        }
+
+        // COB
+        val cobColor = rh.gac(ctx, app.aaps.core.ui.R.attr.cobColor)
+        overviewData.cobSeries = FixedLineGraphSeries(Array(cobArray.size) { i -> cobArray[i] }).also {
+            it.isDrawBackground = true
+            it.backgroundColor = -0x7f000001 and cobColor //50%
+            it.color = cobColor
+            it.thickness = 3
+        }
+        overviewData.cobMinFailOverSeries = PointsWithLabelGraphSeries(Array(minFailOverActiveList.size) { i -> minFailOverActiveList[i] })
+
+        // ACTIVITY
+        val activityColor = rh.gac(ctx, app.aaps.core.ui.R.attr.activityColor)
+        overviewData.activitySeries = FixedLineGraphSeries(Array(actArrayHist.size) { i -> actArrayHist[i] }).also {
+            it.isDrawBackground = false
+            it.color = activityColor
+            it.thickness = 3
+        }
+        overviewData.activityPredictionSeries = FixedLineGraphSeries(Array(actArrayPrediction.size) { i -> actArrayPrediction[i] }).also {
+            it.setCustomPaint(Paint().also { paint ->
+                paint.style = Paint.Style.STROKE
+                paint.strokeWidth = 3f
+                paint.pathEffect = DashPathEffect(floatArrayOf(4f, 4f), 0f)
+                paint.color = activityColor
+            })
+        }
+
+        // BGI
+        val bgiColor = rh.gac(ctx, app.aaps.core.ui.R.attr.bgiColor)
+        overviewData.minusBgiSeries = FixedLineGraphSeries(Array(bgiArrayHist.size) { i -> bgiArrayHist[i] }).also {
+            it.isDrawBackground = false
+            it.color = bgiColor
+            it.thickness = 3
+        }
+        overviewData.minusBgiHistSeries = FixedLineGraphSeries(Array(bgiArrayPrediction.size) { i -> bgiArrayPrediction[i] }).also {
+            it.setCustomPaint(Paint().also { paint ->
+                paint.style = Paint.Style.STROKE
+                paint.strokeWidth = 3f
+                paint.pathEffect = DashPathEffect(floatArrayOf(4f, 4f), 0f)
+                paint.color = bgiColor
+            })
+        }
+
+        // DEVIATIONS
+        overviewData.deviationsSeries = BarGraphSeries(Array(devArray.size) { i -> devArray[i] }).also {
+            it.setValueDependentColor { data: DeviationDataPoint -> data.color }
+        }
+
+        // RATIO
+        overviewData.ratioSeries = LineGraphSeries(Array(ratioArray.size) { i -> ratioArray[i] }).also {
+            it.color = rh.gac(ctx, app.aaps.core.ui.R.attr.ratioColor)
+            it.thickness = 3
+        }
+
+        // DEV SLOPE
+        overviewData.dsMaxSeries = LineGraphSeries(Array(dsMaxArray.size) { i -> dsMaxArray[i] }).also {
+            it.color = rh.gac(ctx, app.aaps.core.ui.R.attr.devSlopePosColor)
+            it.thickness = 3
+        }
+        overviewData.dsMinSeries = LineGraphSeries(Array(dsMinArray.size) { i -> dsMinArray[i] }).also {
+            it.color = rh.gac(ctx, app.aaps.core.ui.R.attr.devSlopeNegColor)
+            it.thickness = 3
+        }
+    }
+}
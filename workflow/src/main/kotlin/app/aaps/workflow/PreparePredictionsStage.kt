@@ -1,8 +1,5 @@
 package app.aaps.workflow
 
-import android.content.Context
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.data.time.T
 import app.aaps.core.graph.data.DataPointWithLabelInterface
 import app.aaps.core.graph.data.GlucoseValueDataPoint
@@ -14,40 +11,28 @@ import app.aaps.core.interfaces.overview.OverviewData
 import app.aaps.core.interfaces.overview.OverviewMenus
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
-import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.utils.DateUtil
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
 import java.util.Calendar
 import javax.inject.Inject
 import kotlin.math.ceil
 import kotlin.math.max
 import kotlin.math.min
 
-class PreparePredictionsWorker(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
-
-    @Inject lateinit var overviewData: OverviewData
-    @Inject lateinit var rxBus: RxBus
-    @Inject lateinit var config: Config
-    @Inject lateinit var processedDeviceStatusData: ProcessedDeviceStatusData
-    @Inject lateinit var loop: Loop
-    @Inject lateinit var overviewMenus: OverviewMenus
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var profileUtil: ProfileUtil
-    @Inject lateinit var rh: ResourceHelper
-    @Inject lateinit var dateUtil: DateUtil
+class PreparePredictionsStage @Inject constructor(
+    private val config: Config,
+    private val processedDeviceStatusData: ProcessedDeviceStatusData,
+    private val loop: Loop,
+    private val overviewMenus: OverviewMenus,
+    private val profileUtil: ProfileUtil,
+    private val rh: ResourceHelper,
+    private val dateUtil: DateUtil
+) : CalculationStage<PreparePredictionsStage.PreparePredictionsData> {
 
     class PreparePredictionsData(
         val overviewData: OverviewData
     )
 
-    override suspend fun doWorkAndLog(): Result {
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PreparePredictionsData?
-            ?: return Result.failure(workDataOf("Error" to "missing input data"))
+    override fun run(data: PreparePredictionsData, run: CalculationPipeline.Run): StageResult {
 
         val apsResult = if (config.APS) loop.lastRun?.constraintsProcessed else processedDeviceStatusData.getAPSResult()
         val predictionsAvailable = if (config.APS) loop.lastRun?.request?.hasPredictions == true else config.AAPSCLIENT
@@ -83,6 +68,6 @@ class PreparePredictionsWorker(
             for (prediction in predictions) if (prediction.data.value >= 40) bgListArray.add(prediction)
         }
         data.overviewData.predictionsGraphSeries = PointsWithLabelGraphSeries(Array(bgListArray.size) { i -> bgListArray[i] })
-        return Result.success()
+        return StageResult.success()
     }
-}
\ No newline at end of file
+}
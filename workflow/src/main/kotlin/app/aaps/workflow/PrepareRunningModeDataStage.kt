@@ -1,47 +1,30 @@
 package app.aaps.workflow
 
-import android.content.Context
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.data.model.RM
 import app.aaps.core.graph.data.PointsWithLabelGraphSeries
 import app.aaps.core.graph.data.RunningModeDataPoint
 import app.aaps.core.interfaces.aps.Loop
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.overview.OverviewData
-import app.aaps.core.interfaces.profile.ProfileFunction
-import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
 import javax.inject.Inject
 import kotlin.math.max
 
-class PrepareRunningModeDataWorker(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
-
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var profileFunction: ProfileFunction
-    @Inject lateinit var profileUtil: ProfileUtil
-    @Inject lateinit var rh: ResourceHelper
-    @Inject lateinit var persistenceLayer: PersistenceLayer
-    @Inject lateinit var loop: Loop
-    @Inject lateinit var rxBus: RxBus
+class PrepareRunningModeDataStage @Inject constructor(
+    private val rh: ResourceHelper,
+    private val persistenceLayer: PersistenceLayer,
+    private val loop: Loop,
+    private val rxBus: RxBus
+) : CalculationStage<PrepareRunningModeDataStage.PrepareRunningModeData> {
 
     class PrepareRunningModeData(
         val overviewData: OverviewData
     )
 
-    override suspend fun doWorkAndLog(): Result {
-
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareRunningModeData?
-            ?: return Result.failure(workDataOf("Error" to "missing input data"))
+    override fun run(data: PrepareRunningModeData, run: CalculationPipeline.Run): StageResult {
 
         rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA, 0, null))
         var endTime = data.overviewData.endTime
@@ -52,7 +35,7 @@ class PrepareRunningModeDataWorker(
         loop.lastRun?.constraintsProcessed?.let { endTime = max(it.latestPredictionsTime, endTime) }
         var time = fromTime
         while (time < endTime) {
-            if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
+            if (run.isStopped) return StageResult.failure("stopped")
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
             rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA, progress.toInt(), null))
             val mode = persistenceLayer.getRunningModeActiveAt(time)
@@ -68,6 +51,6 @@ class PrepareRunningModeDataWorker(
         // create series
         data.overviewData.runningModesSeries = PointsWithLabelGraphSeries(Array(modesSeriesArray.size) { i -> modesSeriesArray[i] })
         rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA, 100, null))
-        return Result.success()
+        return StageResult.success()
     }
-}
\ No newline at end of file
+}
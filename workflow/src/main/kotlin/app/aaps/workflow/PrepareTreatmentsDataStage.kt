@@ -1,8 +1,5 @@
 package app.aaps.workflow
 
-import android.content.Context
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.GlucoseUnit
 import app.aaps.core.data.time.T
@@ -27,34 +24,24 @@ import app.aaps.core.interfaces.utils.Round
 import app.aaps.core.interfaces.utils.Translator
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.keys.interfaces.Preferences
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
 import javax.inject.Inject
 
-class PrepareTreatmentsDataWorker(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
-
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var profileUtil: ProfileUtil
-    @Inject lateinit var rh: ResourceHelper
-    @Inject lateinit var rxBus: RxBus
-    @Inject lateinit var translator: Translator
-    @Inject lateinit var activePlugin: ActivePlugin
-    @Inject lateinit var persistenceLayer: PersistenceLayer
-    @Inject lateinit var decimalFormatter: DecimalFormatter
-    @Inject lateinit var preferences: Preferences
+class PrepareTreatmentsDataStage @Inject constructor(
+    private val profileUtil: ProfileUtil,
+    private val rh: ResourceHelper,
+    private val rxBus: RxBus,
+    private val translator: Translator,
+    private val activePlugin: ActivePlugin,
+    private val persistenceLayer: PersistenceLayer,
+    private val decimalFormatter: DecimalFormatter,
+    private val preferences: Preferences
+) : CalculationStage<PrepareTreatmentsDataStage.PrepareTreatmentsData> {
 
     class PrepareTreatmentsData(
         val overviewData: OverviewData
     )
 
-    override suspend fun doWorkAndLog(): Result {
-
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareTreatmentsData?
-            ?: return Result.failure(workDataOf("Error" to "missing input data"))
+    override fun run(data: PrepareTreatmentsData, run: CalculationPipeline.Run): StageResult {
 
         val endTime = data.overviewData.endTime
         val fromTime = data.overviewData.fromTime
@@ -132,7 +119,7 @@ class PrepareTreatmentsDataWorker(
 
 
         rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_TREATMENTS_DATA, 100, null))
-        return Result.success()
+        return StageResult.success()
     }
 
     private fun addUpperChartMargin(maxBgValue: Double) =
@@ -0,0 +1,25 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import javax.inject.Inject
+
+class UpdateGraphStage @Inject constructor(
+    private val rxBus: RxBus,
+    private val calculationEventCoalescer: CalculationEventCoalescer
+) : CalculationStage<UpdateGraphStage.UpdateGraphData> {
+
+    class UpdateGraphData(
+        val job: String?,
+        val pass: CalculationWorkflow.ProgressData,
+        val changed: List<CalculationWorkflow.ChangedPart>
+    )
+
+    override fun run(data: UpdateGraphData, run: CalculationPipeline.Run): StageResult {
+        if (data.pass == CalculationWorkflow.ProgressData.DRAW_FINAL) calculationEventCoalescer.publish(data.job, data.changed)
+        else calculationEventCoalescer.collect(data.job, data.changed)
+        rxBus.send(EventIobCalculationProgress(data.pass, 100, null))
+        return StageResult.success()
+    }
+}
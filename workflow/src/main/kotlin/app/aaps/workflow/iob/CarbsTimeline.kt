@@ -0,0 +1,56 @@
+package app.aaps.workflow.iob
+
+import app.aaps.core.data.model.CA
+import app.aaps.core.interfaces.db.PersistenceLayer
+
+/**
+ * Expanded carbs used by one IOB/COB calculation run
+ *
+ * Buckets are processed from oldest to newest and carried COB state comes from previous bucket,
+ * so only carbs of currently processed window are needed. Instead of database query for every bucket
+ * carbs are read once, starting at first window which needs calculation.
+ *
+ * [between] returns the same entries as [PersistenceLayer.getCarbsFromTimeToTimeExpanded] (ascending).
+ *
+ * @param end newest possible end of window (last bucket)
+ */
+class CarbsTimeline(private val persistenceLayer: PersistenceLayer, private val end: Long) {
+
+    private var start = Long.MAX_VALUE
+    private var carbs: List<CA> = emptyList()
+    private var timestamps = LongArray(0)
+
+    fun between(from: Long, to: Long): List<CA> {
+        if (to > end) return persistenceLayer.getCarbsFromTimeToTimeExpanded(from, to, true)
+        if (from < start) load(from)
+        val first = firstNotBefore(from)
+        val last = firstAfter(to)
+        return if (first < last) carbs.subList(first, last) else emptyList()
+    }
+
+    private fun load(from: Long) {
+        start = from
+        carbs = persistenceLayer.getCarbsFromTimeToTimeExpanded(from, end, true)
+        timestamps = LongArray(carbs.size) { carbs[it].timestamp }
+    }
+
+    private fun firstNotBefore(time: Long): Int {
+        var low = 0
+        var high = timestamps.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamps[mid] < time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    private fun firstAfter(time: Long): Int {
+        var low = 0
+        var high = timestamps.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamps[mid] <= time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
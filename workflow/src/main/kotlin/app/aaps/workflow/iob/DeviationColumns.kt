@@ -0,0 +1,74 @@
+package app.aaps.workflow.iob
+
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.configuration.Config
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.nsclient.ProcessedDeviceStatusData
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import kotlin.math.roundToLong
+
+/**
+ * Per-bucket inputs of IOB/COB stages calculated in one pass before the main loop
+ *
+ * Columns are indexed as bucketedData. Buckets already present in autosensDataTable are skipped
+ * and so are buckets without profile ([profiles] is null) or with BG < 39 ([iob] is null).
+ * IOB of all remaining buckets is calculated by one batch call with treatments read once.
+ * Values are calculated by the same expressions as in the loop, thus are equal to per-bucket calculation.
+ * Slopes depend on previously calculated AutosensData and stay in the loop.
+ */
+class DeviationColumns(size: Int) {
+
+    val profiles = arrayOfNulls<Profile>(size)
+    val iob = arrayOfNulls<IobTotal>(size)
+    val delta = DoubleArray(size)
+    val avgDelta = DoubleArray(size)
+    val sens = DoubleArray(size)
+    val bgi = DoubleArray(size)
+    val deviation = DoubleArray(size)
+    val avgDeviation = DoubleArray(size)
+
+    companion object {
+
+        /**
+         * @param caller identification passed to ISF calculation
+         */
+        fun calculate(
+            ads: AutosensDataStore,
+            iobCobCalculator: IobCobCalculator,
+            profileFunction: ProfileFunction,
+            config: Config,
+            processedDeviceStatusData: ProcessedDeviceStatusData,
+            caller: String
+        ): DeviationColumns {
+            val bucketedData = ads.bucketedData ?: return DeviationColumns(0)
+            val columns = DeviationColumns(bucketedData.size)
+            val pending = ArrayList<Int>()
+            val pendingProfiles = ArrayList<Profile>()
+            for (i in bucketedData.size - 4 downTo 0) {
+                val bgTime = ads.roundUpTime(bucketedData[i].timestamp)
+                if (ads.autosensDataTable[bgTime] != null) continue
+                val profile = profileFunction.getProfile(bgTime) ?: continue
+                columns.profiles[i] = profile
+                val bg = bucketedData[i].recalculated
+                if (bg < 39 || bucketedData[i + 3].recalculated < 39) continue
+                columns.delta[i] = bg - bucketedData[i + 1].recalculated
+                columns.avgDelta[i] = (bg - bucketedData[i + 3].recalculated) / 3
+                columns.sens[i] = profile.getIsfMgdlForCarbs(bgTime, caller, config, processedDeviceStatusData)
+                pending.add(i)
+                pendingProfiles.add(profile)
+            }
+            val times = LongArray(pending.size) { ads.roundUpTime(bucketedData[pending[it]].timestamp) }
+            val iobs = iobCobCalculator.calculateFromTreatmentsAndTemps(times, pendingProfiles.toTypedArray())
+            for ((n, i) in pending.withIndex()) {
+                val iob = iobs[n]
+                columns.iob[i] = iob
+                columns.bgi[i] = -iob.activity * columns.sens[i] * 5
+                columns.deviation[i] = columns.delta[i] - columns.bgi[i]
+                columns.avgDeviation[i] = ((columns.avgDelta[i] - columns.bgi[i]) * 1000).roundToLong() / 1000.0
+            }
+            return columns
+        }
+    }
+}
@@ -1,21 +1,18 @@
 package app.aaps.workflow.iob
 
-import android.content.Context
 import android.os.SystemClock
-import androidx.work.WorkerParameters
-import androidx.work.workDataOf
 import app.aaps.core.data.configuration.Constants
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensData
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.nsclient.ProcessedDeviceStatusData
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profiling.Profiler
-import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.Event
 import app.aaps.core.interfaces.rx.events.EventAutosensCalculationFinished
@@ -25,37 +22,31 @@ import app.aaps.core.interfaces.utils.DecimalFormatter
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.keys.DoubleKey
 import app.aaps.core.keys.interfaces.Preferences
-import app.aaps.core.objects.workflow.LoggingWorker
-import app.aaps.core.utils.receivers.DataWorkerStorage
-import kotlinx.coroutines.Dispatchers
+import app.aaps.workflow.CalculationPipeline
+import app.aaps.workflow.CalculationStage
+import app.aaps.workflow.StageResult
 import javax.inject.Inject
 import javax.inject.Provider
 import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
-import kotlin.math.roundToLong
 
-class IobCobOrefWorker @Inject internal constructor(
-    context: Context,
-    params: WorkerParameters
-) : LoggingWorker(context, params, Dispatchers.Default) {
+class IobCobOrefStage @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    private val preferences: Preferences,
+    private val rxBus: RxBus,
+    private val profileFunction: ProfileFunction,
+    private val activePlugin: ActivePlugin,
+    private val config: Config,
+    private val profiler: Profiler,
+    private val dateUtil: DateUtil,
+    private val persistenceLayer: PersistenceLayer,
+    private val autosensDataProvider: Provider<AutosensData>,
+    private val decimalFormatter: DecimalFormatter,
+    private val processedDeviceStatusData: ProcessedDeviceStatusData
+) : CalculationStage<IobCobOrefStage.IobCobOrefData> {
 
-    @Inject lateinit var preferences: Preferences
-    @Inject lateinit var rxBus: RxBus
-    @Inject lateinit var rh: ResourceHelper
-    @Inject lateinit var profileFunction: ProfileFunction
-    @Inject lateinit var context: Context
-    @Inject lateinit var activePlugin: ActivePlugin
-    @Inject lateinit var config: Config
-    @Inject lateinit var profiler: Profiler
-    @Inject lateinit var dateUtil: DateUtil
-    @Inject lateinit var persistenceLayer: PersistenceLayer
-    @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var autosensDataProvider: Provider<AutosensData>
-    @Inject lateinit var decimalFormatter: DecimalFormatter
-    @Inject lateinit var processedDeviceStatusData: ProcessedDeviceStatusData
-
-    class IobCobOrefWorkerData(
+    class IobCobOrefData(
         val iobCobCalculator: IobCobCalculator, // cannot be injected : HistoryBrowser uses different instance
         val reason: String,
         val end: Long,
@@ -63,16 +54,14 @@ class IobCobOrefWorker @Inject internal constructor(
         val cause: Event?
     )
 
-    override suspend fun doWorkAndLog(): Result {
-        val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as IobCobOrefWorkerData?
-            ?: return Result.success(workDataOf("Error" to "missing input data"))
+    override fun run(data: IobCobOrefData, run: CalculationPipeline.Run): StageResult {
 
         val start = dateUtil.now()
         try {
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread started: ${data.reason}" }
             if (!profileFunction.isProfileValid("IobCobThread")) {
                 aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (No profile): ${data.reason}" }
-                return Result.success(workDataOf("Error" to "app still initializing"))
+                return StageResult.success("app still initializing")
             }
             //log.debug("Locking calculateSensitivityData");
             val oldestTimeWithData = data.iobCobCalculator.calculateDetectionStart(data.end, data.limitDataToOldestAvailable)
@@ -82,17 +71,19 @@ class IobCobOrefWorker @Inject internal constructor(
             val autosensDataTable = ads.autosensDataTable
             if (bucketedData == null || bucketedData.size < 3) {
                 aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (No bucketed data available): ${data.reason}" }
-                return Result.success(workDataOf("Error" to "Aborting calculation thread (No bucketed data available): ${data.reason}"))
+                return StageResult.success("Aborting calculation thread (No bucketed data available): ${data.reason}")
             }
             val prevDataTime = ads.roundUpTime(bucketedData[bucketedData.size - 3].timestamp)
             aapsLogger.debug(LTag.AUTOSENS) { "Prev data time: " + dateUtil.dateAndTimeString(prevDataTime) }
             var previous = autosensDataTable[prevDataTime]
+            val carbsTimeline = CarbsTimeline(persistenceLayer, ads.roundUpTime(bucketedData[0].timestamp))
+            val columns = DeviationColumns.calculate(ads, data.iobCobCalculator, profileFunction, config, processedDeviceStatusData, "IobCobOrefStage")
             // start from oldest to be able sub cob
             for (i in bucketedData.size - 4 downTo 0) {
                 rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.IOB_COB_OREF, 100 - (100.0 * i / bucketedData.size).toInt(), data.cause))
-                if (isStopped) {
+                if (run.isStopped) {
                     aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (trigger): ${data.reason}" }
-                    return Result.failure(workDataOf("Error" to "Aborting calculation thread (trigger): ${data.reason}"))
+                    return StageResult.failure("Aborting calculation thread (trigger): ${data.reason}")
                 }
                 // check if data already exists
                 var bgTime = bucketedData[i].timestamp
@@ -103,7 +94,7 @@ class IobCobOrefWorker @Inject internal constructor(
                     previous = existing
                     continue
                 }
-                val profile = profileFunction.getProfile(bgTime)
+                val profile = columns.profiles[i]
                 if (profile == null) {
                     aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (no profile): ${data.reason}" }
                     continue  // profile not set yet
@@ -114,21 +105,19 @@ class IobCobOrefWorker @Inject internal constructor(
                 if (previous != null) autosensData.activeCarbsList = previous.cloneCarbsList() else autosensData.activeCarbsList = ArrayList()
 
                 //console.error(bgTime , bucketed_data[i].glucose);
-                var avgDelta: Double
-                var delta: Double
                 val bg: Double = bucketedData[i].recalculated
-                if (bg < 39 || bucketedData[i + 3].recalculated < 39) {
+                val iob = columns.iob[i]
+                if (iob == null) {
                     aapsLogger.error("! value < 39")
                     continue
                 }
                 autosensData.bg = bg
-                delta = bg - bucketedData[i + 1].recalculated
-                avgDelta = (bg - bucketedData[i + 3].recalculated) / 3
-                val sens = profile.getIsfMgdlForCarbs(bgTime, "IobCobOrefWorker", config, processedDeviceStatusData)
-                val iob = data.iobCobCalculator.calculateFromTreatmentsAndTemps(bgTime, profile)
-                val bgi = -iob.activity * sens * 5
-                val deviation = delta - bgi
-                val avgDeviation = ((avgDelta - bgi) * 1000).roundToLong() / 1000.0
+                val delta = columns.delta[i]
+                val avgDelta = columns.avgDelta[i]
+                val sens = columns.sens[i]
+                val bgi = columns.bgi[i]
+                val deviation = columns.deviation[i]
+                val avgDeviation = columns.avgDeviation[i]
                 var slopeFromMaxDeviation = 0.0
                 var slopeFromMinDeviation = 999.0
 
@@ -182,7 +171,7 @@ class IobCobOrefWorker @Inject internal constructor(
                         aapsLogger.debug(LTag.AUTOSENS) { ">>>>> bucketed_data.size()=${bucketedData.size} i=$i hourAgoData=null" }
                     }
                 }
-                val recentCarbTreatments = persistenceLayer.getCarbsFromTimeToTimeExpanded(bgTime - T.mins(5).msecs(), bgTime, true)
+                val recentCarbTreatments = carbsTimeline.between(bgTime - T.mins(5).msecs(), bgTime)
                 for (recentCarbTreatment in recentCarbTreatments) {
                     autosensData.carbsFromBolus += recentCarbTreatment.amount
                     val isAAPSOrWeighted = activePlugin.activeSensitivity.isMinCarbsAbsorptionDynamic
@@ -272,6 +261,6 @@ class IobCobOrefWorker @Inject internal constructor(
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread ended: ${data.reason}" }
             profiler.log(LTag.AUTOSENS, "IobCobThread", start)
         }
-        return Result.success()
+        return StageResult.success()
     }
-}
\ No newline at end of file
+}
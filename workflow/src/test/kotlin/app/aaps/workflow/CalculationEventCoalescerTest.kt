@@ -0,0 +1,78 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.overview.Overview
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventCalculationCompleted
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class CalculationEventCoalescerTest : TestBase() {
+
+    @Mock lateinit var activePlugin: ActivePlugin
+    @Mock lateinit var overview: Overview
+    @Mock lateinit var overviewBus: RxBus
+
+    private lateinit var sut: CalculationEventCoalescer
+
+    @BeforeEach
+    fun setup() {
+        whenever(activePlugin.activeOverview).thenReturn(overview)
+        whenever(overview.overviewBus).thenReturn(overviewBus)
+        sut = CalculationEventCoalescer(aapsLogger, rxBus, activePlugin)
+    }
+
+    @Test
+    fun `intermediate passes are merged into one event on overview bus and rxBus`() {
+        val rxBusEvents = rxBus.toObservable(EventCalculationCompleted::class.java).test()
+
+        sut.collect(CalculationWorkflow.MAIN_CALCULATION, listOf(CalculationWorkflow.ChangedPart.BG))
+        sut.collect(CalculationWorkflow.MAIN_CALCULATION, listOf(CalculationWorkflow.ChangedPart.TREATMENTS, CalculationWorkflow.ChangedPart.BASAL))
+        verify(overviewBus, never()).send(any())
+
+        sut.publish(CalculationWorkflow.MAIN_CALCULATION, listOf(CalculationWorkflow.ChangedPart.PREDICTIONS))
+
+        val captor = argumentCaptor<EventCalculationCompleted>()
+        verify(overviewBus, times(1)).send(captor.capture())
+        // widget and wear listen on rxBus
+        rxBusEvents.assertValue(captor.firstValue)
+        val event = captor.firstValue
+        assertThat(event.changed).containsExactly(
+            CalculationWorkflow.ChangedPart.BG, CalculationWorkflow.ChangedPart.TREATMENTS,
+            CalculationWorkflow.ChangedPart.BASAL, CalculationWorkflow.ChangedPart.PREDICTIONS
+        )
+        assertThat(event.hasChanged(CalculationWorkflow.ChangedPart.IOB_COB)).isFalse()
+        assertThat(event.suppressedPasses).isEqualTo(2)
+        assertThat(sut.suppressedPasses).isEqualTo(2)
+        assertThat(sut.publishedEvents).isEqualTo(1)
+    }
+
+    @Test
+    fun `jobs are coalesced separately and non main jobs go to rxBus only`() {
+        val rxBusEvents = rxBus.toObservable(EventCalculationCompleted::class.java).test()
+
+        sut.collect(CalculationWorkflow.HISTORY_CALCULATION, listOf(CalculationWorkflow.ChangedPart.BG))
+        sut.collect(CalculationWorkflow.MAIN_CALCULATION, listOf(CalculationWorkflow.ChangedPart.IOB_COB))
+        sut.publish(CalculationWorkflow.HISTORY_CALCULATION, emptyList())
+
+        verify(overviewBus, never()).send(any())
+        rxBusEvents.assertValueCount(1)
+        assertThat(rxBusEvents.values()[0].job).isEqualTo(CalculationWorkflow.HISTORY_CALCULATION)
+        assertThat(rxBusEvents.values()[0].changed).containsExactly(CalculationWorkflow.ChangedPart.BG)
+
+        // pending state is cleared after publishing
+        val second = sut.publish(CalculationWorkflow.HISTORY_CALCULATION, listOf(CalculationWorkflow.ChangedPart.TREATMENTS))
+        assertThat(second.changed).containsExactly(CalculationWorkflow.ChangedPart.TREATMENTS)
+        assertThat(second.suppressedPasses).isEqualTo(0)
+    }
+}
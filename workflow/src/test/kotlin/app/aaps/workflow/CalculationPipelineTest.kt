@@ -0,0 +1,142 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class CalculationPipelineTest : TestBase() {
+
+    @Mock lateinit var fabricPrivacy: FabricPrivacy
+    @Mock lateinit var profiler: Profiler
+
+    private lateinit var sut: CalculationPipeline
+
+    private class CountingStage(var key: Any?, val result: StageResult = StageResult.success()) : CalculationStage<Unit> {
+
+        var executions = 0
+        override fun run(data: Unit, run: CalculationPipeline.Run): StageResult {
+            executions++
+            return result
+        }
+
+        override fun inputs(data: Unit): Any? = key
+    }
+
+    @BeforeEach
+    fun setup() {
+        sut = CalculationPipeline(aapsLogger, fabricPrivacy, profiler)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        sut.shutdown()
+    }
+
+    @Test
+    fun `job threads are daemons stopped by shutdown`() {
+        var thread: Thread? = null
+        val step = CalculationPipeline.Step("thread", { null }) {
+            thread = Thread.currentThread()
+            StageResult.success()
+        }
+        sut.submit("job", "test", replace = false, listOf(step))
+        sut.await("job")
+        assertThat(thread!!.isDaemon).isTrue()
+
+        sut.shutdown()
+        thread!!.join(5000)
+        assertThat(thread!!.isAlive).isFalse()
+
+        // new thread is started after shutdown
+        sut.submit("job", "test", replace = false, listOf(step))
+        sut.await("job")
+        assertThat(thread!!.isAlive).isTrue()
+    }
+
+    @Test
+    fun `stage with unchanged inputs is skipped`() {
+        val stage = CountingStage("A")
+        val alwaysRun = CountingStage(null)
+        repeat(3) { sut.submit("job", "test", replace = false, listOf(sut.step(stage, Unit, "keyed"), sut.step(alwaysRun, Unit, "always"))) }
+        sut.await("job")
+
+        assertThat(stage.executions).isEqualTo(1)
+        assertThat(alwaysRun.executions).isEqualTo(3)
+
+        stage.key = "B"
+        sut.submit("job", "test", replace = false, listOf(sut.step(stage, Unit, "keyed")))
+        sut.await("job")
+        assertThat(stage.executions).isEqualTo(2)
+
+        sut.invalidate("job")
+        sut.submit("job", "test", replace = false, listOf(sut.step(stage, Unit, "keyed")))
+        sut.await("job")
+        assertThat(stage.executions).isEqualTo(3)
+
+        val statistics = sut.statistics().first { it.name == "keyed" }
+        assertThat(statistics.executed).isEqualTo(3)
+        assertThat(statistics.skipped).isEqualTo(2)
+    }
+
+    @Test
+    fun `failure stops following stages`() {
+        val failing = CountingStage(null, StageResult.failure("error"))
+        val next = CountingStage(null)
+        sut.submit("job", "test", replace = false, listOf(sut.step(failing, Unit), sut.step(next, Unit)))
+        sut.await("job")
+
+        assertThat(failing.executions).isEqualTo(1)
+        assertThat(next.executions).isEqualTo(0)
+    }
+
+    @Test
+    fun `superseded run is cancelled`() {
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val blocking = CalculationPipeline.Step("blocking", { null }) {
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            StageResult.success()
+        }
+        val afterBlocking = CountingStage(null)
+        val newRun = CountingStage(null)
+
+        val first = sut.submit("job", "first", replace = true, listOf(blocking, sut.step(afterBlocking, Unit)))
+        started.await(5, TimeUnit.SECONDS)
+        val second = sut.submit("job", "second", replace = true, listOf(sut.step(newRun, Unit)))
+        assertThat(first.isStopped).isTrue()
+        assertThat(second.isStopped).isFalse()
+        release.countDown()
+        sut.await("job")
+
+        assertThat(newRun.executions).isEqualTo(1)
+        assertThat(afterBlocking.executions).isEqualTo(0)
+    }
+
+    @Test
+    fun `runs and stages are traced only while tracing is enabled`() {
+        val stage = CountingStage(null)
+        sut.submit("job", "test", replace = false, listOf(sut.step(stage, Unit, "stage")))
+        sut.await("job")
+        verify(profiler, never()).begin(any())
+
+        whenever(profiler.isTracing).thenReturn(true)
+        whenever(profiler.begin(any())).thenReturn(Profiler.Span { })
+        sut.submit("job", "test", replace = false, listOf(sut.step(stage, Unit, "stage")))
+        sut.await("job")
+        verify(profiler).begin("run:job")
+        verify(profiler).begin("stage:stage")
+        assertThat(stage.executions).isEqualTo(2)
+    }
+}
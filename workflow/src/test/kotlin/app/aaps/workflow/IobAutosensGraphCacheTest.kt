@@ -0,0 +1,87 @@
+package app.aaps.workflow
+
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+class IobAutosensGraphCacheTest : TestBase() {
+
+    private lateinit var sut: IobAutosensGraphCache
+    private val owner = Any()
+    private val step = IobAutosensGraphBuffer.STEP
+    private val fromTime = 1_700_000_000_000L
+
+    @BeforeEach
+    fun setup() {
+        sut = IobAutosensGraphCache()
+    }
+
+    private fun fill(buffer: IobAutosensGraphBuffer, count: Int) {
+        repeat(count) {
+            val index = buffer.add()
+            buffer.iob[index] = index.toDouble()
+            buffer.flags[index] = IobAutosensGraphBuffer.FLAG_PROFILE
+        }
+    }
+
+    @Test
+    fun `only invalidated tail is dropped`() {
+        fill(sut.acquire("job", owner, fromTime), 300)
+
+        sut.invalidate("job", fromTime + 290 * step + 1)
+        sut.invalidate("job", fromTime + 295 * step)
+        val buffer = sut.acquire("job", owner, fromTime)
+        // earliest invalidation wins, point at 290 is kept because it's older
+        assertThat(buffer.size).isEqualTo(291)
+        assertThat(buffer.end()).isEqualTo(fromTime + 291 * step)
+        assertThat(buffer.iob[290]).isEqualTo(290.0)
+
+        // invalidation is consumed
+        assertThat(sut.acquire("job", owner, fromTime).size).isEqualTo(291)
+    }
+
+    @Test
+    fun `volatile points are recalculated`() {
+        val buffer = sut.acquire("job", owner, fromTime)
+        fill(buffer, 100)
+        buffer.volatileFrom = fromTime + 90 * step
+
+        assertThat(sut.acquire("job", owner, fromTime).size).isEqualTo(90)
+    }
+
+    @Test
+    fun `moving range keeps overlapping points`() {
+        fill(sut.acquire("job", owner, fromTime), 100)
+
+        val buffer = sut.acquire("job", owner, fromTime + 12 * step)
+        assertThat(buffer.start).isEqualTo(fromTime + 12 * step)
+        assertThat(buffer.size).isEqualTo(88)
+        assertThat(buffer.iob[0]).isEqualTo(12.0)
+        assertThat(buffer.has(0, IobAutosensGraphBuffer.FLAG_PROFILE)).isTrue()
+
+        // extending range to the past or off grid needs full recalculation
+        assertThat(sut.acquire("job", owner, fromTime).size).isEqualTo(0)
+        fill(sut.acquire("job", owner, fromTime), 100)
+        assertThat(sut.acquire("job", owner, fromTime + 1000).size).isEqualTo(0)
+    }
+
+    @Test
+    fun `buffers are separated by job and owner`() {
+        fill(sut.acquire("job", owner, fromTime), 50)
+        sut.invalidate("other", 0)
+
+        assertThat(sut.acquire("other", owner, fromTime).size).isEqualTo(0)
+        assertThat(sut.acquire("job", owner, fromTime).size).isEqualTo(50)
+        assertThat(sut.acquire("job", Any(), fromTime).size).isEqualTo(0)
+    }
+
+    @Test
+    fun `buffer grows beyond initial capacity`() {
+        val buffer = sut.acquire("job", owner, fromTime)
+        fill(buffer, 1000)
+        assertThat(buffer.size).isEqualTo(1000)
+        assertThat(buffer.iob[999]).isEqualTo(999.0)
+        assertThat(buffer.time(999)).isEqualTo(fromTime + 999 * step)
+    }
+}
@@ -0,0 +1,72 @@
+package app.aaps.workflow.iob
+
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class CarbsTimelineTest : TestBase() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private val start = 1_700_000_000_000L
+    private val step = T.mins(5).msecs()
+
+    // carbs at bucket boundaries, between buckets and two entries at the same time
+    private val carbs = listOf(
+        CA(timestamp = start + step, amount = 10.0, duration = 0),
+        CA(timestamp = start + 7 * step + 1000, amount = 20.0, duration = 0),
+        CA(timestamp = start + 7 * step + 1000, amount = -5.0, duration = 0),
+        CA(timestamp = start + 30 * step, amount = 40.0, duration = 0),
+        CA(timestamp = start + 100 * step, amount = 15.0, duration = 0)
+    )
+
+    @BeforeEach
+    fun setup() {
+        whenever(persistenceLayer.getCarbsFromTimeToTimeExpanded(any(), any(), eq(true))).thenAnswer { invocation ->
+            val from = invocation.getArgument<Long>(0)
+            val to = invocation.getArgument<Long>(1)
+            carbs.filter { it.timestamp in from..to }.sortedBy { it.timestamp }
+        }
+    }
+
+    @Test
+    fun `windows match database query with one read`() {
+        val end = start + 60 * step
+        val carbsTimeline = CarbsTimeline(persistenceLayer, end)
+        // first buckets already calculated, start at 3rd
+        for (bucket in 3..60) {
+            val bgTime = start + bucket * step
+            assertThat(carbsTimeline.between(bgTime - step, bgTime)).isEqualTo(carbs.filter { it.timestamp in bgTime - step..bgTime })
+        }
+        verify(persistenceLayer, times(1)).getCarbsFromTimeToTimeExpanded(any(), any(), any())
+        verify(persistenceLayer).getCarbsFromTimeToTimeExpanded(start + 2 * step, end, true)
+    }
+
+    @Test
+    fun `boundary carb belongs to both neighbour windows`() {
+        val carbsTimeline = CarbsTimeline(persistenceLayer, start + 60 * step)
+        assertThat(carbsTimeline.between(start + 29 * step, start + 30 * step).map { it.amount }).containsExactly(40.0)
+        assertThat(carbsTimeline.between(start + 30 * step, start + 31 * step).map { it.amount }).containsExactly(40.0)
+    }
+
+    @Test
+    fun `windows outside loaded span are read from database`() {
+        val carbsTimeline = CarbsTimeline(persistenceLayer, start + 60 * step)
+        assertThat(carbsTimeline.between(start + 29 * step, start + 30 * step)).hasSize(1)
+        // older window
+        assertThat(carbsTimeline.between(start, start + step).map { it.amount }).containsExactly(10.0)
+        // newer than last bucket
+        assertThat(carbsTimeline.between(start + 99 * step, start + 100 * step).map { it.amount }).containsExactly(15.0)
+        verify(persistenceLayer, times(3)).getCarbsFromTimeToTimeExpanded(any(), any(), any())
+    }
+}
@@ -0,0 +1,109 @@
+package app.aaps.workflow.iob
+
+import androidx.collection.LongSparseArray
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.configuration.Config
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.nsclient.ProcessedDeviceStatusData
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import kotlin.math.roundToLong
+import kotlin.math.sin
+
+class DeviationColumnsTest : TestBase() {
+
+    @Mock lateinit var ads: AutosensDataStore
+    @Mock lateinit var iobCobCalculator: IobCobCalculator
+    @Mock lateinit var profileFunction: ProfileFunction
+    @Mock lateinit var profile: Profile
+    @Mock lateinit var config: Config
+    @Mock lateinit var processedDeviceStatusData: ProcessedDeviceStatusData
+    @Mock lateinit var autosensData: AutosensData
+
+    private val start = 1_700_000_000_000L
+    private val step = T.mins(5).msecs()
+
+    // 48 hours, newest first as bucketed data, with sensor errors
+    private val bucketedData = MutableList(576) { i ->
+        val n = 575 - i
+        InMemoryGlucoseValue(timestamp = start + n * step + 7_000, value = if (n % 97 == 0) 38.0 else 140.0 + 50 * sin(n / 15.0))
+    }
+    private val autosensDataTable = LongSparseArray<AutosensData>()
+
+    private fun roundUp(time: Long) = if (time % 60000 == 0L) time else (time / 60000 + 1) * 60000
+    private fun iob(time: Long) = IobTotal(time).also { it.activity = 0.01 + 0.005 * sin(time / 1e7); it.iob = 1.0 }
+
+    @BeforeEach
+    fun setup() {
+        // first 12 hours already calculated
+        for (i in bucketedData.size - 4 downTo bucketedData.size - 144) autosensDataTable.put(roundUp(bucketedData[i].timestamp), autosensData)
+        whenever(ads.bucketedData).thenReturn(bucketedData)
+        whenever(ads.autosensDataTable).thenReturn(autosensDataTable)
+        whenever(ads.roundUpTime(any())).thenAnswer { roundUp(it.getArgument(0)) }
+        whenever(profileFunction.getProfile(any())).thenAnswer { if (it.getArgument<Long>(0) < start + T.hours(13).msecs()) null else profile }
+        whenever(profile.getIsfMgdlForCarbs(any(), any(), any(), any())).thenAnswer { 40.0 + (it.getArgument<Long>(0) / 3_600_000 % 24) }
+        whenever(iobCobCalculator.calculateFromTreatmentsAndTemps(any<Long>(), any())).thenAnswer { iob(it.getArgument(0)) }
+        whenever(iobCobCalculator.calculateFromTreatmentsAndTemps(any<LongArray>(), any())).thenAnswer { invocation ->
+            val times = invocation.getArgument<LongArray>(0)
+            Array(times.size) { iob(times[it]) }
+        }
+    }
+
+    @Test
+    fun `columns equal per-bucket calculation`() {
+        val columns = DeviationColumns.calculate(ads, iobCobCalculator, profileFunction, config, processedDeviceStatusData, "test")
+        var calculated = 0
+        for (i in bucketedData.size - 4 downTo 0) {
+            val bgTime = roundUp(bucketedData[i].timestamp)
+            if (autosensDataTable[bgTime] != null) {
+                assertThat(columns.profiles[i]).isNull()
+                continue
+            }
+            // former calculation in IobCobOref1Stage loop
+            val profile = profileFunction.getProfile(bgTime)
+            if (profile == null) {
+                assertThat(columns.profiles[i]).isNull()
+                continue
+            }
+            assertThat(columns.profiles[i]).isSameInstanceAs(profile)
+            val bg = bucketedData[i].recalculated
+            if (bg < 39 || bucketedData[i + 3].recalculated < 39) {
+                assertThat(columns.iob[i]).isNull()
+                continue
+            }
+            val delta = bg - bucketedData[i + 1].recalculated
+            val avgDelta = (bg - bucketedData[i + 3].recalculated) / 3
+            val sens = profile.getIsfMgdlForCarbs(bgTime, "test", config, processedDeviceStatusData)
+            val iob = iobCobCalculator.calculateFromTreatmentsAndTemps(bgTime, profile)
+            val bgi = -iob.activity * sens * 5
+            val deviation = delta - bgi
+            val avgDeviation = ((avgDelta - bgi) * 1000).roundToLong() / 1000.0
+
+            assertThat(columns.iob[i]?.activity).isEqualTo(iob.activity)
+            assertThat(listOf(columns.delta[i], columns.avgDelta[i], columns.sens[i], columns.bgi[i], columns.deviation[i], columns.avgDeviation[i]))
+                .isEqualTo(listOf(delta, avgDelta, sens, bgi, deviation, avgDeviation))
+            calculated++
+        }
+        assertThat(calculated).isGreaterThan(400)
+    }
+
+    @Test
+    fun `iob is calculated by one batch call`() {
+        DeviationColumns.calculate(ads, iobCobCalculator, profileFunction, config, processedDeviceStatusData, "test")
+        verify(iobCobCalculator).calculateFromTreatmentsAndTemps(any<LongArray>(), any())
+        verify(iobCobCalculator, never()).calculateFromTreatmentsAndTemps(any<Long>(), any())
+    }
+}